@@ -0,0 +1,50 @@
+package com.carol.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 阻塞调用执行配置
+ * DashScope SDK（TTS、ASR）、OSS上传等阻塞调用在共享的阻塞调用执行器中运行：
+ * spring.threads.virtual.enabled=true 且运行在Java 21及以上时每个任务一个虚拟线程，否则使用按需创建的平台线程；
+ * 两种模式下上游并发都由信号量限制，而不是由线程数间接限制
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.blocking-execution")
+public class BlockingExecutionConfig {
+
+    /**
+     * 关闭时等待执行中任务结束的时间 (秒)
+     */
+    private int terminationTimeoutSeconds = 5;
+
+    /**
+     * 上游并发限制
+     */
+    private Upstream upstream = new Upstream();
+
+    @Data
+    public static class Upstream {
+        /**
+         * 同时进行的DashScope TTS调用数（流式合成、单段合成）
+         */
+        private int ttsPermits = 16;
+
+        /**
+         * 同时进行的DashScope ASR识别数（流式识别会话在会话期间占用）
+         */
+        private int asrPermits = 50;
+
+        /**
+         * 同时进行的OSS上传数
+         */
+        private int ossPermits = 16;
+
+        /**
+         * 等待许可的最长时间 (毫秒)，超时后返回服务繁忙
+         */
+        private long acquireTimeoutMs = 5000;
+    }
+}
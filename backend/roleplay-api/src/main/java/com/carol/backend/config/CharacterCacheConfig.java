@@ -0,0 +1,56 @@
+package com.carol.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 角色本地缓存配置
+ * 角色实体和列表、搜索、热门等派生视图缓存在进程内，角色变更时本节点立即失效，
+ * 并通过Redis发布订阅通知其他节点
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.character-cache")
+public class CharacterCacheConfig {
+
+    /**
+     * 是否启用角色本地缓存
+     */
+    private boolean enabled = true;
+
+    /**
+     * 角色实体缓存条数上限，超过后淘汰最久未访问的条目
+     */
+    private int maxEntries = 1000;
+
+    /**
+     * 角色实体缓存过期时间 (秒)
+     */
+    private long ttlSeconds = 300;
+
+    /**
+     * 派生视图（全部列表、搜索、专业领域、热门）缓存条数上限
+     */
+    private int viewMaxEntries = 200;
+
+    /**
+     * 派生视图缓存过期时间 (秒)
+     */
+    private long viewTtlSeconds = 60;
+
+    /**
+     * 角色提示词缓存条数上限，按（角色ID, 更新时间, 是否TTS）缓存
+     */
+    private int promptMaxEntries = 500;
+
+    /**
+     * 角色提示词缓存过期时间 (秒)，角色更新后缓存键随更新时间变化，无需主动失效
+     */
+    private long promptTtlSeconds = 3600;
+
+    /**
+     * 跨节点缓存失效通知的Redis频道
+     */
+    private String invalidationChannel = "character:cache:invalidate";
+}
@@ -1,80 +1,241 @@
 package com.carol.backend.config;
 
-import com.alibaba.cloud.ai.memory.redis.RedissonRedisChatMemoryRepository;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.context.annotation.Bean;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 
 /**
  * 会话记忆配置类
- * 配置Redis作为会话记忆存储
- * 
+ * 会话消息统一保存在 chat:msg:{conversationId}:*（按消息ID存储），
+ * 由 CustomMessageStorageService 作为 Spring AI 的 ChatMemoryRepository 提供给对话链路
+ *
  * @author carol
  */
+@Data
 @Configuration
+@ConfigurationProperties(prefix = "app.chat.memory")
 public class ChatMemoryConfig {
 
-    @Value("${spring.data.redis.host:localhost}")
-    private String redisHost;
-    
-    @Value("${spring.data.redis.port:6379}")
-    private int redisPort;
-    
-    @Value("${spring.data.redis.password:}")
-    private String redisPassword;
-    
-    @Value("${spring.data.redis.timeout:5000ms}")
-    private String redisTimeout;
-    
-    @Value("${app.chat.memory.max-messages:100}")
-    private int maxMessages;
+    /**
+     * 每轮对话从会话存储读取的最大历史消息数，实际注入提示词的消息由 window 的token预算决定
+     */
+    private int maxMessages = 100;
 
     /**
-     * 配置Redis会话记忆存储库
+     * 按token预算裁剪的记忆窗口配置
      */
-    @Bean
-    public RedissonRedisChatMemoryRepository redisChatMemoryRepository() {
-        try {
-            // 尝试使用静态方法创建
-            if (redisPassword != null && !redisPassword.trim().isEmpty()) {
-                return RedissonRedisChatMemoryRepository.builder()
-                        .host(redisHost)
-                        .port(redisPort)
-                        .password(redisPassword)
-                        .timeout(parseTimeout(redisTimeout))
-                        .build();
-            } else {
-                return RedissonRedisChatMemoryRepository.builder()
-                        .host(redisHost)
-                        .port(redisPort)
-                        .timeout(parseTimeout(redisTimeout))
-                        .build();
-            }
-        } catch (Exception e) {
-            // 如果builder方法不存在，尝试使用构造函数
-            throw new RuntimeException("无法创建RedissonRedisChatMemoryRepository: " + e.getMessage(), e);
-        }
-    }
-    
+    private Window window = new Window();
+
+    /**
+     * 旧版会话记忆迁移配置
+     */
+    private LegacyMigration legacyMigration = new LegacyMigration();
+
     /**
-     * 配置MessageWindowChatMemory Bean
+     * 聊天历史分页配置
      */
-    @Bean
-    public MessageWindowChatMemory messageWindowChatMemory(RedissonRedisChatMemoryRepository redisChatMemoryRepository) {
-        return MessageWindowChatMemory.builder()
-                .chatMemoryRepository(redisChatMemoryRepository)
-                .maxMessages(maxMessages > 0 ? maxMessages : 100)
-                .build();
+    private History history = new History();
+
+    /**
+     * 会话消息存储编码与冷压缩配置
+     */
+    private Storage storage = new Storage();
+
+    /**
+     * 会话分层存储配置（Redis热数据 + MySQL归档）
+     */
+    private Tiering tiering = new Tiering();
+
+    /**
+     * 会话最近消息的进程内近端缓存配置
+     */
+    private NearCache nearCache = new NearCache();
+
+    @Data
+    public static class Window {
+        /**
+         * 是否启用token预算窗口；关闭时注入最近 maxMessages 条消息
+         */
+        private boolean enabled = true;
+
+        /**
+         * 原文保留的最近消息的token预算
+         */
+        private int recentTokenBudget = 4000;
+
+        /**
+         * 至少原文保留的最近消息数（即使超出预算）
+         */
+        private int minRecentMessages = 2;
+
+        /**
+         * 是否将移出窗口的消息异步合并为滚动摘要
+         */
+        private boolean summaryEnabled = true;
+
+        /**
+         * 移出窗口且尚未摘要的消息达到该数量时才生成摘要，减少摘要调用次数
+         */
+        private int summaryTriggerMessages = 6;
+
+        /**
+         * 摘要最大字数
+         */
+        private int summaryMaxChars = 600;
+
+        /**
+         * 摘要租约时间 (毫秒)，同一会话在集群内同时只有一个节点生成摘要；
+         * 生成期间每隔三分之一租约时间续约一次，节点异常退出时租约到期自动释放
+         */
+        private long summaryLeaseMs = 60000;
+
+        /**
+         * 生成摘要使用的模型，为空时使用默认对话模型
+         */
+        private String summaryModel;
+
+        /**
+         * 摘要线程池核心线程数
+         */
+        private int corePoolSize = 2;
+
+        /**
+         * 摘要线程池最大线程数
+         */
+        private int maxPoolSize = 4;
+
+        /**
+         * 摘要线程池队列容量，队列满时跳过本次摘要，下一轮对话结束后重试
+         */
+        private int queueCapacity = 100;
     }
-    
+
+    @Data
+    public static class History {
+        /**
+         * 未指定 limit 时每页返回的消息数
+         */
+        private int defaultPageSize = 50;
+
+        /**
+         * 每页最大消息数
+         */
+        private int maxPageSize = 200;
+    }
+
+    @Data
+    public static class Storage {
+        /**
+         * 新写入消息的编码格式；读取时按首字节识别格式，已有的JSON消息仍可读取
+         */
+        private CodecFormat codec = CodecFormat.BINARY;
+
+        /**
+         * 消息内容（UTF-8）达到该字节数时压缩，0表示不压缩
+         */
+        private int compressionThresholdBytes = 256;
+
+        /**
+         * 是否将空闲会话压缩为单个冷存储blob，再次访问时自动展开
+         */
+        private boolean coldCompactionEnabled = true;
+
+        /**
+         * 会话最后一次写入后空闲该时长 (小时) 才压缩
+         */
+        private long coldIdleHours = 24;
+
+        /**
+         * 冷压缩扫描间隔 (毫秒)
+         */
+        private long coldCompactionIntervalMs = 3600000;
+
+        /**
+         * 冷压缩 SCAN 每批返回的键数量
+         */
+        private int coldScanBatchSize = 200;
+    }
+
+    @Data
+    public static class Tiering {
+        /**
+         * 是否将超出热数据上限的旧消息归档到MySQL（conversation_messages）
+         */
+        private boolean archiveEnabled = true;
+
+        /**
+         * 每个会话在Redis中保留的最近消息数，应不小于 maxMessages，避免构建提示词时读取MySQL
+         */
+        private int hotMessageCap = 500;
+
+        /**
+         * 每个会话每批归档的消息数（一次批量INSERT）
+         */
+        private int archiveBatchSize = 200;
+
+        /**
+         * 每轮最多处理的会话数
+         */
+        private int archiveConversationsPerRun = 200;
+
+        /**
+         * 归档扫描间隔 (毫秒)
+         */
+        private long archiveIntervalMs = 600000;
+    }
+
+    @Data
+    public static class NearCache {
+        /**
+         * 是否在进程内缓存活跃会话的最近消息，构建提示词和历史首页优先从本地读取
+         */
+        private boolean enabled = true;
+
+        /**
+         * 每个会话缓存的最近消息数，应不小于 maxMessages 和历史分页大小 + 1
+         */
+        private int windowMessages = 120;
+
+        /**
+         * 缓存估算占用的堆内存上限 (字节)，超出时淘汰最久未访问的会话
+         */
+        private long maxBytes = 32 * 1024 * 1024;
+
+        /**
+         * 窗口过期时间 (秒)，失效通知丢失时的兜底
+         */
+        private long ttlSeconds = 300;
+
+        /**
+         * 跨节点失效通知的Redis频道
+         */
+        private String invalidationChannel = "chat:msg:invalidate";
+    }
+
     /**
-     * 解析超时时间配置（支持ms后缀）
+     * 消息编码格式
      */
-    private int parseTimeout(String timeoutStr) {
-        if (timeoutStr.endsWith("ms")) {
-            return Integer.parseInt(timeoutStr.substring(0, timeoutStr.length() - 2));
-        }
-        return Integer.parseInt(timeoutStr);
+    public enum CodecFormat {
+        /**
+         * Jackson JSON（旧格式，可读性好）
+         */
+        JSON,
+        /**
+         * 紧凑二进制格式，时间字段只存一份，长内容压缩
+         */
+        BINARY
+    }
+
+    @Data
+    public static class LegacyMigration {
+        /**
+         * 启动时是否在后台迁移旧版 spring_ai_alibaba_chat_memory:* 数据
+         */
+        private boolean enabled = true;
+
+        /**
+         * SCAN 每批返回的键数量
+         */
+        private int scanBatchSize = 200;
     }
 }
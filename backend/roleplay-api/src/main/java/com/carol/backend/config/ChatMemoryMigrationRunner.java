@@ -0,0 +1,89 @@
+package com.carol.backend.config;
+
+import com.carol.backend.service.CustomMessageStorageService;
+import com.carol.backend.service.ICustomMessageStorageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * 旧版会话记忆迁移器
+ * 启动后在后台扫描旧版列表存储 chat:messages:* 和 spring_ai_alibaba_chat_memory:*，
+ * 迁移到按消息ID存储的 chat:msg:{conversationId}:*，未被扫描到的会话仍会在首次读取时迁移
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatMemoryMigrationRunner implements ApplicationRunner {
+
+    private final ChatMemoryConfig chatMemoryConfig;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ICustomMessageStorageService customMessageStorageService;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        if (!chatMemoryConfig.getLegacyMigration().isEnabled()) {
+            log.info("[ChatMemoryMigration] 旧版会话记忆迁移已关闭");
+            return;
+        }
+
+        Thread migrationThread = new Thread(this::migrateAll, "Chat-Memory-Migration");
+        migrationThread.setDaemon(true);
+        migrationThread.start();
+    }
+
+    private void migrateAll() {
+        // 先收集键再迁移，避免边扫描边删除导致游标遗漏
+        Set<String> conversationIds = new LinkedHashSet<>();
+        try {
+            scanConversationIds(CustomMessageStorageService.LIST_KEY_PREFIX, conversationIds);
+            scanConversationIds(CustomMessageStorageService.LEGACY_MEMORY_KEY_PREFIX, conversationIds);
+        } catch (Exception e) {
+            log.error("[ChatMemoryMigration] 扫描旧版会话记忆失败: error={}", e.getMessage(), e);
+            return;
+        }
+
+        if (conversationIds.isEmpty()) {
+            log.info("[ChatMemoryMigration] 没有需要迁移的旧版会话记忆");
+            return;
+        }
+
+        int migratedConversations = 0;
+        int migratedMessages = 0;
+        for (String conversationId : conversationIds) {
+            try {
+                int count = customMessageStorageService.migrateLegacyConversation(conversationId);
+                if (count > 0) {
+                    migratedConversations++;
+                    migratedMessages += count;
+                }
+            } catch (Exception e) {
+                log.warn("[ChatMemoryMigration] 迁移会话失败，将在首次读取时重试: conversationId={}, error={}",
+                        conversationId, e.getMessage());
+            }
+        }
+
+        log.info("[ChatMemoryMigration] 旧版会话记忆迁移完成: scanned={}, migratedConversations={}, migratedMessages={}",
+                conversationIds.size(), migratedConversations, migratedMessages);
+    }
+
+    private void scanConversationIds(String prefix, Set<String> conversationIds) {
+        ScanOptions options = ScanOptions.scanOptions()
+                .match(prefix + "*")
+                .count(chatMemoryConfig.getLegacyMigration().getScanBatchSize())
+                .build();
+        try (Cursor<String> cursor = stringRedisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                conversationIds.add(cursor.next().substring(prefix.length()));
+            }
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.carol.backend.config;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 聊天链路配置
+ * 集中管理一次聊天请求各阶段的并发和超时参数
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.chat.pipeline")
+public class ChatPipelineConfig {
+
+    /**
+     * 提示词组装阶段配置
+     */
+    private PromptAssembly promptAssembly = new PromptAssembly();
+
+    /**
+     * 流式回复的逐句TTS流水线配置
+     */
+    private TtsPipeline ttsPipeline = new TtsPipeline();
+
+    /**
+     * 流式响应SSE编码配置
+     */
+    private SseEncoder sseEncoder = new SseEncoder();
+
+    /**
+     * 客户端断开后的取消策略
+     */
+    private Cancellation cancellation = new Cancellation();
+
+    /**
+     * 角色回复语义缓存配置
+     */
+    private SemanticCache semanticCache = new SemanticCache();
+
+    /**
+     * 出站LLM调用准入调度配置
+     */
+    private LlmAdmission llmAdmission = new LlmAdmission();
+
+    /**
+     * 分阶段耗时指标配置
+     */
+    private LatencyMetrics latencyMetrics = new LatencyMetrics();
+
+    @Data
+    public static class PromptAssembly {
+        /**
+         * 角色查询超时时间 (毫秒)
+         */
+        private long characterTimeoutMs = 3000;
+
+        /**
+         * 角色可用性检查超时时间 (毫秒)
+         */
+        private long availabilityTimeoutMs = 3000;
+
+        /**
+         * RAG知识检索超时时间 (毫秒)，超时后降级为基础角色提示词
+         */
+        private long ragTimeoutMs = 5000;
+
+        /**
+         * 历史消息加载超时时间 (毫秒)，超时后本次请求失败，不在丢失上下文的情况下回复
+         */
+        private long historyLoadTimeoutMs = 3000;
+
+        /**
+         * 组装线程池核心线程数
+         */
+        private int corePoolSize = 8;
+
+        /**
+         * 组装线程池最大线程数
+         */
+        private int maxPoolSize = 32;
+
+        /**
+         * 组装线程池队列容量
+         */
+        private int queueCapacity = 200;
+    }
+
+    @Data
+    public static class TtsPipeline {
+        /**
+         * 句子最小长度（字符），过短的句子与下一句合并后再合成
+         */
+        private int minSentenceLength = 8;
+
+        /**
+         * 句子最大长度（字符），超过后在逗号处提前切分
+         */
+        private int maxSentenceLength = 120;
+
+        /**
+         * 同时进行合成的句子数上限，音频事件仍按句子顺序输出
+         */
+        private int maxConcurrency = 3;
+
+        /**
+         * 单句合成超时时间 (毫秒)，超时的句子跳过，不影响后续句子
+         */
+        private long segmentTimeoutMs = 15000;
+
+        /**
+         * 合成线程池核心线程数
+         */
+        private int corePoolSize = 4;
+
+        /**
+         * 合成线程池最大线程数
+         */
+        private int maxPoolSize = 16;
+
+        /**
+         * 合成线程池队列容量
+         */
+        private int queueCapacity = 100;
+    }
+
+    @Data
+    public static class SseEncoder {
+        /**
+         * token合并窗口 (毫秒)，窗口内到达的token合并为一个SSE帧，0表示不按时间合并
+         */
+        private long coalesceWindowMs = 40;
+
+        /**
+         * 单个token帧的最大字节数（UTF-8），达到后立即输出
+         */
+        private int maxFrameBytes = 2048;
+
+        /**
+         * 单个合并窗口内最多缓冲的事件数，达到后不等窗口结束立即输出
+         */
+        private int maxBatchEvents = 64;
+
+        /**
+         * 心跳间隔 (毫秒)，TTS收尾等无数据输出的阶段也能及时发现客户端断开，0表示关闭
+         */
+        private long heartbeatIntervalMs = 5000;
+    }
+
+    @Data
+    public static class Cancellation {
+        /**
+         * 客户端断开时已生成的部分回复如何处理
+         */
+        private PartialReplyPolicy partialReplyPolicy = PartialReplyPolicy.SAVE;
+    }
+
+    @Data
+    public static class SemanticCache {
+        /**
+         * 是否启用语义缓存（默认关闭）；只对无历史的首轮提问生效
+         */
+        private boolean enabled = false;
+
+        /**
+         * 命中所需的最低相似度
+         */
+        private double similarityThreshold = 0.92;
+
+        /**
+         * 缓存条目过期时间 (秒)
+         */
+        private long ttlSeconds = 86400;
+
+        /**
+         * 每个角色最多缓存的回复数，超过后淘汰最久未命中的条目
+         */
+        private int maxEntriesPerCharacter = 500;
+
+        /**
+         * 缓存查询超时时间 (毫秒)，超时按未命中处理
+         */
+        private long lookupTimeoutMs = 800;
+
+        /**
+         * 可缓存的最大提问长度（字符），过长的提问通常带有个人上下文
+         */
+        private int maxQuestionLength = 200;
+
+        /**
+         * 可缓存的最大回复长度（字符）
+         */
+        private int maxAnswerLength = 2000;
+
+        /**
+         * 命中后回放时每个token事件的字符数
+         */
+        private int replayChunkChars = 16;
+
+        /**
+         * 向量索引名称（元数据字段由rag改为variant，使用新索引，旧索引中的条目随TTL过期）
+         */
+        private String indexName = "chat_semantic_cache_v2_idx";
+
+        /**
+         * 向量文档键前缀
+         */
+        private String prefix = "chat_semantic_cache:v2:";
+    }
+
+    @Data
+    public static class LlmAdmission {
+        /**
+         * 是否启用准入调度，关闭后LLM调用不排队、不限制并发
+         */
+        private boolean enabled = true;
+
+        /**
+         * 同时进行的LLM调用数上限，流式回复占用到流结束
+         */
+        private int maxConcurrency = 32;
+
+        /**
+         * 单个用户（游客按会话标识）排队中的请求数上限，多开标签页的请求超出后直接拒绝
+         */
+        private int maxQueuedPerUser = 4;
+
+        /**
+         * 注册用户类别
+         */
+        private PriorityClassSettings registered = new PriorityClassSettings(4, 200, 8000);
+
+        /**
+         * 游客类别
+         */
+        private PriorityClassSettings guest = new PriorityClassSettings(1, 50, 3000);
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class PriorityClassSettings {
+        /**
+         * 权重，两类都有请求排队时按权重比例分配空出的许可
+         */
+        private int weight;
+
+        /**
+         * 该类别排队请求数上限
+         */
+        private int maxQueued;
+
+        /**
+         * 最长排队时间 (毫秒)，预计等待超过该时间的请求入队时直接拒绝，排队超时的请求出队并拒绝
+         */
+        private long maxWaitMs;
+    }
+
+    @Data
+    public static class LatencyMetrics {
+        /**
+         * 是否记录分阶段耗时指标
+         */
+        private boolean enabled = true;
+
+        /**
+         * 是否按角色ID打标签，默认关闭，所有角色合并为 all；开启后时间序列数随角色标签数成倍增长
+         */
+        private boolean characterTag = false;
+
+        /**
+         * 角色标签数上限，超出后新出现的角色ID归入 other
+         */
+        private int maxCharacterTags = 20;
+
+        /**
+         * 是否导出直方图桶（Prometheus按桶计算分位数，可跨实例聚合），只对首token和完整生成阶段生效
+         */
+        private boolean percentileHistogram = true;
+
+        /**
+         * 直方图下界 (毫秒)，低于该值的耗时计入第一个桶
+         */
+        private long minExpectedMs = 1;
+
+        /**
+         * 直方图上界 (毫秒)，高于该值的耗时计入最后一个桶
+         */
+        private long maxExpectedMs = 120000;
+    }
+
+    /**
+     * 部分回复处理策略
+     */
+    public enum PartialReplyPolicy {
+        /**
+         * 丢弃，不写入会话历史
+         */
+        DISCARD,
+        /**
+         * 保存已生成的文本，不合成语音
+         */
+        SAVE
+    }
+}
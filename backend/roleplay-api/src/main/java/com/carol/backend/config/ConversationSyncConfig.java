@@ -0,0 +1,117 @@
+package com.carol.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 会话批量同步配置
+ * 批量同步按SCAN游标分页遍历Redis中的会话，每页交给同步线程池并发写入MySQL，
+ * 已完成的游标位置保存为检查点，中断后从检查点继续；定时数据同步任务（DataSyncConfig）使用同一个遍历引擎和线程池
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.conversation-sync")
+public class ConversationSyncConfig {
+
+    /**
+     * 每次SCAN的COUNT参数（每次遍历的槽位数，不是返回的会话数）
+     */
+    private int scanBatchSize = 500;
+
+    /**
+     * 同步线程数
+     */
+    private int workerThreads = 4;
+
+    /**
+     * 同步线程池队列容量，队列满时由扫描线程同步执行
+     */
+    private int queueCapacity = 200;
+
+    /**
+     * 已提交但未完成的SCAN页数上限，超过时扫描线程等待最早的一页完成，内存占用与会话总数无关
+     */
+    private int maxInFlightPages = 8;
+
+    /**
+     * 消息多行插入的块大小（每条INSERT的行数）
+     */
+    private int insertChunkSize = 500;
+
+    /**
+     * 保存检查点（已完成的SCAN游标）的Redis键
+     */
+    private String checkpointKey = "chat:sync:checkpoint";
+
+    /**
+     * 检查点过期时间 (小时)，超过后重新从头同步
+     */
+    private long checkpointTtlHours = 24;
+
+    /**
+     * 增量同步（变更数据捕获）配置
+     */
+    private ChangeStream changeStream = new ChangeStream();
+
+    /**
+     * 每次写入会话消息时向Redis Stream追加一条变更事件，消费者组中的归档线程据此把新消息增量写入MySQL
+     */
+    @Data
+    public static class ChangeStream {
+        /**
+         * 是否启用增量同步
+         */
+        private boolean enabled = true;
+
+        /**
+         * 变更事件Stream的键
+         */
+        private String streamKey = "chat:sync:stream";
+
+        /**
+         * 消费者组名称，所有节点的归档线程共用一个组，每个事件只由其中一个线程处理
+         */
+        private String group = "conversation-archivers";
+
+        /**
+         * 每个节点的消费线程数，每个线程阻塞读取时占用一个Redis连接
+         */
+        private int consumers = 2;
+
+        /**
+         * 每次读取的事件数
+         */
+        private int readBatchSize = 100;
+
+        /**
+         * 没有新事件时阻塞等待的时间 (毫秒)
+         */
+        private long blockMillis = 2000;
+
+        /**
+         * Stream保留的事件数上限（近似裁剪），消费者长时间停止时更早的事件会被丢弃，由批量同步补齐
+         */
+        private long maxLength = 100000;
+
+        /**
+         * 已投递但超过该时间未确认的事件被其他消费线程认领重试 (毫秒)
+         */
+        private long claimIdleMillis = 60000;
+
+        /**
+         * 检查待确认事件的间隔 (毫秒)
+         */
+        private long claimIntervalMillis = 30000;
+
+        /**
+         * 最大投递次数，超过后转入死信Stream并确认
+         */
+        private int maxDeliveries = 5;
+
+        /**
+         * 死信Stream的键
+         */
+        private String deadLetterKey = "chat:sync:stream:dead";
+    }
+}
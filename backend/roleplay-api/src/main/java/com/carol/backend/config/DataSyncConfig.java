@@ -0,0 +1,41 @@
+package com.carol.backend.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * 定时数据同步配置
+ * 同步任务按SCAN游标逐页遍历Redis中的会话（遍历页大小、线程池见 ConversationSyncConfig），每页按用户ID哈希分区、再按块交给同步线程池，
+ * 块内每个会话在各自的短事务中提交；任务进度（已完成的游标、计数、各分区耗时）保存在 data_sync_jobs 表中，中断后从游标继续
+ */
+@Data
+@Configuration
+@ConfigurationProperties(prefix = "app.data-sync")
+public class DataSyncConfig {
+
+    /**
+     * 分区数，同一用户的会话落在同一分区，各分区分别统计耗时
+     */
+    private int partitions = 16;
+
+    /**
+     * 每块的会话数，每块是同步线程池中的一个任务；块内每个会话在各自的事务中提交，失败时只回滚该会话
+     */
+    private int chunkSize = 50;
+
+    /**
+     * 未完成的任务在该时间 (小时) 内有进度时从其游标继续，否则重新开始
+     */
+    private long resumeWindowHours = 24;
+
+    /**
+     * 任务锁的Redis键，所有节点同一时间只运行一个同步任务
+     */
+    private String lockKey = "data-sync:lock";
+
+    /**
+     * 任务锁过期时间 (分钟)，每个块开始前和每次保存进度时校验仍持有锁并续期，进程退出后锁自动释放
+     */
+    private long lockTtlMinutes = 10;
+}
@@ -8,9 +8,12 @@ import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.nio.charset.StandardCharsets;
+
 /**
  * Redis 配置类
  * 提供 RedisTemplate 等基础 Redis 操作 Bean
@@ -82,4 +85,34 @@ public class RedisConfig {
         template.afterPropertiesSet();
         return template;
     }
+
+    /**
+     * 会话消息存储使用的 RedisTemplate
+     * 值、哈希字段和脚本参数按 ISO-8859-1 编解码，字符与字节一一对应，二进制编码的消息可以无损地以字符串传递
+     */
+    @Bean
+    public RedisTemplate<String, String> conversationRedisTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, String> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        
+        StringRedisSerializer byteCarrierSerializer = new StringRedisSerializer(StandardCharsets.ISO_8859_1);
+        template.setKeySerializer(StringRedisSerializer.UTF_8);
+        template.setValueSerializer(byteCarrierSerializer);
+        template.setHashKeySerializer(byteCarrierSerializer);
+        template.setHashValueSerializer(byteCarrierSerializer);
+        
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    /**
+     * Redis消息监听容器
+     * 用于订阅跨节点的缓存失效通知等发布订阅消息
+     */
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
 }
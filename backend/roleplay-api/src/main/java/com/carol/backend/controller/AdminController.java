@@ -5,6 +5,7 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.carol.backend.dto.ApiResponse;
 import com.carol.backend.entity.User;
 import com.carol.backend.mapper.UserMapper;
+import com.carol.backend.service.IChatSemanticCacheService;
 import com.carol.backend.util.UserContext;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -26,6 +27,7 @@ public class AdminController {
     private final UserMapper userMapper;
     private final com.carol.backend.mapper.CharacterMapper characterMapper;
     private final com.carol.backend.mapper.CharacterKnowledgeMapper characterKnowledgeMapper;
+    private final IChatSemanticCacheService semanticCacheService;
 
     /**
      * 检查当前用户是否为管理员
@@ -131,4 +133,17 @@ public class AdminController {
         userMapper.updateById(user);
         return ResponseEntity.ok(ApiResponse.success("状态更新成功"));
     }
+
+    /**
+     * 清除角色的语义缓存（知识库更新后调用；角色设定更新后旧回复已不再命中）
+     */
+    @DeleteMapping("/characters/{id}/semantic-cache")
+    public ResponseEntity<ApiResponse<Map<String, Object>>> evictSemanticCache(@PathVariable Long id) {
+        checkAdmin();
+
+        int evicted = semanticCacheService.evictCharacter(id);
+        log.info("[evictSemanticCache] 管理员清除角色语义缓存: characterId={}, evicted={}", id, evicted);
+        Map<String, Object> result = Map.of("characterId", id, "evicted", evicted);
+        return ResponseEntity.ok(ApiResponse.success(result));
+    }
 }
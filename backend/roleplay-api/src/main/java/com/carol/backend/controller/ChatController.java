@@ -1,42 +1,58 @@
 package com.carol.backend.controller;
 
-import com.alibaba.cloud.ai.memory.redis.RedissonRedisChatMemoryRepository;
+import com.carol.backend.config.ChatPipelineConfig;
 import com.carol.backend.dto.ChatRequest;
 import com.carol.backend.dto.ChatResponse;
+import com.carol.backend.dto.ChatStreamEvent;
 import com.carol.backend.dto.TtsSynthesisResponse;
 import com.carol.backend.dto.TtsPersistenceResult;
+import com.carol.backend.dto.TtsSegmentResult;
 import com.carol.backend.dto.UpdateVoiceDurationRequest;
+import com.carol.backend.dto.PromptAssemblyResult;
 import com.carol.backend.entity.Character;
-import com.carol.backend.entity.CharacterKnowledge;
-import com.carol.backend.service.CharacterService;
-import com.carol.backend.service.ICharacterKnowledgeRAGService;
-import com.carol.backend.service.IPromptTemplateService;
+import com.carol.backend.enums.ChatStage;
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
+import com.carol.backend.service.IChatLatencyMetricsRecorder;
+import com.carol.backend.service.IChatLatencyMetricsRecorder.StageTimers;
+import com.carol.backend.service.IChatMemoryWindowService;
+import com.carol.backend.service.IChatPromptAssemblyService;
+import com.carol.backend.service.IChatSemanticCacheService;
+import com.carol.backend.service.IChatStreamMetricsCollector;
+import com.carol.backend.service.IConversationArchiveService;
 import com.carol.backend.service.IConversationHistoryService;
 import com.carol.backend.service.IChatTtsIntegrationService;
 import com.carol.backend.service.ITtsSynthesisService;
 import com.carol.backend.service.IGuestChatLimitService;
 import com.carol.backend.service.CustomMessageStorageService;
-import com.carol.backend.service.ITtsAudioPersistenceService;
+import com.carol.backend.service.CustomMessageStorageService.TurnMessage;
+import com.carol.backend.service.CustomMessageStorageService.TurnSaveResult;
+import com.carol.backend.service.IChatTtsPipelineService;
 import com.carol.backend.service.QwenConversationService;
 import com.carol.backend.dto.QwenConversationResponse;
 import com.carol.backend.dto.QwenConversationInfo;
 import com.carol.backend.dto.RenameConversationRequest;
 import com.carol.backend.dto.ChatHistoryResponse;
 import com.carol.backend.dto.ConversationMessageVO;
+import com.carol.backend.util.ChatSseEventEncoder;
+import com.carol.backend.util.LlmAdmissionScheduler;
+import com.carol.backend.util.LlmAdmissionScheduler.PriorityClass;
 import com.carol.backend.util.SecurityUtils;
+import com.carol.backend.util.SingleFlight;
 // 移除了AsyncContext和HttpServletRequest相关import，因为不再需要手动管理异步上下文
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.ai.chat.client.ChatClient;
-import org.springframework.ai.chat.client.advisor.MessageChatMemoryAdvisor;
 // 移除SimpleLoggerAdvisor import，因为它在序列化包含java.time.Duration的响应时有问题
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
 import org.springframework.ai.chat.messages.Message;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.chat.messages.UserMessage;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.*;
 // 移除了RequestContextHolder相关import，因为在异步回调中使用不安全
@@ -44,14 +60,19 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-
-import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * 聊天控制器
@@ -65,56 +86,69 @@ import static org.springframework.ai.chat.memory.ChatMemory.CONVERSATION_ID;
 public class ChatController {
 
     private final ChatClient chatClient;
-    private final MessageWindowChatMemory messageWindowChatMemory;
-    private final CharacterService characterService;
-    private final IPromptTemplateService promptTemplateService;
-    private final ICharacterKnowledgeRAGService ragService;
+    private final IChatPromptAssemblyService promptAssemblyService;
     private final IConversationHistoryService conversationHistoryService;
     private final IChatTtsIntegrationService chatTtsIntegrationService;
     private final ITtsSynthesisService ttsSynthesisService;
     private final IGuestChatLimitService guestChatLimitService;
     private final CustomMessageStorageService customMessageStorageService;
-    private final ITtsAudioPersistenceService ttsAudioPersistenceService;
+    private final IChatTtsPipelineService ttsPipelineService;
+    private final ChatSseEventEncoder sseEventEncoder;
+    private final IChatStreamMetricsCollector streamMetricsCollector;
+    private final IChatSemanticCacheService semanticCacheService;
+    private final IChatMemoryWindowService memoryWindowService;
+    private final ChatPipelineConfig.PartialReplyPolicy partialReplyPolicy;
     private final QwenConversationService qwenConversationService;
+    private final IConversationArchiveService conversationArchiveService;
+    private final LlmAdmissionScheduler admissionScheduler;
+    private final IChatLatencyMetricsRecorder latencyMetrics;
+    // 正在生成的流式回复，相同的并发请求加入已在进行的生成
+    private final SingleFlight<ReplyKey, ChatStreamEvent> replySingleFlight = new SingleFlight<>();
 
     private static final int DEFAULT_MAX_MESSAGES = 100;
-    
-    // 同步状态缓存：记录已经同步过的conversationId，避免重复检查
-    private final java.util.Set<String> syncedConversations = java.util.Collections.synchronizedSet(new java.util.HashSet<>());
 
     public ChatController(ChatClient.Builder chatClientBuilder, 
-                         MessageWindowChatMemory messageWindowChatMemory,
-                         CharacterService characterService,
-                         IPromptTemplateService promptTemplateService,
-                         ICharacterKnowledgeRAGService ragService,
+                         IChatPromptAssemblyService promptAssemblyService,
                          IConversationHistoryService conversationHistoryService,
                          IChatTtsIntegrationService chatTtsIntegrationService,
                          ITtsSynthesisService ttsSynthesisService,
                          IGuestChatLimitService guestChatLimitService,
                          CustomMessageStorageService customMessageStorageService,
-                         ITtsAudioPersistenceService ttsAudioPersistenceService,
-                         QwenConversationService qwenConversationService) {
-
-        this.characterService = characterService;
-        this.promptTemplateService = promptTemplateService;
-        this.ragService = ragService;
+                         IChatTtsPipelineService ttsPipelineService,
+                         ChatSseEventEncoder sseEventEncoder,
+                         IChatStreamMetricsCollector streamMetricsCollector,
+                         IChatSemanticCacheService semanticCacheService,
+                         IChatMemoryWindowService memoryWindowService,
+                         ChatPipelineConfig chatPipelineConfig,
+                         QwenConversationService qwenConversationService,
+                         IConversationArchiveService conversationArchiveService,
+                         LlmAdmissionScheduler admissionScheduler,
+                         IChatLatencyMetricsRecorder latencyMetrics,
+                         MeterRegistry meterRegistry) {
+
+        this.promptAssemblyService = promptAssemblyService;
         this.conversationHistoryService = conversationHistoryService;
+        this.conversationArchiveService = conversationArchiveService;
         this.guestChatLimitService = guestChatLimitService;
-        this.messageWindowChatMemory = messageWindowChatMemory;
         this.chatTtsIntegrationService = chatTtsIntegrationService;
         this.ttsSynthesisService = ttsSynthesisService;
         this.customMessageStorageService = customMessageStorageService;
-        this.ttsAudioPersistenceService = ttsAudioPersistenceService;
+        this.ttsPipelineService = ttsPipelineService;
+        this.sseEventEncoder = sseEventEncoder;
+        this.streamMetricsCollector = streamMetricsCollector;
+        this.semanticCacheService = semanticCacheService;
+        this.memoryWindowService = memoryWindowService;
+        this.partialReplyPolicy = chatPipelineConfig.getCancellation().getPartialReplyPolicy();
         this.qwenConversationService = qwenConversationService;
+        this.admissionScheduler = admissionScheduler;
+        this.latencyMetrics = latencyMetrics;
+        replySingleFlight.registerMetrics(meterRegistry, "chat_reply");
 
-        // 初始化ChatClient，配置默认系统提示和顾问
+        // 初始化ChatClient，配置默认系统提示
+        // 会话历史由提示词组装阶段从统一存储加载并显式放入Prompt，不再使用MessageChatMemoryAdvisor
+        // 移除SimpleLoggerAdvisor，因为它在序列化包含java.time.Duration的ChatResponse时会出错
         this.chatClient = chatClientBuilder
                 .defaultSystem("你是一个智能的AI助手，请根据用户的问题提供有用、准确、友好的回答。")
-                .defaultAdvisors(
-                        // 会话记忆顾问
-                        MessageChatMemoryAdvisor.builder(this.messageWindowChatMemory).build()
-                        // 移除SimpleLoggerAdvisor，因为它在序列化包含java.time.Duration的ChatResponse时会出错
-                )
                 .build();
     }
 
@@ -143,11 +177,17 @@ public class ChatController {
             String response;
             ChatResponse.CharacterInfo characterInfo = null;
             ChatResponse.AudioInfo audioInfo = null;
+            TurnMessageIds messageIds = new TurnMessageIds();
+            StageTimers timers = latencyMetrics.timers(request.getCharacterId(), false,
+                    Boolean.TRUE.equals(request.getEnableTts()), false);
+
+            // 并发组装提示词：角色查询、可用性检查、RAG检索、历史加载
+            PromptAssemblyResult assembly = promptAssemblyService.assemblePrompt(request, conversationId, userId, timers);
 
             // 检查是否指定了角色
             if (request.getCharacterId() != null) {
                 // 角色扮演对话
-                response = handleCharacterChat(request, conversationId);
+                response = handleCharacterChat(request, conversationId, userId, assembly, messageIds, timers);
                 
                 // 获取角色信息用于响应
                 if (request.getCharacterId() == 0L) {
@@ -158,7 +198,7 @@ public class ChatController {
                         .voice("default")
                         .build();
                 } else {
-                    Character character = characterService.getCharacterById(request.getCharacterId());
+                    Character character = assembly.getCharacter();
                     String characterVoice = ttsSynthesisService.getRecommendedVoiceForCharacter(request.getCharacterId());
                     characterInfo = ChatResponse.CharacterInfo.builder()
                         .id(character.getId())
@@ -168,26 +208,14 @@ public class ChatController {
                         .build();
                 }
             } else {
-                // 普通对话 - 同步历史记录到messageWindowChatMemory
-                syncHistoryToMessageWindowChatMemory(conversationId);
-                
+                // 普通对话 - 历史消息已在提示词组装阶段加载
                 // 创建用户消息
                 UserMessage userMessage = new UserMessage(request.getMessage());
+                TurnMessage userTurnMessage = TurnMessage.user(userMessage, request.getAudioUrl(), request.getVoiceDuration());
                 
-                // 保存用户消息到自定义存储和messageWindowChatMemory
-                // 保存用户消息到自定义存储和messageWindowChatMemory
-                customMessageStorageService.saveMessage(conversationId, userMessage, true, request.getAudioUrl(), request.getVoiceDuration());
-                messageWindowChatMemory.add(conversationId, userMessage);
-                
-                response = chatClient.prompt(new Prompt(List.of(userMessage)))
-                        .advisors(advisor -> advisor.param(CONVERSATION_ID, conversationId))
-                        .call()
-                        .content();
-                
-                // 保存AI回复到自定义存储和messageWindowChatMemory（暂时不包含audioUrl）
-                AssistantMessage assistantMessage = new AssistantMessage(response);
-                customMessageStorageService.saveMessage(conversationId, assistantMessage, false);
-                messageWindowChatMemory.add(conversationId, assistantMessage);
+                // 调用LLM前先保存用户消息，回复生成后再保存AI回复（暂时不包含audioUrl）
+                response = callAndSaveTurn(request, conversationId, userId, userTurnMessage,
+                        buildPrompt(null, assembly.getHistory(), userMessage), messageIds, timers);
             }
             
             log.info("AI回复: conversationId={}, response={}", conversationId, response);
@@ -195,12 +223,14 @@ public class ChatController {
             // 如果启用了TTS，生成语音
             if (Boolean.TRUE.equals(request.getEnableTts())) {
                 try {
+                    long ttsStart = System.nanoTime();
                     TtsSynthesisResponse ttsResponse = chatTtsIntegrationService.generateSpeechForChatReply(
                         response,
                         request.getCharacterId(),
                         userId.toString(),
                         request.getLanguageType()
                     );
+                    timers.recordSince(ChatStage.TTS_SYNTHESIS, ttsStart);
 
                     if (ttsResponse != null && ttsResponse.getSuccess()) {
                         audioInfo = ChatResponse.AudioInfo.builder()
@@ -219,7 +249,7 @@ public class ChatController {
                         // 更新Redis中AI回复消息的audioUrl和语音时长
                         Integer voiceDuration = ttsResponse.getDuration() != null ? 
                             ttsResponse.getDuration().intValue() : null;
-                        customMessageStorageService.updateMessageAudioInfo(conversationId, response, 
+                        customMessageStorageService.updateMessageAudioInfo(conversationId, messageIds.messageId, 
                             ttsResponse.getAudioUrl(), voiceDuration);
 
                     } else if (ttsResponse == null) {
@@ -250,8 +280,11 @@ public class ChatController {
             return ChatResponse.builder()
                 .content(response)
                 .conversationId(conversationId)
+                .userMessageId(messageIds.userMessageId)
+                .messageId(messageIds.messageId)
                 .character(characterInfo)
                 .audio(audioInfo)
+                .stageTimings(assembly.getStageTimings())
                 .timestamp(LocalDateTime.now())
                 .build();
             
@@ -264,28 +297,26 @@ public class ChatController {
     /**
      * 流式聊天接口
      * 实时返回AI回复内容，支持角色扮演
-     * ✅ Spring自动将Flux<String>包装为text/event-stream
+     * 控制器产出类型化事件，由ChatSseEventEncoder合并token并编码为SSE帧
      */
     @PostMapping(value = "/stream", produces = "text/event-stream")
-    public Flux<String> streamChat(@Valid @RequestBody ChatRequest request, HttpServletRequest httpRequest) {
+    public Flux<ServerSentEvent<String>> streamChat(@Valid @RequestBody ChatRequest request, HttpServletRequest httpRequest) {
+        // 首token耗时从收到请求开始计算
+        long requestStartNanos = System.nanoTime();
         // ✅ 从JWT中获取userId（使用新的UserContext）
         Long userId = SecurityUtils.getCurrentUserId();
 
+        // 游客按会话标识参与LLM调用排队
+        String guestSessionId = userId == null ? getGuestSessionId(httpRequest) : null;
+
         // 游客模式聊天限制检查
         if (userId == null) {
             // 游客模式，检查聊天次数限制
-            String sessionId = getGuestSessionId(httpRequest);
-
-            if (!guestChatLimitService.canGuestChat(sessionId)) {
-                log.warn("[streamChat] 游客聊天次数已达上限: sessionId={}", sessionId);
+            if (!guestChatLimitService.canGuestChat(guestSessionId)) {
+                log.warn("[streamChat] 游客聊天次数已达上限: sessionId={}", guestSessionId);
                 // 返回错误信息的流式响应，而不是抛出异常
-                return Flux.just("data:error:游客模式每日最多可聊天5次，请登录后继续使用\n\n");
+                return sseEventEncoder.encode(ChatStreamEvent.error("游客模式每日最多可聊天5次，请登录后继续使用"));
             }
-
-            // 增加游客聊天次数
-            guestChatLimitService.incrementGuestChatCount(sessionId);
-            log.info("[streamChat] 游客聊天: sessionId={}, 当前次数={}",
-                    sessionId, guestChatLimitService.getGuestChatCount(sessionId));
         }
         
         log.info("[streamChat] 🎯 收到流式聊天请求: userId={}, characterId={}, message={}", 
@@ -293,62 +324,168 @@ public class ChatController {
         
         // 生成会话ID
         String conversationId = generateConversationId(request, userId);
+        ReplyTiming timing = new ReplyTiming(latencyMetrics.timers(request.getCharacterId(), true,
+                Boolean.TRUE.equals(request.getEnableTts()), userId == null), requestStartNanos);
         
         // 检查是否指定了角色
+        Flux<ChatStreamEvent> events;
         if (request.getCharacterId() != null) {
             // 角色扮演流式对话
-            return handleCharacterStreamChat(request, conversationId)
+            events = handleCharacterStreamChat(request, conversationId, guestSessionId, timing)
                     .onErrorResume(throwable -> {
                         log.error("角色流式聊天失败: conversationId={}, error={}", conversationId, throwable.getMessage(), throwable);
-                        return Flux.just(
-                            "data: {\"error\": \"角色扮演聊天失败: " + throwable.getMessage() + "\"}\n\n",
-                            "data: [DONE]\n\n"
-                        );
+                        return Flux.just(ChatStreamEvent.error("角色扮演聊天失败: " + throwable.getMessage()));
                     });
         } else {
-            // 普通流式对话 - 创建用户消息
+            events = handleGeneralStreamChat(request, conversationId, userId, guestSessionId, timing);
+        }
+        return sseEventEncoder.encode(coalesceDuplicateReplies(request, conversationId, guestSessionId, events),
+                conversationId);
+    }
+
+    /**
+     * 普通流式对话（未指定角色）
+     */
+    private Flux<ChatStreamEvent> handleGeneralStreamChat(ChatRequest request, String conversationId, Long userId,
+                                                          String guestSessionId, ReplyTiming timing) {
+        return Flux.defer(() -> {
+            // 加载历史消息并创建用户消息
+            List<Message> history = promptAssemblyService.assemblePrompt(request, conversationId, userId,
+                    timing.timers()).getHistory();
             UserMessage userMessage = new UserMessage(request.getMessage());
             
-            // 保存用户消息到自定义存储
-            customMessageStorageService.saveMessage(conversationId, userMessage, true);
-            
-            // 用于收集完整响应文本
-            StringBuilder completeResponse = new StringBuilder();
+            // 调用LLM前先保存用户消息，用于收集完整响应文本的状态在回复结束后保存AI回复
+            StreamReplyState state = new StreamReplyState(userId, timing);
+            Long userMessageId = saveUserMessage(request, conversationId, userId,
+                    TurnMessage.user(userMessage, null, null), timing.timers());
             
-            return chatClient.prompt(new Prompt(List.of(userMessage)))
-                    .advisors(advisor -> advisor.param(CONVERSATION_ID, conversationId))
-                    .stream()
-                    .content()
+            Prompt prompt = buildPrompt(null, history, userMessage);
+            Flux<ChatStreamEvent> events = admittedStream(userId, guestSessionId, () -> {
+                        state.generationStartNanos = System.nanoTime();
+                        return chatClient.prompt(prompt).stream().content();
+                    })
                     .map(chunk -> {
                         // 收集文本块用于后续保存
-                        getCompleteResponse(completeResponse).append(chunk);
-                        return "data:" + chunk + "\n\n";
+                        state.appendChunk(chunk);
+                        return ChatStreamEvent.token(chunk);
                     })
+                    .doOnComplete(state::onGenerationComplete)
                     .concatWith(
-                        // 流式响应完成后，保存完整的AI回复
+                        // 流式响应完成后，保存AI回复并返回消息ID
                         Mono.fromCallable(() -> {
-                            String fullResponse = completeResponse.toString();
-                            if (!fullResponse.isEmpty()) {
-                                AssistantMessage assistantMessage = new AssistantMessage(fullResponse);
-                                customMessageStorageService.saveMessage(conversationId, assistantMessage, false);
-                                log.info("[streamChat] 保存普通流式回复: conversationId={}, length={}", 
-                                        conversationId, fullResponse.length());
+                            saveStreamReply(conversationId, state);
+                            return replyMessageIdEvents(state);
+                        }).subscribeOn(Schedulers.boundedElastic()).flatMapIterable(idEvents -> idEvents)
+                    );
+            return withDisconnectHandling(userMessageIdEvents(userMessageId).concatWith(events), conversationId, state);
+        }).onErrorResume(throwable -> {
+            log.error("普通流式聊天失败: conversationId={}, error={}", conversationId, throwable.getMessage(), throwable);
+            return Flux.just(ChatStreamEvent.error("聊天失败: " + throwable.getMessage()));
+        });
+    }
+
+    /**
+     * 合并重复的并发请求：双击、前端重试和断线重连会对同一会话发出相同的消息，
+     * 正在生成时到达的相同请求（会话、消息内容、是否合成语音都相同）加入已在进行的生成，
+     * 从头回放已推送的事件并继续接收后续事件，不再重复检索、调用LLM和保存消息；
+     * 所有客户端都断开后才取消生成。游客聊天次数只在实际发起生成时增加，合并的重复请求不计次
+     */
+    private Flux<ChatStreamEvent> coalesceDuplicateReplies(ChatRequest request, String conversationId,
+                                                           String guestSessionId, Flux<ChatStreamEvent> events) {
+        ReplyKey key = new ReplyKey(conversationId, guestSessionId, messageDigest(request.getMessage()),
+                Boolean.TRUE.equals(request.getEnableTts()));
+        return replySingleFlight.stream(key, () -> {
+            if (guestSessionId != null) {
+                guestChatLimitService.incrementGuestChatCount(guestSessionId);
+                log.info("[streamChat] 游客聊天: sessionId={}, 当前次数={}",
+                        guestSessionId, guestChatLimitService.getGuestChatCount(guestSessionId));
+            }
+            return events;
+        });
+    }
+
+    /**
+     * 消息内容摘要（SHA-256），作为合并键的一部分
+     */
+    private static String messageDigest(String message) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((message != null ? message : "").getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 客户端断开和出错时的处理
+     * 取消信号沿订阅链向上传播，LLM流和进行中的逐句TTS随之停止、尚未开始的收尾（音频持久化）不再执行；
+     * 用户消息在调用LLM前已保存，已生成的部分回复按 app.chat.pipeline.cancellation.partial-reply-policy 处理，
+     * 出错时不保存回复
+     */
+    private Flux<ChatStreamEvent> withDisconnectHandling(Flux<ChatStreamEvent> events, String conversationId,
+                                                         StreamReplyState state) {
+        return events
+                .doOnSubscribe(subscription -> streamMetricsCollector.recordStreamStarted())
+                .doOnComplete(streamMetricsCollector::recordStreamCompleted)
+                .doOnCancel(() -> {
+                    state.cancelled.set(true);
+                    int generatedChars = state.completeResponse.length();
+                    boolean duringGeneration = !state.generationDone.get();
+                    streamMetricsCollector.recordStreamCancelled(generatedChars, duringGeneration);
+                    log.info("[streamChat] 客户端已断开，取消流式回复: conversationId={}, generatedChars={}, duringGeneration={}",
+                            conversationId, generatedChars, duringGeneration);
+
+                    if (partialReplyPolicy == ChatPipelineConfig.PartialReplyPolicy.SAVE && generatedChars > 0) {
+                        Schedulers.boundedElastic().schedule(() -> {
+                            if (saveStreamReplyQuietly(conversationId, state)) {
+                                streamMetricsCollector.recordPartialReplySaved();
                             }
-                            return "data:[DONE]\n\n";
-                        }).subscribeOn(Schedulers.boundedElastic())
-                    )
-                    .onErrorResume(throwable -> {
-                        log.error("普通流式聊天失败: conversationId={}, error={}", conversationId, throwable.getMessage(), throwable);
-                        return Flux.just(
-                            "data: {\"error\": \"聊天失败: " + throwable.getMessage() + "\"}\n\n",
-                            "data: [DONE]\n\n"
-                        );
-                    });
+                        });
+                    }
+                });
+    }
+
+    /**
+     * 保存本轮流式回复，每轮只保存一次（正常完成和断开处理可能同时触发）
+     *
+     * @return 本次是否保存了AI回复
+     */
+    private boolean saveStreamReply(String conversationId, StreamReplyState state) {
+        if (!state.replySaved.compareAndSet(false, true)) {
+            return false;
         }
+        String fullResponse = state.completeResponse.toString();
+        state.messageId = saveReply(conversationId, fullResponse, state.timing.timers());
+        log.info("[streamChat] 保存本轮流式回复: conversationId={}, messageId={}, length={}, cancelled={}", 
+                conversationId, state.messageId, fullResponse.length(), state.cancelled.get());
+        return state.messageId != null;
     }
 
-    private static StringBuilder getCompleteResponse(StringBuilder completeResponse) {
-        return completeResponse;
+    /**
+     * 断开后在后台保存已生成的部分回复，异常只记录日志
+     */
+    private boolean saveStreamReplyQuietly(String conversationId, StreamReplyState state) {
+        try {
+            return saveStreamReply(conversationId, state);
+        } catch (Exception e) {
+            log.error("[streamChat] 保存本轮流式回复失败: conversationId={}, error={}", conversationId, e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * 用户消息保存后立即推送的消息ID事件，前端用于后续按ID更新消息；未保存时不推送
+     */
+    private static Flux<ChatStreamEvent> userMessageIdEvents(Long userMessageId) {
+        return userMessageId != null ? Flux.just(ChatStreamEvent.messageId("user", userMessageId)) : Flux.empty();
+    }
+
+    /**
+     * AI回复保存后推送的消息ID事件；未保存时不推送
+     */
+    private static List<ChatStreamEvent> replyMessageIdEvents(StreamReplyState state) {
+        return state.messageId != null ? List.of(ChatStreamEvent.messageId("assistant", state.messageId)) : List.of();
     }
 
     /**
@@ -359,7 +496,7 @@ public class ChatController {
         log.info("获取会话历史: conversationId={}", conversationId);
         
         try {
-            return messageWindowChatMemory.get(conversationId);
+            return customMessageStorageService.findByConversationId(conversationId);
         } catch (Exception e) {
             log.error("获取会话历史失败: conversationId={}, error={}", conversationId, e.getMessage(), e);
             throw new RuntimeException("获取会话历史失败: " + e.getMessage());
@@ -374,9 +511,8 @@ public class ChatController {
         log.info("清除会话历史: conversationId={}", conversationId);
         
         try {
-            messageWindowChatMemory.clear(conversationId);
-            // 清除同步缓存，允许重新同步
-            clearSyncCache(conversationId);
+            customMessageStorageService.deleteByConversationId(conversationId);
+            conversationArchiveService.deleteArchivedMessages(conversationId);
             log.info("会话历史已清除: conversationId={}", conversationId);
         } catch (Exception e) {
             log.error("清除会话历史失败: conversationId={}, error={}", conversationId, e.getMessage(), e);
@@ -408,111 +544,96 @@ public class ChatController {
     }
 
     /**
-     * 处理角色扮演对话
-     * 集成RAG知识检索，提供更智能的角色扮演体验
+     * 调用ChatClient前先保存用户消息，生成失败时用户消息已保存，异常直接抛出；
+     * 回复生成后再保存AI回复
      */
+    private String callAndSaveTurn(ChatRequest request, String conversationId, Long userId,
+                                   TurnMessage userMessage, Prompt prompt, TurnMessageIds messageIds,
+                                   StageTimers timers) {
+        messageIds.userMessageId = saveUserMessage(request, conversationId, userId, userMessage, timers);
+
+        String response = admissionScheduler.call(admissionKey(userId, null), PriorityClass.REGISTERED, () -> {
+            // 生成耗时从获得许可开始计算，不含排队时间
+            long generationStart = System.nanoTime();
+            String content = chatClient.prompt(prompt).call().content();
+            timers.recordSince(ChatStage.GENERATION, generationStart);
+            return content;
+        });
+
+        messageIds.messageId = saveReply(conversationId, response, timers);
+        return response;
+    }
+
+    /**
+     * 保存本轮用户消息，Qwen会话元数据放入同一管道一起写入
+     *
+     * @return 用户消息ID
+     */
+    private Long saveUserMessage(ChatRequest request, String conversationId, Long userId,
+                                 TurnMessage userMessage, StageTimers timers) {
+        long saveStart = System.nanoTime();
+        TurnSaveResult result = customMessageStorageService.saveTurn(conversationId, List.of(userMessage),
+                qwenMetadataCommand(request, userId));
+        timers.recordSince(ChatStage.PERSISTENCE, saveStart);
+        return firstMessageId(result);
+    }
+
+    /**
+     * 保存AI回复（为空时不保存），保存后移出记忆窗口的消息在后台合并为摘要
+     *
+     * @return AI回复的消息ID，未保存时为null
+     */
+    private Long saveReply(String conversationId, String reply, StageTimers timers) {
+        if (!StringUtils.hasLength(reply)) {
+            return null;
+        }
+        long saveStart = System.nanoTime();
+        TurnSaveResult result = customMessageStorageService.saveTurn(conversationId,
+                List.of(TurnMessage.assistant(new AssistantMessage(reply))), null);
+        timers.recordSince(ChatStage.PERSISTENCE, saveStart);
+        memoryWindowService.onTurnCompleted(conversationId);
+        return firstMessageId(result);
+    }
+
+    private static Long firstMessageId(TurnSaveResult result) {
+        return !result.getMessageIds().isEmpty() ? result.getMessageIds().get(0) : null;
+    }
+
+    /**
+     * Qwen助手会话的元数据更新（最后活跃时间、首轮自动标题），其他对话返回null
+     */
+    private RedisCallback<Object> qwenMetadataCommand(ChatRequest request, Long userId) {
+        if (userId == null || !Long.valueOf(0L).equals(request.getCharacterId())
+                || !StringUtils.hasText(request.getConversationId())) {
+            return null;
+        }
+        return qwenConversationService.touchConversationCommand(userId, request.getConversationId(), request.getMessage());
+    }
+
     /**
      * 处理角色扮演对话
      * 集成RAG知识检索，提供更智能的角色扮演体验
      */
-    private String handleCharacterChat(ChatRequest request, String conversationId) {
+    private String handleCharacterChat(ChatRequest request, String conversationId, Long userId,
+                                       PromptAssemblyResult assembly, TurnMessageIds messageIds, StageTimers timers) {
         log.info("[handleCharacterChat] 处理角色扮演对话: characterId={}, conversationId={}, enableRag={}",
                 request.getCharacterId(), conversationId, request.getEnableRag());
         
         try {
-            Character character;
-            Message systemMessage;
-
-            // ✅ 特殊处理 ID=0 的普通助手角色
-            if (request.getCharacterId() != null && request.getCharacterId() == 0L) {
-                log.info("[handleCharacterChat] 使用普通助手模式 (ID=0)");
-                
-                // ✅ 更新 Qwen 会话元数据（如果有 conversationId）
-                if (request.getConversationId() != null && !request.getConversationId().trim().isEmpty()) {
-                    Long userId = SecurityUtils.getCurrentUserId();
-                    // 更新最后活跃时间
-                    qwenConversationService.updateLastActiveTime(userId, request.getConversationId());
-                    // 自动生成标题（仅首次）
-                    qwenConversationService.generateTitle(userId, request.getConversationId(), request.getMessage());
-                }
-                
-                // ✅ 强制关闭RAG - AI助手不需要角色知识库
-                if (Boolean.TRUE.equals(request.getEnableRag())) {
-                    log.info("[handleCharacterChat] AI助手不使用RAG，强制关闭: characterId=0");
-                    request.setEnableRag(false);
-                }
-                
-                // 创建虚拟角色对象
-                character = new Character();
-                character.setId(0L);
-                character.setName("Qwen");
-                character.setAvatarUrl("http://oss.kon-carol.xyz/airole0.png");
-                
-                // 直接使用默认系统提示词，不使用RAG
-                systemMessage = new org.springframework.ai.chat.messages.SystemMessage(
-                    "你是一个乐于助人的 AI 助手。请用简洁、准确的语言回答用户的问题。"
-                );
-            } else {
-                // 1. 获取角色信息
-                character = characterService.getCharacterById(request.getCharacterId());
-                
-                // 2. 检查角色是否可用
-                if (!characterService.isCharacterAvailable(request.getCharacterId())) {
-                    throw new RuntimeException("角色 " + character.getName() + " 当前不可用，请稍后再试");
-                }
-                
-                // 3. 根据enableRag标志决定是否使用RAG知识检索
-                if (Boolean.TRUE.equals(request.getEnableRag())) {
-                    // 启用RAG：检索知识并使用增强提示词
-                    List<CharacterKnowledge> relevantKnowledge = ragService.searchRelevantKnowledge(
-                        request.getCharacterId(),
-                        request.getMessage(),
-                        5  // 检索top5相关知识
-                    );
-
-                    log.info("[handleCharacterChat] RAG模式：检索到 {} 个相关知识条目", relevantKnowledge.size());
-
-                    // 生成包含RAG知识的增强系统提示词
-                    systemMessage = promptTemplateService.createCharacterSystemMessageWithRAG(
-                        character,
-                        relevantKnowledge,
-                        Boolean.TRUE.equals(request.getEnableTts())
-                    );
-                } else {
-                    // 禁用RAG：直接使用基础角色提示词
-                    log.info("[handleCharacterChat] 基础模式：不使用RAG知识检索");
-                    systemMessage = promptTemplateService.createCharacterSystemMessage(
-                        character,
-                        Boolean.TRUE.equals(request.getEnableTts())
-                    );
-                }
-            }
-
-            // 4. 同步历史记录到messageWindowChatMemory（确保MessageChatMemoryAdvisor能读取到）
-            syncHistoryToMessageWindowChatMemory(conversationId);
+            // 1-4. 角色信息、可用性检查、RAG知识和历史消息已在提示词组装阶段并发完成
+            Character character = assembly.getCharacter();
+            Message systemMessage = assembly.getSystemMessage();
 
             // 5. 创建用户消息
             UserMessage userMessage = new UserMessage(request.getMessage());
 
-            // 6. 使用Prompt进行对话
-            Prompt prompt = new Prompt(List.of(systemMessage, userMessage));
+            // 6. 使用Prompt进行对话：系统提示词 + 历史消息 + 本轮用户消息
+            Prompt prompt = buildPrompt(systemMessage, assembly.getHistory(), userMessage);
 
-            // 7. 保存用户消息到自定义存储和messageWindowChatMemory
-            customMessageStorageService.saveMessage(conversationId, userMessage, true, request.getAudioUrl(), request.getVoiceDuration());
-            // 同时保存到messageWindowChatMemory，确保MessageChatMemoryAdvisor能读取到
-            messageWindowChatMemory.add(conversationId, userMessage);
-
-            // 8. 调用ChatClient，包含会话记忆
-            String response = chatClient.prompt(prompt)
-                    .advisors(advisor -> advisor.param(CONVERSATION_ID, conversationId))
-                    .call()
-                    .content();
-            
-            // 9. 保存AI回复到自定义存储和messageWindowChatMemory
-            AssistantMessage assistantMessage = new AssistantMessage(response);
-            customMessageStorageService.saveMessage(conversationId, assistantMessage, false);
-            // 同时保存到messageWindowChatMemory
-            messageWindowChatMemory.add(conversationId, assistantMessage);
+            // 7-8. 先保存用户消息和会话元数据，再调用ChatClient，回复生成后保存AI回复
+            String response = callAndSaveTurn(request, conversationId, userId,
+                    TurnMessage.user(userMessage, request.getAudioUrl(), request.getVoiceDuration()), prompt, messageIds,
+                    timers);
 
             log.info("[handleCharacterChat] 角色 {} 回复成功: conversationId={}, RAG模式: {}",
                 character.getName(), conversationId, request.getEnableRag());
@@ -530,276 +651,263 @@ public class ChatController {
      * 集成RAG知识检索，提供更智能的流式角色扮演体验
      * 支持TTS语音合成
      */
-    private Flux<String> handleCharacterStreamChat(ChatRequest request, String conversationId) {
+    private Flux<ChatStreamEvent> handleCharacterStreamChat(ChatRequest request, String conversationId,
+                                                            String guestSessionId, ReplyTiming timing) {
         log.info("[handleCharacterStreamChat] 处理流式角色扮演对话: characterId={}, conversationId={}, enableTts={}, enableRag={}",
                 request.getCharacterId(), conversationId, request.getEnableTts(), request.getEnableRag());
         
+        // 在请求线程中获取userId，组装阶段的并发任务无法读取ThreadLocal中的用户信息
+        Long userId = SecurityUtils.getCurrentUserId();
+
         return Flux.defer(() -> {
             try {
-                Character character;
-                Message systemMessage;
-
-                // ✅ 特殊处理 ID=0 的普通助手角色
-                if (request.getCharacterId() != null && request.getCharacterId() == 0L) {
-                    log.info("[handleCharacterStreamChat] 使用Qwen助手模式 (ID=0)");
-                    
-                    // ✅ 更新 Qwen 会话元数据（如果有 conversationId）
-                    if (request.getConversationId() != null && !request.getConversationId().trim().isEmpty()) {
-                        Long userId = SecurityUtils.getCurrentUserId();
-                        // 更新最后活跃时间
-                        qwenConversationService.updateLastActiveTime(userId, request.getConversationId());
-                        // 自动生成标题（仅首次）
-                        qwenConversationService.generateTitle(userId, request.getConversationId(), request.getMessage());
-                    }
-                    
-                    // ✅ 强制关闭RAG - AI助手不需要角色知识库
-                    if (Boolean.TRUE.equals(request.getEnableRag())) {
-                        log.info("[handleCharacterStreamChat] AI助手不使用RAG，强制关闭: characterId=0");
-                        request.setEnableRag(false);
-                    }
-                    
-                    // 创建虚拟角色对象
-                    character = new Character();
-                    character.setId(0L);
-                    character.setName("Qwen");
-                    character.setAvatarUrl("http://oss.kon-carol.xyz/airole0.png");
-                    
-                    // 直接使用默认系统提示词，不使用RAG
-                    systemMessage = new org.springframework.ai.chat.messages.SystemMessage(
-                        "你是一个乐于助人的 AI 助手。请用简洁、准确的语言回答用户的问题。"
-                    );
-                } else {
-                    // 1. 获取角色信息
-                    character = characterService.getCharacterById(request.getCharacterId());
-                    
-                    // 2. 检查角色是否可用
-                    if (!characterService.isCharacterAvailable(request.getCharacterId())) {
-                        log.warn("角色不可用: characterId={}, characterName={}", request.getCharacterId(), character.getName());
-                        return Flux.just(
-                            "data: {\"error\": \"角色 " + character.getName() + " 当前不可用\"}\n\n",
-                            "data: [DONE]\n\n"
-                        );
-                    }
-                    
-                    // 3. 根据enableRag标志决定是否使用RAG知识检索
-                    if (Boolean.TRUE.equals(request.getEnableRag())) {
-                        // 启用RAG：检索知识并使用增强提示词
-                        List<CharacterKnowledge> relevantKnowledge = ragService.searchRelevantKnowledge(
-                            request.getCharacterId(),
-                            request.getMessage(),
-                            5  // 检索top5相关知识
-                        );
-
-                        log.info("[handleCharacterStreamChat] RAG模式：检索到 {} 个相关知识条目", relevantKnowledge.size());
-
-                        // 生成包含RAG知识的增强系统提示词
-                        systemMessage = promptTemplateService.createCharacterSystemMessageWithRAG(
-                            character,
-                            relevantKnowledge,
-                            Boolean.TRUE.equals(request.getEnableTts())
-                        );
-                    } else {
-                        // 禁用RAG：直接使用基础角色提示词
-                        log.info("[handleCharacterStreamChat] 基础模式：不使用RAG知识检索");
-                        systemMessage = promptTemplateService.createCharacterSystemMessage(
-                            character,
-                            Boolean.TRUE.equals(request.getEnableTts())
-                        );
-                    }
-                }
-
-                // 4. 同步历史记录到messageWindowChatMemory（确保MessageChatMemoryAdvisor能读取到）
-                syncHistoryToMessageWindowChatMemory(conversationId);
+                // 1-4. 并发执行角色查询、可用性检查、RAG检索和历史加载
+                PromptAssemblyResult assembly = promptAssemblyService.assemblePrompt(request, conversationId, userId,
+                        timing.timers());
+                Character character = assembly.getCharacter();
+                Message systemMessage = assembly.getSystemMessage();
 
                 // 5. 创建用户消息
                 UserMessage userMessage = new UserMessage(request.getMessage());
 
-                // 6. 使用Prompt进行流式对话
-                Prompt prompt = new Prompt(List.of(systemMessage, userMessage));
-
-                // 7. 保存用户消息到自定义存储和messageWindowChatMemory
-                // 7. 保存用户消息到自定义存储和messageWindowChatMemory
-                customMessageStorageService.saveMessage(conversationId, userMessage, true, request.getAudioUrl(), request.getVoiceDuration());
-                // 同时保存到messageWindowChatMemory，确保MessageChatMemoryAdvisor能读取到
-                messageWindowChatMemory.add(conversationId, userMessage);
+                // 6. 使用Prompt进行流式对话：系统提示词 + 历史消息 + 本轮用户消息
+                Prompt prompt = buildPrompt(systemMessage, assembly.getHistory(), userMessage);
 
                 log.info("[handleCharacterStreamChat] 角色 {} 流式回复开始: conversationId={}, RAG模式: {}",
                     character.getName(), conversationId, request.getEnableRag());
                 
+                // 7. 调用LLM前先保存用户消息和会话元数据，消息ID在回复片段之前推送
+                StreamReplyState state = new StreamReplyState(userId, timing);
+                Long userMessageId = saveUserMessage(request, conversationId, userId,
+                        TurnMessage.user(userMessage, request.getAudioUrl(), request.getVoiceDuration()), timing.timers());
+
+                // 8. 首轮提问先查语义缓存，命中时回放缓存回复，不再调用LLM
+                Flux<String> replyStream = openReplyStream(request, character, assembly.getHistory(), prompt, state,
+                        guestSessionId);
+                
                 // 如果启用了TTS，需要收集完整响应用于语音合成
                 if (Boolean.TRUE.equals(request.getEnableTts())) {
-                    return handleStreamingWithTTS(request, conversationId, prompt);
+                    return handleStreamingWithTTS(request, conversationId, userId, userMessageId, replyStream, state);
                 } else {
                     // 普通流式响应，不需要TTS - 需要收集完整响应用于保存
-                    StringBuilder completeResponse = new StringBuilder();
-                    
-                    return chatClient.prompt(prompt)
-                            .advisors(advisor -> advisor.param(CONVERSATION_ID, conversationId))
-                            .stream()
-                            .content()
+                    Flux<ChatStreamEvent> events = replyStream
                             .map(chunk -> {
                                 // 收集文本块用于后续保存
-                                completeResponse.append(chunk);
-                                return "data:" + chunk + "\n\n";
+                                state.appendChunk(chunk);
+                                return ChatStreamEvent.token(chunk);
                             })
+                            .doOnComplete(state::onGenerationComplete)
                             .concatWith(
-                                // 流式响应完成后，保存完整的AI回复
+                                // 流式响应完成后，保存AI回复并返回消息ID
                                 Mono.fromCallable(() -> {
-                                    String fullResponse = completeResponse.toString();
-                                    if (!fullResponse.isEmpty()) {
-                                        AssistantMessage assistantMessage = new AssistantMessage(fullResponse);
-                                        customMessageStorageService.saveMessage(conversationId, assistantMessage, false);
-                                        // 同时保存到messageWindowChatMemory
-                                        messageWindowChatMemory.add(conversationId, assistantMessage);
-                                        log.info("[handleCharacterStreamChat] 保存AI流式回复: conversationId={}, length={}", 
-                                                conversationId, fullResponse.length());
-                                    }
-                                    return "data:[DONE]\n\n";
-                                }).subscribeOn(Schedulers.boundedElastic())
+                                    saveStreamReply(conversationId, state);
+                                    cacheReply(request, state);
+                                    return replyMessageIdEvents(state);
+                                }).subscribeOn(Schedulers.boundedElastic()).flatMapIterable(idEvents -> idEvents)
                             );
+                    return withDisconnectHandling(userMessageIdEvents(userMessageId).concatWith(events),
+                            conversationId, state);
                 }
                         
             } catch (Exception e) {
+                if (e instanceof BusinessException businessException
+                        && businessException.getErrorCode() == ErrorCode.CHAT_CHARACTER_UNAVAILABLE) {
+                    // 角色不可用
+                    return Flux.just(ChatStreamEvent.error(e.getMessage()));
+                }
                 log.error("RAG增强流式角色扮演对话初始化失败: characterId={}, error={}", 
                         request.getCharacterId(), e.getMessage(), e);
-                return Flux.just(
-                    "data: {\"error\": \"角色扮演初始化失败: " + e.getMessage() + "\"}\n\n",
-                    "data: [DONE]\n\n"
-                );
+                return Flux.just(ChatStreamEvent.error("角色扮演初始化失败: " + e.getMessage()));
             }
         });
     }
+
+    /**
+     * 打开本轮回复的文本流
+     * 无历史的首轮提问先查语义缓存（按RAG、TTS模式和角色版本分区），命中时回放缓存回复；
+     * 未命中时经准入调度调用LLM，并标记回复完成后写入缓存
+     */
+    private Flux<String> openReplyStream(ChatRequest request, Character character, List<Message> history,
+                                         Prompt prompt, StreamReplyState state, String guestSessionId) {
+        if (semanticCacheService.isEligible(request, history)) {
+            Optional<String> cachedReply = semanticCacheService.lookup(request, character);
+            if (cachedReply.isPresent()) {
+                return semanticCacheService.replay(cachedReply.get());
+            }
+            state.cacheable = true;
+            state.cacheCharacter = character;
+        }
+        return admittedStream(state.userId, guestSessionId, () -> {
+            // 生成耗时从获得许可开始计算，不含排队时间
+            state.generationStartNanos = System.nanoTime();
+            return chatClient.prompt(prompt).stream().content();
+        });
+    }
+
+    /**
+     * 经准入调度发起LLM流式调用：注册用户与游客分属不同优先级类别，类别内按用户排队；
+     * 流结束、出错或客户端断开时归还许可
+     */
+    private Flux<String> admittedStream(Long userId, String guestSessionId, Supplier<Flux<String>> call) {
+        PriorityClass priorityClass = userId != null ? PriorityClass.REGISTERED : PriorityClass.GUEST;
+        return admissionScheduler.stream(admissionKey(userId, guestSessionId), priorityClass, call);
+    }
+
+    /**
+     * 排队用的用户标识：注册用户为用户ID，游客为会话标识
+     */
+    private static String admissionKey(Long userId, String guestSessionId) {
+        return userId != null ? "user:" + userId : "guest:" + guestSessionId;
+    }
+
+    /**
+     * 完整生成（未被取消）的首轮回复写入语义缓存
+     */
+    private void cacheReply(ChatRequest request, StreamReplyState state) {
+        if (!state.cacheable || state.cancelled.get()) {
+            return;
+        }
+        long generationMillis = (System.nanoTime() - state.generationStartNanos) / 1_000_000;
+        semanticCacheService.store(request, state.cacheCharacter, state.completeResponse.toString(), generationMillis);
+    }
     
     /**
      * 处理带TTS的流式响应
-     * 先进行流式文本输出，然后生成TTS音频
+     * 文本流式输出的同时逐句合成语音，每句合成完成后立即推送 tts_segment 事件；
+     * 回复结束后先保存回复并推送消息ID，再拼接各句音频持久化到OSS，并推送完整音频的 tts 事件
      */
-    private Flux<String> handleStreamingWithTTS(ChatRequest request, String conversationId, Prompt prompt) {
-        Long userId = SecurityUtils.getCurrentUserId();
+    private Flux<ChatStreamEvent> handleStreamingWithTTS(ChatRequest request, String conversationId, Long userId,
+                                                         Long userMessageId, Flux<String> replyStream,
+                                                         StreamReplyState state) {
+        List<TtsSegmentResult> segments = Collections.synchronizedList(new ArrayList<>());
         
-        // 用于收集完整响应文本
-        StringBuilder completeResponse = new StringBuilder();
-        
-        return chatClient.prompt(prompt)
-                .advisors(advisor -> advisor.param(CONVERSATION_ID, conversationId))
-                .stream()
-                .content()
-                .map(chunk -> {
-                    // 收集文本块用于后续TTS处理
-                    completeResponse.append(chunk);
-                    return "data:" + chunk + "\n\n";
-                })
+        Flux<ChatStreamEvent> events = replyStream
+                .doOnNext(state::appendChunk)
+                .doOnComplete(state::onGenerationComplete)
+                // 同一个文本流同时推送给前端和逐句TTS，逐句TTS不阻塞文本输出
+                .publish(chunks -> Flux.merge(
+                    chunks.map(ChatStreamEvent::token),
+                    ttsPipelineService.synthesizeSentences(chunks, request.getCharacterId(), userId, request.getLanguageType())
+                        .doOnNext(segment -> {
+                            segments.add(segment);
+                            if (segment.getSynthesisNanos() != null) {
+                                state.timing.timers().record(ChatStage.TTS_SYNTHESIS, segment.getSynthesisNanos());
+                            }
+                        })
+                        .map(this::toTtsSegmentEvent)
+                ))
                 .concatWith(
-                    // 流式文本完成后，处理TTS
+                    // 流式文本和逐句合成都完成后，保存AI回复并持久化完整音频
                     Mono.fromCallable(() -> {
-                        String fullResponse = completeResponse.toString();
-                        log.info("流式响应完成，开始TTS处理: conversationId={}, textLength={}", 
-                                conversationId, fullResponse.length());
-                        
-                        try {
-                            // 生成TTS音频
-                            TtsSynthesisResponse ttsResponse = chatTtsIntegrationService.generateSpeechForChatReply(
-                                fullResponse,
-                                request.getCharacterId(),
-                                userId != null ? userId.toString() : "anonymous",
-                                request.getLanguageType()
-                            );
-                            
-                            // 保存完整的AI回复到自定义存储（先不包含audioUrl）
-                            if (!fullResponse.isEmpty()) {
-                                AssistantMessage assistantMessage = new AssistantMessage(fullResponse);
-                                customMessageStorageService.saveMessage(conversationId, assistantMessage, false);
-                                // 同时保存到messageWindowChatMemory
-                                messageWindowChatMemory.add(conversationId, assistantMessage);
-                                log.info("[handleStreamingWithTTS] 保存AI流式回复: conversationId={}, length={}", 
-                                        conversationId, fullResponse.length());
-                                
-                                // 如果TTS成功，持久化音频到OSS并更新消息
-                                if (ttsResponse != null && ttsResponse.getSuccess()) {
-                                    Integer voiceDuration = ttsResponse.getDuration() != null ? 
-                                        ttsResponse.getDuration().intValue() : null;
-                                    
-                                    // 持久化TTS音频到OSS（下载临时URL并上传到OSS获取永久URL）
-                                    String permanentAudioUrl = ttsResponse.getAudioUrl();
-                                    try {
-                                        TtsPersistenceResult persistenceResult = ttsAudioPersistenceService.persistTtsAudio(
-                                            ttsResponse.getAudioUrl(),
-                                            userId,
-                                            request.getCharacterId()
-                                        );
-                                        permanentAudioUrl = persistenceResult.getAudioUrl();
-                                        
-                                        // 如果TTS响应中没有时长，使用持久化计算的时长
-                                        if (voiceDuration == null || voiceDuration == 0) {
-                                            voiceDuration = persistenceResult.getDuration();
-                                        }
-                                        
-                                        log.info("[handleStreamingWithTTS] TTS音频持久化到OSS成功: conversationId={}, ossUrl={}, duration={}", 
-                                                conversationId, permanentAudioUrl, voiceDuration);
-                                    } catch (Exception persistError) {
-                                        log.error("[handleStreamingWithTTS] TTS音频持久化失败，使用临时URL: conversationId={}, error={}", 
-                                                conversationId, persistError.getMessage());
-                                        // 持久化失败时仍然使用临时URL，不影响主流程
-                                    }
-                                    
-                                    customMessageStorageService.updateMessageAudioInfo(conversationId, fullResponse, 
-                                        permanentAudioUrl, voiceDuration);
-                                    log.info("[handleStreamingWithTTS] 更新AI回复音频信息: conversationId={}, audioUrl={}, duration={}", 
-                                            conversationId, permanentAudioUrl, voiceDuration);
-                                }
-                            }
-                            
-                            if (ttsResponse != null && ttsResponse.getSuccess()) {
-                                // 持久化TTS音频到OSS（下载临时URL并上传到OSS获取永久URL）
-                                String audioUrlToReturn = ttsResponse.getAudioUrl();
-                                Integer durationToReturn = ttsResponse.getDuration() != null ? ttsResponse.getDuration().intValue() : 0;
-                                
-                                try {
-                                    TtsPersistenceResult persistenceResult = ttsAudioPersistenceService.persistTtsAudio(
-                                        ttsResponse.getAudioUrl(),
-                                        userId,
-                                        request.getCharacterId()
-                                    );
-                                    audioUrlToReturn = persistenceResult.getAudioUrl();
-                                    if (durationToReturn == 0 && persistenceResult.getDuration() != null) {
-                                        durationToReturn = persistenceResult.getDuration();
-                                    }
-                                    
-                                    log.info("流式TTS合成成功并持久化到OSS: conversationId={}, ossUrl={}, duration={}", 
-                                            conversationId, audioUrlToReturn, durationToReturn);
-                                } catch (Exception persistError) {
-                                    log.error("流式TTS持久化失败，返回临时URL: conversationId={}, error={}", 
-                                            conversationId, persistError.getMessage());
-                                    // 持久化失败时仍然返回临时URL，不影响前端播放
-                                }
-                                
-                                // 返回TTS信息作为SSE事件（使用OSS永久URL或临时URL）
-                                return "data:{\"type\":\"tts\",\"audioUrl\":\"" + audioUrlToReturn + 
-                                       "\",\"voice\":\"" + (ttsResponse.getVoice() != null ? ttsResponse.getVoice() : "") + 
-                                       "\",\"duration\":" + durationToReturn + 
-                                       ",\"success\":true}\n\n";
-                            } else if (ttsResponse == null) {
-                                log.warn("流式TTS合成跳过: conversationId={}, 文本不适合语音合成", conversationId);
-                                
-                                return "data:{\"type\":\"tts\",\"success\":false,\"error\":\"文本不适合语音合成\"}\n\n";
-                            } else {
-                                log.warn("流式TTS合成失败: conversationId={}, error={}", 
-                                        conversationId, ttsResponse.getErrorMessage());
-                                
-                                return "data:{\"type\":\"tts\",\"success\":false,\"error\":\"" + 
-                                       ttsResponse.getErrorMessage() + "\"}\n\n";
-                            }
-                        } catch (Exception ttsError) {
-                            log.error("流式TTS处理异常: conversationId={}, error={}", 
-                                    conversationId, ttsError.getMessage(), ttsError);
-                            
-                            return "data:{\"type\":\"tts\",\"success\":false,\"error\":\"TTS处理异常: " + 
-                                   ttsError.getMessage() + "\"}\n\n";
-                        }
-                    })
-                    .subscribeOn(Schedulers.boundedElastic()) // 在后台线程处理TTS
+                        saveStreamReply(conversationId, state);
+                        cacheReply(request, state);
+                        return replyMessageIdEvents(state);
+                    }).subscribeOn(Schedulers.boundedElastic()).flatMapIterable(idEvents -> idEvents)
                 )
-                .concatWith(Mono.just("data:[DONE]\n\n"));
+                .concatWith(
+                    Mono.fromCallable(() -> finishStreamingTts(request, conversationId, userId, state, segments))
+                        .subscribeOn(Schedulers.boundedElastic())
+                );
+        return withDisconnectHandling(userMessageIdEvents(userMessageId).concatWith(events), conversationId, state);
+    }
+
+    /**
+     * 拼接逐句音频持久化到OSS，按消息ID更新AI回复的音频信息，返回完整音频的 tts 事件
+     */
+    private ChatStreamEvent finishStreamingTts(ChatRequest request, String conversationId, Long userId,
+                                               StreamReplyState state, List<TtsSegmentResult> segments) {
+        String fullResponse = state.completeResponse.toString();
+        long successCount = segments.stream().filter(segment -> Boolean.TRUE.equals(segment.getSuccess())).count();
+        log.info("[handleStreamingWithTTS] 流式响应完成: conversationId={}, textLength={}, segments={}, successSegments={}", 
+                conversationId, fullResponse.length(), segments.size(), successCount);
+        
+        if (segments.isEmpty()) {
+            log.warn("流式TTS合成跳过: conversationId={}, 文本不适合语音合成", conversationId);
+            return ttsFailedEvent("文本不适合语音合成");
+        }
+        if (successCount == 0) {
+            String error = segments.get(0).getErrorMessage();
+            log.warn("流式TTS合成失败: conversationId={}, error={}", conversationId, error);
+            return ttsFailedEvent(error);
+        }
+        
+        // 客户端已断开时不再拼接和上传音频，没有人会收到这个结果
+        if (state.cancelled.get()) {
+            streamMetricsCollector.recordPersistenceSkipped();
+            log.info("[handleStreamingWithTTS] 客户端已断开，跳过TTS音频持久化: conversationId={}", conversationId);
+            return ttsFailedEvent("客户端已断开");
+        }
+        
+        try {
+            long uploadStart = System.nanoTime();
+            TtsPersistenceResult persistenceResult = ttsPipelineService.persistSegments(
+                segments, userId, request.getCharacterId());
+            state.timing.timers().recordSince(ChatStage.AUDIO_UPLOAD, uploadStart);
+            String audioUrl = persistenceResult.getAudioUrl();
+            Integer duration = persistenceResult.getDuration() != null ? persistenceResult.getDuration() : 0;
+            String voice = segments.stream()
+                    .map(TtsSegmentResult::getVoice)
+                    .filter(StringUtils::hasText)
+                    .findFirst()
+                    .orElse("");
+            
+            customMessageStorageService.updateMessageAudioInfo(conversationId, state.messageId, audioUrl, duration);
+            log.info("[handleStreamingWithTTS] 逐句TTS音频持久化到OSS成功: conversationId={}, ossUrl={}, duration={}", 
+                    conversationId, audioUrl, duration);
+            
+            // 返回完整音频的TTS事件，前端可直接播放或用于重播
+            Map<String, Object> payload = new HashMap<>();
+            payload.put("type", "tts");
+            payload.put("audioUrl", audioUrl);
+            payload.put("voice", voice);
+            payload.put("duration", duration);
+            payload.put("success", true);
+            return ChatStreamEvent.tts(payload);
+        } catch (Exception e) {
+            log.error("流式TTS持久化失败: conversationId={}, error={}", 
+                    conversationId, e.getMessage(), e);
+            return ttsFailedEvent("TTS处理异常: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 将逐句合成结果转换为 tts_segment 事件
+     */
+    private ChatStreamEvent toTtsSegmentEvent(TtsSegmentResult segment) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("type", "tts_segment");
+        payload.put("index", segment.getIndex());
+        payload.put("text", segment.getText());
+        payload.put("success", segment.getSuccess());
+        if (Boolean.TRUE.equals(segment.getSuccess())) {
+            payload.put("audioUrl", segment.getAudioUrl());
+            payload.put("voice", segment.getVoice());
+            payload.put("duration", segment.getDuration());
+        } else {
+            payload.put("error", segment.getErrorMessage());
+        }
+        return ChatStreamEvent.tts(payload);
+    }
+
+    private ChatStreamEvent ttsFailedEvent(String error) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("type", "tts");
+        payload.put("success", false);
+        payload.put("error", error);
+        return ChatStreamEvent.tts(payload);
+    }
+
+    /**
+     * 构建本轮对话的Prompt：系统提示词（可选）+ 历史消息 + 本轮用户消息
+     */
+    private Prompt buildPrompt(Message systemMessage, List<Message> history, UserMessage userMessage) {
+        List<Message> messages = new ArrayList<>(history.size() + 2);
+        if (systemMessage != null) {
+            messages.add(systemMessage);
+        }
+        messages.addAll(history);
+        messages.add(userMessage);
+        return new Prompt(messages);
     }
 
     /**
@@ -834,15 +942,20 @@ public class ChatController {
 
     /**
      * 获取聊天历史 - 新接口，适配Spring AI Redis存储
+     * 指定角色或会话时按游标分页：不传 before 返回最新一页，传入上一页的 nextCursor 加载更早的消息
      * @param characterId 角色ID，可选参数。如果不提供则查询所有角色的历史记录
+     * @param before 分页游标（消息ID，不含），可选
+     * @param limit 每页消息数，可选
      */
     @GetMapping("/history")
     public ChatHistoryResponse getChatHistoryNew(
             @RequestParam(required = false) Long characterId,
-            @RequestParam(required = false) String conversationId) {
+            @RequestParam(required = false) String conversationId,
+            @RequestParam(required = false) Long before,
+            @RequestParam(required = false) Integer limit) {
         Long userId = SecurityUtils.getCurrentUserId();
-        log.info("[getChatHistoryNew] 获取聊天历史: userId={}, characterId={}, conversationId={}", 
-                userId, characterId, conversationId);
+        log.info("[getChatHistoryNew] 获取聊天历史: userId={}, characterId={}, conversationId={}, before={}, limit={}", 
+                userId, characterId, conversationId, before, limit);
         
         if (userId == null) {
             log.warn("[getChatHistoryNew] 用户未登录");
@@ -853,7 +966,7 @@ public class ChatController {
             ChatHistoryResponse response;
             if (characterId != null || conversationId != null) {
                 // 查询指定角色或会话的历史记录
-                response = conversationHistoryService.getChatHistory(characterId, userId, conversationId);
+                response = conversationHistoryService.getChatHistory(characterId, userId, conversationId, before, limit);
             } else {
                 // 查询所有角色的历史记录
                 response = conversationHistoryService.getAllChatHistory(userId);
@@ -883,16 +996,9 @@ public class ChatController {
         }
         
         try {
-            // 生成conversationId用于清除同步缓存
-            ChatRequest tempRequest = new ChatRequest();
-            tempRequest.setCharacterId(characterId);
-            String conversationId = generateConversationId(tempRequest, userId);
-            
             boolean success = conversationHistoryService.clearConversation(characterId, userId);
             
             if (success) {
-                // 清除同步缓存，允许重新同步
-                clearSyncCache(conversationId);
                 log.info("[clearConversationNew] 对话清空成功");
             } else {
                 log.warn("[clearConversationNew] 对话清空失败");
@@ -922,10 +1028,7 @@ public class ChatController {
             boolean success = conversationHistoryService.clearAllConversations(userId);
             
             if (success) {
-                // 清空所有该用户的同步缓存（通过前缀匹配）
-                String userIdPrefix = "user_" + userId + "_";
-                syncedConversations.removeIf(convId -> convId.startsWith(userIdPrefix));
-                log.info("[clearAllConversations] 所有对话清空成功，同步缓存已清除");
+                log.info("[clearAllConversations] 所有对话清空成功");
             } else {
                 log.warn("[clearAllConversations] 所有对话清空失败");
                 throw new RuntimeException("所有对话清空失败");
@@ -1004,14 +1107,14 @@ public class ChatController {
 
     /**
      * 更新消息的语音时长
-     * 前端录音完成后调用此接口更新消息的语音时长
+     * 前端录音完成后调用此接口更新消息的语音时长；按消息ID定位消息，未提供消息ID时按内容查找（兼容旧客户端）
      */
     @PostMapping("/update-voice-duration")
     public Map<String, Object> updateVoiceDuration(@Valid @RequestBody UpdateVoiceDurationRequest request) {
         Long userId = SecurityUtils.getCurrentUserId();
         
-        log.info("[updateVoiceDuration] 收到更新语音时长请求: userId={}, conversationId={}, voiceDuration={}", 
-                userId, request.getConversationId(), request.getVoiceDuration());
+        log.info("[updateVoiceDuration] 收到更新语音时长请求: userId={}, conversationId={}, messageId={}, voiceDuration={}", 
+                userId, request.getConversationId(), request.getMessageId(), request.getVoiceDuration());
         
         // 验证用户认证
         if (userId == null) {
@@ -1019,6 +1122,10 @@ public class ChatController {
             throw new RuntimeException("用户未认证");
         }
         
+        if (request.getMessageId() == null && !StringUtils.hasText(request.getMessageContent())) {
+            throw new IllegalArgumentException("消息ID和消息内容不能同时为空");
+        }
+        
         try {
             // 如果请求中没有提供conversationId，则根据characterId和userId生成
             String conversationId = request.getConversationId();
@@ -1031,16 +1138,22 @@ public class ChatController {
                 log.info("[updateVoiceDuration] 生成会话ID: {}", conversationId);
             }
             
+            Long messageId = request.getMessageId();
+            if (messageId == null) {
+                messageId = customMessageStorageService.findLatestMessageId(conversationId, true, request.getMessageContent());
+            }
+            
             // 更新用户消息的语音时长
             boolean success = customMessageStorageService.updateUserMessageVoiceDuration(
                 conversationId, 
-                request.getMessageContent(), 
+                messageId, 
                 request.getVoiceDuration()
             );
             
             Map<String, Object> response = new HashMap<>();
             response.put("success", success);
             response.put("conversationId", conversationId);
+            response.put("messageId", messageId);
             response.put("voiceDuration", request.getVoiceDuration());
             
             if (success) {
@@ -1060,77 +1173,6 @@ public class ChatController {
         }
     }
 
-    /**
-     * 同步历史记录到messageWindowChatMemory（优化版）
-     * 只在第一次调用时同步历史记录，后续消息通过messageWindowChatMemory.add()直接保存
-     * 优化策略：
-     * 1. 使用缓存机制，避免重复检查已同步的会话
-     * 2. 只在messageWindowChatMemory为空且customMessageStorageService有历史记录时才同步
-     * 3. 同步后标记为已同步，后续消息通过add()方法直接保存，无需同步
-     */
-    private void syncHistoryToMessageWindowChatMemory(String conversationId) {
-        try {
-            // 优化1: 如果已经同步过，直接返回（避免重复检查Redis）
-            if (syncedConversations.contains(conversationId)) {
-                log.debug("[syncHistory] 会话 {} 已同步过，跳过检查", conversationId);
-                return;
-            }
-
-            // 优化2: 快速检查messageWindowChatMemory中是否已有记录
-            List<Message> existingMessages = messageWindowChatMemory.get(conversationId);
-            if (!existingMessages.isEmpty()) {
-                log.debug("[syncHistory] messageWindowChatMemory中已有 {} 条记录，标记为已同步", existingMessages.size());
-                syncedConversations.add(conversationId);
-                return;
-            }
-
-            // 优化3: 只在messageWindowChatMemory为空时，才从customMessageStorageService同步历史记录
-            List<CustomMessageStorageService.StoredMessage> customMessages = 
-                customMessageStorageService.getMessages(conversationId);
-            
-            if (customMessages.isEmpty()) {
-                log.debug("[syncHistory] 自定义存储中没有历史记录，标记为已同步");
-                syncedConversations.add(conversationId);
-                return;
-            }
-
-            log.info("[syncHistory] 首次同步历史记录: conversationId={}, count={}", 
-                    conversationId, customMessages.size());
-
-            // 将自定义存储的消息转换为Spring AI的Message对象并添加到messageWindowChatMemory
-            // 注意：只同步历史记录，当前消息会通过add()方法单独保存
-            for (CustomMessageStorageService.StoredMessage storedMessage : customMessages) {
-                Message message;
-                if (storedMessage.getIsUser()) {
-                    message = new UserMessage(storedMessage.getContent());
-                } else {
-                    message = new AssistantMessage(storedMessage.getContent());
-                }
-                messageWindowChatMemory.add(conversationId, message);
-            }
-
-            // 标记为已同步，后续消息通过add()方法直接保存，无需再次同步
-            syncedConversations.add(conversationId);
-            
-            log.info("[syncHistory] 历史记录同步完成: conversationId={}, count={}", 
-                    conversationId, customMessages.size());
-
-        } catch (Exception e) {
-            log.error("[syncHistory] 同步历史记录失败: conversationId={}, error={}", 
-                    conversationId, e.getMessage(), e);
-            // 不抛出异常，避免影响主流程
-            // 失败时不标记为已同步，下次会重试
-        }
-    }
-    
-    /**
-     * 清除会话的同步缓存（用于清空对话时调用）
-     */
-    private void clearSyncCache(String conversationId) {
-        syncedConversations.remove(conversationId);
-        log.debug("[syncHistory] 清除同步缓存: conversationId={}", conversationId);
-    }
-    
     // ==================== Qwen 会话管理 API ====================
     
     /**
@@ -1185,4 +1227,76 @@ public class ChatController {
                 userId, conversationId, request.getTitle());
         qwenConversationService.renameConversation(userId, conversationId, request.getTitle());
     }
+
+    /**
+     * 单个流式回复的状态，在流式输出、收尾保存和断开处理之间共享
+     */
+    private static class StreamReplyState {
+        private final Long userId;
+        // 断开处理可能在其他线程读取，使用线程安全的StringBuffer
+        private final StringBuffer completeResponse = new StringBuffer();
+        private final AtomicBoolean generationDone = new AtomicBoolean(false);
+        private final AtomicBoolean cancelled = new AtomicBoolean(false);
+        private final AtomicBoolean replySaved = new AtomicBoolean(false);
+        // AI回复保存后分配的消息ID，用于按ID更新音频信息
+        private volatile Long messageId;
+        // 语义缓存未命中时为true，回复完整生成后写入缓存
+        private boolean cacheable = false;
+        // 查询语义缓存时使用的角色，写入时按同一角色版本分区
+        private Character cacheCharacter;
+        // 获得LLM调用许可的时间，语义缓存命中时为0
+        private long generationStartNanos;
+        private final ReplyTiming timing;
+        private long lastChunkNanos;
+
+        private StreamReplyState(Long userId, ReplyTiming timing) {
+            this.userId = userId;
+            this.timing = timing;
+        }
+
+        /**
+         * 收集一个回复片段：第一个片段记首token耗时，之后记相邻片段间隔；
+         * 语义缓存回放的片段不是模型生成的，不计入
+         */
+        private void appendChunk(String chunk) {
+            completeResponse.append(chunk);
+            if (generationStartNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if (lastChunkNanos == 0) {
+                timing.timers().record(ChatStage.FIRST_TOKEN, now - timing.requestStartNanos());
+            } else {
+                timing.timers().record(ChatStage.INTER_TOKEN, now - lastChunkNanos);
+            }
+            lastChunkNanos = now;
+        }
+
+        private void onGenerationComplete() {
+            generationDone.set(true);
+            if (generationStartNanos != 0) {
+                timing.timers().recordSince(ChatStage.GENERATION, generationStartNanos);
+            }
+        }
+    }
+
+    /**
+     * 流式回复的阶段计时器和收到请求的时间
+     */
+    private record ReplyTiming(StageTimers timers, long requestStartNanos) {
+    }
+
+    /**
+     * 流式回复合并键：会话ID、游客会话标识（游客共用匿名会话ID，需要区分）、消息摘要、是否合成语音
+     */
+    private record ReplyKey(String conversationId, String guestSessionId, String messageDigest, boolean enableTts) {
+    }
+
+    /**
+     * 非流式对话中本轮保存的用户消息和AI回复的消息ID
+     */
+    private static class TurnMessageIds {
+        private Long userMessageId;
+        private Long messageId;
+    }
 }
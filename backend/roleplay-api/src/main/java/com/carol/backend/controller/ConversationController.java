@@ -2,9 +2,11 @@ package com.carol.backend.controller;
 
 import com.carol.backend.entity.Conversation;
 import com.carol.backend.entity.ConversationMessage;
+import com.carol.backend.entity.DataSyncJob;
 import com.carol.backend.mapper.ConversationMapper;
 import com.carol.backend.mapper.ConversationMessageMapper;
 import com.carol.backend.service.IConversationSyncService;
+import com.carol.backend.service.IDataSyncService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import io.swagger.v3.oas.annotations.Operation;
@@ -38,6 +40,7 @@ import java.util.Map;
 public class ConversationController {
     
     private final IConversationSyncService syncService;
+    private final IDataSyncService dataSyncService;
     private final ConversationMapper conversationMapper;
     private final ConversationMessageMapper conversationMessageMapper;
     
@@ -111,6 +114,16 @@ public class ConversationController {
         }
     }
     
+    /**
+     * 获取最近的定时同步任务（游标进度、吞吐和各分区耗时）
+     */
+    @GetMapping("/sync/jobs")
+    @Operation(summary = "定时同步任务", description = "最近的数据同步任务记录，未完成的任务下次运行时从游标继续")
+    public List<DataSyncJob> getDataSyncJobs(
+            @Parameter(description = "返回条数") @RequestParam(defaultValue = "20") int limit) {
+        return dataSyncService.getRecentJobs(Math.min(Math.max(limit, 1), 100));
+    }
+    
     /**
      * 获取对话列表
      */
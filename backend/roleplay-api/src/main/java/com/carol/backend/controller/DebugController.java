@@ -1,11 +1,12 @@
 package com.carol.backend.controller;
 
 import com.carol.backend.mapper.ConversationMapper;
+import com.carol.backend.service.CustomMessageStorageService;
 import com.carol.backend.service.IConversationSyncService;
+import com.carol.backend.service.ICustomMessageStorageService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -13,6 +14,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,7 +32,7 @@ public class DebugController {
     
     private final ConversationMapper conversationMapper;
     private final RedisTemplate<String, Object> redisTemplate;
-    private final StringRedisTemplate stringRedisTemplate;
+    private final ICustomMessageStorageService customMessageStorageService;
     private final IConversationSyncService syncService;
     
     /**
@@ -67,10 +69,10 @@ public class DebugController {
         
         try {
             // 测试Redis连接
-            Set<String> keys = redisTemplate.keys("spring_ai_alibaba_chat_memory:*");
+            List<String> conversationIds = customMessageStorageService.findConversationIds();
             result.put("redis_status", "connected");
-            result.put("chat_memory_keys_count", keys != null ? keys.size() : 0);
-            result.put("sample_keys", keys != null ? keys.stream().limit(3).toArray() : new String[0]);
+            result.put("chat_memory_keys_count", conversationIds.size());
+            result.put("sample_keys", conversationIds.stream().limit(3).toArray());
             result.put("timestamp", LocalDateTime.now());
             
         } catch (Exception e) {
@@ -113,6 +115,24 @@ public class DebugController {
         return result;
     }
     
+    /**
+     * 查看会话在Redis中的内存占用（MEMORY USAGE）及每千条消息的字节数
+     */
+    @GetMapping("/storage/{sessionId}")
+    public Map<String, Object> getStorageFootprint(@PathVariable String sessionId) {
+        Map<String, Object> result = new HashMap<>();
+        try {
+            result.putAll(customMessageStorageService.getStorageFootprint(sessionId));
+            result.put("status", "OK");
+        } catch (Exception e) {
+            log.error("查询会话存储占用失败: sessionId={}", sessionId, e);
+            result.put("status", "ERROR");
+            result.put("error_message", e.getMessage());
+        }
+        result.put("timestamp", LocalDateTime.now());
+        return result;
+    }
+    
     /**
      * 测试同步功能的详细调试
      */
@@ -121,17 +141,15 @@ public class DebugController {
         Map<String, Object> result = new HashMap<>();
         
         try {
-            // 1. 测试Redis读取
-            String redisKey = "spring_ai_alibaba_chat_memory:" + sessionId;
-            log.info("测试Redis读取，key: {}", redisKey);
+            // 1. 测试Redis读取（统一会话存储）
+            log.info("测试Redis读取，sessionId: {}", sessionId);
             
-            // 使用StringRedisTemplate读取
-            java.util.List<String> messageStrings = stringRedisTemplate.opsForList().range(redisKey, 0, -1);
+            List<CustomMessageStorageService.StoredMessage> messages = customMessageStorageService.getMessages(sessionId);
             
-            result.put("redis_key", redisKey);
-            result.put("messages_found", messageStrings != null ? messageStrings.size() : 0);
-            result.put("first_message_sample", messageStrings != null && !messageStrings.isEmpty() ? 
-                messageStrings.get(0).substring(0, Math.min(100, messageStrings.get(0).length())) + "..." : "无消息");
+            result.put("redis_key", CustomMessageStorageService.dataKey(sessionId));
+            result.put("messages_found", messages.size());
+            result.put("first_message_sample", !messages.isEmpty() && messages.get(0).getContent() != null ? 
+                messages.get(0).getContent().substring(0, Math.min(100, messages.get(0).getContent().length())) + "..." : "无消息");
             
             // 2. 测试会话解析
             if (sessionId.matches("user_([^_]+)_(?:char_(\\d+)|general)")) {
@@ -127,16 +127,17 @@ public class SpeechRecognitionController {
                     org.springframework.ai.chat.messages.UserMessage userMessage = 
                         new org.springframework.ai.chat.messages.UserMessage(response.getText());
                     
-                    customMessageStorageService.saveMessage(
+                    Long messageId = customMessageStorageService.saveMessage(
                         conversationId, 
                         userMessage, 
                         true,  // isUser = true
                         ossAudioUrl,
                         audioDuration
                     );
+                    response.setMessageId(messageId);
                     
-                    log.info("[recognizeAudio] 用户语音消息已保存到Redis: conversationId={}, text={}, audioUrl={}", 
-                            conversationId, response.getText(), ossAudioUrl);
+                    log.info("[recognizeAudio] 用户语音消息已保存到Redis: conversationId={}, messageId={}, text={}, audioUrl={}", 
+                            conversationId, messageId, response.getText(), ossAudioUrl);
                 } catch (Exception redisError) {
                     log.error("[recognizeAudio] 保存用户消息到Redis失败: conversationId={}, error={}", 
                             conversationId, redisError.getMessage());
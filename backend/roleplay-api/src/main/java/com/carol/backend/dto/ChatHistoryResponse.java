@@ -30,6 +30,11 @@ public class ChatHistoryResponse {
      */
     private Boolean hasMore;
     
+    /**
+     * 下一页游标：作为 before 参数加载更早的消息，没有更早的消息时为null
+     */
+    private Long nextCursor;
+    
     /**
      * 数据来源统计
      */
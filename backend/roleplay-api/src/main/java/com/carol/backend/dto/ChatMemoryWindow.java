@@ -0,0 +1,42 @@
+package com.carol.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 会话记忆窗口
+ * 本轮对话注入提示词的历史：更早对话的滚动摘要 + 预算内原文保留的最近消息
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatMemoryWindow {
+
+    /**
+     * 移出窗口的更早对话的摘要，没有摘要时为null
+     */
+    private String summary;
+
+    /**
+     * 原文保留的最近消息（按时间顺序）
+     */
+    @Builder.Default
+    private List<Message> messages = new ArrayList<>();
+
+    /**
+     * 注入提示词的历史token估算值（摘要 + 原文消息）
+     */
+    private int promptTokens;
+
+    /**
+     * 相比注入全部已读取历史节省的token估算值
+     */
+    private int tokensSaved;
+}
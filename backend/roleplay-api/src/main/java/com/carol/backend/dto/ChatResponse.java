@@ -6,6 +6,7 @@ import lombok.NoArgsConstructor;
 import lombok.Builder;
 
 import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * 聊天响应DTO
@@ -28,6 +29,16 @@ public class ChatResponse {
      */
     private String conversationId;
     
+    /**
+     * 本轮用户消息ID（会话内递增，用于按ID更新消息）
+     */
+    private Long userMessageId;
+    
+    /**
+     * AI回复消息ID
+     */
+    private Long messageId;
+    
     /**
      * 角色信息（可选）
      */
@@ -43,6 +54,11 @@ public class ChatResponse {
      */
     private AudioInfo audio;
     
+    /**
+     * 提示词组装各阶段耗时（毫秒），用于排查响应慢的原因
+     */
+    private Map<String, Long> stageTimings;
+    
     /**
      * 构造简单响应
      */
@@ -0,0 +1,63 @@
+package com.carol.backend.dto;
+
+import com.carol.backend.enums.ChatStreamEventType;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 流式聊天事件
+ * 控制器只产出类型化事件，由 ChatSseEventEncoder 统一合并、转义并编码为SSE帧
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChatStreamEvent {
+
+    /**
+     * 事件类型
+     */
+    private ChatStreamEventType type;
+
+    /**
+     * 文本内容：TOKEN为回复片段，ERROR为错误信息
+     */
+    private String content;
+
+    /**
+     * 结构化数据：TTS事件的字段（type、audioUrl、duration等），MESSAGE_ID事件的字段（type、role、messageId）
+     */
+    private Map<String, Object> payload;
+
+    public static ChatStreamEvent token(String content) {
+        return new ChatStreamEvent(ChatStreamEventType.TOKEN, content, null);
+    }
+
+    public static ChatStreamEvent tts(Map<String, Object> payload) {
+        return new ChatStreamEvent(ChatStreamEventType.TTS, null, payload);
+    }
+
+    /**
+     * 消息保存后返回消息ID，前端用于后续按ID更新消息（如语音时长）
+     *
+     * @param role user 或 assistant
+     */
+    public static ChatStreamEvent messageId(String role, Long messageId) {
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("type", "message_id");
+        payload.put("role", role);
+        payload.put("messageId", messageId);
+        return new ChatStreamEvent(ChatStreamEventType.MESSAGE_ID, null, payload);
+    }
+
+    public static ChatStreamEvent error(String message) {
+        return new ChatStreamEvent(ChatStreamEventType.ERROR, message, null);
+    }
+
+    public static ChatStreamEvent done() {
+        return new ChatStreamEvent(ChatStreamEventType.DONE, null, null);
+    }
+}
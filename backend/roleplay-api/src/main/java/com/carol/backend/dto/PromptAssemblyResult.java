@@ -0,0 +1,66 @@
+package com.carol.backend.dto;
+
+import com.carol.backend.entity.Character;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.ai.chat.messages.Message;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 提示词组装结果
+ * 包含本轮对话使用的角色、系统提示词、历史消息以及各阶段耗时
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PromptAssemblyResult {
+
+    /**
+     * 本轮对话的角色（ID=0时为虚拟的Qwen助手）
+     */
+    private Character character;
+
+    /**
+     * 组装完成的系统提示词
+     */
+    private Message systemMessage;
+
+    /**
+     * 注入提示词的历史消息（按时间顺序，不含本轮用户消息；超出token预算的更早消息以摘要形式并入系统提示词）
+     */
+    @Builder.Default
+    private List<Message> history = new ArrayList<>();
+
+    /**
+     * 注入提示词的历史token估算值（滚动摘要 + 原文保留的消息）
+     */
+    private int historyTokens;
+
+    /**
+     * 记忆窗口相比注入全部已读取历史节省的token估算值
+     */
+    private int historyTokensSaved;
+
+    /**
+     * 实际注入提示词的知识条目数
+     */
+    private Integer knowledgeCount;
+
+    /**
+     * RAG检索是否超时（超时后降级为基础角色提示词）
+     */
+    private Boolean ragTimedOut;
+
+    /**
+     * 各阶段耗时（毫秒），按阶段开始顺序排列
+     */
+    @Builder.Default
+    private Map<String, Long> stageTimings = new LinkedHashMap<>();
+}
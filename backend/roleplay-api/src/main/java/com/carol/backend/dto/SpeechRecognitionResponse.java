@@ -77,6 +77,11 @@ public class SpeechRecognitionResponse {
      */
     private Integer audioDuration;
     
+    /**
+     * 识别结果保存为用户消息时的消息ID（用于更新语音时长）
+     */
+    private Long messageId;
+    
     /**
      * 处理时间戳
      */
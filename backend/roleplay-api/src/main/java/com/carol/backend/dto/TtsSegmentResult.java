@@ -0,0 +1,57 @@
+package com.carol.backend.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * 逐句TTS合成结果
+ * 流式回复中每切出一句就合成一段音频，按句子顺序推送给前端
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class TtsSegmentResult {
+
+    /**
+     * 句子序号（从0开始，按回复顺序）
+     */
+    private Long index;
+
+    /**
+     * 句子文本
+     */
+    private String text;
+
+    /**
+     * 合成成功标识
+     */
+    private Boolean success;
+
+    /**
+     * 音频临时URL（24小时有效）
+     */
+    private String audioUrl;
+
+    /**
+     * 音频时长（秒）
+     */
+    private Double duration;
+
+    /**
+     * 使用的音色
+     */
+    private String voice;
+
+    /**
+     * 错误信息
+     */
+    private String errorMessage;
+
+    /**
+     * 单句合成耗时（纳秒），失败或超时的句子记录到失败为止
+     */
+    private Long synthesisNanos;
+}
@@ -6,7 +6,6 @@ import lombok.NoArgsConstructor;
 import lombok.AllArgsConstructor;
 
 import jakarta.validation.constraints.NotNull;
-import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Min;
 
 /**
@@ -26,9 +25,13 @@ public class UpdateVoiceDurationRequest {
     private String conversationId;
     
     /**
-     * 消息内容（用于定位消息）
+     * 消息ID（用于定位消息）
+     */
+    private Long messageId;
+    
+    /**
+     * 消息内容（未提供消息ID时按内容定位，兼容旧客户端）
      */
-    @NotBlank(message = "消息内容不能为空")
     private String messageContent;
     
     /**
@@ -0,0 +1,134 @@
+package com.carol.backend.entity;
+
+import com.baomidou.mybatisplus.annotation.*;
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+import lombok.experimental.Accessors;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * 数据同步任务实体
+ * 记录一次 Redis -> MySQL 同步的进度（已完成的SCAN游标）、吞吐和各分区统计，进程中断后从游标继续
+ */
+@Data
+@Accessors(chain = true)
+@TableName("data_sync_jobs")
+public class DataSyncJob {
+
+    public static final String STATUS_RUNNING = "RUNNING";
+    public static final String STATUS_COMPLETED = "COMPLETED";
+    public static final String STATUS_FAILED = "FAILED";
+
+    /**
+     * 主键ID
+     */
+    @TableId(value = "id", type = IdType.AUTO)
+    private Long id;
+
+    /**
+     * 触发来源（调用的同步方法）
+     */
+    @TableField("trigger_name")
+    private String triggerName;
+
+    /**
+     * 状态 (RUNNING/COMPLETED/FAILED)
+     */
+    @TableField("status")
+    private String status;
+
+    /**
+     * 已完成的SCAN游标，"0" 表示从头开始
+     */
+    @TableField("scan_cursor")
+    private String scanCursor;
+
+    /**
+     * 分区数
+     */
+    @TableField("partitions")
+    private Integer partitions;
+
+    /**
+     * 已扫描的会话数
+     */
+    @TableField("scanned_conversations")
+    private Long scannedConversations;
+
+    /**
+     * 有新消息写入的会话数
+     */
+    @TableField("synced_conversations")
+    private Long syncedConversations;
+
+    /**
+     * 写入的消息数
+     */
+    @TableField("synced_messages")
+    private Long syncedMessages;
+
+    /**
+     * 所在分块回滚的会话数
+     */
+    @TableField("failed_conversations")
+    private Long failedConversations;
+
+    /**
+     * 有新消息的用户数
+     */
+    @TableField("active_users")
+    private Integer activeUsers;
+
+    /**
+     * 写入吞吐（消息/秒）
+     */
+    @TableField("rows_per_second")
+    private BigDecimal rowsPerSecond;
+
+    /**
+     * 各分区统计（JSON）
+     */
+    @TableField("partition_stats")
+    private String partitionStats;
+
+    /**
+     * 恢复次数
+     */
+    @TableField("resume_count")
+    private Integer resumeCount;
+
+    /**
+     * 累计运行时间（毫秒，不含中断期间）
+     */
+    @TableField("run_millis")
+    private Long runMillis;
+
+    /**
+     * 失败原因（恢复运行时清空）
+     */
+    @TableField(value = "error_message", updateStrategy = FieldStrategy.ALWAYS)
+    private String errorMessage;
+
+    /**
+     * 开始时间
+     */
+    @TableField("started_at")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime startedAt;
+
+    /**
+     * 结束时间
+     */
+    @TableField("finished_at")
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime finishedAt;
+
+    /**
+     * 更新时间
+     */
+    @TableField(value = "updated_at", fill = FieldFill.INSERT_UPDATE)
+    @JsonFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime updatedAt;
+}
@@ -0,0 +1,27 @@
+package com.carol.backend.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 聊天链路阶段
+ * 对应 chat.pipeline.stage 计时器的 stage 标签
+ */
+@Getter
+@AllArgsConstructor
+public enum ChatStage {
+
+    CHARACTER_LOOKUP("character_lookup", "角色查询"),
+    RAG_RETRIEVAL("rag_retrieval", "RAG知识检索（超时的检索记录到超时为止）"),
+    MEMORY_LOAD("memory_load", "记忆窗口加载（最近消息 + 滚动摘要）"),
+    PROMPT_ASSEMBLY("prompt_assembly", "提示词组装，包含并发执行的以上三个阶段"),
+    FIRST_TOKEN("first_token", "首token耗时：从收到请求到第一个回复片段，含组装和准入排队"),
+    INTER_TOKEN("inter_token", "相邻两个回复片段的间隔"),
+    GENERATION("generation", "完整生成：从获得LLM调用许可到最后一个回复片段"),
+    PERSISTENCE("persistence", "本轮消息写入会话存储"),
+    TTS_SYNTHESIS("tts_synthesis", "语音合成，流式回复按单句计"),
+    AUDIO_UPLOAD("audio_upload", "逐句音频下载拼接并上传OSS");
+
+    private final String tagValue;
+    private final String description;
+}
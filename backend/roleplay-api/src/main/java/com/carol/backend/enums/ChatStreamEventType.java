@@ -0,0 +1,22 @@
+package com.carol.backend.enums;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 流式聊天SSE事件类型
+ * 对应SSE帧的 event 字段
+ */
+@Getter
+@AllArgsConstructor
+public enum ChatStreamEventType {
+
+    TOKEN("token", "回复文本片段"),
+    TTS("tts", "语音合成结果（逐句或完整音频）"),
+    MESSAGE_ID("message_id", "消息保存后分配的消息ID"),
+    ERROR("error", "错误信息"),
+    DONE("done", "流式响应结束");
+
+    private final String eventName;
+    private final String description;
+}
@@ -17,6 +17,7 @@ public enum ErrorCode {
     PARAM_ERROR(1001, "参数错误"),
     DATA_NOT_FOUND(1002, "数据不存在"),
     OPERATION_FAILED(1003, "操作失败"),
+    UPSTREAM_BUSY(1004, "服务繁忙，请稍后重试"),
     
     // 用户相关错误码 (2000-2999)
     USER_NOT_FOUND(2000, "用户不存在"),
@@ -45,6 +46,7 @@ public enum ErrorCode {
     CHAT_MESSAGE_EMPTY(5001, "消息内容不能为空"),
     CHAT_HISTORY_LOAD_FAILED(5002, "聊天记录加载失败"),
     CHAT_SEND_FAILED(5003, "消息发送失败"),
+    CHAT_CHARACTER_UNAVAILABLE(5004, "角色当前不可用"),
     
     // 语音识别相关错误码 (6000-6999)
     SPEECH_FILE_EMPTY(6000, "音频文件为空"),
@@ -5,6 +5,7 @@ import com.carol.backend.entity.Conversation;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -46,6 +47,23 @@ public interface ConversationMapper extends BaseMapper<Conversation> {
     @Select("SELECT COUNT(*) FROM conversations WHERE session_id = #{sessionId}")
     int countBySessionId(@Param("sessionId") String sessionId);
     
+    /**
+     * 统计指定时间之后有新消息同步的用户数
+     */
+    @Select("SELECT COUNT(DISTINCT user_id) FROM conversations WHERE last_sync_at >= #{since}")
+    int countUsersSyncedSince(@Param("since") LocalDateTime since);
+    
+    /**
+     * 增量写入消息后更新会话进度：消息ID从1连续分配，已写入的最大消息序号即消息数（走唯一索引，不扫描消息）
+     */
+    @Update("UPDATE conversations SET " +
+            "message_count = (SELECT COALESCE(MAX(message_index), 0) FROM conversation_messages " +
+            "WHERE session_id = #{sessionId}), " +
+            "end_time = GREATEST(COALESCE(end_time, #{endTime}), #{endTime}), " +
+            "last_sync_at = NOW() " +
+            "WHERE session_id = #{sessionId}")
+    int updateSyncProgress(@Param("sessionId") String sessionId, @Param("endTime") LocalDateTime endTime);
+    
     /**
      * 获取对话分析视图数据
      */
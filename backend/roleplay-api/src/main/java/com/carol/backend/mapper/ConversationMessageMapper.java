@@ -2,10 +2,13 @@ package com.carol.backend.mapper;
 
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
 import com.carol.backend.entity.ConversationMessage;
+import org.apache.ibatis.annotations.Delete;
+import org.apache.ibatis.annotations.Insert;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 import org.apache.ibatis.annotations.Select;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +36,70 @@ public interface ConversationMessageMapper extends BaseMapper<ConversationMessag
             "ORDER BY message_index ASC")
     List<ConversationMessage> selectBySessionId(@Param("sessionId") String sessionId);
     
+    /**
+     * 按消息序号游标查询归档消息：序号小于游标的最近若干条，按序号倒序返回
+     */
+    @Select("SELECT * FROM conversation_messages " +
+            "WHERE session_id = #{sessionId} AND message_index < #{beforeIndex} " +
+            "ORDER BY message_index DESC LIMIT #{limit}")
+    List<ConversationMessage> selectBeforeIndex(@Param("sessionId") String sessionId,
+                                                @Param("beforeIndex") long beforeIndex,
+                                                @Param("limit") int limit);
+    
+    /**
+     * 统计序号小于游标的归档消息数
+     */
+    @Select("SELECT COUNT(*) FROM conversation_messages " +
+            "WHERE session_id = #{sessionId} AND message_index < #{beforeIndex}")
+    long countBeforeIndex(@Param("sessionId") String sessionId, @Param("beforeIndex") long beforeIndex);
+    
+    /**
+     * 按消息时间查询归档消息：早于指定时间的最近若干条，按时间倒序返回
+     */
+    @Select("SELECT * FROM conversation_messages " +
+            "WHERE session_id = #{sessionId} AND message_timestamp < #{beforeTime} " +
+            "ORDER BY message_index DESC LIMIT #{limit}")
+    List<ConversationMessage> selectBeforeTime(@Param("sessionId") String sessionId,
+                                               @Param("beforeTime") LocalDateTime beforeTime,
+                                               @Param("limit") int limit);
+    
+    /**
+     * 查询会话已写入MySQL的最大消息序号（增量同步的起点），没有消息时返回0
+     */
+    @Select("SELECT COALESCE(MAX(message_index), 0) FROM conversation_messages WHERE session_id = #{sessionId}")
+    long selectMaxIndex(@Param("sessionId") String sessionId);
+    
+    /**
+     * 删除会话的全部归档消息
+     */
+    @Delete("DELETE FROM conversation_messages WHERE session_id = #{sessionId}")
+    int deleteBySessionId(@Param("sessionId") String sessionId);
+    
+    /**
+     * 批量写入归档消息，(session_id, message_index) 已存在时覆盖整行，重复写入同一批消息结果不变；
+     * 旧版同步按位置编号（message_index = i+1）写入的行与Redis消息ID冲突时，以Redis中的消息为准
+     */
+    @Insert("<script>" +
+            "INSERT INTO conversation_messages " +
+            "(conversation_id, session_id, message_index, message_type, content, content_length, " +
+            "audio_url, voice_duration, token_count, model_name, rag_knowledge_used, language, " +
+            "sync_source, message_timestamp) VALUES " +
+            "<foreach collection='messages' item='m' separator=','>" +
+            "(#{m.conversationId}, #{m.sessionId}, #{m.messageIndex}, #{m.messageType}, #{m.content}, " +
+            "#{m.contentLength}, #{m.audioUrl}, #{m.voiceDuration}, #{m.tokenCount}, #{m.modelName}, " +
+            "#{m.ragKnowledgeUsed}, #{m.language}, #{m.syncSource}, #{m.messageTimestamp})" +
+            "</foreach> " +
+            "ON DUPLICATE KEY UPDATE conversation_id = VALUES(conversation_id), message_type = VALUES(message_type), " +
+            "content = VALUES(content), content_length = VALUES(content_length), " +
+            "audio_url = VALUES(audio_url), voice_duration = VALUES(voice_duration), " +
+            "token_count = VALUES(token_count), model_name = VALUES(model_name), " +
+            "rag_knowledge_used = VALUES(rag_knowledge_used), language = VALUES(language), " +
+            "sync_source = VALUES(sync_source), message_timestamp = VALUES(message_timestamp), " +
+            "response_time_ms = NULL, temperature = NULL, rag_knowledge_count = 0, " +
+            "sentiment_score = NULL, metadata = NULL" +
+            "</script>")
+    int upsertBatch(@Param("messages") List<ConversationMessage> messages);
+    
     /**
      * 查询消息统计信息
      */
@@ -60,7 +127,18 @@ public interface ConversationMessageMapper extends BaseMapper<ConversationMessag
     List<Map<String, Object>> getRagUsageStats();
     
     /**
-     * 批量插入消息
+     * 批量插入消息，一条多行INSERT写入整批消息（调用方按块大小拆分，避免超过 max_allowed_packet）
      */
+    @Insert("<script>" +
+            "INSERT INTO conversation_messages " +
+            "(conversation_id, session_id, message_index, message_type, content, content_length, " +
+            "audio_url, voice_duration, token_count, model_name, rag_knowledge_used, language, " +
+            "sync_source, message_timestamp) VALUES " +
+            "<foreach collection='messages' item='m' separator=','>" +
+            "(#{m.conversationId}, #{m.sessionId}, #{m.messageIndex}, #{m.messageType}, #{m.content}, " +
+            "#{m.contentLength}, #{m.audioUrl}, #{m.voiceDuration}, #{m.tokenCount}, #{m.modelName}, " +
+            "#{m.ragKnowledgeUsed}, #{m.language}, #{m.syncSource}, #{m.messageTimestamp})" +
+            "</foreach>" +
+            "</script>")
     int insertBatch(@Param("messages") List<ConversationMessage> messages);
 }
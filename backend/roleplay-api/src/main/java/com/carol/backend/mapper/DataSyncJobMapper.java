@@ -0,0 +1,31 @@
+package com.carol.backend.mapper;
+
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.carol.backend.entity.DataSyncJob;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Select;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * 数据同步任务Mapper
+ */
+@Mapper
+public interface DataSyncJobMapper extends BaseMapper<DataSyncJob> {
+
+    /**
+     * 查询可以恢复的最近一个任务：未完成（进程中断时仍为RUNNING，或扫描失败）且在恢复时间窗口内有进度
+     */
+    @Select("SELECT * FROM data_sync_jobs " +
+            "WHERE status IN ('RUNNING', 'FAILED') AND scan_cursor <> '0' AND updated_at >= #{since} " +
+            "ORDER BY id DESC LIMIT 1")
+    DataSyncJob selectResumable(@Param("since") LocalDateTime since);
+
+    /**
+     * 查询最近的任务
+     */
+    @Select("SELECT * FROM data_sync_jobs ORDER BY id DESC LIMIT #{limit}")
+    List<DataSyncJob> selectRecent(@Param("limit") int limit);
+}
@@ -0,0 +1,37 @@
+package com.carol.backend.scheduler;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.service.ICustomMessageStorageService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话冷存储压缩定时任务
+ * 定期将空闲会话压缩为冷存储blob，间隔由 app.chat.memory.storage.cold-compaction-interval-ms 配置
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChatStorageCompactionScheduler {
+
+    private final ChatMemoryConfig chatMemoryConfig;
+    private final ICustomMessageStorageService customMessageStorageService;
+
+    @Scheduled(initialDelayString = "${app.chat.memory.storage.cold-compaction-interval-ms:3600000}",
+            fixedDelayString = "${app.chat.memory.storage.cold-compaction-interval-ms:3600000}")
+    public void compactIdleConversations() {
+        if (!chatMemoryConfig.getStorage().isColdCompactionEnabled()) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int compacted = customMessageStorageService.compactIdleConversations();
+            log.info("[compactIdleConversations] 冷存储压缩任务完成: compacted={}, duration={}ms",
+                    compacted, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("[compactIdleConversations] 冷存储压缩任务执行异常: {}", e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package com.carol.backend.scheduler;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.service.IConversationArchiveService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * 会话归档定时任务
+ * 定期将超出热数据上限的旧消息归档到MySQL，间隔由 app.chat.memory.tiering.archive-interval-ms 配置
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ConversationArchiveScheduler {
+
+    private final ChatMemoryConfig chatMemoryConfig;
+    private final IConversationArchiveService conversationArchiveService;
+
+    @Scheduled(initialDelayString = "${app.chat.memory.tiering.archive-interval-ms:600000}",
+            fixedDelayString = "${app.chat.memory.tiering.archive-interval-ms:600000}")
+    public void archiveOverflowMessages() {
+        if (!chatMemoryConfig.getTiering().isArchiveEnabled()) {
+            return;
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long archived = conversationArchiveService.archiveOverflowMessages();
+            log.info("[archiveOverflowMessages] 会话归档任务完成: archived={}, duration={}ms",
+                    archived, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("[archiveOverflowMessages] 会话归档任务执行异常: {}", e.getMessage(), e);
+        }
+    }
+}
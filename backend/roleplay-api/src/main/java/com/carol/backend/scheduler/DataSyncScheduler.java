@@ -36,11 +36,13 @@ public class DataSyncScheduler {
             
             if (result.isSuccess()) {
                 log.info("[scheduledDataSync] 定时数据同步任务执行成功: " +
-                        "消息{}条, 会话{}个, 用户{}个, 耗时{}ms", 
+                        "任务{}, 消息{}条, 会话{}个, 用户{}个, 耗时{}ms, 吞吐{}条/秒", 
+                        result.getJobId(),
                         result.getSyncedMessages(), 
                         result.getSyncedConversations(), 
                         result.getSyncedUsers(), 
-                        result.getSyncDuration());
+                        result.getSyncDuration(),
+                        result.getRowsPerSecond());
             } else {
                 log.error("[scheduledDataSync] 定时数据同步任务执行失败: {}", result.getErrorMessage());
             }
@@ -52,26 +54,6 @@ public class DataSyncScheduler {
         log.info("[scheduledDataSync] 定时数据同步任务执行完成");
     }
     
-    /**
-     * 每小时执行一次增量同步（可选）
-     * cron表达式: 0 0 * * * ?
-     */
-    @Scheduled(cron = "0 0 * * * ?")
-    public void hourlyIncrementalSync() {
-        String currentTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
-        log.info("[hourlyIncrementalSync] 每小时增量同步任务开始执行，当前时间: {}", currentTime);
-        
-        try {
-            // 只同步聊天消息（增量同步）
-            int syncedMessages = dataSyncService.syncChatMessagesToMysql();
-            
-            log.info("[hourlyIncrementalSync] 增量同步完成，同步消息 {} 条", syncedMessages);
-            
-        } catch (Exception e) {
-            log.error("[hourlyIncrementalSync] 增量同步任务执行异常: {}", e.getMessage(), e);
-        }
-    }
-    
     /**
      * 每天凌晨2点执行数据清理任务（可选）
      * cron表达式: 0 0 2 * * ?
@@ -1,188 +1,627 @@
 package com.carol.backend.service;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.config.ConversationSyncConfig;
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
 import com.carol.backend.service.ICustomMessageStorageService;
+import com.carol.backend.util.ConversationMessageCodec;
+import com.carol.backend.util.ConversationWindowCache;
+import com.carol.backend.util.LocalTtlCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
 import lombok.Data;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.AssistantMessage;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
 import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * 自定义消息存储服务
  * 
  * @author jianjl
  * @version 1.0
- * @description 在Redis中保存消息内容和时间戳信息
+ * @description 在Redis中保存消息内容和时间戳信息，同时实现Spring AI的ChatMemoryRepository。
+ *              每条消息写入时分配会话内递增的消息ID，存储结构（同一会话的键使用相同的hash tag）：
+ *              chat:msg:{conversationId}:data  HASH 消息ID -> 编码后的消息，按ID更新单条消息为O(1)
+ *              chat:msg:{conversationId}:index ZSET 消息ID（score为ID），按顺序和区间读取
+ *              chat:msg:{conversationId}:seq   消息ID计数器，清空会话时保留，避免旧ID指向新消息
+ *              chat:msg:{conversationId}:cold  空闲会话压缩后的冷存储blob，与data/index互斥，读写时自动恢复
+ *              超出 app.chat.memory.tiering.hot-message-cap 的旧消息由归档任务移到MySQL（message_index 即消息ID）；
+ *              活跃会话的最近消息缓存在进程内（ConversationWindowCache），写入直通本地窗口，
+ *              并经 app.chat.memory.near-cache.invalidation-channel 通知其他节点失效
+ *              消息由 ConversationMessageCodec 编码（默认紧凑二进制，旧的JSON消息仍可读取）；
+ *              旧版列表 chat:messages:{conversationId} 和 spring_ai_alibaba_chat_memory:{conversationId}
+ *              数据在首次读取时迁移
  * @date 2025-01-15
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
-public class CustomMessageStorageService implements ICustomMessageStorageService {
+public class CustomMessageStorageService implements ICustomMessageStorageService, MeterBinder {
     
     private final RedisTemplate<String, String> redisTemplate;
     private final ObjectMapper objectMapper;
+    private final ConversationMessageCodec messageCodec;
+    private final ChatMemoryConfig.Storage storageConfig;
+    private final ChatMemoryConfig.NearCache nearCacheConfig;
+    private final ConversationSyncConfig.ChangeStream changeStreamConfig;
+    private final RedisMessageListenerContainer listenerContainer;
+    // 近端缓存未启用时为null
+    private final ConversationWindowCache windowCache;
+    // 读取路径上已检查过旧版数据的会话
+    private final LocalTtlCache<String, Boolean> legacyChecked =
+            new LocalTtlCache<>(LEGACY_CHECKED_MAX_ENTRIES, TimeUnit.DAYS.toMillis(MESSAGE_TTL_DAYS));
+
+    // 本节点标识，收到自己发布的失效通知时跳过；失效消息格式：{nodeId}|{conversationId}
+    private final String nodeId = UUID.randomUUID().toString();
+    private static final String MESSAGE_SEPARATOR = "|";
+
+    private final LongAdder compactedConversations = new LongAdder();
+    private final LongAdder compactedMessages = new LongAdder();
+    private final LongAdder compactedHotBytes = new LongAdder();
+    private final LongAdder compactedColdBytes = new LongAdder();
+    private final LongAdder restoredConversations = new LongAdder();
+    private final LongAdder turnsSaved = new LongAdder();
+    private final LongAdder turnRoundTrips = new LongAdder();
+    private final LongAccumulator maxTurnRoundTrips = new LongAccumulator(Math::max, 0);
+
+    public CustomMessageStorageService(@Qualifier("conversationRedisTemplate") RedisTemplate<String, String> redisTemplate,
+                                       ObjectMapper objectMapper,
+                                       ConversationMessageCodec messageCodec,
+                                       ChatMemoryConfig chatMemoryConfig,
+                                       ConversationSyncConfig conversationSyncConfig,
+                                       RedisMessageListenerContainer listenerContainer) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.messageCodec = messageCodec;
+        this.storageConfig = chatMemoryConfig.getStorage();
+        this.nearCacheConfig = chatMemoryConfig.getNearCache();
+        this.changeStreamConfig = conversationSyncConfig.getChangeStream();
+        this.listenerContainer = listenerContainer;
+        this.windowCache = nearCacheConfig.isEnabled()
+                ? new ConversationWindowCache(nearCacheConfig.getWindowMessages(), nearCacheConfig.getMaxBytes(),
+                        TimeUnit.SECONDS.toMillis(nearCacheConfig.getTtlSeconds()))
+                : null;
+    }
+
+    /**
+     * 订阅其他节点的会话写入通知，失效本地缓存的窗口
+     */
+    @PostConstruct
+    public void subscribeInvalidation() {
+        if (windowCache == null) {
+            log.info("[subscribeInvalidation] 会话近端缓存未启用");
+            return;
+        }
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onInvalidationMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(nearCacheConfig.getInvalidationChannel()));
+        log.info("[subscribeInvalidation] 会话近端缓存已启用: windowMessages={}, maxBytes={}, channel={}, nodeId={}",
+                nearCacheConfig.getWindowMessages(), nearCacheConfig.getMaxBytes(),
+                nearCacheConfig.getInvalidationChannel(), nodeId);
+    }
     
-    private static final String MESSAGE_KEY_PREFIX = "chat:messages:";
+    public static final String MESSAGE_KEY_PREFIX = "chat:msg:";
+    private static final String DATA_KEY_SUFFIX = ":data";
+    private static final String INDEX_KEY_SUFFIX = ":index";
+    private static final String SEQ_KEY_SUFFIX = ":seq";
+    private static final String SUMMARY_KEY_SUFFIX = ":summary";
+    private static final String COLD_KEY_SUFFIX = ":cold";
+    private static final String CLEAR_GENERATION_KEY_SUFFIX = ":cleared";
     private static final int MESSAGE_TTL_DAYS = 30; // 消息保存30天
+
+    // 旧版列表存储的键前缀（每条消息一个列表元素，按内容遍历更新）
+    public static final String LIST_KEY_PREFIX = "chat:messages:";
+
+    // 旧版Spring AI Alibaba会话记忆的键前缀（Redisson写入，JSON中包含messageType和text）
+    public static final String LEGACY_MEMORY_KEY_PREFIX = "spring_ai_alibaba_chat_memory:";
+
+    // 转换为Spring AI消息时携带的元数据键
+    public static final String METADATA_MESSAGE_ID = "messageId";
+    public static final String METADATA_TIMESTAMP = "timestamp";
+    public static final String METADATA_AUDIO_URL = "audioUrl";
+    public static final String METADATA_VOICE_DURATION = "voiceDuration";
+
+    private static final int SCAN_BATCH_SIZE = 200;
+
+    // 读取脚本在会话处于冷存储时返回的标记（只含这一个元素）
+    private static final String COLD_MARKER = "cold";
+
+    // 已检查过旧版数据的会话数上限；旧版数据不会再产生，每个会话在本节点只需检查一次
+    private static final int LEGACY_CHECKED_MAX_ENTRIES = 100_000;
+
+    // 更新单条消息时内容被并发修改后的最大重试次数
+    private static final int UPDATE_MAX_ATTEMPTS = 3;
+    // 读取到冷存储标记后恢复并重读的最大次数（恢复期间会话可能又被压缩）
+    private static final int COLD_READ_MAX_ATTEMPTS = 3;
+    public static final String SCAN_START_CURSOR = "0";
+
+    // 按内容查找消息时每次向前读取的条数（仅兼容旧客户端）
+    private static final int LOOKUP_BATCH_SIZE = 50;
+
+    /**
+     * 追加消息：分配消息ID，写入消息和索引
+     * KEYS[1] seq  KEYS[2] data  KEYS[3] index  KEYS[4] cold
+     * ARGV[1] 过期时间(秒)  ARGV[2] 模式（append 追加；replace 先清空再写入；import 会话已有消息时不写入）
+     * ARGV[3..] 编码后的消息
+     * append模式下会话处于冷存储时直接写在blob之后（消息ID计数器在压缩时保留，新消息ID大于blob中的ID），
+     * 追加视为会话活跃，blob的过期时间一并刷新；读取时发现blob仍在会先恢复合并
+     * 返回最后一条消息的ID；import模式下会话已有消息时返回-1
+     */
+    private static final DefaultRedisScript<Long> APPEND_SCRIPT = new DefaultRedisScript<>(
+            "if ARGV[2] == 'import' and (redis.call('EXISTS', KEYS[3]) == 1 or redis.call('EXISTS', KEYS[4]) == 1) "
+            + "then return -1 end "
+            + "if ARGV[2] == 'replace' then redis.call('DEL', KEYS[2], KEYS[3], KEYS[4]) end "
+            + "local id = 0 "
+            + "for i = 3, #ARGV do "
+            + "  id = redis.call('INCR', KEYS[1]) "
+            + "  redis.call('HSET', KEYS[2], id, ARGV[i]) "
+            + "  redis.call('ZADD', KEYS[3], id, id) "
+            + "end "
+            + "if id > 0 then "
+            + "  for i = 1, 4 do redis.call('EXPIRE', KEYS[i], ARGV[1]) end "
+            + "end "
+            + "return id",
+            Long.class);
+
+    // 管道中直接以EVAL执行追加脚本（管道内无法处理NOSCRIPT后的重试）
+    private static final byte[] APPEND_SCRIPT_BYTES = APPEND_SCRIPT.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 按ids中的消息ID从 KEYS[2] 批量读取消息（读取脚本的公共部分）
+     * 返回 [id1, value1, id2, value2, ...]，索引中存在但数据已丢失的消息跳过；
+     * KEYS[3]（冷存储）存在时返回 [COLD_MARKER]（冷存储期间追加的消息与blob合并后才完整），调用方无需另外查询冷存储
+     */
+    private static final String LOAD_MESSAGES_LUA =
+            "if redis.call('EXISTS', KEYS[3]) == 1 then return {'" + COLD_MARKER + "'} end "
+            + "local result = {} "
+            + "for from = 1, #ids, 500 do "
+            + "  local to = math.min(from + 499, #ids) "
+            + "  local values = redis.call('HMGET', KEYS[2], unpack(ids, from, to)) "
+            + "  for i = 1, #values do "
+            + "    if values[i] then "
+            + "      result[#result + 1] = ids[from + i - 1] "
+            + "      result[#result + 1] = values[i] "
+            + "    end "
+            + "  end "
+            + "end "
+            + "return result";
+
+    /**
+     * 按位置区间读取消息（与ZRANGE的下标语义一致，支持负数）
+     * KEYS[1] index  KEYS[2] data  KEYS[3] cold  ARGV[1] start  ARGV[2] end
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> READ_RANGE_SCRIPT = new DefaultRedisScript<>(
+            "local ids = redis.call('ZRANGE', KEYS[1], ARGV[1], ARGV[2]) " + LOAD_MESSAGES_LUA,
+            List.class);
+
+    /**
+     * 按消息ID游标读取：ID小于游标的最近若干条消息，按ID正序返回
+     * KEYS[1] index  KEYS[2] data  KEYS[3] cold  ARGV[1] 分数上界（"(id" 不含游标，或 "+inf"）  ARGV[2] 条数
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> READ_BEFORE_SCRIPT = new DefaultRedisScript<>(
+            "local desc = redis.call('ZREVRANGEBYSCORE', KEYS[1], ARGV[1], '-inf', 'LIMIT', 0, ARGV[2]) "
+            + "local ids = {} "
+            + "for i = #desc, 1, -1 do ids[#ids + 1] = desc[i] end "
+            + LOAD_MESSAGES_LUA,
+            List.class);
+
+    /**
+     * 按消息ID游标正向读取：ID大于游标的最早若干条消息，按ID正序返回
+     * KEYS[1] index  KEYS[2] data  KEYS[3] cold  ARGV[1] 分数下界（"(id" 不含游标）  ARGV[2] 条数
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> READ_AFTER_SCRIPT = new DefaultRedisScript<>(
+            "local ids = redis.call('ZRANGEBYSCORE', KEYS[1], ARGV[1], '+inf', 'LIMIT', 0, ARGV[2]) "
+            + LOAD_MESSAGES_LUA,
+            List.class);
+
+    /**
+     * 更新单条消息（比较并写入）：消息仍是读取时的内容才写入，并发修改不会互相覆盖，
+     * 会话被清空后也不会重新写回；更新视为会话活跃，刷新过期时间
+     * KEYS[1] seq  KEYS[2] data  KEYS[3] index
+     * ARGV[1] 过期时间(秒)  ARGV[2] 消息ID  ARGV[3] 编码后的新消息  ARGV[4] 读取到的消息
+     * 返回1表示已写入，0表示消息不存在，-1表示消息已被修改（需重新读取）
+     */
+    private static final DefaultRedisScript<Long> UPDATE_SCRIPT = new DefaultRedisScript<>(
+            "local current = redis.call('HGET', KEYS[2], ARGV[2]) "
+            + "if not current then return 0 end "
+            + "if current ~= ARGV[4] then return -1 end "
+            + "redis.call('HSET', KEYS[2], ARGV[2], ARGV[3]) "
+            + "for i = 1, 3 do redis.call('EXPIRE', KEYS[i], ARGV[1]) end "
+            + "return 1",
+            Long.class);
+
+    /**
+     * 压缩空闲会话：会话在读取后没有变化且仍然空闲时，用冷存储blob替换data和index，保留剩余的过期时间
+     * KEYS[1] data  KEYS[2] index  KEYS[3] cold
+     * ARGV[1] 读取时的消息数  ARGV[2] 读取时的最后一条消息ID  ARGV[3] 剩余过期时间上限(毫秒)  ARGV[4] blob
+     * 返回1表示已压缩，0表示会话已变化或不再空闲
+     */
+    private static final DefaultRedisScript<Long> COMPACT_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('EXISTS', KEYS[3]) == 1 then return 0 end "
+            + "local ttl = redis.call('PTTL', KEYS[2]) "
+            + "if ttl <= 0 or ttl > tonumber(ARGV[3]) then return 0 end "
+            + "if redis.call('ZCARD', KEYS[2]) ~= tonumber(ARGV[1]) then return 0 end "
+            + "local last = redis.call('ZRANGE', KEYS[2], -1, -1) "
+            + "if not last[1] or last[1] ~= ARGV[2] then return 0 end "
+            + "redis.call('SET', KEYS[3], ARGV[4], 'PX', ttl) "
+            + "redis.call('DEL', KEYS[1], KEYS[2]) "
+            + "return 1",
+            Long.class);
+
+    /**
+     * 从冷存储恢复会话：blob未被改变时写回data和index，消息ID计数器不小于最大消息ID；
+     * 恢复沿用blob剩余的过期时间（读取不算会话活跃，不延长保留期限，下次空闲时仍可再次压缩）
+     * KEYS[1] seq  KEYS[2] data  KEYS[3] index  KEYS[4] cold
+     * ARGV[1] 读取到的blob  ARGV[2..] 消息ID、编码后的消息交替排列
+     * 返回恢复的消息数，blob已变化或不存在时返回-1
+     */
+    private static final DefaultRedisScript<Long> RESTORE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[4]) ~= ARGV[1] then return -1 end "
+            + "local ttl = redis.call('PTTL', KEYS[4]) "
+            + "local maxId = 0 "
+            + "for i = 2, #ARGV - 1, 2 do "
+            + "  redis.call('HSET', KEYS[2], ARGV[i], ARGV[i + 1]) "
+            + "  redis.call('ZADD', KEYS[3], ARGV[i], ARGV[i]) "
+            + "  maxId = math.max(maxId, tonumber(ARGV[i])) "
+            + "end "
+            + "if tonumber(redis.call('GET', KEYS[1]) or '0') < maxId then redis.call('SET', KEYS[1], maxId) end "
+            + "if ttl > 0 then "
+            + "  for i = 1, 3 do redis.call('PEXPIRE', KEYS[i], ttl) end "
+            + "end "
+            + "redis.call('DEL', KEYS[4]) "
+            + "return (#ARGV - 1) / 2",
+            Long.class);
+
+    /**
+     * 移除已归档的消息：消息内容与归档时读取的一致才删除，归档后被更新或会话已被清空的消息保留
+     * KEYS[1] data  KEYS[2] index  ARGV 消息ID、读取到的值交替排列
+     * 返回 [移除的消息数, 释放的消息字节数]
+     */
+    @SuppressWarnings("rawtypes")
+    private static final DefaultRedisScript<List> TRIM_ARCHIVED_SCRIPT = new DefaultRedisScript<>(
+            "local removed, bytes = 0, 0 "
+            + "for i = 1, #ARGV - 1, 2 do "
+            + "  if redis.call('HGET', KEYS[1], ARGV[i]) == ARGV[i + 1] then "
+            + "    redis.call('HDEL', KEYS[1], ARGV[i]) "
+            + "    redis.call('ZREM', KEYS[2], ARGV[i]) "
+            + "    removed = removed + 1 "
+            + "    bytes = bytes + #ARGV[i + 1] "
+            + "  end "
+            + "end "
+            + "return {removed, bytes}",
+            List.class);
+
+    /**
+     * 清空会话：删除data、index、cold和滚动摘要，递增清空代数并刷新其过期时间，消息ID计数器保留
+     * 删除和递增在同一个脚本中完成，归档不会读到已清空的会话却仍拿到清空前的代数
+     * KEYS[1] data  KEYS[2] index  KEYS[3] cold  KEYS[4] summary  KEYS[5] 清空代数
+     * ARGV[1] 清空代数的过期时间(秒)
+     * 返回新的清空代数
+     */
+    private static final DefaultRedisScript<Long> CLEAR_SCRIPT = new DefaultRedisScript<>(
+            "redis.call('DEL', KEYS[1], KEYS[2], KEYS[3], KEYS[4]) "
+            + "local generation = redis.call('INCR', KEYS[5]) "
+            + "redis.call('EXPIRE', KEYS[5], ARGV[1]) "
+            + "return generation",
+            Long.class);
+
+    public static String dataKey(String conversationId) {
+        return keyOf(conversationId, DATA_KEY_SUFFIX);
+    }
+
+    public static String indexKey(String conversationId) {
+        return keyOf(conversationId, INDEX_KEY_SUFFIX);
+    }
+
+    /**
+     * 滚动摘要（由会话记忆窗口服务维护）的键，与会话消息位于同一个hash slot，随会话一起清空
+     */
+    public static String summaryKey(String conversationId) {
+        return keyOf(conversationId, SUMMARY_KEY_SUFFIX);
+    }
+
+    private static String seqKey(String conversationId) {
+        return keyOf(conversationId, SEQ_KEY_SUFFIX);
+    }
+
+    private static String coldKey(String conversationId) {
+        return keyOf(conversationId, COLD_KEY_SUFFIX);
+    }
+
+    private static String clearGenerationKey(String conversationId) {
+        return keyOf(conversationId, CLEAR_GENERATION_KEY_SUFFIX);
+    }
+
+    private static String keyOf(String conversationId, String suffix) {
+        return MESSAGE_KEY_PREFIX + "{" + conversationId + "}" + suffix;
+    }
     
     @Override
-    public void saveMessage(String conversationId, Message message, boolean isUser) {
-        saveMessage(conversationId, message, isUser, null);
+    public Long saveMessage(String conversationId, Message message, boolean isUser) {
+        return saveMessage(conversationId, message, isUser, null);
     }
     
     @Override
-    public void updateMessageAudioUrl(String conversationId, String messageContent, String audioUrl) {
-        updateMessageAudioInfo(conversationId, messageContent, audioUrl, null);
+    public boolean updateMessageAudioUrl(String conversationId, Long messageId, String audioUrl) {
+        return updateMessageAudioInfo(conversationId, messageId, audioUrl, null);
     }
     
     @Override
-    public void updateMessageAudioInfo(String conversationId, String messageContent, String audioUrl, Integer voiceDuration) {
+    public boolean updateMessageAudioInfo(String conversationId, Long messageId, String audioUrl, Integer voiceDuration) {
+        boolean updated = updateMessage(conversationId, messageId, msg -> {
+            if (audioUrl != null) {
+                msg.setAudioUrl(audioUrl);
+            }
+            if (voiceDuration != null) {
+                msg.setVoiceDuration(voiceDuration);
+            }
+        });
+        if (updated) {
+            log.info("[updateMessageAudioInfo] 更新消息音频信息成功: conversationId={}, messageId={}, audioUrl={}, voiceDuration={}", 
+                    conversationId, messageId, audioUrl, voiceDuration);
+        } else {
+            log.warn("[updateMessageAudioInfo] 未找到消息: conversationId={}, messageId={}", conversationId, messageId);
+        }
+        return updated;
+    }
+    
+    @Override
+    public boolean updateUserMessageVoiceDuration(String conversationId, Long messageId, Integer voiceDuration) {
+        boolean updated = updateMessage(conversationId, messageId, msg -> {
+            if (Boolean.TRUE.equals(msg.getIsUser())) {
+                msg.setVoiceDuration(voiceDuration);
+            }
+        });
+        if (updated) {
+            log.info("[updateUserMessageVoiceDuration] 更新用户消息语音时长成功: conversationId={}, messageId={}, voiceDuration={}", 
+                    conversationId, messageId, voiceDuration);
+        } else {
+            log.warn("[updateUserMessageVoiceDuration] 未找到消息: conversationId={}, messageId={}", conversationId, messageId);
+        }
+        return updated;
+    }
+
+    /**
+     * 按消息ID读取、修改并写回单条消息；写回时比较读取到的内容，被并发修改时重新读取后重试
+     *
+     * @return 消息存在且已写回时返回true
+     */
+    private boolean updateMessage(String conversationId, Long messageId, Consumer<StoredMessage> modifier) {
+        if (messageId == null) {
+            return false;
+        }
         try {
-            String messageKey = MESSAGE_KEY_PREFIX + conversationId;
-            List<String> messageJsonList = redisTemplate.opsForList().range(messageKey, 0, -1);
-            
-            if (messageJsonList != null) {
-                for (int i = 0; i < messageJsonList.size(); i++) {
-                    String messageJson = messageJsonList.get(i);
-                    StoredMessage msg = objectMapper.readValue(messageJson, StoredMessage.class);
-                    
-                    // 找到匹配的AI消息（非用户消息且内容匹配）
-                    if (!msg.getIsUser() && msg.getContent().equals(messageContent)) {
-                        if (audioUrl != null) {
-                            msg.setAudioUrl(audioUrl);
-                        }
-                        if (voiceDuration != null) {
-                            msg.setVoiceDuration(voiceDuration);
-                        }
-                        // 更新Redis中的消息
-                        String updatedJson = objectMapper.writeValueAsString(msg);
-                        redisTemplate.opsForList().set(messageKey, i, updatedJson);
-                        log.info("[updateMessageAudioInfo] 更新消息音频信息成功: conversationId={}, audioUrl={}, voiceDuration={}", 
-                                conversationId, audioUrl, voiceDuration);
-                        return;
+            for (int attempt = 0; attempt < UPDATE_MAX_ATTEMPTS; attempt++) {
+                Object value = redisTemplate.opsForHash().get(dataKey(conversationId), messageId.toString());
+                // 会话处于冷存储时先恢复（或等待并发恢复完成）再更新
+                if (value == null && attempt == 0 && restoreColdConversation(conversationId)) {
+                    value = redisTemplate.opsForHash().get(dataKey(conversationId), messageId.toString());
+                }
+                if (value == null) {
+                    return false;
+                }
+                String current = value.toString();
+                StoredMessage msg = messageCodec.decode(ConversationMessageCodec.fromRedisValue(current));
+                modifier.accept(msg);
+                Long written = redisTemplate.execute(UPDATE_SCRIPT,
+                        List.of(seqKey(conversationId), dataKey(conversationId), indexKey(conversationId)),
+                        String.valueOf(TimeUnit.DAYS.toSeconds(MESSAGE_TTL_DAYS)), messageId.toString(), encode(msg),
+                        current);
+                if (written == null || written == 0L) {
+                    return false;
+                }
+                if (written > 0) {
+                    msg.setId(messageId);
+                    if (windowCache != null) {
+                        windowCache.update(conversationId, msg);
                     }
+                    publishInvalidation(conversationId);
+                    publishChangeEvent(conversationId, IConversationChangeStreamService.OP_UPDATE, messageId);
+                    return true;
                 }
+                log.debug("[updateMessage] 消息已被并发修改，重新读取: conversationId={}, messageId={}, attempt={}",
+                        conversationId, messageId, attempt + 1);
             }
-            
-            log.warn("[updateMessageAudioInfo] 未找到匹配的消息: conversationId={}, content={}", 
-                    conversationId, messageContent.substring(0, Math.min(50, messageContent.length())));
-            
+            log.warn("[updateMessage] 消息持续被并发修改，放弃更新: conversationId={}, messageId={}",
+                    conversationId, messageId);
+            return false;
         } catch (Exception e) {
-            log.error("[updateMessageAudioInfo] 更新消息音频信息失败: conversationId={}, error={}", 
-                    conversationId, e.getMessage(), e);
+            log.error("[updateMessage] 更新消息失败: conversationId={}, messageId={}, error={}", 
+                    conversationId, messageId, e.getMessage(), e);
+            return false;
         }
     }
-    
+
     @Override
-    public boolean updateUserMessageVoiceDuration(String conversationId, String messageContent, Integer voiceDuration) {
+    public Long findLatestMessageId(String conversationId, boolean isUser, String content) {
+        if (content == null) {
+            return null;
+        }
         try {
-            String messageKey = MESSAGE_KEY_PREFIX + conversationId;
-            List<String> messageJsonList = redisTemplate.opsForList().range(messageKey, 0, -1);
-            
-            if (messageJsonList != null) {
-                // 从最后一条消息开始查找，因为用户消息通常是最近的
-                for (int i = messageJsonList.size() - 1; i >= 0; i--) {
-                    String messageJson = messageJsonList.get(i);
-                    StoredMessage msg = objectMapper.readValue(messageJson, StoredMessage.class);
-                    
-                    // 找到匹配的用户消息（用户消息且内容匹配）
-                    if (Boolean.TRUE.equals(msg.getIsUser()) && msg.getContent().equals(messageContent)) {
-                        msg.setVoiceDuration(voiceDuration);
-                        
-                        // 更新Redis中的消息
-                        String updatedJson = objectMapper.writeValueAsString(msg);
-                        redisTemplate.opsForList().set(messageKey, i, updatedJson);
-                        
-                        log.info("[updateUserMessageVoiceDuration] 更新用户消息语音时长成功: conversationId={}, voiceDuration={}, content={}", 
-                                conversationId, voiceDuration, messageContent.substring(0, Math.min(50, messageContent.length())));
-                        return true;
+            // 从最新的消息开始分批向前查找，目标消息通常就在最后几条
+            long end = -1;
+            while (true) {
+                List<StoredMessage> batch = readRange(conversationId, end - LOOKUP_BATCH_SIZE + 1, end);
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    StoredMessage msg = batch.get(i);
+                    if (Boolean.valueOf(isUser).equals(msg.getIsUser()) && content.equals(msg.getContent())) {
+                        return msg.getId();
                     }
                 }
+                if (batch.size() < LOOKUP_BATCH_SIZE) {
+                    return null;
+                }
+                end -= LOOKUP_BATCH_SIZE;
             }
-            
-            log.warn("[updateUserMessageVoiceDuration] 未找到匹配的用户消息: conversationId={}, content={}", 
-                    conversationId, messageContent.substring(0, Math.min(50, messageContent.length())));
-            return false;
-            
         } catch (Exception e) {
-            log.error("[updateUserMessageVoiceDuration] 更新用户消息语音时长失败: conversationId={}, error={}", 
+            log.error("[findLatestMessageId] 按内容查找消息失败: conversationId={}, error={}", 
                     conversationId, e.getMessage(), e);
-            return false;
+            return null;
         }
     }
     
     @Override
-    public void saveMessage(String conversationId, Message message, boolean isUser, String audioUrl) {
-        saveMessage(conversationId, message, isUser, audioUrl, null);
+    public Long saveMessage(String conversationId, Message message, boolean isUser, String audioUrl) {
+        return saveMessage(conversationId, message, isUser, audioUrl, null);
     }
     
     @Override
-    public void saveMessage(String conversationId, Message message, boolean isUser, String audioUrl, Integer voiceDuration) {
+    public Long saveMessage(String conversationId, Message message, boolean isUser, String audioUrl, Integer voiceDuration) {
         try {
-            String messageKey = MESSAGE_KEY_PREFIX + conversationId;
-            
-            // 创建消息存储对象
-            StoredMessage storedMessage = new StoredMessage();
-            storedMessage.setContent(extractMessageContent(message));
-            storedMessage.setIsUser(isUser);
-            storedMessage.setTimestamp(System.currentTimeMillis());
-            storedMessage.setCreatedTime(LocalDateTime.now());
-            storedMessage.setMessageType(isUser ? "USER" : "ASSISTANT");
-            storedMessage.setAudioUrl(audioUrl);
-            storedMessage.setVoiceDuration(voiceDuration);
-            
-            // 序列化为JSON
-            String messageJson = objectMapper.writeValueAsString(storedMessage);
+            StoredMessage storedMessage = buildStoredMessage(extractMessageContent(message), isUser,
+                    System.currentTimeMillis(), audioUrl, voiceDuration);
             
-            // 添加到Redis列表
-            redisTemplate.opsForList().rightPush(messageKey, messageJson);
+            // 分配消息ID并写入消息和索引
+            Long messageId = append(conversationId, "append", List.of(encode(storedMessage)));
+            onAppended(conversationId, List.of(storedMessage), messageId);
+            publishInvalidation(conversationId);
+            publishChangeEvent(conversationId, IConversationChangeStreamService.OP_APPEND, null);
             
-            // 设置过期时间
-            redisTemplate.expire(messageKey, MESSAGE_TTL_DAYS, TimeUnit.DAYS);
+            log.info("[saveMessage] 消息保存成功: conversationId={}, messageId={}, isUser={}, timestamp={}", 
+                    conversationId, messageId, isUser, storedMessage.getTimestamp());
+            return messageId;
             
-            log.info("[saveMessage] 消息保存成功: conversationId={}, isUser={}, timestamp={}", 
-                    conversationId, isUser, storedMessage.getTimestamp());
-            
-        } catch (JsonProcessingException e) {
+        } catch (IllegalStateException e) {
             log.error("[saveMessage] 序列化消息失败: conversationId={}, error={}", 
                     conversationId, e.getMessage(), e);
+            return null;
         }
     }
     
+    /**
+     * 一轮对话的消息在同一个追加脚本中分配连续的消息ID并刷新过期时间，companion（如会话元数据更新）放入同一个管道，
+     * 整轮写入只占一次往返；会话处于冷存储时消息直接写在blob之后，失效通知和变更事件都只发送一次
+     */
     @Override
-    public List<StoredMessage> getMessages(String conversationId) {
-        try {
-            String messageKey = MESSAGE_KEY_PREFIX + conversationId;
-            List<String> messageJsonList = redisTemplate.opsForList().range(messageKey, 0, -1);
-            
-            List<StoredMessage> messages = new ArrayList<>();
-            if (messageJsonList != null) {
-                for (String messageJson : messageJsonList) {
-                    try {
-                        StoredMessage message = objectMapper.readValue(messageJson, StoredMessage.class);
-                        messages.add(message);
-                    } catch (JsonProcessingException e) {
-                        log.warn("[getMessages] 反序列化消息失败: error={}", e.getMessage());
-                    }
+    public TurnSaveResult saveTurn(String conversationId, List<TurnMessage> messages, RedisCallback<?> companion) {
+        TurnSaveResult result = new TurnSaveResult();
+        if (messages.isEmpty() && companion == null) {
+            return result;
+        }
+
+        List<StoredMessage> storedMessages = new ArrayList<>(messages.size());
+        List<String> encodedMessages = new ArrayList<>(messages.size());
+        for (TurnMessage turnMessage : messages) {
+            StoredMessage storedMessage = buildStoredMessage(extractMessageContent(turnMessage.getMessage()),
+                    turnMessage.isUser(), turnMessage.getTimestamp(), turnMessage.getAudioUrl(), turnMessage.getVoiceDuration());
+            storedMessages.add(storedMessage);
+            encodedMessages.add(encode(storedMessage));
+        }
+
+        byte[][] keysAndArgs = appendKeysAndArgs(conversationId, encodedMessages);
+        List<Object> replies = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            if (!encodedMessages.isEmpty()) {
+                connection.scriptingCommands().eval(APPEND_SCRIPT_BYTES, ReturnType.INTEGER, 4, keysAndArgs);
+                // 失效通知跟在追加之后，其他节点收到时消息已写入
+                if (windowCache != null) {
+                    connection.publish(invalidationChannel(), invalidationMessage(conversationId));
+                }
+                // 变更事件同样跟在追加之后
+                if (changeStreamConfig.isEnabled()) {
+                    appendChangeEvent(connection, conversationId, IConversationChangeStreamService.OP_APPEND, null);
+                }
+            }
+            if (companion != null) {
+                companion.doInRedis(connection);
+            }
+            return null;
+        });
+        int roundTrips = 1;
+
+        if (!encodedMessages.isEmpty()) {
+            Object reply = replies.isEmpty() ? null : replies.get(0);
+            Long lastId = reply instanceof Number number ? number.longValue() : null;
+            onAppended(conversationId, storedMessages, lastId);
+            if (lastId != null && lastId > 0) {
+                long firstId = lastId - encodedMessages.size() + 1;
+                for (long id = firstId; id <= lastId; id++) {
+                    result.getMessageIds().add(id);
                 }
             }
+        }
+        result.setRoundTrips(roundTrips);
+
+        turnsSaved.increment();
+        turnRoundTrips.add(roundTrips);
+        maxTurnRoundTrips.accumulate(roundTrips);
+        log.info("[saveTurn] 本轮消息保存成功: conversationId={}, messageIds={}, roundTrips={}",
+                conversationId, result.getMessageIds(), roundTrips);
+        return result;
+    }
+
+    private byte[][] appendKeysAndArgs(String conversationId, List<String> encodedMessages) {
+        List<String> keysAndArgs = new ArrayList<>(encodedMessages.size() + 6);
+        keysAndArgs.add(seqKey(conversationId));
+        keysAndArgs.add(dataKey(conversationId));
+        keysAndArgs.add(indexKey(conversationId));
+        keysAndArgs.add(coldKey(conversationId));
+        keysAndArgs.add(String.valueOf(TimeUnit.DAYS.toSeconds(MESSAGE_TTL_DAYS)));
+        keysAndArgs.add("append");
+        keysAndArgs.addAll(encodedMessages);
+
+        byte[][] bytes = new byte[keysAndArgs.size()][];
+        for (int i = 0; i < keysAndArgs.size(); i++) {
+            // 键为UTF-8，编码后的消息按ISO-8859-1还原为原始字节
+            bytes[i] = keysAndArgs.get(i).getBytes(i < 4 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+        }
+        return bytes;
+    }
+    
+    @Override
+    public List<StoredMessage> getMessages(String conversationId) {
+        try {
+            List<StoredMessage> messages = readRange(conversationId, 0, -1);
             
             log.info("[getMessages] 获取消息历史成功: conversationId={}, count={}", 
                     conversationId, messages.size());
             return messages;
             
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("[getMessages] 获取消息历史失败: conversationId={}, error={}", 
                     conversationId, e.getMessage(), e);
@@ -190,14 +629,923 @@ public class CustomMessageStorageService implements ICustomMessageStorageService
         }
     }
     
+    @Override
+    public List<Message> getRecentMessages(String conversationId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        try {
+            List<StoredMessage> storedMessages = cachedMessagesBefore(conversationId, null, limit);
+            if (storedMessages == null) {
+                storedMessages = readRange(conversationId, -limit, -1);
+            }
+            List<Message> messages = new ArrayList<>(storedMessages.size());
+            for (StoredMessage storedMessage : storedMessages) {
+                messages.add(toChatMessage(storedMessage));
+            }
+            log.debug("[getRecentMessages] 获取最近消息: conversationId={}, limit={}, count={}",
+                    conversationId, limit, messages.size());
+            return messages;
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("[getRecentMessages] 获取最近消息失败: conversationId={}, error={}",
+                    conversationId, e.getMessage(), e);
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public List<StoredMessage> getMessagesBefore(String conversationId, Long beforeMessageId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        try {
+            List<StoredMessage> cached = cachedMessagesBefore(conversationId, beforeMessageId, limit);
+            if (cached != null) {
+                return cached;
+            }
+            String maxScore = beforeMessageId != null ? "(" + beforeMessageId : "+inf";
+            List<String> entries = readEntriesRestoringCold(READ_BEFORE_SCRIPT, conversationId, maxScore,
+                    String.valueOf(limit));
+
+            // 首页为空时还可能仍在旧版存储中（每个会话只检查一次）
+            if (entries.isEmpty() && beforeMessageId == null && migrateLegacyOnce(conversationId) > 0) {
+                entries = readEntries(READ_BEFORE_SCRIPT, conversationId, maxScore, String.valueOf(limit));
+            }
+            List<StoredMessage> messages = parseEntries(entries);
+            log.debug("[getMessagesBefore] 分页读取消息: conversationId={}, before={}, limit={}, count={}",
+                    conversationId, beforeMessageId, limit, messages.size());
+            return messages;
+        } catch (BusinessException e) {
+            throw e;
+        } catch (Exception e) {
+            log.error("[getMessagesBefore] 分页读取消息失败: conversationId={}, before={}, error={}",
+                    conversationId, beforeMessageId, e.getMessage(), e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * 增量同步使用，读取失败时抛出异常，由调用方重试
+     * 会话处于冷存储时直接读取blob，不恢复会话（定时同步会遍历所有会话，恢复会让冷存储失效并延长过期时间）
+     */
+    @Override
+    public List<StoredMessage> getMessagesAfter(String conversationId, long afterMessageId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        List<String> entries = readEntries(READ_AFTER_SCRIPT, conversationId, "(" + afterMessageId, String.valueOf(limit));
+        return isCold(entries) ? readColdMessagesAfter(conversationId, afterMessageId, limit) : parseEntries(entries);
+    }
+
+    /**
+     * 合并冷存储blob和冷存储期间追加的消息，返回ID大于游标的最早若干条
+     * 先读blob再读索引：两次读取之间被恢复时，blob中的消息已合并进索引，不会遗漏
+     */
+    private List<StoredMessage> readColdMessagesAfter(String conversationId, long afterMessageId, int limit) {
+        TreeMap<Long, StoredMessage> messages = new TreeMap<>();
+        String blob = redisTemplate.opsForValue().get(coldKey(conversationId));
+        if (blob != null) {
+            try {
+                for (StoredMessage message : messageCodec.decodeColdBlob(ConversationMessageCodec.fromRedisValue(blob))) {
+                    if (message.getId() > afterMessageId) {
+                        messages.put(message.getId(), message);
+                    }
+                }
+            } catch (IllegalArgumentException e) {
+                // 只读取热数据会让同步游标越过blob中的消息，抛出异常由调用方重试
+                log.error("[getMessagesAfter] 冷存储数据损坏: conversationId={}, error={}",
+                        conversationId, e.getMessage());
+                throw coldBlobCorrupted(conversationId, e);
+            }
+        }
+
+        Set<String> ids = redisTemplate.opsForZSet().rangeByScore(indexKey(conversationId),
+                afterMessageId + 1, Double.POSITIVE_INFINITY, 0, limit);
+        if (ids != null && !ids.isEmpty()) {
+            List<Object> fields = new ArrayList<>(ids);
+            List<Object> values = redisTemplate.opsForHash().multiGet(dataKey(conversationId), fields);
+            List<String> entries = new ArrayList<>(ids.size() * 2);
+            for (int i = 0; i < fields.size(); i++) {
+                if (values.get(i) != null) {
+                    entries.add(fields.get(i).toString());
+                    entries.add(values.get(i).toString());
+                }
+            }
+            for (StoredMessage message : parseEntries(entries)) {
+                messages.put(message.getId(), message);
+            }
+        }
+
+        List<StoredMessage> result = new ArrayList<>(Math.min(limit, messages.size()));
+        for (StoredMessage message : messages.values()) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(message);
+        }
+        return result;
+    }
+
+    @Override
+    public long getLastMessageId(String conversationId) {
+        String lastId = redisTemplate.opsForValue().get(seqKey(conversationId));
+        return lastId != null ? Long.parseLong(lastId) : 0L;
+    }
+
+    @Override
+    public long countMessages(String conversationId) {
+        Long cached = windowCache != null ? windowCache.getCount(conversationId) : null;
+        if (cached != null) {
+            return cached;
+        }
+        Long count = redisTemplate.opsForZSet().zCard(indexKey(conversationId));
+        return count != null ? count : 0L;
+    }
+
+    // ==================== ChatMemoryRepository ====================
+
+    /**
+     * 返回所有会话ID，包含冷存储中的会话和尚未迁移的旧版列表存储中的会话
+     */
+    @Override
+    public List<String> findConversationIds() {
+        Set<String> conversationIds = new LinkedHashSet<>();
+        scanConversationIds(INDEX_KEY_SUFFIX, conversationIds::add);
+        scanConversationIds(COLD_KEY_SUFFIX, conversationIds::add);
+        scanKeys(LIST_KEY_PREFIX + "*", key -> conversationIds.add(key.substring(LIST_KEY_PREFIX.length())));
+        return new ArrayList<>(conversationIds);
+    }
+
+    private void scanConversationIds(String suffix, Consumer<String> consumer) {
+        String prefix = MESSAGE_KEY_PREFIX + "{";
+        String keySuffix = "}" + suffix;
+        scanKeys(prefix + "*" + keySuffix, key ->
+                consumer.accept(key.substring(prefix.length(), key.length() - keySuffix.length())));
+    }
+
+    private void scanKeys(String pattern, Consumer<String> consumer) {
+        ScanOptions options = ScanOptions.scanOptions().match(pattern).count(SCAN_BATCH_SIZE).build();
+        try (Cursor<String> cursor = redisTemplate.scan(options)) {
+            while (cursor.hasNext()) {
+                consumer.accept(cursor.next());
+            }
+        }
+    }
+
+    /**
+     * 执行一次SCAN，游标由调用方保存，中断后可以从保存的游标继续遍历
+     * 同时匹配统一存储（index、cold）和旧版列表存储的键
+     */
+    @Override
+    public ConversationIdPage scanConversationIdPage(String cursor, int count) {
+        byte[][] args = {
+                (cursor != null ? cursor : SCAN_START_CURSOR).getBytes(StandardCharsets.UTF_8),
+                "MATCH".getBytes(StandardCharsets.UTF_8), "chat:*".getBytes(StandardCharsets.UTF_8),
+                "COUNT".getBytes(StandardCharsets.UTF_8), String.valueOf(count).getBytes(StandardCharsets.UTF_8)};
+        Object reply = redisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("SCAN", args));
+        if (!(reply instanceof List<?> parts) || parts.size() != 2 || !(parts.get(1) instanceof List<?> keys)) {
+            throw new IllegalStateException("无法解析SCAN返回值: " + reply);
+        }
+
+        Set<String> conversationIds = new LinkedHashSet<>();
+        for (Object key : keys) {
+            String conversationId = conversationIdOfKey(scanReplyString(key));
+            if (conversationId != null) {
+                conversationIds.add(conversationId);
+            }
+        }
+        ConversationIdPage page = new ConversationIdPage();
+        page.setNextCursor(scanReplyString(parts.get(0)));
+        page.setConversationIds(new ArrayList<>(conversationIds));
+        return page;
+    }
+
+    private static String scanReplyString(Object value) {
+        return value instanceof byte[] bytes ? new String(bytes, StandardCharsets.UTF_8) : String.valueOf(value);
+    }
+
+    /**
+     * 从会话的键中解析会话ID，其他键（data、seq、摘要等，以及非会话键）返回null，同一会话只对应一个键
+     */
+    private static String conversationIdOfKey(String key) {
+        String prefix = MESSAGE_KEY_PREFIX + "{";
+        if (key.startsWith(prefix)) {
+            for (String suffix : List.of("}" + INDEX_KEY_SUFFIX, "}" + COLD_KEY_SUFFIX)) {
+                if (key.endsWith(suffix) && key.length() > prefix.length() + suffix.length()) {
+                    return key.substring(prefix.length(), key.length() - suffix.length());
+                }
+            }
+            return null;
+        }
+        return key.startsWith(LIST_KEY_PREFIX) ? key.substring(LIST_KEY_PREFIX.length()) : null;
+    }
+
+    @Override
+    public List<Message> findByConversationId(String conversationId) {
+        List<Message> messages = new ArrayList<>();
+        for (StoredMessage storedMessage : readRange(conversationId, 0, -1)) {
+            messages.add(toChatMessage(storedMessage));
+        }
+        return messages;
+    }
+
+    /**
+     * 整体替换会话消息（ChatMemoryRepository语义）
+     * 消息元数据中的 timestamp、audioUrl、voiceDuration 会被保留，消息ID重新分配
+     */
+    @Override
+    public void saveAll(String conversationId, List<Message> messages) {
+        List<String> encodedMessages = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            StoredMessage storedMessage = fromChatMessage(message);
+            if (storedMessage != null) {
+                encodedMessages.add(encode(storedMessage));
+            }
+        }
+
+        append(conversationId, "replace", encodedMessages);
+        notifyChanged(conversationId);
+        publishChangeEvent(conversationId, IConversationChangeStreamService.OP_REPLACE, null);
+        log.info("[saveAll] 替换会话消息: conversationId={}, count={}", conversationId, encodedMessages.size());
+    }
+
+    @Override
+    public void deleteByConversationId(String conversationId) {
+        clearMessages(conversationId);
+    }
+
+    private Long append(String conversationId, String mode, List<String> encodedMessages) {
+        List<String> args = new ArrayList<>(encodedMessages.size() + 2);
+        args.add(String.valueOf(TimeUnit.DAYS.toSeconds(MESSAGE_TTL_DAYS)));
+        args.add(mode);
+        args.addAll(encodedMessages);
+        List<String> keys = List.of(seqKey(conversationId), dataKey(conversationId), indexKey(conversationId),
+                coldKey(conversationId));
+
+        return redisTemplate.execute(APPEND_SCRIPT, keys, args.toArray());
+    }
+
+    private String encode(StoredMessage message) {
+        return ConversationMessageCodec.toRedisValue(messageCodec.encode(message));
+    }
+
+    // ==================== 变更事件 ====================
+
+    /**
+     * 在给定连接（可以处于管道中）上向变更事件Stream追加一条事件，按 max-length 近似裁剪
+     */
+    private void appendChangeEvent(RedisConnection connection, String conversationId, String operation, Long messageId) {
+        Map<byte[], byte[]> fields = new LinkedHashMap<>();
+        fields.put(utf8(IConversationChangeStreamService.FIELD_CONVERSATION), utf8(conversationId));
+        fields.put(utf8(IConversationChangeStreamService.FIELD_OPERATION), utf8(operation));
+        if (messageId != null) {
+            fields.put(utf8(IConversationChangeStreamService.FIELD_MESSAGE_ID), utf8(messageId.toString()));
+        }
+        connection.streamCommands().xAdd(MapRecord.create(utf8(changeStreamConfig.getStreamKey()), fields),
+                RedisStreamCommands.XAddOptions.maxlen(changeStreamConfig.getMaxLength()).approximateTrimming(true));
+    }
+
+    private void publishChangeEvent(String conversationId, String operation, Long messageId) {
+        if (!changeStreamConfig.isEnabled()) {
+            return;
+        }
+        try {
+            redisTemplate.execute((RedisCallback<Object>) connection -> {
+                appendChangeEvent(connection, conversationId, operation, messageId);
+                return null;
+            });
+        } catch (Exception e) {
+            // 事件丢失时由下一条事件或批量同步补齐（增量同步以MySQL中的最大消息ID为准）
+            log.warn("[publishChangeEvent] 追加会话变更事件失败: conversationId={}, operation={}, error={}",
+                    conversationId, operation, e.getMessage());
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ==================== 近端缓存 ====================
+
+    /**
+     * 从本地窗口读取ID小于游标的最近 limit 条消息；首页未命中时从Redis装载窗口
+     *
+     * @return 缓存未启用、超出窗口大小或窗口不能覆盖时返回null，由调用方读取Redis
+     */
+    private List<StoredMessage> cachedMessagesBefore(String conversationId, Long beforeMessageId, int limit) {
+        if (windowCache == null || limit > windowCache.getWindowMessages()) {
+            return null;
+        }
+        List<StoredMessage> cached = windowCache.getBefore(conversationId, beforeMessageId, limit);
+        if (cached != null || beforeMessageId != null) {
+            return cached;
+        }
+
+        long loadGeneration = windowCache.generation();
+        List<StoredMessage> window = readRange(conversationId, -windowCache.getWindowMessages(), -1);
+        Long total = redisTemplate.opsForZSet().zCard(indexKey(conversationId));
+        windowCache.put(conversationId, window, total != null ? total : window.size(), loadGeneration);
+        return new ArrayList<>(window.subList(Math.max(0, window.size() - limit), window.size()));
+    }
+
+    /**
+     * 本节点追加消息后写入本地窗口（消息ID为 lastId 倒数连续分配）
+     */
+    private void onAppended(String conversationId, List<StoredMessage> appended, Long lastId) {
+        if (windowCache == null) {
+            return;
+        }
+        if (lastId == null || lastId <= 0) {
+            windowCache.invalidate(conversationId);
+            return;
+        }
+        long firstId = lastId - appended.size() + 1;
+        for (int i = 0; i < appended.size(); i++) {
+            appended.get(i).setId(firstId + i);
+        }
+        windowCache.append(conversationId, appended);
+    }
+
+    /**
+     * 会话消息发生了无法直通写入窗口的变化（整体替换、清空、迁移、归档），失效本节点窗口并通知其他节点
+     */
+    private void notifyChanged(String conversationId) {
+        if (windowCache == null) {
+            return;
+        }
+        windowCache.invalidate(conversationId);
+        publishInvalidation(conversationId);
+    }
+
+    private void publishInvalidation(String conversationId) {
+        if (windowCache == null) {
+            return;
+        }
+        try {
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.publish(invalidationChannel(), invalidationMessage(conversationId)));
+        } catch (Exception e) {
+            // 发布失败时其他节点依赖窗口过期时间
+            log.warn("[publishInvalidation] 发布会话失效通知失败: conversationId={}, error={}", conversationId, e.getMessage());
+        }
+    }
+
+    private byte[] invalidationChannel() {
+        return nearCacheConfig.getInvalidationChannel().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private byte[] invalidationMessage(String conversationId) {
+        return (nodeId + MESSAGE_SEPARATOR + conversationId).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private void onInvalidationMessage(String message) {
+        int separator = message.indexOf(MESSAGE_SEPARATOR);
+        if (separator < 0) {
+            log.warn("[onInvalidationMessage] 无法解析会话失效通知: message={}", message);
+            return;
+        }
+        if (nodeId.equals(message.substring(0, separator))) {
+            return;
+        }
+        windowCache.invalidate(message.substring(separator + 1));
+    }
+
+    // ==================== 冷存储 ====================
+
+    /**
+     * 将空闲会话压缩为冷存储blob
+     * 以index的剩余过期时间判断空闲：每次写入都会把过期时间重置为30天，剩余时间越短说明距上次写入越久
+     */
+    @Override
+    public int compactIdleConversations() {
+        long ttlMillis = TimeUnit.DAYS.toMillis(MESSAGE_TTL_DAYS);
+        long maxRemainingMillis = ttlMillis - TimeUnit.HOURS.toMillis(storageConfig.getColdIdleHours());
+        if (maxRemainingMillis <= 0) {
+            return 0;
+        }
+
+        // 先收集再压缩，避免边扫描边删除导致游标遗漏
+        List<String> idleConversationIds = new ArrayList<>();
+        scanConversationIds(INDEX_KEY_SUFFIX, conversationId -> {
+            if (idleConversationIds.size() < storageConfig.getColdScanBatchSize()) {
+                Long remaining = redisTemplate.getExpire(indexKey(conversationId), TimeUnit.MILLISECONDS);
+                if (remaining != null && remaining > 0 && remaining <= maxRemainingMillis) {
+                    idleConversationIds.add(conversationId);
+                }
+            }
+        });
+
+        int compacted = 0;
+        for (String conversationId : idleConversationIds) {
+            try {
+                if (compactConversation(conversationId, maxRemainingMillis)) {
+                    compacted++;
+                }
+            } catch (Exception e) {
+                log.warn("[compactIdleConversations] 压缩会话失败: conversationId={}, error={}",
+                        conversationId, e.getMessage());
+            }
+        }
+        if (!idleConversationIds.isEmpty()) {
+            log.info("[compactIdleConversations] 空闲会话压缩完成: idle={}, compacted={}",
+                    idleConversationIds.size(), compacted);
+        }
+        return compacted;
+    }
+
+    private boolean compactConversation(String conversationId, long maxRemainingMillis) {
+        List<String> entries = readEntries(READ_RANGE_SCRIPT, conversationId, "0", "-1");
+        List<StoredMessage> messages = parseEntries(entries);
+        // 有无法解码的消息时不压缩，避免丢失数据
+        if (messages.isEmpty() || messages.size() * 2 != entries.size()) {
+            return false;
+        }
+
+        byte[] blob = messageCodec.encodeColdBlob(messages);
+        Long result = redisTemplate.execute(COMPACT_SCRIPT,
+                List.of(dataKey(conversationId), indexKey(conversationId), coldKey(conversationId)),
+                String.valueOf(messages.size()), String.valueOf(messages.get(messages.size() - 1).getId()),
+                String.valueOf(maxRemainingMillis), ConversationMessageCodec.toRedisValue(blob));
+        if (result == null || result == 0) {
+            return false;
+        }
+
+        long hotBytes = 0;
+        for (int i = 1; i < entries.size(); i += 2) {
+            hotBytes += entries.get(i).length();
+        }
+        compactedConversations.increment();
+        compactedMessages.add(messages.size());
+        compactedHotBytes.add(hotBytes);
+        compactedColdBytes.add(blob.length);
+        log.debug("[compactIdleConversations] 会话已压缩: conversationId={}, count={}, hotBytes={}, coldBytes={}",
+                conversationId, messages.size(), hotBytes, blob.length);
+        return true;
+    }
+
+    /**
+     * 会话处于冷存储时解开blob，写回data和index
+     * blob损坏时保留blob以便排查、不覆盖会话，抛出异常而不是把会话当作空会话
+     *
+     * @return 会话读取时处于冷存储（本次已恢复，或已被并发恢复、清空）时返回true，调用方应重新读取
+     */
+    private boolean restoreColdConversation(String conversationId) {
+        String blob = redisTemplate.opsForValue().get(coldKey(conversationId));
+        if (blob == null) {
+            return false;
+        }
+
+        List<StoredMessage> messages;
+        try {
+            messages = messageCodec.decodeColdBlob(ConversationMessageCodec.fromRedisValue(blob));
+        } catch (IllegalArgumentException e) {
+            log.error("[restoreColdConversation] 冷存储数据损坏: conversationId={}, error={}",
+                    conversationId, e.getMessage());
+            throw coldBlobCorrupted(conversationId, e);
+        }
+
+        List<String> args = new ArrayList<>(messages.size() * 2 + 1);
+        args.add(blob);
+        for (StoredMessage message : messages) {
+            args.add(String.valueOf(message.getId()));
+            args.add(encode(message));
+        }
+        Long restored = redisTemplate.execute(RESTORE_SCRIPT,
+                List.of(seqKey(conversationId), dataKey(conversationId), indexKey(conversationId), coldKey(conversationId)),
+                args.toArray());
+        if (restored == null || restored < 0) {
+            // 并发恢复或会话已被清空，由调用方重新读取
+            log.debug("[restoreColdConversation] 冷存储已被并发恢复或清空: conversationId={}", conversationId);
+            return true;
+        }
+
+        restoredConversations.increment();
+        log.info("[restoreColdConversation] 会话已从冷存储恢复: conversationId={}, count={}", conversationId, restored);
+        return true;
+    }
+
+    private static BusinessException coldBlobCorrupted(String conversationId, Exception cause) {
+        return BusinessException.of(ErrorCode.CHAT_HISTORY_LOAD_FAILED, "会话冷存储数据损坏: " + conversationId, cause);
+    }
+
+    // ==================== 分层存储 ====================
+
+    @Override
+    public List<String> findConversationsOverCap(int hotMessageCap, int limit) {
+        List<String> conversationIds = new ArrayList<>();
+        scanConversationIds(INDEX_KEY_SUFFIX, conversationId -> {
+            if (conversationIds.size() < limit && countMessages(conversationId) > hotMessageCap) {
+                conversationIds.add(conversationId);
+            }
+        });
+        return conversationIds;
+    }
+
+    /**
+     * 读取超出上限的最早一批消息交给 archiver 写入下层存储，写入成功后再从Redis移除
+     * archiver 抛出异常时不移除任何消息；写入需幂等，失败重试或与移除之间中断时会再次收到同一批消息
+     */
+    @Override
+    public ArchiveResult archiveOldestMessages(String conversationId, int hotMessageCap, int batchSize,
+                                               Consumer<List<StoredMessage>> archiver) {
+        ArchiveResult result = new ArchiveResult();
+        long overflow = countMessages(conversationId) - hotMessageCap;
+        if (overflow <= 0 || batchSize <= 0) {
+            return result;
+        }
+
+        List<String> entries = readEntries(READ_RANGE_SCRIPT, conversationId,
+                "0", String.valueOf(Math.min(overflow, batchSize) - 1));
+        List<StoredMessage> messages = new ArrayList<>(entries.size() / 2);
+        List<String> trimArgs = new ArrayList<>(entries.size());
+        for (int i = 0; i + 1 < entries.size(); i += 2) {
+            try {
+                StoredMessage storedMessage = messageCodec.decode(ConversationMessageCodec.fromRedisValue(entries.get(i + 1)));
+                storedMessage.setId(Long.valueOf(entries.get(i)));
+                messages.add(storedMessage);
+                trimArgs.add(entries.get(i));
+                trimArgs.add(entries.get(i + 1));
+            } catch (IllegalArgumentException e) {
+                // 无法解码的消息留在Redis中，不随归档丢失
+                log.warn("[archiveOldestMessages] 反序列化消息失败，跳过: conversationId={}, messageId={}, error={}",
+                        conversationId, entries.get(i), e.getMessage());
+            }
+        }
+        if (messages.isEmpty()) {
+            return result;
+        }
+
+        archiver.accept(messages);
+
+        @SuppressWarnings("unchecked")
+        List<Long> trimmed = redisTemplate.execute(TRIM_ARCHIVED_SCRIPT,
+                List.of(dataKey(conversationId), indexKey(conversationId)), trimArgs.toArray());
+        result.setArchived(messages.size());
+        if (trimmed != null && trimmed.size() == 2) {
+            result.setRemoved(trimmed.get(0));
+            result.setReclaimedBytes(trimmed.get(1));
+        }
+        if (result.getRemoved() > 0) {
+            // 消息总数变化，缓存的窗口需要重新装载
+            notifyChanged(conversationId);
+        }
+        log.debug("[archiveOldestMessages] 归档完成: conversationId={}, archived={}, removed={}, reclaimedBytes={}",
+                conversationId, result.getArchived(), result.getRemoved(), result.getReclaimedBytes());
+        return result;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerCounter(registry, "chat.storage.compacted.conversations", "压缩为冷存储的会话数", compactedConversations);
+        registerCounter(registry, "chat.storage.compacted.messages", "压缩为冷存储的消息数", compactedMessages);
+        FunctionCounter.builder("chat.storage.compacted.bytes", compactedHotBytes, LongAdder::sum)
+                .description("冷存储压缩前后的消息字节数")
+                .baseUnit("bytes")
+                .tag("stage", "hot")
+                .register(registry);
+        FunctionCounter.builder("chat.storage.compacted.bytes", compactedColdBytes, LongAdder::sum)
+                .description("冷存储压缩前后的消息字节数")
+                .baseUnit("bytes")
+                .tag("stage", "cold")
+                .register(registry);
+        registerCounter(registry, "chat.storage.restored.conversations", "从冷存储恢复的会话数", restoredConversations);
+        // 每轮对话写入（消息、过期时间、会话元数据）占用的Redis往返次数
+        registerCounter(registry, "chat.storage.turns.saved", "保存的对话轮数", turnsSaved);
+        registerCounter(registry, "chat.storage.turn.round.trips", "保存对话轮占用的Redis往返次数", turnRoundTrips);
+        Gauge.builder("chat.storage.turn.round.trips.max", maxTurnRoundTrips, LongAccumulator::get)
+                .description("单轮对话占用的最大Redis往返次数")
+                .register(registry);
+        if (windowCache == null) {
+            return;
+        }
+        Gauge.builder("chat.storage.near.cache.conversations", windowCache, ConversationWindowCache::size)
+                .description("近端缓存中的会话数")
+                .register(registry);
+        Gauge.builder("chat.storage.near.cache.size", windowCache, ConversationWindowCache::getEstimatedBytes)
+                .description("近端缓存估算占用字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        FunctionCounter.builder("chat.storage.near.cache.gets", windowCache, ConversationWindowCache::getHits)
+                .description("近端缓存读取次数")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("chat.storage.near.cache.gets", windowCache, ConversationWindowCache::getMisses)
+                .description("近端缓存读取次数")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("chat.storage.near.cache.evictions", windowCache, ConversationWindowCache::getEvictions)
+                .description("近端缓存因容量淘汰的会话数")
+                .register(registry);
+        FunctionCounter.builder("chat.storage.near.cache.invalidations", windowCache,
+                        ConversationWindowCache::getInvalidations)
+                .description("近端缓存收到的失效次数")
+                .register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String name, String description, LongAdder counter) {
+        FunctionCounter.builder(name, counter, LongAdder::sum)
+                .description(description)
+                .register(registry);
+    }
+
+    @Override
+    public Map<String, Object> getStorageFootprint(String conversationId) {
+        Map<String, Object> footprint = new HashMap<>();
+        long totalBytes = 0;
+        for (String key : List.of(dataKey(conversationId), indexKey(conversationId), coldKey(conversationId),
+                seqKey(conversationId))) {
+            Long bytes = memoryUsage(key);
+            if (bytes != null) {
+                footprint.put(key, bytes);
+                totalBytes += bytes;
+            }
+        }
+
+        Boolean cold = redisTemplate.hasKey(coldKey(conversationId));
+        long messageCount = Boolean.TRUE.equals(cold)
+                ? decodeColdMessageCount(conversationId)
+                : countMessages(conversationId);
+        footprint.put("cold", Boolean.TRUE.equals(cold));
+        footprint.put("messageCount", messageCount);
+        footprint.put("totalBytes", totalBytes);
+        footprint.put("bytesPer1kMessages", messageCount > 0 ? totalBytes * 1000 / messageCount : 0);
+        return footprint;
+    }
+
+    private long decodeColdMessageCount(String conversationId) {
+        String blob = redisTemplate.opsForValue().get(coldKey(conversationId));
+        try {
+            return blob != null ? messageCodec.decodeColdBlob(ConversationMessageCodec.fromRedisValue(blob)).size() : 0;
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private Long memoryUsage(String key) {
+        Object result = redisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.execute("MEMORY", "USAGE".getBytes(StandardCharsets.UTF_8), key.getBytes(StandardCharsets.UTF_8)));
+        return result instanceof Number number ? number.longValue() : null;
+    }
+
+    // ==================== 旧版数据迁移 ====================
+
+    @Override
+    public int migrateLegacyConversation(String conversationId) {
+        int migrated = migrateListLayout(conversationId);
+        if (migrated == 0) {
+            migrated = migrateLegacyMemory(conversationId);
+        }
+        if (migrated > 0) {
+            notifyChanged(conversationId);
+            publishChangeEvent(conversationId, IConversationChangeStreamService.OP_APPEND, null);
+        }
+        return migrated;
+    }
+
+    /**
+     * 将旧版列表存储 chat:messages:{conversationId} 迁移为按ID存储，按原有顺序分配消息ID
+     */
+    private int migrateListLayout(String conversationId) {
+        String listKey = LIST_KEY_PREFIX + conversationId;
+        List<String> messageJsonList = redisTemplate.opsForList().range(listKey, 0, -1);
+        if (messageJsonList == null || messageJsonList.isEmpty()) {
+            return 0;
+        }
+
+        // 旧列表中为消息JSON，按当前编码格式重新编码后导入
+        List<String> encodedMessages = new ArrayList<>(messageJsonList.size());
+        for (String messageJson : messageJsonList) {
+            try {
+                encodedMessages.add(encode(messageCodec.decode(ConversationMessageCodec.fromRedisValue(messageJson))));
+            } catch (IllegalArgumentException e) {
+                log.warn("[migrateLegacyConversation] 解析旧版列表消息失败，跳过: conversationId={}, error={}",
+                        conversationId, e.getMessage());
+            }
+        }
+
+        Long lastId = encodedMessages.isEmpty() ? Long.valueOf(0L) : append(conversationId, "import", encodedMessages);
+        // 旧键与新结构不在同一个hash slot，导入完成后单独删除；两步之间中断时新结构已有数据，不会重复导入
+        redisTemplate.delete(listKey);
+
+        if (lastId == null || lastId < 0) {
+            log.info("[migrateLegacyConversation] 会话已有消息，删除旧版列表数据: conversationId={}, legacyCount={}",
+                    conversationId, messageJsonList.size());
+            return 0;
+        }
+        log.info("[migrateLegacyConversation] 旧版列表存储迁移完成: conversationId={}, migrated={}",
+                conversationId, encodedMessages.size());
+        return encodedMessages.size();
+    }
+
+    /**
+     * 将旧版会话记忆 spring_ai_alibaba_chat_memory:{conversationId} 迁移为按ID存储
+     */
+    private int migrateLegacyMemory(String conversationId) {
+        String legacyKey = LEGACY_MEMORY_KEY_PREFIX + conversationId;
+
+        List<String> legacyJsonList = redisTemplate.opsForList().range(legacyKey, 0, -1);
+        if (legacyJsonList == null || legacyJsonList.isEmpty()) {
+            return 0;
+        }
+
+        // 旧数据没有时间戳，按原有顺序生成递增的时间戳，保证排序稳定
+        long baseTimestamp = System.currentTimeMillis() - legacyJsonList.size();
+        List<String> encodedMessages = new ArrayList<>(legacyJsonList.size());
+        for (int i = 0; i < legacyJsonList.size(); i++) {
+            StoredMessage storedMessage = parseLegacyMessage(legacyJsonList.get(i), baseTimestamp + i);
+            if (storedMessage != null) {
+                encodedMessages.add(encode(storedMessage));
+            }
+        }
+
+        // 双写时期两份数据内容相同，会话已有消息时旧数据只需删除
+        Long lastId = encodedMessages.isEmpty() ? Long.valueOf(0L) : append(conversationId, "import", encodedMessages);
+        redisTemplate.delete(legacyKey);
+
+        if (lastId == null || lastId < 0) {
+            log.info("[migrateLegacyConversation] 会话已有消息，删除旧版数据: conversationId={}, legacyCount={}",
+                    conversationId, legacyJsonList.size());
+            return 0;
+        }
+        log.info("[migrateLegacyConversation] 旧版会话记忆迁移完成: conversationId={}, legacyCount={}, migrated={}",
+                conversationId, legacyJsonList.size(), encodedMessages.size());
+        return encodedMessages.size();
+    }
+
+    /**
+     * 读取会话消息区间（下标语义与ZRANGE一致）；会话处于冷存储时先恢复，
+     * 为空时检查一次旧版数据，新会话之后的空读取不再产生额外的Redis往返
+     */
+    private List<StoredMessage> readRange(String conversationId, long start, long end) {
+        List<String> entries = readEntriesRestoringCold(READ_RANGE_SCRIPT, conversationId, String.valueOf(start),
+                String.valueOf(end));
+
+        if (entries.isEmpty() && migrateLegacyOnce(conversationId) > 0) {
+            entries = readEntries(READ_RANGE_SCRIPT, conversationId, String.valueOf(start), String.valueOf(end));
+        }
+        return parseEntries(entries);
+    }
+
+    /**
+     * 执行读取脚本，返回冷存储标记时恢复会话后重读：
+     * 恢复与追加、并发恢复竞争时（恢复脚本发现blob已变化或已不存在）同样重读，不把标记当作空会话返回
+     */
+    private List<String> readEntriesRestoringCold(DefaultRedisScript<List> script, String conversationId,
+                                                  String... args) {
+        List<String> entries = readEntries(script, conversationId, args);
+        for (int attempt = 0; isCold(entries) && attempt < COLD_READ_MAX_ATTEMPTS; attempt++) {
+            restoreColdConversation(conversationId);
+            entries = readEntries(script, conversationId, args);
+        }
+        if (isCold(entries)) {
+            throw BusinessException.of(ErrorCode.CHAT_HISTORY_LOAD_FAILED,
+                    "会话冷存储恢复后仍无法读取: " + conversationId);
+        }
+        return entries;
+    }
+
+    /**
+     * 读取脚本是否返回了冷存储标记
+     */
+    private static boolean isCold(List<String> entries) {
+        return entries.size() == 1 && COLD_MARKER.equals(entries.get(0));
+    }
+
+    /**
+     * 读取路径上的旧版数据迁移：每个会话在本节点只检查一次（迁移后旧键已删除，旧版数据也不会再写入）
+     */
+    private int migrateLegacyOnce(String conversationId) {
+        int[] migrated = new int[1];
+        // 已检查过的会话命中缓存，不调用加载函数；迁移失败抛出异常时不记录，下次读取重试
+        legacyChecked.get(conversationId, id -> {
+            migrated[0] = migrateLegacyConversation(id);
+            return Boolean.TRUE;
+        });
+        return migrated[0];
+    }
+
+    /**
+     * 解析读取脚本返回的 [id, value, ...]
+     */
+    private List<StoredMessage> parseEntries(List<String> entries) {
+        List<StoredMessage> messages = new ArrayList<>(entries.size() / 2);
+        for (int i = 0; i + 1 < entries.size(); i += 2) {
+            try {
+                StoredMessage storedMessage = messageCodec.decode(ConversationMessageCodec.fromRedisValue(entries.get(i + 1)));
+                storedMessage.setId(Long.valueOf(entries.get(i)));
+                messages.add(storedMessage);
+            } catch (IllegalArgumentException e) {
+                log.warn("[getMessages] 反序列化消息失败: error={}", e.getMessage());
+            }
+        }
+        return messages;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<String> readEntries(DefaultRedisScript<List> script, String conversationId, String... args) {
+        List<String> entries = redisTemplate.execute(script,
+                List.of(indexKey(conversationId), dataKey(conversationId), coldKey(conversationId)), (Object[]) args);
+        return entries != null ? entries : new ArrayList<>();
+    }
+
+    /**
+     * 解析旧版会话记忆中的一条消息，只保留用户消息和AI回复
+     */
+    private StoredMessage parseLegacyMessage(String legacyJson, long timestamp) {
+        try {
+            JsonNode node = objectMapper.readTree(ConversationMessageCodec.fromRedisValue(legacyJson));
+            String messageType = node.path("messageType").asText("");
+            boolean isUser = MessageType.USER.name().equalsIgnoreCase(messageType);
+            if (!isUser && !MessageType.ASSISTANT.name().equalsIgnoreCase(messageType)) {
+                return null;
+            }
+            return buildStoredMessage(node.path("text").asText(""), isUser, timestamp, null, null);
+        } catch (IOException e) {
+            log.warn("[migrateLegacyConversation] 解析旧版消息失败，跳过: error={}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 将存储的消息转换为Spring AI消息，附加字段放入元数据
+     */
+    private Message toChatMessage(StoredMessage storedMessage) {
+        Map<String, Object> metadata = new HashMap<>();
+        if (storedMessage.getId() != null) {
+            metadata.put(METADATA_MESSAGE_ID, storedMessage.getId());
+        }
+        if (storedMessage.getTimestamp() != null) {
+            metadata.put(METADATA_TIMESTAMP, storedMessage.getTimestamp());
+        }
+        if (storedMessage.getAudioUrl() != null) {
+            metadata.put(METADATA_AUDIO_URL, storedMessage.getAudioUrl());
+        }
+        if (storedMessage.getVoiceDuration() != null) {
+            metadata.put(METADATA_VOICE_DURATION, storedMessage.getVoiceDuration());
+        }
+
+        String content = storedMessage.getContent() != null ? storedMessage.getContent() : "";
+        if (Boolean.TRUE.equals(storedMessage.getIsUser())) {
+            return UserMessage.builder().text(content).metadata(metadata).build();
+        }
+        return new AssistantMessage(content, metadata);
+    }
+
+    /**
+     * 将Spring AI消息转换为存储的消息；系统消息和工具消息不属于会话历史，返回null
+     */
+    private StoredMessage fromChatMessage(Message message) {
+        MessageType messageType = message.getMessageType();
+        if (messageType != MessageType.USER && messageType != MessageType.ASSISTANT) {
+            return null;
+        }
+        Map<String, Object> metadata = message.getMetadata();
+        Object timestamp = metadata.get(METADATA_TIMESTAMP);
+        Object audioUrl = metadata.get(METADATA_AUDIO_URL);
+        Object voiceDuration = metadata.get(METADATA_VOICE_DURATION);
+        return buildStoredMessage(
+                message.getText(),
+                messageType == MessageType.USER,
+                timestamp instanceof Number number ? number.longValue() : System.currentTimeMillis(),
+                audioUrl != null ? audioUrl.toString() : null,
+                voiceDuration instanceof Number number ? number.intValue() : null);
+    }
+
+    private StoredMessage buildStoredMessage(String content, boolean isUser, long timestamp,
+                                             String audioUrl, Integer voiceDuration) {
+        StoredMessage storedMessage = new StoredMessage();
+        storedMessage.setContent(content);
+        storedMessage.setIsUser(isUser);
+        storedMessage.setTimestamp(timestamp);
+        storedMessage.setCreatedTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+        storedMessage.setMessageType(isUser ? "USER" : "ASSISTANT");
+        storedMessage.setAudioUrl(audioUrl);
+        storedMessage.setVoiceDuration(voiceDuration);
+        return storedMessage;
+    }
+
+    @Override
+    public long getClearGeneration(String conversationId) {
+        String generation = redisTemplate.opsForValue().get(clearGenerationKey(conversationId));
+        return generation != null ? Long.parseLong(generation) : 0L;
+    }
+
     @Override
     public void clearMessages(String conversationId) {
         log.info("[clearMessages] 清空会话消息: conversationId={}", conversationId);
         
         try {
-            String messageKey = MESSAGE_KEY_PREFIX + conversationId;
-            redisTemplate.delete(messageKey);
-            log.info("[clearMessages] 清空消息成功: conversationId={}", conversationId);
+            // 先删除可能尚未迁移的旧版数据（避免清空后被重新迁移回来），旧版键不在会话的hash slot中，单独删除
+            redisTemplate.delete(List.of(LIST_KEY_PREFIX + conversationId, LEGACY_MEMORY_KEY_PREFIX + conversationId));
+            // 清空代数在删除MySQL归档之前递增，清空前读取的消息不会再被归档写回
+            Long generation = redisTemplate.execute(CLEAR_SCRIPT,
+                    List.of(dataKey(conversationId), indexKey(conversationId), coldKey(conversationId),
+                            summaryKey(conversationId), clearGenerationKey(conversationId)),
+                    String.valueOf(TimeUnit.DAYS.toSeconds(MESSAGE_TTL_DAYS)));
+            notifyChanged(conversationId);
+            log.info("[clearMessages] 清空消息成功: conversationId={}, generation={}", conversationId, generation);
         } catch (Exception e) {
             log.error("[clearMessages] 清空消息失败: conversationId={}, error={}", 
                     conversationId, e.getMessage(), e);
@@ -256,11 +1604,72 @@ public class CustomMessageStorageService implements ICustomMessageStorageService
         return fullString;
     }
     
+    /**
+     * 一页SCAN结果；nextCursor 为 "0" 时遍历结束
+     */
+    @Data
+    public static class ConversationIdPage {
+        private String nextCursor;
+        private List<String> conversationIds;
+
+        public boolean isFinished() {
+            return SCAN_START_CURSOR.equals(nextCursor);
+        }
+    }
+
+    /**
+     * 一批消息的归档结果
+     */
+    @Data
+    public static class ArchiveResult {
+        // 交给下层存储写入的消息数
+        private long archived;
+        // 从Redis移除的消息数（归档期间被更新的消息保留，下一轮重新归档）
+        private long removed;
+        private long reclaimedBytes;
+    }
+
+    /**
+     * 一轮对话中待保存的一条消息，时间戳在创建时确定（用户消息早于回复生成）
+     */
+    @Data
+    public static class TurnMessage {
+        private final Message message;
+        private final boolean user;
+        private final long timestamp;
+        private final String audioUrl;
+        private final Integer voiceDuration;
+
+        public static TurnMessage user(Message message, String audioUrl, Integer voiceDuration) {
+            return new TurnMessage(message, true, System.currentTimeMillis(), audioUrl, voiceDuration);
+        }
+
+        public static TurnMessage assistant(Message message) {
+            return new TurnMessage(message, false, System.currentTimeMillis(), null, null);
+        }
+    }
+
+    /**
+     * 一轮对话的保存结果
+     */
+    @Data
+    public static class TurnSaveResult {
+        // 按传入顺序分配的消息ID，保存失败时为空
+        private final List<Long> messageIds = new ArrayList<>();
+        private int roundTrips;
+    }
+
     /**
      * 存储的消息对象
      */
     @Data
     public static class StoredMessage {
+        /**
+         * 消息ID（会话内递增），由存储结构的字段名提供，不写入消息JSON
+         */
+        @JsonIgnore
+        private Long id;
+
         /**
          * 消息内容
          */
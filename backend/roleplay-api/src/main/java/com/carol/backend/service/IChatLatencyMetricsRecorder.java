@@ -0,0 +1,44 @@
+package com.carol.backend.service;
+
+import com.carol.backend.enums.ChatStage;
+
+/**
+ * 聊天链路分阶段耗时记录器接口
+ *
+ * @description 按 {@link ChatStage} 记录一次聊天请求各阶段的耗时，通过Actuator（/actuator/metrics、/actuator/prometheus）导出，
+ *              标签为角色ID、是否流式、是否合成语音、用户类型（注册用户/游客）
+ */
+public interface IChatLatencyMetricsRecorder {
+
+    /**
+     * 获取本轮请求的阶段计时器
+     * 每次请求解析一次，之后的记录不再查找计时器，也不分配对象，可以按token调用
+     *
+     * @param characterId 角色ID（普通对话为null）
+     * @param streaming 是否流式回复
+     * @param tts 是否合成语音
+     * @param guest 是否游客
+     */
+    StageTimers timers(Long characterId, boolean streaming, boolean tts, boolean guest);
+
+    /**
+     * 一组标签相同的阶段计时器
+     */
+    interface StageTimers {
+
+        /**
+         * 指标关闭时使用，不记录任何耗时
+         */
+        StageTimers NOOP = (stage, nanos) -> {
+        };
+
+        void record(ChatStage stage, long nanos);
+
+        /**
+         * 记录从 startNanos（System.nanoTime）到现在的耗时
+         */
+        default void recordSince(ChatStage stage, long startNanos) {
+            record(stage, System.nanoTime() - startNanos);
+        }
+    }
+}
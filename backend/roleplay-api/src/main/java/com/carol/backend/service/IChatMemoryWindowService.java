@@ -0,0 +1,28 @@
+package com.carol.backend.service;
+
+import com.carol.backend.dto.ChatMemoryWindow;
+
+/**
+ * 会话记忆窗口服务接口
+ *
+ * @description 最近的消息在token预算内原文保留，更早的消息在对话结束后异步合并为滚动摘要，
+ *              每轮对话的提示词大小基本保持不变
+ */
+public interface IChatMemoryWindowService {
+
+    /**
+     * 加载本轮对话的记忆窗口（在提示词组装阶段调用，只读取存储，不调用模型）
+     *
+     * @param conversationId 会话ID
+     * @return 摘要和原文保留的最近消息
+     */
+    ChatMemoryWindow loadWindow(String conversationId);
+
+    /**
+     * 一轮对话保存完成后调用，移出窗口的消息足够多时在后台更新滚动摘要；不阻塞调用线程
+     *
+     * @param conversationId 会话ID
+     */
+    void onTurnCompleted(String conversationId);
+
+}
@@ -0,0 +1,25 @@
+package com.carol.backend.service;
+
+import com.carol.backend.dto.ChatRequest;
+import com.carol.backend.dto.PromptAssemblyResult;
+
+/**
+ * 聊天提示词组装服务接口
+ *
+ * @description 并发执行角色查询、可用性检查、RAG检索和历史加载，组装本轮对话的系统提示词和历史消息
+ */
+public interface IChatPromptAssemblyService {
+
+    /**
+     * 组装本轮对话的系统提示词
+     * 各阶段并发执行，每个阶段都有独立的超时时间；RAG超时时降级为基础角色提示词
+     *
+     * @param request 聊天请求
+     * @param conversationId 会话ID
+     * @param userId 当前用户ID（游客为null），由调用方在请求线程中获取
+     * @param timers 本轮请求的阶段计时器，记录角色查询、RAG检索、记忆加载和组装总耗时
+     * @return 组装结果，包含历史消息和各阶段耗时；普通对话（未指定角色）的系统提示词为null
+     */
+    PromptAssemblyResult assemblePrompt(ChatRequest request, String conversationId, Long userId,
+                                        IChatLatencyMetricsRecorder.StageTimers timers);
+}
@@ -0,0 +1,64 @@
+package com.carol.backend.service;
+
+import com.carol.backend.dto.ChatRequest;
+import com.carol.backend.entity.Character;
+import org.springframework.ai.chat.messages.Message;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * 角色回复语义缓存服务接口
+ *
+ * @description 按角色缓存首轮提问的回复，语义相近的提问直接回放缓存回复，不再调用LLM；
+ *              回复按（是否RAG, 是否TTS, 角色版本）分区缓存，角色设定更新后旧回复不再命中
+ */
+public interface IChatSemanticCacheService {
+
+    /**
+     * 判断本轮对话是否可以使用语义缓存
+     * 需要启用缓存、指定角色、没有历史消息（首轮提问），且提问长度不超过上限
+     *
+     * @param request 聊天请求
+     * @param history 本轮携带的历史消息
+     * @return 是否可以查询和写入缓存
+     */
+    boolean isEligible(ChatRequest request, List<Message> history);
+
+    /**
+     * 查询缓存回复，超时或异常按未命中处理
+     *
+     * @param request 聊天请求（角色ID、提问、是否RAG、是否TTS）
+     * @param character 本轮使用的角色（按更新时间区分角色版本）
+     * @return 命中的缓存回复
+     */
+    Optional<String> lookup(ChatRequest request, Character character);
+
+    /**
+     * 将缓存回复切分为token流，按与LLM输出相同的方式推送给前端
+     *
+     * @param answer 缓存回复
+     * @return 回复片段
+     */
+    Flux<String> replay(String answer);
+
+    /**
+     * 异步写入缓存，超过角色条目上限时淘汰最久未命中的条目
+     *
+     * @param request 聊天请求
+     * @param character 本轮使用的角色
+     * @param answer 完整回复
+     * @param generationMillis 本次LLM生成耗时（用于估算命中节省的延迟）
+     */
+    void store(ChatRequest request, Character character, String answer, long generationMillis);
+
+    /**
+     * 清除角色的全部缓存（角色设定或知识库变更后调用）
+     *
+     * @param characterId 角色ID
+     * @return 清除的条目数
+     */
+    int evictCharacter(Long characterId);
+
+}
@@ -0,0 +1,43 @@
+package com.carol.backend.service;
+
+/**
+ * 流式聊天指标收集器接口
+ *
+ * @description 统计流式回复的完成与取消情况，以及客户端断开后被取消、避免浪费的生成和合成工作，
+ *              以 chat.stream.* 计数器导出
+ */
+public interface IChatStreamMetricsCollector {
+
+    /**
+     * 记录流式回复开始
+     */
+    void recordStreamStarted();
+
+    /**
+     * 记录流式回复正常完成
+     */
+    void recordStreamCompleted();
+
+    /**
+     * 记录客户端断开导致的取消
+     *
+     * @param generatedChars 取消前已生成的字符数
+     * @param duringGeneration 取消时LLM是否仍在生成
+     */
+    void recordStreamCancelled(int generatedChars, boolean duringGeneration);
+
+    /**
+     * 记录被取消的单句TTS合成
+     */
+    void recordTtsSegmentCancelled();
+
+    /**
+     * 记录因取消而跳过的音频持久化
+     */
+    void recordPersistenceSkipped();
+
+    /**
+     * 记录取消后按策略保存的部分回复
+     */
+    void recordPartialReplySaved();
+}
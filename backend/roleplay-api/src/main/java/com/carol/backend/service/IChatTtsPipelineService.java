@@ -0,0 +1,39 @@
+package com.carol.backend.service;
+
+import com.carol.backend.dto.TtsPersistenceResult;
+import com.carol.backend.dto.TtsSegmentResult;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+
+/**
+ * 流式逐句TTS服务接口
+ *
+ * @description LLM流式输出的同时按句切分并合成语音，首句音频无需等待完整回复
+ */
+public interface IChatTtsPipelineService {
+
+    /**
+     * 对流式文本逐句合成语音
+     * 句子按顺序输出，合成并发数和单句超时由 app.chat.pipeline.tts-pipeline 配置；
+     * 单句失败或超时只产生一个失败结果，不影响文本流和后续句子
+     *
+     * @param textChunks LLM流式输出的文本块
+     * @param characterId 角色ID
+     * @param userId 用户ID（游客为null）
+     * @param languageType 语言类型（可选）
+     * @return 按句子顺序排列的合成结果，不适合语音合成的句子会被跳过
+     */
+    Flux<TtsSegmentResult> synthesizeSentences(Flux<String> textChunks, Long characterId,
+                                               Long userId, String languageType);
+
+    /**
+     * 拼接合成成功的句子音频并持久化到OSS
+     *
+     * @param segments 逐句合成结果
+     * @param userId 用户ID
+     * @param characterId 角色ID
+     * @return 持久化结果；没有可用音频时返回null
+     */
+    TtsPersistenceResult persistSegments(List<TtsSegmentResult> segments, Long userId, Long characterId);
+}
@@ -0,0 +1,76 @@
+package com.carol.backend.service;
+
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+
+import java.util.List;
+
+/**
+ * 会话归档服务接口
+ *
+ * @description 会话分层存储的下层：Redis只保留每个会话最近的 hot-message-cap 条消息，
+ *              更早的消息批量归档到MySQL（conversation_messages，message_index 即Redis中的消息ID），
+ *              按消息ID游标读取时与Redis中的消息无缝衔接
+ */
+public interface IConversationArchiveService {
+
+    /**
+     * 将各会话超出热数据上限的旧消息批量归档到MySQL并从Redis移除
+     * 重复执行是安全的：写入按 (session_id, message_index) 去重，只移除写入后未被修改的消息
+     *
+     * @return 本轮从Redis移除的消息数
+     */
+    long archiveOverflowMessages();
+
+    /**
+     * 增量写入：把Redis中比MySQL已有的最大消息ID更新的消息按批写入MySQL，开销与新消息数成正比
+     * 会话记录不存在时创建，写入后更新会话的消息数和结束时间；重复执行是安全的
+     *
+     * @param sessionId 会话ID
+     * @return 写入的消息数
+     */
+    long archiveNewMessages(String sessionId);
+
+    /**
+     * 重新写入单条消息（消息内容或音频信息更新后），消息已不在Redis中时忽略
+     *
+     * @return 是否写入
+     */
+    boolean rearchiveMessage(String sessionId, long messageId);
+
+    /**
+     * 会话消息被整体替换（消息ID重新分配）后，删除已写入的消息并重新写入全部消息
+     *
+     * @return 写入的消息数
+     */
+    long rearchiveConversation(String sessionId);
+
+    /**
+     * 按消息ID游标读取归档消息：ID小于游标的最近 limit 条，按ID正序返回
+     *
+     * @param sessionId 会话ID
+     * @param beforeMessageId 游标（不含），为null时从最新的归档消息开始
+     * @param limit 最大消息数
+     * @return 消息列表
+     */
+    List<StoredMessage> getArchivedMessagesBefore(String sessionId, Long beforeMessageId, int limit);
+
+    /**
+     * 统计ID小于游标的归档消息数
+     */
+    long countArchivedMessagesBefore(String sessionId, Long beforeMessageId);
+
+    /**
+     * 按消息时间读取归档消息：早于 beforeTime 的最近 limit 条，按ID正序返回
+     *
+     * @param beforeTime 时间上界（毫秒时间戳，不含），为null时从最新的归档消息开始
+     */
+    List<StoredMessage> getArchivedMessagesBeforeTime(String sessionId, Long beforeTime, int limit);
+
+    /**
+     * 删除会话的全部归档消息（清空会话时调用，避免旧消息在历史中重新出现）
+     *
+     * @return 删除的消息数
+     */
+    int deleteArchivedMessages(String sessionId);
+
+}
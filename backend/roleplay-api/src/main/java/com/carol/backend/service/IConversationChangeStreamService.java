@@ -0,0 +1,42 @@
+package com.carol.backend.service;
+
+/**
+ * 会话增量同步服务接口
+ *
+ * @description 会话存储每次写入消息时向Redis Stream追加一条紧凑的变更事件（只含会话ID、操作和消息ID），
+ *              消费者组中的归档线程按事件把MySQL中尚未写入的新消息补齐，开销与新消息数成正比；
+ *              事件处理成功后确认，失败的事件超时后由其他线程认领重试，多次失败后转入死信Stream
+ */
+public interface IConversationChangeStreamService {
+
+    /**
+     * 事件字段：会话ID
+     */
+    String FIELD_CONVERSATION = "c";
+
+    /**
+     * 事件字段：操作
+     */
+    String FIELD_OPERATION = "o";
+
+    /**
+     * 事件字段：消息ID（仅更新事件）
+     */
+    String FIELD_MESSAGE_ID = "m";
+
+    /**
+     * 追加了新消息：写入MySQL中最大消息ID之后的消息
+     */
+    String OP_APPEND = "a";
+
+    /**
+     * 更新了单条消息：重新写入该消息
+     */
+    String OP_UPDATE = "u";
+
+    /**
+     * 会话消息被整体替换（消息ID重新分配）：删除已写入的消息后重新写入
+     */
+    String OP_REPLACE = "r";
+
+}
@@ -16,9 +16,13 @@ import java.util.List;
 public interface IConversationHistoryService {
     
     /**
-     * 获取聊天历史 - 优先从Redis读取
+     * 获取聊天历史 - 按消息ID游标分页，从最新的消息向前加载
+     *
+     * @param before 游标（上一页返回的 nextCursor），为null时返回最新一页
+     * @param limit 每页消息数，为null时使用默认值
      */
-    ChatHistoryResponse getChatHistory(Long characterId, Long userId, String conversationId);
+    ChatHistoryResponse getChatHistory(Long characterId, Long userId, String conversationId,
+                                       Long before, Integer limit);
     
     /**
      * 获取所有角色的聊天历史 - 从Redis读取所有会话
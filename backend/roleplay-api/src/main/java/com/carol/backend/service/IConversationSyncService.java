@@ -1,6 +1,9 @@
 package com.carol.backend.service;
 
+import java.util.List;
 import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * 对话同步服务接口
@@ -26,4 +29,16 @@ public interface IConversationSyncService {
      * @return 同步结果统计
      */
     Map<String, Object> syncAllConversations();
+    
+    /**
+     * 从游标开始按SCAN逐页遍历Redis中的会话，每页由 pageTasks 拆分为若干任务交给同步线程池执行
+     * 最早一页的任务全部完成后才回调 onPagesCompleted，调用方在回调中保存游标，从该游标继续时不会漏掉会话
+     * 
+     * @param cursor 起始游标，从头遍历时为 {@link CustomMessageStorageService#SCAN_START_CURSOR}
+     * @param pageTasks 把一页会话ID拆分为同步任务
+     * @param onPagesCompleted 已完成页之后的游标和这些页的会话数，遍历结束时游标为 "0"
+     * @return 遍历的页数
+     */
+    int scanConversations(String cursor, Function<List<String>, List<Runnable>> pageTasks,
+                          BiConsumer<String, Integer> onPagesCompleted);
 }
@@ -1,19 +1,28 @@
 package com.carol.backend.service;
 
+import com.carol.backend.service.CustomMessageStorageService.ArchiveResult;
+import com.carol.backend.service.CustomMessageStorageService.ConversationIdPage;
 import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.carol.backend.service.CustomMessageStorageService.TurnMessage;
+import com.carol.backend.service.CustomMessageStorageService.TurnSaveResult;
+import org.springframework.ai.chat.memory.ChatMemoryRepository;
 import org.springframework.ai.chat.messages.Message;
+import org.springframework.data.redis.core.RedisCallback;
 
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * 自定义消息存储服务接口
  * 
  * @author jianjl
  * @version 1.0
- * @description 在Redis中保存消息内容和时间戳信息
+ * @description 在Redis中保存消息内容和时间戳信息，同时作为Spring AI的会话记忆存储，
+ *              是会话消息的唯一数据源
  * @date 2025-01-15
  */
-public interface ICustomMessageStorageService {
+public interface ICustomMessageStorageService extends ChatMemoryRepository {
     
     /**
      * 保存消息到Redis
@@ -21,8 +30,9 @@ public interface ICustomMessageStorageService {
      * @param conversationId 会话ID
      * @param message 消息
      * @param isUser 是否为用户消息
+     * @return 消息ID（会话内递增），保存失败时为null
      */
-    void saveMessage(String conversationId, Message message, boolean isUser);
+    Long saveMessage(String conversationId, Message message, boolean isUser);
     
     /**
      * 保存消息到Redis（包含audioUrl）
@@ -31,8 +41,9 @@ public interface ICustomMessageStorageService {
      * @param message 消息
      * @param isUser 是否为用户消息
      * @param audioUrl 音频URL
+     * @return 消息ID（会话内递增），保存失败时为null
      */
-    void saveMessage(String conversationId, Message message, boolean isUser, String audioUrl);
+    Long saveMessage(String conversationId, Message message, boolean isUser, String audioUrl);
     
     /**
      * 保存消息到Redis（包含audioUrl和语音时长）
@@ -42,37 +53,62 @@ public interface ICustomMessageStorageService {
      * @param isUser 是否为用户消息
      * @param audioUrl 音频URL
      * @param voiceDuration 语音时长（秒）
+     * @return 消息ID（会话内递增），保存失败时为null
      */
-    void saveMessage(String conversationId, Message message, boolean isUser, String audioUrl, Integer voiceDuration);
+    Long saveMessage(String conversationId, Message message, boolean isUser, String audioUrl, Integer voiceDuration);
     
     /**
-     * 更新消息的audioUrl和语音时长
+     * 保存一轮对话：本轮的用户消息和AI回复连同过期时间刷新在一个脚本中写入，
+     * companion 中的命令（如会话元数据更新）放入同一个管道，整轮写入通常只需一次Redis往返
+     *
+     * @param conversationId 会话ID
+     * @param messages 本轮待保存的消息（按顺序分配连续的消息ID）
+     * @param companion 与消息写入放入同一管道的命令，可为null
+     * @return 分配的消息ID和实际占用的往返次数
+     */
+    TurnSaveResult saveTurn(String conversationId, List<TurnMessage> messages, RedisCallback<?> companion);
+    
+    /**
+     * 更新消息的audioUrl
      * 
      * @param conversationId 会话ID
-     * @param messageContent 消息内容
+     * @param messageId 消息ID
      * @param audioUrl 音频URL
+     * @return 是否成功
      */
-    void updateMessageAudioUrl(String conversationId, String messageContent, String audioUrl);
+    boolean updateMessageAudioUrl(String conversationId, Long messageId, String audioUrl);
     
     /**
      * 更新消息的audioUrl和语音时长
      * 
      * @param conversationId 会话ID
-     * @param messageContent 消息内容
+     * @param messageId 消息ID
      * @param audioUrl 音频URL
      * @param voiceDuration 语音时长（秒）
+     * @return 是否成功
      */
-    void updateMessageAudioInfo(String conversationId, String messageContent, String audioUrl, Integer voiceDuration);
+    boolean updateMessageAudioInfo(String conversationId, Long messageId, String audioUrl, Integer voiceDuration);
     
     /**
      * 更新用户消息的语音时长
      * 
      * @param conversationId 会话ID
-     * @param messageContent 消息内容
+     * @param messageId 消息ID
      * @param voiceDuration 语音时长（秒）
      * @return 是否成功
      */
-    boolean updateUserMessageVoiceDuration(String conversationId, String messageContent, Integer voiceDuration);
+    boolean updateUserMessageVoiceDuration(String conversationId, Long messageId, Integer voiceDuration);
+
+    /**
+     * 按内容查找最近一条匹配的消息ID（从最新的消息向前查找）
+     * 仅用于兼容未携带消息ID的旧客户端
+     *
+     * @param conversationId 会话ID
+     * @param isUser 是否为用户消息
+     * @param content 消息内容
+     * @return 消息ID，未找到时为null
+     */
+    Long findLatestMessageId(String conversationId, boolean isUser, String content);
     
     /**
      * 从Redis获取消息历史
@@ -81,7 +117,122 @@ public interface ICustomMessageStorageService {
      * @return 消息列表
      */
     List<StoredMessage> getMessages(String conversationId);
+
+    /**
+     * 按消息ID游标分页读取消息：返回ID小于游标的最近 limit 条消息，按时间正序排列
+     * 只读取所需的区间，耗时与会话长度无关
+     *
+     * @param conversationId 会话ID
+     * @param beforeMessageId 游标（不含），为null时从最新的消息开始
+     * @param limit 最大消息数
+     * @return 消息列表
+     */
+    List<StoredMessage> getMessagesBefore(String conversationId, Long beforeMessageId, int limit);
+
+    /**
+     * 获取会话的消息总数
+     *
+     * @param conversationId 会话ID
+     * @return 消息总数
+     */
+    long countMessages(String conversationId);
+
+    /**
+     * 获取最近的若干条消息，转换为Spring AI消息用于构建提示词
+     * 消息元数据中携带 messageId、timestamp、audioUrl、voiceDuration
+     *
+     * @param conversationId 会话ID
+     * @param limit 最大消息数
+     * @return 按时间顺序排列的消息列表
+     */
+    List<Message> getRecentMessages(String conversationId, int limit);
+
+    /**
+     * 将旧版数据迁移到统一存储：先迁移旧版列表存储（chat:messages:{conversationId}），
+     * 没有时再迁移旧版会话记忆（spring_ai_alibaba_chat_memory:{conversationId}）
+     * 统一存储中已有消息时只删除旧数据，不重复导入
+     *
+     * @param conversationId 会话ID
+     * @return 导入的消息数
+     */
+    int migrateLegacyConversation(String conversationId);
     
+    /**
+     * 将空闲超过 app.chat.memory.storage.cold-idle-hours 的会话压缩为冷存储blob
+     * 冷存储中的会话在下一次读取时自动恢复（沿用剩余的过期时间），对调用方透明；追加的消息直接写在blob之后
+     *
+     * @return 本次压缩的会话数
+     */
+    int compactIdleConversations();
+
+    /**
+     * 按消息ID游标正向读取：ID大于游标的最早 limit 条消息，按ID正序返回（增量同步使用）
+     * 会话处于冷存储时直接读取blob，不恢复会话；读取失败时抛出异常
+     *
+     * @param conversationId 会话ID
+     * @param afterMessageId 游标（不含），0表示从第一条消息开始
+     * @param limit 最大消息数
+     * @return 消息列表
+     */
+    List<StoredMessage> getMessagesAfter(String conversationId, long afterMessageId, int limit);
+
+    /**
+     * 获取会话已分配的最大消息ID（消息ID计数器），清空和压缩时保留；同步据此跳过没有新消息的会话
+     *
+     * @param conversationId 会话ID
+     * @return 最大消息ID，会话不存在时为0
+     */
+    long getLastMessageId(String conversationId);
+
+    /**
+     * 按游标扫描一页会话ID（SCAN，每次只遍历 count 个槽位，不阻塞Redis）
+     * 遍历期间新增的会话可能扫描不到，同一会话可能在不同页重复出现
+     *
+     * @param cursor 上一页返回的游标，null或"0"表示从头开始
+     * @param count SCAN的COUNT参数
+     * @return 本页的会话ID和下一页游标
+     */
+    ConversationIdPage scanConversationIdPage(String cursor, int count);
+
+    /**
+     * 查找Redis中消息数超过热数据上限的会话（冷存储中的会话不参与）
+     *
+     * @param hotMessageCap 每个会话保留的最近消息数
+     * @param limit 最多返回的会话数
+     * @return 会话ID列表
+     */
+    List<String> findConversationsOverCap(int hotMessageCap, int limit);
+
+    /**
+     * 将超出热数据上限的最早一批消息交给 archiver 写入下层存储，写入成功后从Redis移除
+     * archiver 需幂等：写入与移除之间中断时，同一批消息会在下一轮再次归档
+     *
+     * @param conversationId 会话ID
+     * @param hotMessageCap 保留的最近消息数
+     * @param batchSize 本批最多归档的消息数
+     * @param archiver 写入下层存储，抛出异常时不移除任何消息
+     * @return 归档结果
+     */
+    ArchiveResult archiveOldestMessages(String conversationId, int hotMessageCap, int batchSize,
+                                        Consumer<List<StoredMessage>> archiver);
+
+    /**
+     * 获取单个会话在Redis中的内存占用（MEMORY USAGE），用于评估编码格式和冷存储的效果
+     *
+     * @param conversationId 会话ID
+     * @return 各键的字节数、消息数和每千条消息的字节数
+     */
+    Map<String, Object> getStorageFootprint(String conversationId);
+
+    /**
+     * 获取会话的清空代数，每次清空递增；归档在写入MySQL的事务中比较读取消息前后的代数，
+     * 清空期间读取到的消息不会被写回
+     *
+     * @param conversationId 会话ID
+     * @return 清空代数，从未清空时为0
+     */
+    long getClearGeneration(String conversationId);
+
     /**
      * 清空会话消息
      * 
@@ -1,29 +1,16 @@
 package com.carol.backend.service;
 
+import com.carol.backend.entity.DataSyncJob;
+
+import java.util.List;
+
 /**
  * 数据同步服务接口
  * 负责将Redis中的数据同步到MySQL数据库
+ * 每次调用运行一个同步任务（按用户ID哈希分区并行、分块提交），任务记录保存在 data_sync_jobs 表中，中断后从游标继续
  */
 public interface IDataSyncService {
     
-    /**
-     * 同步所有用户的聊天记录从Redis到MySQL
-     * @return 同步成功的记录数量
-     */
-    int syncChatMessagesToMysql();
-    
-    /**
-     * 同步所有用户的会话信息从Redis到MySQL
-     * @return 同步成功的会话数量
-     */
-    int syncConversationsToMysql();
-    
-    /**
-     * 同步用户活动数据从Redis到MySQL
-     * @return 同步成功的用户数量
-     */
-    int syncUserActivityToMysql();
-    
     /**
      * 执行完整的数据同步任务
      * 包括聊天记录、会话信息、用户活动等所有数据
@@ -31,16 +18,23 @@ public interface IDataSyncService {
      */
     DataSyncResult performFullDataSync();
     
+    /**
+     * 查询最近的同步任务（进度、吞吐和各分区耗时）
+     */
+    List<DataSyncJob> getRecentJobs(int limit);
+    
     /**
      * 数据同步结果
      */
     class DataSyncResult {
+        private Long jobId;
         private int syncedMessages;
         private int syncedConversations;
         private int syncedUsers;
         private long syncDuration;
         private boolean success;
         private String errorMessage;
+        private double rowsPerSecond;
         
         // 构造函数
         public DataSyncResult() {}
@@ -56,6 +50,14 @@ public interface IDataSyncService {
         }
         
         // Getters and Setters
+        public Long getJobId() {
+            return jobId;
+        }
+        
+        public void setJobId(Long jobId) {
+            this.jobId = jobId;
+        }
+        
         public int getSyncedMessages() {
             return syncedMessages;
         }
@@ -104,11 +106,20 @@ public interface IDataSyncService {
             this.errorMessage = errorMessage;
         }
         
+        public double getRowsPerSecond() {
+            return rowsPerSecond;
+        }
+        
+        public void setRowsPerSecond(double rowsPerSecond) {
+            this.rowsPerSecond = rowsPerSecond;
+        }
+        
         @Override
         public String toString() {
             return String.format(
-                "DataSyncResult{success=%s, messages=%d, conversations=%d, users=%d, duration=%dms, error='%s'}", 
-                success, syncedMessages, syncedConversations, syncedUsers, syncDuration, errorMessage
+                "DataSyncResult{jobId=%s, success=%s, messages=%d, conversations=%d, users=%d, duration=%dms, " +
+                "rowsPerSecond=%.2f, error='%s'}", 
+                jobId, success, syncedMessages, syncedConversations, syncedUsers, syncDuration, rowsPerSecond, errorMessage
             );
         }
     }
@@ -20,6 +20,35 @@ public interface ITtsAudioPersistenceService {
      * @return 持久化结果（包含URL和时长）
      */
     TtsPersistenceResult persistTtsAudio(String temporaryUrl, Long userId, Long characterId);
+
+    /**
+     * 持久化已下载或拼接好的WAV音频
+     * @param audioBytes WAV音频数据
+     * @param userId 用户ID
+     * @param characterId 角色ID
+     * @return 持久化结果（包含URL和时长）
+     */
+    TtsPersistenceResult persistTtsAudio(byte[] audioBytes, Long userId, Long characterId);
+
+    /**
+     * 下载TTS临时URL的音频数据
+     * @param temporaryUrl 临时URL
+     * @return 音频数据
+     */
+    byte[] downloadTtsAudio(String temporaryUrl);
+
+    /**
+     * 计算WAV音频时长（24000Hz, 16bit, 单声道）
+     * @param audioBytes WAV音频数据
+     * @return 时长（秒，向上取整）
+     */
+    static int calculateWavDuration(byte[] audioBytes) {
+        // 44字节头信息，每秒字节数 = 24000 * 16 / 8 * 1 = 48000
+        if (audioBytes == null || audioBytes.length <= 44) {
+            return 0;
+        }
+        return (int) Math.ceil((audioBytes.length - 44) / 48000.0);
+    }
     
     /**
      * 从临时URL下载音频并上传到OSS（简化版本）
@@ -2,6 +2,7 @@ package com.carol.backend.service;
 
 import com.carol.backend.dto.QwenConversationInfo;
 import com.carol.backend.dto.QwenConversationResponse;
+import org.springframework.data.redis.core.RedisCallback;
 
 import java.util.List;
 
@@ -70,4 +71,15 @@ public interface QwenConversationService {
      * @param firstMessage 首条用户消息
      */
     void generateTitle(Long userId, String conversationId, String firstMessage);
+
+    /**
+     * 构建本轮对话的会话元数据更新命令：刷新最后活跃时间，标题仍为默认值时用本轮消息生成标题
+     * 命令在Redis端原子执行，可放入对话消息写入的同一个管道，不额外占用往返
+     *
+     * @param userId 用户ID
+     * @param conversationId 会话ID
+     * @param message 本轮用户消息
+     * @return 在给定连接上执行更新的回调（管道中返回null）
+     */
+    RedisCallback<Object> touchConversationCommand(Long userId, String conversationId, String message);
 }
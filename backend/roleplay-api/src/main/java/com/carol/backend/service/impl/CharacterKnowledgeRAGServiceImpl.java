@@ -1,11 +1,15 @@
 package com.carol.backend.service.impl;
 
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.carol.backend.config.ChatPipelineConfig;
 import com.carol.backend.entity.CharacterKnowledge;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
 import com.carol.backend.mapper.CharacterKnowledgeMapper;
 import com.carol.backend.service.ICharacterKnowledgeRAGService;
+import com.carol.backend.util.SingleFlight;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.document.Document;
@@ -14,6 +18,7 @@ import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
@@ -30,10 +35,18 @@ import java.util.stream.Collectors;
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class CharacterKnowledgeRAGServiceImpl implements ICharacterKnowledgeRAGService {
+public class CharacterKnowledgeRAGServiceImpl implements ICharacterKnowledgeRAGService, MeterBinder {
 
     private final CharacterKnowledgeMapper knowledgeMapper;
     private final VectorStore vectorStore;
+    private final ChatPipelineConfig chatPipelineConfig;
+    // 同一角色的相同检索同时只执行一次
+    private final SingleFlight<SearchKey, List<CharacterKnowledge>> searchSingleFlight = new SingleFlight<>();
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        searchSingleFlight.registerMetrics(registry, "rag_search");
+    }
 
     @Override
     @Transactional
@@ -195,6 +208,14 @@ public class CharacterKnowledgeRAGServiceImpl implements ICharacterKnowledgeRAGS
 
     @Override
     public List<CharacterKnowledge> searchRelevantKnowledge(Long characterId, String query, int topK) {
+        // 重复请求（双击、重试）的相同检索正在进行时等待其结果，不重复向量检索；返回副本，调用方修改列表互不影响
+        // 等待最多一个RAG阶段期限，与提示词组装中的检索超时一致
+        Duration timeout = Duration.ofMillis(chatPipelineConfig.getPromptAssembly().getRagTimeoutMs());
+        return new ArrayList<>(searchSingleFlight.execute(new SearchKey(characterId, query, topK), timeout,
+                () -> doSearchRelevantKnowledge(characterId, query, topK)));
+    }
+
+    private List<CharacterKnowledge> doSearchRelevantKnowledge(Long characterId, String query, int topK) {
         log.info("[searchRelevantKnowledge] 检索角色知识: characterId={}, query={}, topK={}", 
                 characterId, query, topK);
         
@@ -244,6 +265,12 @@ public class CharacterKnowledgeRAGServiceImpl implements ICharacterKnowledgeRAGS
         }
     }
 
+    /**
+     * 检索合并键
+     */
+    private record SearchKey(Long characterId, String query, int topK) {
+    }
+
     /**
      * 回退检索方法（当向量检索失败时）
      */
@@ -1,14 +1,28 @@
 package com.carol.backend.service.impl;
 
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.carol.backend.config.CharacterCacheConfig;
 import com.carol.backend.entity.Character;
 import com.carol.backend.mapper.CharacterMapper;
 import com.carol.backend.service.CharacterService;
+import com.carol.backend.service.IChatSemanticCacheService;
+import com.carol.backend.util.LocalTtlCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Service;
 
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
 
 /**
  * 角色服务实现类
@@ -16,17 +30,62 @@ import java.util.List;
  * @author jianjl
  * @version 1.0
  * @description 角色相关的业务逻辑服务实现
+ * 角色实体和列表、搜索、热门等派生视图缓存在进程内（有界LRU + TTL），
+ * 创建、更新、删除角色时失效本地缓存，并通过Redis发布订阅通知其他节点失效
  * @date 2025-01-15
  */
 @Slf4j
 @Service
-public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character> implements CharacterService {
+public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character> implements CharacterService, MeterBinder {
+
+    // 失效消息格式：{nodeId}|{characterId}，characterId为*表示全部失效
+    private static final String INVALIDATE_ALL = "*";
+    private static final String MESSAGE_SEPARATOR = "|";
+
+    private final CharacterCacheConfig cacheConfig;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final IChatSemanticCacheService semanticCacheService;
+
+    // 本节点标识，收到自己发布的失效消息时跳过
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final LocalTtlCache<Long, Character> characterCache;
+    private final LocalTtlCache<String, List<Character>> viewCache;
+
+    public CharacterServiceImpl(CharacterCacheConfig cacheConfig,
+                                StringRedisTemplate stringRedisTemplate,
+                                RedisMessageListenerContainer listenerContainer,
+                                IChatSemanticCacheService semanticCacheService) {
+        this.cacheConfig = cacheConfig;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.semanticCacheService = semanticCacheService;
+        this.characterCache = new LocalTtlCache<>(cacheConfig.getMaxEntries(), cacheConfig.getTtlSeconds() * 1000);
+        this.viewCache = new LocalTtlCache<>(cacheConfig.getViewMaxEntries(), cacheConfig.getViewTtlSeconds() * 1000);
+    }
+
+    /**
+     * 订阅跨节点缓存失效通知
+     */
+    @PostConstruct
+    public void subscribeInvalidation() {
+        if (!cacheConfig.isEnabled()) {
+            log.info("[subscribeInvalidation] 角色本地缓存未启用");
+            return;
+        }
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onInvalidationMessage(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(cacheConfig.getInvalidationChannel()));
+        log.info("[subscribeInvalidation] 角色本地缓存已启用: maxEntries={}, ttlSeconds={}, channel={}, nodeId={}",
+                cacheConfig.getMaxEntries(), cacheConfig.getTtlSeconds(), cacheConfig.getInvalidationChannel(), nodeId);
+    }
 
     @Override
     public List<Character> getAllCharacters() {
         log.info("[getAllCharacters] 获取所有角色列表");
         try {
-            List<Character> characters = baseMapper.selectAllCharactersOrderByCreated();
+            List<Character> characters = cachedView("all", baseMapper::selectAllCharactersOrderByCreated);
             log.info("[getAllCharacters] 获取成功: count={}", characters.size());
             return characters;
         } catch (Exception e) {
@@ -45,7 +104,7 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
         }
         
         try {
-            Character character = baseMapper.selectById(id);
+            Character character = cachedCharacter(id);
             if (character == null) {
                 log.warn("[getCharacterById] 角色不存在: id={}", id);
                 throw new RuntimeException("角色不存在: ID=" + id);
@@ -70,7 +129,8 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
         }
         
         try {
-            List<Character> characters = baseMapper.selectByNameLike(name.trim());
+            String keyword = name.trim();
+            List<Character> characters = cachedView("search:" + keyword, () -> baseMapper.selectByNameLike(keyword));
             log.info("搜索到 {} 个角色", characters.size());
             return characters;
         } catch (Exception e) {
@@ -88,7 +148,8 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
         }
         
         try {
-            return baseMapper.selectByExpertiseArea(expertiseArea.trim());
+            String expertise = expertiseArea.trim();
+            return cachedView("expertise:" + expertise, () -> baseMapper.selectByExpertiseArea(expertise));
         } catch (Exception e) {
             log.error("获取专业领域角色失败: expertise={}, error={}", expertiseArea, e.getMessage(), e);
             throw new RuntimeException("获取专业领域角色失败: " + e.getMessage());
@@ -104,7 +165,8 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
         }
         
         try {
-            return baseMapper.selectPopularCharacters(limit);
+            int popularLimit = limit;
+            return cachedView("popular:" + popularLimit, () -> baseMapper.selectPopularCharacters(popularLimit));
         } catch (Exception e) {
             log.error("获取热门角色失败: limit={}, error={}", limit, e.getMessage(), e);
             throw new RuntimeException("获取热门角色失败: " + e.getMessage());
@@ -118,7 +180,7 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
         }
         
         try {
-            Character character = baseMapper.selectById(characterId);
+            Character character = cachedCharacter(characterId);
             return character != null && character.isComplete();
         } catch (Exception e) {
             log.error("检查角色可用性失败: ID={}, error={}", characterId, e.getMessage(), e);
@@ -149,6 +211,7 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
             }
             
             baseMapper.insert(character);
+            invalidateCharacterCache(character.getId());
             log.info("成功创建角色: {} (ID={})", character.getName(), character.getId());
             return character;
         } catch (Exception e) {
@@ -176,6 +239,8 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
             character.setUpdatedAt(LocalDateTime.now());
             
             baseMapper.updateById(character);
+            invalidateCharacterCache(character.getId());
+            evictSemanticCache(character.getId());
             log.info("成功更新角色: {} (ID={})", character.getName(), character.getId());
             return getCharacterById(character.getId());
         } catch (Exception e) {
@@ -183,4 +248,139 @@ public class CharacterServiceImpl extends ServiceImpl<CharacterMapper, Character
             throw new RuntimeException("更新角色失败: " + e.getMessage());
         }
     }
+
+    /**
+     * 删除角色，成功后失效缓存并通知其他节点
+     */
+    @Override
+    public boolean removeById(Serializable id) {
+        boolean removed = super.removeById(id);
+        if (removed) {
+            Long characterId = id instanceof Number number ? number.longValue() : null;
+            invalidateCharacterCache(characterId);
+            evictSemanticCache(characterId);
+        }
+        return removed;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        characterCache.registerMetrics(registry, "character");
+        viewCache.registerMetrics(registry, "character_view");
+    }
+
+    /**
+     * 读取角色实体，不存在的角色不缓存；返回副本，调用方修改不会影响缓存中的共享实例
+     */
+    private Character cachedCharacter(Long id) {
+        if (!cacheConfig.isEnabled()) {
+            return baseMapper.selectById(id);
+        }
+        Character character = characterCache.get(id, baseMapper::selectById);
+        return character != null ? copyOf(character) : null;
+    }
+
+    /**
+     * 读取派生视图，缓存为不可变列表；返回的列表和其中的角色都是副本
+     */
+    private List<Character> cachedView(String key, Supplier<List<Character>> loader) {
+        if (!cacheConfig.isEnabled()) {
+            return loader.get();
+        }
+        List<Character> characters = viewCache.get(key, k -> {
+            List<Character> loaded = loader.get();
+            return loaded != null ? List.copyOf(loaded) : null;
+        });
+        if (characters == null) {
+            return null;
+        }
+        List<Character> copies = new ArrayList<>(characters.size());
+        for (Character character : characters) {
+            copies.add(copyOf(character));
+        }
+        return copies;
+    }
+
+    /**
+     * 角色字段都是不可变类型，浅拷贝即可
+     */
+    private static Character copyOf(Character source) {
+        Character copy = new Character();
+        copy.setId(source.getId());
+        copy.setName(source.getName());
+        copy.setAvatarUrl(source.getAvatarUrl());
+        copy.setDescription(source.getDescription());
+        copy.setBackgroundStory(source.getBackgroundStory());
+        copy.setPersonalityTraits(source.getPersonalityTraits());
+        copy.setSpeakingStyle(source.getSpeakingStyle());
+        copy.setExpertiseArea(source.getExpertiseArea());
+        copy.setVoiceStyle(source.getVoiceStyle());
+        copy.setStatus(source.getStatus());
+        copy.setCreatedAt(source.getCreatedAt());
+        copy.setUpdatedAt(source.getUpdatedAt());
+        return copy;
+    }
+
+    /**
+     * 失效本节点缓存并发布失效通知
+     *
+     * @param characterId 变更的角色ID，为null时失效全部角色实体
+     */
+    private void invalidateCharacterCache(Long characterId) {
+        if (!cacheConfig.isEnabled()) {
+            return;
+        }
+        invalidateLocal(characterId);
+        try {
+            String target = characterId != null ? String.valueOf(characterId) : INVALIDATE_ALL;
+            stringRedisTemplate.convertAndSend(cacheConfig.getInvalidationChannel(), nodeId + MESSAGE_SEPARATOR + target);
+        } catch (Exception e) {
+            // 发布失败时其他节点依赖TTL过期
+            log.warn("[invalidateCharacterCache] 发布缓存失效通知失败: characterId={}, error={}", characterId, e.getMessage());
+        }
+    }
+
+    /**
+     * 清除角色的语义缓存回复；缓存已按角色版本分区，这里只是尽早释放旧回复占用的空间，失败时随LRU/TTL淘汰
+     */
+    private void evictSemanticCache(Long characterId) {
+        if (characterId == null) {
+            return;
+        }
+        try {
+            semanticCacheService.evictCharacter(characterId);
+        } catch (Exception e) {
+            log.warn("[evictSemanticCache] 清除角色语义缓存失败: characterId={}, error={}", characterId, e.getMessage());
+        }
+    }
+
+    private void onInvalidationMessage(String message) {
+        int separator = message.indexOf(MESSAGE_SEPARATOR);
+        if (separator < 0) {
+            log.warn("[onInvalidationMessage] 无法解析缓存失效通知: message={}", message);
+            return;
+        }
+        if (nodeId.equals(message.substring(0, separator))) {
+            return;
+        }
+        String target = message.substring(separator + 1);
+        try {
+            invalidateLocal(INVALIDATE_ALL.equals(target) ? null : Long.valueOf(target));
+            log.info("[onInvalidationMessage] 收到其他节点的缓存失效通知: target={}", target);
+        } catch (NumberFormatException e) {
+            log.warn("[onInvalidationMessage] 无法解析缓存失效通知: message={}", message);
+        }
+    }
+
+    /**
+     * 失效本节点缓存；任何角色变更都会影响列表、搜索、热门视图，视图整体失效
+     */
+    private void invalidateLocal(Long characterId) {
+        if (characterId != null) {
+            characterCache.invalidate(characterId);
+        } else {
+            characterCache.invalidateAll();
+        }
+        viewCache.invalidateAll();
+    }
 }
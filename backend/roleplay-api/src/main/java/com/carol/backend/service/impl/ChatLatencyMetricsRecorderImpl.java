@@ -0,0 +1,96 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.enums.ChatStage;
+import com.carol.backend.service.IChatLatencyMetricsRecorder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 聊天链路分阶段耗时记录器实现
+ * 所有阶段共用一个计时器名 chat.pipeline.stage，以 stage 标签区分；
+ * 每组标签的各阶段计时器首次使用时注册并缓存，记录耗时只是一次数组下标访问加计时器累加，不查找注册表、不分配对象；
+ * 直方图桶只为首token和完整生成两个阶段导出，其他阶段只导出次数、总耗时和最大值
+ */
+@Slf4j
+@Service
+public class ChatLatencyMetricsRecorderImpl implements IChatLatencyMetricsRecorder {
+
+    private static final String METRIC_NAME = "chat.pipeline.stage";
+    // 同名计时器的描述必须一致（Prometheus同一指标只有一条HELP），各阶段含义见 ChatStage
+    private static final String METRIC_DESCRIPTION = "聊天链路分阶段耗时";
+
+    private static final String ALL_CHARACTERS = "all";
+    private static final String NO_CHARACTER = "none";
+    private static final String OTHER_CHARACTERS = "other";
+
+    // 导出直方图桶的阶段：每个桶是一条时间序列，桶数 × 标签组合数随阶段数成倍增长
+    private static final Set<ChatStage> HISTOGRAM_STAGES = EnumSet.of(ChatStage.FIRST_TOKEN, ChatStage.GENERATION);
+
+    private final MeterRegistry meterRegistry;
+    private final ChatPipelineConfig.LatencyMetrics config;
+
+    // 标签组合 -> 各阶段计时器；组合数不超过 (角色标签数 + 1) × 8
+    private final Map<TagKey, StageTimers> timersByTags = new ConcurrentHashMap<>();
+    // 已使用的角色标签，角色ID来自请求参数，超出上限的归入 other，防止标签数随任意ID增长
+    private final Set<String> characterTags = ConcurrentHashMap.newKeySet();
+
+    public ChatLatencyMetricsRecorderImpl(MeterRegistry meterRegistry, ChatPipelineConfig chatPipelineConfig) {
+        this.meterRegistry = meterRegistry;
+        this.config = chatPipelineConfig.getLatencyMetrics();
+        log.info("[init] 分阶段耗时指标: enabled={}, characterTag={}, percentileHistogram={}",
+                config.isEnabled(), config.isCharacterTag(), config.isPercentileHistogram());
+    }
+
+    @Override
+    public StageTimers timers(Long characterId, boolean streaming, boolean tts, boolean guest) {
+        if (!config.isEnabled()) {
+            return StageTimers.NOOP;
+        }
+        return timersByTags.computeIfAbsent(new TagKey(characterTag(characterId), streaming, tts, guest),
+                this::register);
+    }
+
+    private String characterTag(Long characterId) {
+        if (!config.isCharacterTag()) {
+            return ALL_CHARACTERS;
+        }
+        String tag = characterId != null ? characterId.toString() : NO_CHARACTER;
+        if (characterTags.contains(tag)
+                || (characterTags.size() < config.getMaxCharacterTags() && characterTags.add(tag))) {
+            return tag;
+        }
+        return OTHER_CHARACTERS;
+    }
+
+    private StageTimers register(TagKey key) {
+        ChatStage[] stages = ChatStage.values();
+        Timer[] timers = new Timer[stages.length];
+        for (ChatStage stage : stages) {
+            timers[stage.ordinal()] = Timer.builder(METRIC_NAME)
+                    .description(METRIC_DESCRIPTION)
+                    .tag("stage", stage.getTagValue())
+                    .tag("character", key.character())
+                    .tag("streaming", String.valueOf(key.streaming()))
+                    .tag("tts", String.valueOf(key.tts()))
+                    .tag("user_type", key.guest() ? "guest" : "registered")
+                    .publishPercentileHistogram(config.isPercentileHistogram() && HISTOGRAM_STAGES.contains(stage))
+                    .minimumExpectedValue(Duration.ofMillis(config.getMinExpectedMs()))
+                    .maximumExpectedValue(Duration.ofMillis(config.getMaxExpectedMs()))
+                    .register(meterRegistry);
+        }
+        return (stage, nanos) -> timers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private record TagKey(String character, boolean streaming, boolean tts, boolean guest) {
+    }
+}
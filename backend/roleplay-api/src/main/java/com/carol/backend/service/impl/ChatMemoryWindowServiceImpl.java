@@ -0,0 +1,471 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.dto.ChatMemoryWindow;
+import com.carol.backend.service.CustomMessageStorageService;
+import com.carol.backend.service.IChatMemoryWindowService;
+import com.carol.backend.service.ICustomMessageStorageService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.client.ChatClient;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话记忆窗口服务实现
+ * 从最新的消息向前累计token，预算内的消息原文保留；更早的消息由后台线程合并进滚动摘要，
+ * 摘要保存在 chat:msg:{conversationId}:summary，记录已摘要到的消息ID；
+ * 移出预算但尚未摘要的消息仍原文保留，每条消息总以原文或摘要之一进入提示词
+ *
+ * 多节点部署时：摘要任务通过Redis租约保证同一会话同时只有一个节点在生成；
+ * 摘要写入由Lua脚本原子校验，会话在生成期间被任意节点清空或摘要已被其他节点推进时放弃写入
+ */
+@Slf4j
+@Service
+public class ChatMemoryWindowServiceImpl implements IChatMemoryWindowService, MeterBinder {
+
+    private static final String FIELD_SUMMARY = "summary";
+    private static final String FIELD_COVERED_MESSAGE_ID = "coveredMessageId";
+    // 旧版本按消息时间戳记录覆盖范围，读取时换算为消息ID，下次写入摘要时删除
+    private static final String FIELD_COVERED_UNTIL = "coveredUntil";
+
+    private static final String LEASE_KEY_PREFIX = "chat:memory:summary:lease:";
+
+    // 与会话消息的保存时间一致
+    private static final long SUMMARY_TTL_DAYS = 30;
+
+    /**
+     * 写入摘要：会话最早的消息ID不大于本次摘要覆盖的最后一条消息ID（会话未被清空重建，清空后消息ID继续递增），
+     * 且摘要只前进不后退；只比较消息ID，不解析消息内容（消息可能为二进制编码）
+     * KEYS[1] 摘要键  KEYS[2] 会话消息索引
+     * ARGV[1] 摘要  ARGV[2] 覆盖的最后一条消息ID  ARGV[3] updatedAt  ARGV[4] 过期时间(秒)
+     * ARGV[5] 生成摘要时读到的已覆盖消息ID（摘要已被其他节点推进时放弃写入）
+     */
+    private static final DefaultRedisScript<Long> WRITE_SUMMARY_SCRIPT = new DefaultRedisScript<>(
+            "local first = redis.call('ZRANGE', KEYS[2], 0, 0) "
+            + "if #first == 0 or tonumber(first[1]) > tonumber(ARGV[2]) then return 0 end "
+            + "local covered = redis.call('HGET', KEYS[1], 'coveredMessageId') "
+            + "if covered and tonumber(covered) ~= tonumber(ARGV[5]) then return 0 end "
+            + "redis.call('HSET', KEYS[1], 'summary', ARGV[1], 'coveredMessageId', ARGV[2], 'updatedAt', ARGV[3]) "
+            + "redis.call('HDEL', KEYS[1], 'coveredUntil') "
+            + "redis.call('EXPIRE', KEYS[1], ARGV[4]) "
+            + "return 1",
+            Long.class);
+
+    /**
+     * 释放租约：只删除本节点持有的租约
+     */
+    private static final DefaultRedisScript<Long> RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0",
+            Long.class);
+
+    /**
+     * 续约租约：只续约本节点持有的租约
+     * ARGV[1] 节点标识  ARGV[2] 租约时间(毫秒)
+     */
+    private static final DefaultRedisScript<Long> RENEW_LEASE_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return 0",
+            Long.class);
+
+    private static final String SUMMARY_SYSTEM_PROMPT =
+            "你是对话摘要助手。请把已有摘要和新增的对话合并为一段新的摘要，用第三人称客观陈述，"
+            + "保留用户透露的个人信息和偏好、讨论过的关键事实、双方的约定以及尚未结束的话题，省略寒暄和重复内容。"
+            + "只输出摘要正文，不要输出任何说明。";
+
+    private final ICustomMessageStorageService customMessageStorageService;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ChatClient summaryClient;
+    private final ChatMemoryConfig.Window config;
+    private final int maxMessages;
+
+    // 摘要专用线程池，不占用请求线程
+    private final ThreadPoolTaskExecutor summaryExecutor;
+
+    // 摘要生成期间定时续约租约，模型调用超过租约时间时其他节点不会重复生成
+    private final ScheduledExecutorService leaseRenewer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "Memory-Summary-Lease");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 本节点正在生成摘要的会话（只包含进行中的任务，大小受线程池容量限制），避免重复请求租约
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    // 本节点标识，作为租约的值
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final LongAdder windowsLoaded = new LongAdder();
+    private final LongAdder summaryInjected = new LongAdder();
+    private final LongAdder promptTokens = new LongAdder();
+    private final LongAdder promptTokensSaved = new LongAdder();
+    private final LongAdder summariesGenerated = new LongAdder();
+    private final LongAdder summaryFailures = new LongAdder();
+    private final LongAdder summariesSkipped = new LongAdder();
+    private final LongAdder summaryTotalMs = new LongAdder();
+
+    public ChatMemoryWindowServiceImpl(ICustomMessageStorageService customMessageStorageService,
+                                       StringRedisTemplate stringRedisTemplate,
+                                       ChatClient.Builder chatClientBuilder,
+                                       ChatMemoryConfig chatMemoryConfig) {
+        this.customMessageStorageService = customMessageStorageService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.config = chatMemoryConfig.getWindow();
+        this.maxMessages = chatMemoryConfig.getMaxMessages() > 0 ? chatMemoryConfig.getMaxMessages() : 100;
+
+        ChatClient.Builder builder = chatClientBuilder.clone();
+        if (StringUtils.hasText(config.getSummaryModel())) {
+            builder.defaultOptions(ChatOptions.builder().model(config.getSummaryModel()).build());
+        }
+        this.summaryClient = builder.build();
+        this.summaryExecutor = createSummaryThreadPool();
+    }
+
+    /**
+     * 创建摘要线程池
+     * 队列满时拒绝任务（本次跳过摘要），不退化为调用线程执行，保证摘要不进入请求链路
+     */
+    private ThreadPoolTaskExecutor createSummaryThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getCorePoolSize());
+        executor.setMaxPoolSize(config.getMaxPoolSize());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("Memory-Summary-");
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        summaryExecutor.shutdown();
+        leaseRenewer.shutdownNow();
+    }
+
+    @Override
+    public ChatMemoryWindow loadWindow(String conversationId) {
+        List<Message> recentMessages = customMessageStorageService.getRecentMessages(conversationId, maxMessages);
+        if (!config.isEnabled()) {
+            return ChatMemoryWindow.builder()
+                    .messages(recentMessages)
+                    .promptTokens(estimateTokens(recentMessages))
+                    .tokensSaved(0)
+                    .build();
+        }
+
+        int windowStart = windowStart(recentMessages);
+        StoredSummary stored = windowStart > 0 || recentMessages.size() >= maxMessages
+                ? readSummary(conversationId, recentMessages) : StoredSummary.EMPTY;
+        if (config.isSummaryEnabled()) {
+            // 移出预算但尚未合并进摘要的消息原文保留，直到后台摘要覆盖它们
+            windowStart = firstUnsummarized(recentMessages, windowStart, stored.coveredMessageId());
+        }
+        String summary = stored.summary();
+        List<Message> windowMessages = new ArrayList<>(recentMessages.subList(windowStart, recentMessages.size()));
+
+        int allTokens = estimateTokens(recentMessages);
+        int windowTokens = estimateTokens(windowMessages) + estimateTokens(summary);
+        int saved = Math.max(0, allTokens - windowTokens);
+
+        windowsLoaded.increment();
+        promptTokens.add(windowTokens);
+        promptTokensSaved.add(saved);
+        if (summary != null) {
+            summaryInjected.increment();
+        }
+
+        log.debug("[loadWindow] 加载记忆窗口: conversationId={}, loaded={}, kept={}, hasSummary={}, promptTokens={}, tokensSaved={}",
+                conversationId, recentMessages.size(), windowMessages.size(), summary != null, windowTokens, saved);
+        return ChatMemoryWindow.builder()
+                .summary(summary)
+                .messages(windowMessages)
+                .promptTokens(windowTokens)
+                .tokensSaved(saved)
+                .build();
+    }
+
+    @Override
+    public void onTurnCompleted(String conversationId) {
+        if (!config.isEnabled() || !config.isSummaryEnabled() || conversationId == null) {
+            return;
+        }
+        if (!summarizing.add(conversationId)) {
+            // 上一次摘要仍在进行，本轮移出窗口的消息在下一轮对话结束后一并摘要
+            return;
+        }
+        try {
+            summaryExecutor.execute(() -> {
+                try {
+                    refreshSummary(conversationId);
+                } finally {
+                    summarizing.remove(conversationId);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            summarizing.remove(conversationId);
+            summariesSkipped.increment();
+            log.warn("[onTurnCompleted] 摘要线程池已满，跳过本次摘要: conversationId={}", conversationId);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerCounter(registry, "chat.memory.windows.loaded", "加载的记忆窗口数", windowsLoaded);
+        registerCounter(registry, "chat.memory.summary.injected", "注入了滚动摘要的窗口数", summaryInjected);
+        registerCounter(registry, "chat.memory.prompt.tokens", "记忆窗口估算的提示词token数", promptTokens);
+        registerCounter(registry, "chat.memory.prompt.tokens.saved", "以摘要替代原文节省的token数", promptTokensSaved);
+        registerCounter(registry, "chat.memory.summary.failures", "滚动摘要生成失败次数", summaryFailures);
+        registerCounter(registry, "chat.memory.summary.skipped", "因租约或线程池已满跳过的摘要次数", summariesSkipped);
+        FunctionTimer.builder("chat.memory.summary", this,
+                        service -> service.summariesGenerated.sum(),
+                        service -> service.summaryTotalMs.sum(),
+                        TimeUnit.MILLISECONDS)
+                .description("滚动摘要生成耗时")
+                .register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String name, String description, LongAdder counter) {
+        FunctionCounter.builder(name, counter, LongAdder::sum)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * 将移出窗口且尚未摘要的消息合并进滚动摘要
+     */
+    private void refreshSummary(String conversationId) {
+        String leaseKey = LEASE_KEY_PREFIX + conversationId;
+        Boolean leased = stringRedisTemplate.opsForValue()
+                .setIfAbsent(leaseKey, nodeId, Duration.ofMillis(config.getSummaryLeaseMs()));
+        if (!Boolean.TRUE.equals(leased)) {
+            // 其他节点正在生成该会话的摘要
+            summariesSkipped.increment();
+            return;
+        }
+        long renewIntervalMs = Math.max(1, config.getSummaryLeaseMs() / 3);
+        ScheduledFuture<?> renewal = leaseRenewer.scheduleWithFixedDelay(() -> renewLease(conversationId, leaseKey),
+                renewIntervalMs, renewIntervalMs, TimeUnit.MILLISECONDS);
+        try {
+            doRefreshSummary(conversationId);
+        } finally {
+            renewal.cancel(false);
+            stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT, List.of(leaseKey), nodeId);
+        }
+    }
+
+    /**
+     * 续约摘要租约；租约已丢失时只记录日志，摘要写入脚本会在摘要已被其他节点推进时放弃写入
+     */
+    private void renewLease(String conversationId, String leaseKey) {
+        try {
+            Long renewed = stringRedisTemplate.execute(RENEW_LEASE_SCRIPT, List.of(leaseKey), nodeId,
+                    String.valueOf(config.getSummaryLeaseMs()));
+            if (renewed == null || renewed == 0L) {
+                log.warn("[refreshSummary] 摘要租约已丢失: conversationId={}", conversationId);
+            }
+        } catch (Exception e) {
+            log.warn("[refreshSummary] 摘要租约续约失败: conversationId={}, error={}", conversationId, e.getMessage());
+        }
+    }
+
+    private void doRefreshSummary(String conversationId) {
+        long startTime = System.currentTimeMillis();
+        try {
+            List<Message> recentMessages = customMessageStorageService.getRecentMessages(conversationId, maxMessages);
+            int windowStart = windowStart(recentMessages);
+
+            Map<Object, Object> stored = stringRedisTemplate.opsForHash().entries(summaryKey(conversationId));
+            String previousSummary = (String) stored.get(FIELD_SUMMARY);
+            long coveredMessageId = coveredMessageId(stored, recentMessages);
+
+            List<Message> pending = new ArrayList<>();
+            for (Message message : recentMessages.subList(0, windowStart)) {
+                if (messageIdOf(message) > coveredMessageId) {
+                    pending.add(message);
+                }
+            }
+            if (pending.size() < config.getSummaryTriggerMessages()) {
+                return;
+            }
+
+            String summary = summaryClient.prompt()
+                    .system(SUMMARY_SYSTEM_PROMPT)
+                    .user(buildSummaryRequest(previousSummary, pending))
+                    .call()
+                    .content();
+            if (!StringUtils.hasText(summary)) {
+                summaryFailures.increment();
+                log.warn("[refreshSummary] 模型未返回摘要: conversationId={}", conversationId);
+                return;
+            }
+
+            long newCoveredMessageId = messageIdOf(pending.get(pending.size() - 1));
+            // 旧版本的摘要没有coveredMessageId字段，脚本只在该字段存在时比较
+            Long written = stringRedisTemplate.execute(WRITE_SUMMARY_SCRIPT,
+                    List.of(summaryKey(conversationId), CustomMessageStorageService.indexKey(conversationId)),
+                    summary.trim(), String.valueOf(newCoveredMessageId), String.valueOf(System.currentTimeMillis()),
+                    String.valueOf(TimeUnit.DAYS.toSeconds(SUMMARY_TTL_DAYS)),
+                    String.valueOf(parseLong(stored.get(FIELD_COVERED_MESSAGE_ID))));
+            if (written == null || written == 0L) {
+                summariesSkipped.increment();
+                log.info("[refreshSummary] 会话已被清空或摘要已更新，放弃本次摘要: conversationId={}", conversationId);
+                return;
+            }
+
+            long elapsed = System.currentTimeMillis() - startTime;
+            summariesGenerated.increment();
+            summaryTotalMs.add(elapsed);
+            log.info("[refreshSummary] 滚动摘要已更新: conversationId={}, foldedMessages={}, summaryLength={}, elapsed={}ms",
+                    conversationId, pending.size(), summary.length(), elapsed);
+        } catch (Exception e) {
+            summaryFailures.increment();
+            log.warn("[refreshSummary] 生成滚动摘要失败，下一轮对话结束后重试: conversationId={}, error={}",
+                    conversationId, e.getMessage());
+        }
+    }
+
+    /**
+     * 从最新的消息向前累计token，返回原文保留部分的起始下标
+     */
+    private int windowStart(List<Message> messages) {
+        int tokens = 0;
+        int start = messages.size();
+        while (start > 0) {
+            int messageTokens = estimateTokens(messages.get(start - 1).getText());
+            int kept = messages.size() - start;
+            if (kept >= config.getMinRecentMessages() && tokens + messageTokens > config.getRecentTokenBudget()) {
+                break;
+            }
+            tokens += messageTokens;
+            start--;
+        }
+        return start;
+    }
+
+    /**
+     * 从原文保留部分的起始下标向前扩展，包含所有消息ID大于已摘要位置的消息
+     */
+    private static int firstUnsummarized(List<Message> messages, int windowStart, long coveredMessageId) {
+        int start = windowStart;
+        while (start > 0 && messageIdOf(messages.get(start - 1)) > coveredMessageId) {
+            start--;
+        }
+        return start;
+    }
+
+    private String buildSummaryRequest(String previousSummary, List<Message> pending) {
+        StringBuilder request = new StringBuilder();
+        request.append("已有摘要：\n").append(StringUtils.hasText(previousSummary) ? previousSummary : "（无）").append("\n\n");
+        request.append("新增对话：\n");
+        for (Message message : pending) {
+            request.append(message.getMessageType() == MessageType.USER ? "用户：" : "角色：")
+                    .append(message.getText()).append("\n");
+        }
+        request.append("\n请输出合并后的摘要，不超过").append(config.getSummaryMaxChars()).append("字。");
+        return request.toString();
+    }
+
+    /**
+     * 读取滚动摘要及其覆盖到的消息ID；读取失败时本轮不携带摘要，窗口外的消息全部原文保留
+     */
+    private StoredSummary readSummary(String conversationId, List<Message> recentMessages) {
+        try {
+            Map<Object, Object> stored = stringRedisTemplate.opsForHash().entries(summaryKey(conversationId));
+            Object summary = stored.get(FIELD_SUMMARY);
+            if (summary == null || !StringUtils.hasText(summary.toString())) {
+                return StoredSummary.EMPTY;
+            }
+            return new StoredSummary(summary.toString(), coveredMessageId(stored, recentMessages));
+        } catch (Exception e) {
+            log.warn("[loadWindow] 读取滚动摘要失败，本轮不携带摘要: conversationId={}, error={}", conversationId, e.getMessage());
+            return StoredSummary.EMPTY;
+        }
+    }
+
+    /**
+     * 摘要覆盖到的最后一条消息ID；旧版本只记录了时间戳，取不晚于该时间戳的最后一条消息
+     */
+    private static long coveredMessageId(Map<Object, Object> stored, List<Message> recentMessages) {
+        if (stored.containsKey(FIELD_COVERED_MESSAGE_ID)) {
+            return parseLong(stored.get(FIELD_COVERED_MESSAGE_ID));
+        }
+        long coveredUntil = parseLong(stored.get(FIELD_COVERED_UNTIL));
+        long covered = 0L;
+        for (Message message : recentMessages) {
+            if (timestampOf(message) > coveredUntil) {
+                break;
+            }
+            covered = messageIdOf(message);
+        }
+        return covered;
+    }
+
+    private static String summaryKey(String conversationId) {
+        return CustomMessageStorageService.summaryKey(conversationId);
+    }
+
+    private static long timestampOf(Message message) {
+        Object timestamp = message.getMetadata().get(CustomMessageStorageService.METADATA_TIMESTAMP);
+        return timestamp instanceof Number number ? number.longValue() : 0L;
+    }
+
+    private static long messageIdOf(Message message) {
+        Object messageId = message.getMetadata().get(CustomMessageStorageService.METADATA_MESSAGE_ID);
+        return messageId instanceof Number number ? number.longValue() : 0L;
+    }
+
+    private record StoredSummary(String summary, long coveredMessageId) {
+        private static final StoredSummary EMPTY = new StoredSummary(null, 0L);
+    }
+
+    private static long parseLong(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        try {
+            return Long.parseLong(value.toString());
+        } catch (NumberFormatException e) {
+            return 0L;
+        }
+    }
+
+    private static int estimateTokens(List<Message> messages) {
+        int total = 0;
+        for (Message message : messages) {
+            total += estimateTokens(message.getText());
+        }
+        return total;
+    }
+
+    /**
+     * 估算token数：与会话同步的估算方式一致，中文1个字约1个token，另加少量余量
+     */
+    private static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        return (int) (text.length() * 1.2);
+    }
+}
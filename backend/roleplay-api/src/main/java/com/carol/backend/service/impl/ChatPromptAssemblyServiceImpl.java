@@ -0,0 +1,427 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.dto.ChatMemoryWindow;
+import com.carol.backend.dto.ChatRequest;
+import com.carol.backend.dto.PromptAssemblyResult;
+import com.carol.backend.entity.Character;
+import com.carol.backend.entity.CharacterKnowledge;
+import com.carol.backend.enums.ChatStage;
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
+import com.carol.backend.service.CharacterService;
+import com.carol.backend.service.IChatLatencyMetricsRecorder;
+import com.carol.backend.service.IChatMemoryWindowService;
+import com.carol.backend.service.IChatPromptAssemblyService;
+import com.carol.backend.service.ICharacterKnowledgeRAGService;
+import com.carol.backend.service.IPromptTemplateService;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 聊天提示词组装服务实现
+ * 角色查询、可用性检查、RAG检索、历史加载互不依赖，并发执行后再组装提示词，
+ * 本轮对话的准备耗时由各阶段之和降为最慢阶段的耗时
+ */
+@Slf4j
+@Service
+public class ChatPromptAssemblyServiceImpl implements IChatPromptAssemblyService {
+
+    private static final String STAGE_CHARACTER = "characterLookup";
+    private static final String STAGE_AVAILABILITY = "availabilityCheck";
+    private static final String STAGE_RAG = "ragRetrieval";
+    private static final String STAGE_HISTORY = "historyLoad";
+    private static final String STAGE_PROMPT = "promptBuild";
+    private static final String STAGE_TOTAL = "total";
+
+    private static final List<String> STAGE_ORDER = List.of(
+            STAGE_CHARACTER, STAGE_AVAILABILITY, STAGE_RAG, STAGE_HISTORY, STAGE_PROMPT);
+
+    // 计入分阶段耗时指标的阶段，可用性检查和提示词生成通常不到1毫秒，只计入组装总耗时
+    private static final Map<String, ChatStage> METRIC_STAGES = Map.of(
+            STAGE_CHARACTER, ChatStage.CHARACTER_LOOKUP,
+            STAGE_RAG, ChatStage.RAG_RETRIEVAL,
+            STAGE_HISTORY, ChatStage.MEMORY_LOAD,
+            STAGE_TOTAL, ChatStage.PROMPT_ASSEMBLY);
+
+    private static final int RAG_TOP_K = 5;
+
+    private static final String SUMMARY_HEADER = "\n\n## 之前的对话摘要\n";
+
+    private final CharacterService characterService;
+    private final ICharacterKnowledgeRAGService ragService;
+    private final IPromptTemplateService promptTemplateService;
+    private final IChatMemoryWindowService memoryWindowService;
+    private final ChatPipelineConfig.PromptAssembly config;
+
+    // 组装阶段专用线程池，避免占用公共ForkJoinPool
+    private final ThreadPoolTaskExecutor assemblyExecutor;
+
+    public ChatPromptAssemblyServiceImpl(CharacterService characterService,
+                                         ICharacterKnowledgeRAGService ragService,
+                                         IPromptTemplateService promptTemplateService,
+                                         IChatMemoryWindowService memoryWindowService,
+                                         ChatPipelineConfig chatPipelineConfig) {
+        this.characterService = characterService;
+        this.ragService = ragService;
+        this.promptTemplateService = promptTemplateService;
+        this.memoryWindowService = memoryWindowService;
+        this.config = chatPipelineConfig.getPromptAssembly();
+        this.assemblyExecutor = createAssemblyThreadPool();
+    }
+
+    /**
+     * 创建提示词组装专用线程池
+     * 队列满时拒绝新阶段而不是在请求线程上执行，否则阶段期限无法保证；
+     * 被拒绝的可选阶段按各自的降级策略处理，角色查询在请求线程上直接执行
+     */
+    private ThreadPoolTaskExecutor createAssemblyThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getCorePoolSize());
+        executor.setMaxPoolSize(config.getMaxPoolSize());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("Prompt-Assembly-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        assemblyExecutor.shutdown();
+    }
+
+    @Override
+    public PromptAssemblyResult assemblePrompt(ChatRequest request, String conversationId, Long userId,
+                                               IChatLatencyMetricsRecorder.StageTimers timers) {
+        long startTime = System.nanoTime();
+        StageTimings timings = new StageTimings(timers);
+
+        PromptAssemblyResult result;
+        if (request.getCharacterId() == null) {
+            result = assembleGeneralPrompt(conversationId, timings);
+        } else if (request.getCharacterId() == 0L) {
+            result = assembleQwenPrompt(request, conversationId, timings);
+        } else {
+            result = assembleCharacterPrompt(request, conversationId, timings);
+        }
+
+        timings.record(STAGE_TOTAL, startTime);
+        result.setStageTimings(orderTimings(timings.millis));
+
+        log.info("[assemblePrompt] 提示词组装完成: conversationId={}, characterId={}, historyCount={}, historyTokens={}, historyTokensSaved={}, knowledgeCount={}, ragTimedOut={}, timings={}",
+                conversationId, request.getCharacterId(), result.getHistory().size(), result.getHistoryTokens(),
+                result.getHistoryTokensSaved(), result.getKnowledgeCount(), result.getRagTimedOut(), result.getStageTimings());
+        return result;
+    }
+
+    /**
+     * 组装普通对话的提示词
+     * 普通对话使用ChatClient的默认系统提示词，只需要加载历史消息；滚动摘要作为一条系统消息放在历史之前
+     */
+    private PromptAssemblyResult assembleGeneralPrompt(String conversationId, StageTimings timings) {
+        CompletableFuture<ChatMemoryWindow> historyFuture = loadHistory(conversationId, timings);
+        ChatMemoryWindow window = awaitHistory(historyFuture, conversationId);
+
+        List<Message> history = new ArrayList<>(window.getMessages().size() + 1);
+        if (window.getSummary() != null) {
+            history.add(new SystemMessage(SUMMARY_HEADER.strip() + "\n" + window.getSummary()));
+        }
+        history.addAll(window.getMessages());
+
+        return PromptAssemblyResult.builder()
+                .history(history)
+                .historyTokens(window.getPromptTokens())
+                .historyTokensSaved(window.getTokensSaved())
+                .knowledgeCount(0)
+                .ragTimedOut(false)
+                .build();
+    }
+
+    /**
+     * 组装Qwen助手（ID=0）的提示词
+     * 会话元数据（最后活跃时间、标题）随本轮消息一起写入，不在组装阶段更新
+     */
+    private PromptAssemblyResult assembleQwenPrompt(ChatRequest request, String conversationId,
+                                                    StageTimings timings) {
+        log.info("[assemblePrompt] 使用Qwen助手模式 (ID=0)");
+
+        // ✅ 强制关闭RAG - AI助手不需要角色知识库
+        if (Boolean.TRUE.equals(request.getEnableRag())) {
+            log.info("[assemblePrompt] AI助手不使用RAG，强制关闭: characterId=0");
+            request.setEnableRag(false);
+        }
+
+        CompletableFuture<ChatMemoryWindow> historyFuture = loadHistory(conversationId, timings);
+
+        // 创建虚拟角色对象
+        Character character = new Character();
+        character.setId(0L);
+        character.setName("Qwen");
+        character.setAvatarUrl("http://oss.kon-carol.xyz/airole0.png");
+
+        // 直接使用默认系统提示词，不使用RAG
+        Message systemMessage = new SystemMessage("你是一个乐于助人的 AI 助手。请用简洁、准确的语言回答用户的问题。");
+
+        ChatMemoryWindow window = awaitHistory(historyFuture, conversationId);
+
+        return PromptAssemblyResult.builder()
+                .character(character)
+                .systemMessage(withSummary(systemMessage, window.getSummary()))
+                .history(window.getMessages())
+                .historyTokens(window.getPromptTokens())
+                .historyTokensSaved(window.getTokensSaved())
+                .knowledgeCount(0)
+                .ragTimedOut(false)
+                .build();
+    }
+
+    /**
+     * 组装普通角色的提示词
+     * 角色查询、可用性检查、RAG检索、历史加载并发执行
+     */
+    private PromptAssemblyResult assembleCharacterPrompt(ChatRequest request, String conversationId,
+                                                         StageTimings timings) {
+        Long characterId = request.getCharacterId();
+        boolean enableRag = Boolean.TRUE.equals(request.getEnableRag());
+        boolean enableTts = Boolean.TRUE.equals(request.getEnableTts());
+
+        CompletableFuture<Character> characterFuture = runStage(STAGE_CHARACTER, config.getCharacterTimeoutMs(),
+                timings, () -> characterService.getCharacterById(characterId));
+        CompletableFuture<Boolean> availabilityFuture = runStage(STAGE_AVAILABILITY,
+                config.getAvailabilityTimeoutMs(), timings, () -> characterService.isCharacterAvailable(characterId));
+        CompletableFuture<List<CharacterKnowledge>> ragFuture = enableRag
+                ? runStage(STAGE_RAG, config.getRagTimeoutMs(), timings,
+                        () -> ragService.searchRelevantKnowledge(characterId, request.getMessage(), RAG_TOP_K))
+                : null;
+        CompletableFuture<ChatMemoryWindow> historyFuture = loadHistory(conversationId, timings);
+
+        // 1. 角色信息是提示词的基础，查询失败或超时直接失败；不再需要的阶段立即取消，释放组装线程
+        Character character;
+        try {
+            character = awaitCharacter(characterFuture, characterId);
+        } catch (RuntimeException e) {
+            cancelStages(availabilityFuture, ragFuture, historyFuture);
+            throw e;
+        }
+
+        // 2. 可用性检查超时时，使用已查询到的角色数据判断，避免因检查超时拒绝对话
+        boolean available;
+        try {
+            available = availabilityFuture.join();
+        } catch (CompletionException e) {
+            log.warn("[assemblePrompt] 角色可用性检查失败，使用角色数据判断: characterId={}, error={}",
+                    characterId, rootCause(e).toString());
+            available = character.isComplete();
+        }
+        if (!available) {
+            log.warn("角色不可用: characterId={}, characterName={}", characterId, character.getName());
+            cancelStages(ragFuture, historyFuture);
+            throw BusinessException.of(ErrorCode.CHAT_CHARACTER_UNAVAILABLE,
+                    "角色 " + character.getName() + " 当前不可用");
+        }
+
+        // 3. RAG检索超时或失败时降级为基础角色提示词
+        List<CharacterKnowledge> relevantKnowledge = null;
+        boolean ragTimedOut = false;
+        if (ragFuture != null) {
+            try {
+                relevantKnowledge = ragFuture.join();
+                log.info("[assemblePrompt] RAG模式：检索到 {} 个相关知识条目", relevantKnowledge.size());
+            } catch (CompletionException e) {
+                Throwable cause = rootCause(e);
+                ragTimedOut = cause instanceof TimeoutException;
+                log.warn("[assemblePrompt] RAG检索{}，降级为基础角色提示词: characterId={}, deadline={}ms, error={}",
+                        ragTimedOut ? "超时" : "失败", characterId, config.getRagTimeoutMs(), cause.toString());
+            }
+        } else {
+            log.info("[assemblePrompt] 基础模式：不使用RAG知识检索");
+        }
+
+        // 4. 历史是对话上下文，加载失败或超时时本次请求失败，不在没有上下文的情况下回复
+        ChatMemoryWindow window = awaitHistory(historyFuture, conversationId);
+
+        // 5. 生成系统提示词
+        long promptStart = System.nanoTime();
+        Message systemMessage = relevantKnowledge != null
+                ? promptTemplateService.createCharacterSystemMessageWithRAG(character, relevantKnowledge, enableTts)
+                : promptTemplateService.createCharacterSystemMessage(character, enableTts);
+        systemMessage = withSummary(systemMessage, window.getSummary());
+        timings.record(STAGE_PROMPT, promptStart);
+
+        return PromptAssemblyResult.builder()
+                .character(character)
+                .systemMessage(systemMessage)
+                .history(window.getMessages())
+                .historyTokens(window.getPromptTokens())
+                .historyTokensSaved(window.getTokensSaved())
+                .knowledgeCount(relevantKnowledge != null ? relevantKnowledge.size() : 0)
+                .ragTimedOut(ragTimedOut)
+                .build();
+    }
+
+    /**
+     * 在组装线程池中执行一个阶段，并记录其耗时（超时的阶段记录到超时为止的耗时）
+     * 超时或被调用方取消后中断仍在执行的阶段任务，释放组装线程；线程池已满时阶段以 TaskRejectedException 失败
+     */
+    private <T> CompletableFuture<T> runStage(String stage, long timeoutMs, StageTimings timings,
+                                              Supplier<T> task) {
+        long stageStart = System.nanoTime();
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> running;
+        try {
+            running = assemblyExecutor.submit(() -> {
+                try {
+                    result.complete(task.get());
+                } catch (Throwable e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            log.warn("[assemblePrompt] 组装线程池已满，阶段降级: stage={}", stage);
+            timings.record(stage, stageStart);
+            result.completeExceptionally(e);
+            return result;
+        }
+        CompletableFuture<T> stageFuture = result.orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((value, error) -> {
+                    timings.record(stage, stageStart);
+                    Throwable cause = error != null ? rootCause(error) : null;
+                    if (cause instanceof TimeoutException || cause instanceof CancellationException) {
+                        running.cancel(true);
+                    }
+                });
+        // 取消返回的阶段时同时取消阶段任务
+        stageFuture.whenComplete((value, error) -> {
+            if (error instanceof CancellationException) {
+                result.cancel(true);
+            }
+        });
+        return stageFuture;
+    }
+
+    private void cancelStages(CompletableFuture<?>... stages) {
+        for (CompletableFuture<?> stage : stages) {
+            if (stage != null) {
+                stage.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 加载本轮对话的记忆窗口：token预算内的最近消息 + 更早对话的滚动摘要（预算由 app.chat.memory.window 控制）
+     */
+    private CompletableFuture<ChatMemoryWindow> loadHistory(String conversationId, StageTimings timings) {
+        return runStage(STAGE_HISTORY, config.getHistoryLoadTimeoutMs(), timings,
+                () -> memoryWindowService.loadWindow(conversationId));
+    }
+
+    /**
+     * 等待记忆窗口；不携带历史的回复会丢失对话上下文，超时或失败时本次请求失败，由客户端重试
+     */
+    private ChatMemoryWindow awaitHistory(CompletableFuture<ChatMemoryWindow> historyFuture, String conversationId) {
+        try {
+            return historyFuture.join();
+        } catch (CompletionException e) {
+            Throwable cause = rootCause(e);
+            if (cause instanceof TaskRejectedException) {
+                // 线程池满与历史数据无关，在请求线程上加载
+                return memoryWindowService.loadWindow(conversationId);
+            }
+            log.error("[assemblePrompt] 历史消息未在期限内加载，本次请求失败: conversationId={}, deadline={}ms, error={}",
+                    conversationId, config.getHistoryLoadTimeoutMs(), cause.toString());
+            throw BusinessException.of(ErrorCode.CHAT_HISTORY_LOAD_FAILED, "聊天记录加载失败，请稍后再试", cause);
+        }
+    }
+
+    /**
+     * 将滚动摘要追加到系统提示词末尾
+     */
+    private Message withSummary(Message systemMessage, String summary) {
+        if (summary == null) {
+            return systemMessage;
+        }
+        return new SystemMessage(systemMessage.getText() + SUMMARY_HEADER + summary);
+    }
+
+    private Character awaitCharacter(CompletableFuture<Character> characterFuture, Long characterId) {
+        try {
+            return characterFuture.join();
+        } catch (CompletionException e) {
+            Throwable cause = rootCause(e);
+            if (cause instanceof TaskRejectedException) {
+                // 角色信息是提示词的基础，无法降级，线程池满时在请求线程上查询（通常命中本地缓存）
+                return characterService.getCharacterById(characterId);
+            }
+            if (cause instanceof TimeoutException) {
+                log.error("[assemblePrompt] 角色信息查询超时: characterId={}, deadline={}ms",
+                        characterId, config.getCharacterTimeoutMs());
+                throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "角色信息查询超时，请稍后再试");
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+
+    private Throwable rootCause(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private Map<String, Long> orderTimings(Map<String, Long> timings) {
+        Map<String, Long> ordered = new LinkedHashMap<>();
+        for (String stage : STAGE_ORDER) {
+            Long value = timings.get(stage);
+            if (value != null) {
+                ordered.put(stage, value);
+            }
+        }
+        ordered.put(STAGE_TOTAL, timings.get(STAGE_TOTAL));
+        return ordered;
+    }
+
+    /**
+     * 一次组装的各阶段耗时：毫秒值随组装结果返回，纳秒值计入分阶段耗时指标
+     */
+    private static class StageTimings {
+        private final Map<String, Long> millis = new ConcurrentHashMap<>();
+        private final IChatLatencyMetricsRecorder.StageTimers timers;
+
+        private StageTimings(IChatLatencyMetricsRecorder.StageTimers timers) {
+            this.timers = timers;
+        }
+
+        private void record(String stage, long startNanos) {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            millis.put(stage, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            ChatStage metricStage = METRIC_STAGES.get(stage);
+            if (metricStage != null) {
+                timers.record(metricStage, elapsedNanos);
+            }
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.dto.ChatRequest;
+import com.carol.backend.entity.Character;
+import com.carol.backend.service.IChatSemanticCacheService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.redis.RedisVectorStore;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+import reactor.core.publisher.Flux;
+import redis.clients.jedis.JedisPooled;
+
+import java.time.Duration;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 角色回复语义缓存服务实现
+ * 复用Redis向量库和DashScope Embedding：提问作为向量文档写入独立索引，回复单独存为带TTL的字符串；
+ * 每个角色维护一个按最近命中时间排序的ZSET，条目超过上限时淘汰最久未命中的条目
+ */
+@Slf4j
+@Service
+public class ChatSemanticCacheServiceImpl implements IChatSemanticCacheService, MeterBinder {
+
+    private static final String ANSWER_KEY_PREFIX = "chat:semantic_cache:answer:";
+    private static final String LRU_KEY_PREFIX = "chat:semantic_cache:lru:";
+
+    private static final String METADATA_CHARACTER_ID = "character_id";
+    // 缓存分区：是否RAG、是否TTS和角色版本，只含字母数字，可直接用于TAG过滤
+    private static final String METADATA_VARIANT = "variant";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final JedisPooled jedisPooled;
+    private final ChatPipelineConfig.SemanticCache config;
+
+    // 未启用时为null
+    private final RedisVectorStore cacheStore;
+
+    // 缓存查询和写入专用线程池，查询超时后不阻塞请求线程
+    private final ThreadPoolTaskExecutor cacheExecutor;
+
+    // 计数器
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder lookupTimeouts = new LongAdder();
+    private final LongAdder stores = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder totalLookupMs = new LongAdder();
+    private final LongAdder totalGenerationMs = new LongAdder();
+    private final LongAdder generationSamples = new LongAdder();
+    private final LongAdder latencySavedMs = new LongAdder();
+
+    public ChatSemanticCacheServiceImpl(EmbeddingModel embeddingModel,
+                                        JedisPooled jedisPooled,
+                                        StringRedisTemplate stringRedisTemplate,
+                                        ChatPipelineConfig chatPipelineConfig) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.jedisPooled = jedisPooled;
+        this.config = chatPipelineConfig.getSemanticCache();
+        this.cacheStore = config.isEnabled() ? createCacheStore(embeddingModel, jedisPooled) : null;
+        this.cacheExecutor = createCacheThreadPool();
+        log.info("[ChatSemanticCache] 语义缓存{}: threshold={}, ttlSeconds={}, maxEntriesPerCharacter={}",
+                config.isEnabled() ? "已启用" : "未启用", config.getSimilarityThreshold(),
+                config.getTtlSeconds(), config.getMaxEntriesPerCharacter());
+    }
+
+    /**
+     * 创建语义缓存专用的向量索引，与角色知识库索引隔离
+     */
+    private RedisVectorStore createCacheStore(EmbeddingModel embeddingModel, JedisPooled jedisPooled) {
+        RedisVectorStore store = RedisVectorStore.builder(jedisPooled, embeddingModel)
+                .indexName(config.getIndexName())
+                .prefix(config.getPrefix())
+                .metadataFields(
+                        RedisVectorStore.MetadataField.numeric(METADATA_CHARACTER_ID),
+                        RedisVectorStore.MetadataField.tag(METADATA_VARIANT)
+                )
+                .initializeSchema(true)
+                .build();
+        // 非Spring管理的实例需要手动初始化索引
+        store.afterPropertiesSet();
+        return store;
+    }
+
+    private ThreadPoolTaskExecutor createCacheThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(8);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("Semantic-Cache-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cacheExecutor.shutdown();
+    }
+
+    @Override
+    public boolean isEligible(ChatRequest request, List<Message> history) {
+        return cacheStore != null
+                && request.getCharacterId() != null
+                && (history == null || history.isEmpty())
+                && StringUtils.hasText(request.getMessage())
+                && request.getMessage().length() <= config.getMaxQuestionLength();
+    }
+
+    @Override
+    public Optional<String> lookup(ChatRequest request, Character character) {
+        if (cacheStore == null) {
+            return Optional.empty();
+        }
+        Long characterId = request.getCharacterId();
+        String variant = variantOf(request, character);
+        String question = request.getMessage();
+        lookups.increment();
+        long startTime = System.currentTimeMillis();
+
+        CompletableFuture<String> lookupFuture = CompletableFuture.supplyAsync(
+                () -> doLookup(characterId, variant, question), cacheExecutor);
+        try {
+            String answer = lookupFuture.get(config.getLookupTimeoutMs(), TimeUnit.MILLISECONDS);
+            long cost = System.currentTimeMillis() - startTime;
+            totalLookupMs.add(cost);
+
+            if (answer == null) {
+                misses.increment();
+                log.debug("[lookup] 语义缓存未命中: characterId={}, cost={}ms", characterId, cost);
+                return Optional.empty();
+            }
+
+            hits.increment();
+            long saved = averageGenerationMs();
+            latencySavedMs.add(saved);
+            log.info("[lookup] 语义缓存命中: characterId={}, answerLength={}, cost={}ms, estimatedSaved={}ms",
+                    characterId, answer.length(), cost, saved);
+            return Optional.of(answer);
+
+        } catch (TimeoutException e) {
+            lookupFuture.cancel(true);
+            lookupTimeouts.increment();
+            misses.increment();
+            totalLookupMs.add(System.currentTimeMillis() - startTime);
+            log.warn("[lookup] 语义缓存查询超时，按未命中处理: characterId={}, timeoutMs={}",
+                    characterId, config.getLookupTimeoutMs());
+            return Optional.empty();
+        } catch (Exception e) {
+            misses.increment();
+            totalLookupMs.add(System.currentTimeMillis() - startTime);
+            log.warn("[lookup] 语义缓存查询失败，按未命中处理: characterId={}, error={}", characterId, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private String doLookup(Long characterId, String variant, String question) {
+        SearchRequest searchRequest = SearchRequest.builder()
+                .query(question)
+                .topK(1)
+                .similarityThreshold(config.getSimilarityThreshold())
+                .filterExpression(METADATA_CHARACTER_ID + " == " + characterId
+                        + " && " + METADATA_VARIANT + " == '" + variant + "'")
+                .build();
+
+        List<Document> documents = cacheStore.similaritySearch(searchRequest);
+        if (documents == null || documents.isEmpty()) {
+            return null;
+        }
+
+        Document document = documents.get(0);
+        String answer = stringRedisTemplate.opsForValue().get(ANSWER_KEY_PREFIX + document.getId());
+        if (answer == null) {
+            // 回复已过期但向量文档还在，顺带清理
+            removeEntries(characterId, List.of(document.getId()));
+            return null;
+        }
+
+        // 更新最近命中时间
+        stringRedisTemplate.opsForZSet().add(LRU_KEY_PREFIX + characterId, document.getId(), System.currentTimeMillis());
+        log.debug("[lookup] 匹配缓存提问: characterId={}, score={}, cachedQuestion={}",
+                characterId, document.getScore(), document.getText());
+        return answer;
+    }
+
+    @Override
+    public Flux<String> replay(String answer) {
+        int chunkChars = Math.max(1, config.getReplayChunkChars());
+        List<String> chunks = new ArrayList<>(answer.length() / chunkChars + 1);
+        int start = 0;
+        while (start < answer.length()) {
+            int end = Math.min(start + chunkChars, answer.length());
+            // 不在代理对中间切分
+            if (end < answer.length() && java.lang.Character.isHighSurrogate(answer.charAt(end - 1))) {
+                end++;
+            }
+            chunks.add(answer.substring(start, end));
+            start = end;
+        }
+        return Flux.fromIterable(chunks);
+    }
+
+    @Override
+    public void store(ChatRequest request, Character character, String answer, long generationMillis) {
+        if (cacheStore == null || !StringUtils.hasText(answer) || answer.length() > config.getMaxAnswerLength()) {
+            return;
+        }
+        Long characterId = request.getCharacterId();
+        String variant = variantOf(request, character);
+        String question = request.getMessage();
+        totalGenerationMs.add(generationMillis);
+        generationSamples.increment();
+
+        cacheExecutor.execute(() -> {
+            try {
+                doStore(characterId, variant, question, answer);
+            } catch (Exception e) {
+                log.warn("[store] 写入语义缓存失败: characterId={}, error={}", characterId, e.getMessage());
+            }
+        });
+    }
+
+    private void doStore(Long characterId, String variant, String question, String answer) {
+        String id = UUID.randomUUID().toString();
+        Duration ttl = Duration.ofSeconds(config.getTtlSeconds());
+
+        // 先写回复再写向量文档，避免查询命中时回复还不存在
+        stringRedisTemplate.opsForValue().set(ANSWER_KEY_PREFIX + id, answer, ttl);
+
+        Document document = Document.builder()
+                .id(id)
+                .text(question)
+                .metadata(Map.of(METADATA_CHARACTER_ID, characterId, METADATA_VARIANT, variant))
+                .build();
+        cacheStore.add(List.of(document));
+        jedisPooled.expire(config.getPrefix() + id, config.getTtlSeconds());
+
+        String lruKey = LRU_KEY_PREFIX + characterId;
+        stringRedisTemplate.opsForZSet().add(lruKey, id, System.currentTimeMillis());
+        stringRedisTemplate.expire(lruKey, ttl);
+        stores.increment();
+
+        Long size = stringRedisTemplate.opsForZSet().zCard(lruKey);
+        if (size != null && size > config.getMaxEntriesPerCharacter()) {
+            Set<ZSetOperations.TypedTuple<String>> evicted = stringRedisTemplate.opsForZSet()
+                    .popMin(lruKey, size - config.getMaxEntriesPerCharacter());
+            if (evicted != null && !evicted.isEmpty()) {
+                List<String> evictedIds = evicted.stream().map(ZSetOperations.TypedTuple::getValue).toList();
+                removeEntries(characterId, evictedIds);
+                evictions.add(evictedIds.size());
+                log.debug("[store] 语义缓存LRU淘汰: characterId={}, evicted={}", characterId, evictedIds.size());
+            }
+        }
+
+        log.debug("[store] 写入语义缓存: characterId={}, variant={}, questionLength={}, answerLength={}",
+                characterId, variant, question.length(), answer.length());
+    }
+
+    @Override
+    public int evictCharacter(Long characterId) {
+        if (cacheStore == null) {
+            return 0;
+        }
+        String lruKey = LRU_KEY_PREFIX + characterId;
+        Set<String> ids = stringRedisTemplate.opsForZSet().range(lruKey, 0, -1);
+        stringRedisTemplate.delete(lruKey);
+        if (ids == null || ids.isEmpty()) {
+            return 0;
+        }
+        removeEntries(characterId, new ArrayList<>(ids));
+        evictions.add(ids.size());
+        log.info("[evictCharacter] 清除角色语义缓存: characterId={}, count={}", characterId, ids.size());
+        return ids.size();
+    }
+
+    private void removeEntries(Long characterId, List<String> ids) {
+        try {
+            cacheStore.delete(ids);
+        } catch (Exception e) {
+            // 向量文档可能已经过期
+            log.debug("[removeEntries] 删除缓存向量文档失败: characterId={}, error={}", characterId, e.getMessage());
+        }
+        stringRedisTemplate.delete(ids.stream().map(id -> ANSWER_KEY_PREFIX + id).toList());
+        stringRedisTemplate.opsForZSet().remove(LRU_KEY_PREFIX + characterId, ids.toArray());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionTimer.builder("chat.semantic.cache.lookup", this,
+                        service -> service.lookups.sum(),
+                        service -> service.totalLookupMs.sum(),
+                        TimeUnit.MILLISECONDS)
+                .description("语义缓存查询耗时（含超时和失败）")
+                .register(registry);
+        // 超时和失败也计入未命中
+        registerCounter(registry, "chat.semantic.cache.gets", "语义缓存查询结果", hits, "result", "hit");
+        registerCounter(registry, "chat.semantic.cache.gets", "语义缓存查询结果", misses, "result", "miss");
+        registerCounter(registry, "chat.semantic.cache.lookup.timeouts", "语义缓存查询超时次数", lookupTimeouts);
+        registerCounter(registry, "chat.semantic.cache.stores", "写入语义缓存的回复数", stores);
+        registerCounter(registry, "chat.semantic.cache.evictions", "语义缓存淘汰的条目数", evictions);
+        FunctionCounter.builder("chat.semantic.cache.latency.saved", latencySavedMs, LongAdder::sum)
+                .description("命中语义缓存估算节省的生成耗时")
+                .baseUnit("milliseconds")
+                .register(registry);
+        FunctionTimer.builder("chat.semantic.cache.generation", this,
+                        service -> service.generationSamples.sum(),
+                        service -> service.totalGenerationMs.sum(),
+                        TimeUnit.MILLISECONDS)
+                .description("未命中时LLM生成完整回复的耗时，用于估算命中节省的延迟")
+                .register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String name, String description,
+                                        LongAdder counter, String... tags) {
+        FunctionCounter.builder(name, counter, LongAdder::sum)
+                .description(description)
+                .tags(tags)
+                .register(registry);
+    }
+
+    /**
+     * 未命中时LLM生成完整回复的平均耗时，作为一次命中节省延迟的估算值
+     */
+    private long averageGenerationMs() {
+        long samples = generationSamples.sum();
+        return samples > 0 ? totalGenerationMs.sum() / samples : 0;
+    }
+
+    /**
+     * 缓存分区：RAG和TTS模式的提示词不同，角色更新后updatedAt变化，旧回复不再命中并随LRU/TTL淘汰
+     */
+    private static String variantOf(ChatRequest request, Character character) {
+        long version = character != null && character.getUpdatedAt() != null
+                ? character.getUpdatedAt().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()
+                : 0;
+        return "r" + (Boolean.TRUE.equals(request.getEnableRag()) ? 1 : 0)
+                + "t" + (Boolean.TRUE.equals(request.getEnableTts()) ? 1 : 0)
+                + "v" + version;
+    }
+}
@@ -0,0 +1,80 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.service.IChatStreamMetricsCollector;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 流式聊天指标收集器实现
+ */
+@Slf4j
+@Service
+public class ChatStreamMetricsCollectorImpl implements IChatStreamMetricsCollector, MeterBinder {
+
+    // 计数器
+    private final LongAdder streamsStarted = new LongAdder();
+    private final LongAdder streamsCompleted = new LongAdder();
+    private final LongAdder streamsCancelled = new LongAdder();
+    private final LongAdder llmStreamsCancelled = new LongAdder();
+    private final LongAdder charsGeneratedBeforeCancel = new LongAdder();
+    private final LongAdder ttsSegmentsCancelled = new LongAdder();
+    private final LongAdder persistenceSkipped = new LongAdder();
+    private final LongAdder partialRepliesSaved = new LongAdder();
+
+    @Override
+    public void recordStreamStarted() {
+        streamsStarted.increment();
+    }
+
+    @Override
+    public void recordStreamCompleted() {
+        streamsCompleted.increment();
+    }
+
+    @Override
+    public void recordStreamCancelled(int generatedChars, boolean duringGeneration) {
+        streamsCancelled.increment();
+        charsGeneratedBeforeCancel.add(generatedChars);
+        if (duringGeneration) {
+            llmStreamsCancelled.increment();
+        }
+    }
+
+    @Override
+    public void recordTtsSegmentCancelled() {
+        ttsSegmentsCancelled.increment();
+    }
+
+    @Override
+    public void recordPersistenceSkipped() {
+        persistenceSkipped.increment();
+    }
+
+    @Override
+    public void recordPartialReplySaved() {
+        partialRepliesSaved.increment();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        register(registry, "chat.stream.started", "开始的流式回复数", streamsStarted);
+        register(registry, "chat.stream.completed", "正常完成的流式回复数", streamsCompleted);
+        register(registry, "chat.stream.cancelled", "客户端断开导致取消的流式回复数", streamsCancelled);
+        register(registry, "chat.stream.llm.cancelled", "取消时LLM仍在生成、生成被中止的回复数", llmStreamsCancelled);
+        register(registry, "chat.stream.cancelled.chars", "取消前已生成的字符数", charsGeneratedBeforeCancel);
+        register(registry, "chat.stream.tts.segments.cancelled", "被取消的单句TTS合成数", ttsSegmentsCancelled);
+        register(registry, "chat.stream.persistence.skipped", "因取消而跳过的音频持久化次数", persistenceSkipped);
+        register(registry, "chat.stream.partial.replies.saved", "取消后按策略保存的部分回复数", partialRepliesSaved);
+    }
+
+    private static void register(MeterRegistry registry, String name, String description, LongAdder counter) {
+        FunctionCounter.builder(name, counter, LongAdder::sum)
+                .description(description)
+                .register(registry);
+    }
+}
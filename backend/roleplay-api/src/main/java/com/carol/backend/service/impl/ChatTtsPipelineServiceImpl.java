@@ -0,0 +1,178 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.dto.TtsPersistenceResult;
+import com.carol.backend.dto.TtsSegmentResult;
+import com.carol.backend.dto.TtsSynthesisResponse;
+import com.carol.backend.service.IChatTtsIntegrationService;
+import com.carol.backend.service.IChatStreamMetricsCollector;
+import com.carol.backend.service.IChatTtsPipelineService;
+import com.carol.backend.service.ITtsAudioPersistenceService;
+import com.carol.backend.util.TtsSegmentUtil;
+import com.carol.backend.util.TtsSentenceSegmenter;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 流式逐句TTS服务实现
+ * LLM文本流经过分句器切出完整句子后立即提交合成，多句并发合成、按序输出，
+ * 首句音频的延迟由"完整回复生成 + 整段合成"降为"首句生成 + 首句合成"
+ */
+@Slf4j
+@Service
+public class ChatTtsPipelineServiceImpl implements IChatTtsPipelineService {
+
+    private final IChatTtsIntegrationService chatTtsIntegrationService;
+    private final ITtsAudioPersistenceService ttsAudioPersistenceService;
+    private final TtsSegmentUtil ttsSegmentUtil;
+    private final IChatStreamMetricsCollector streamMetricsCollector;
+    private final ChatPipelineConfig.TtsPipeline config;
+
+    // 逐句合成专用线程池，合成调用是阻塞的，不能占用Reactor的非阻塞线程
+    private final ThreadPoolTaskExecutor pipelineExecutor;
+    private final Scheduler pipelineScheduler;
+
+    public ChatTtsPipelineServiceImpl(IChatTtsIntegrationService chatTtsIntegrationService,
+                                      ITtsAudioPersistenceService ttsAudioPersistenceService,
+                                      TtsSegmentUtil ttsSegmentUtil,
+                                      IChatStreamMetricsCollector streamMetricsCollector,
+                                      ChatPipelineConfig chatPipelineConfig) {
+        this.chatTtsIntegrationService = chatTtsIntegrationService;
+        this.ttsAudioPersistenceService = ttsAudioPersistenceService;
+        this.ttsSegmentUtil = ttsSegmentUtil;
+        this.streamMetricsCollector = streamMetricsCollector;
+        this.config = chatPipelineConfig.getTtsPipeline();
+        this.pipelineExecutor = createPipelineThreadPool();
+        // 使用ExecutorService包装，订阅取消时可以中断正在执行的合成调用
+        this.pipelineScheduler = Schedulers.fromExecutorService(pipelineExecutor.getThreadPoolExecutor(), "tts-pipeline");
+    }
+
+    /**
+     * 创建逐句合成专用线程池
+     * 队列满时由调用线程执行，退化为串行而不是丢弃句子
+     */
+    private ThreadPoolTaskExecutor createPipelineThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getCorePoolSize());
+        executor.setMaxPoolSize(config.getMaxPoolSize());
+        executor.setQueueCapacity(config.getQueueCapacity());
+        executor.setThreadNamePrefix("TTS-Pipeline-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pipelineScheduler.dispose();
+        pipelineExecutor.shutdown();
+    }
+
+    @Override
+    public Flux<TtsSegmentResult> synthesizeSentences(Flux<String> textChunks, Long characterId,
+                                                      Long userId, String languageType) {
+        String userIdStr = userId != null ? userId.toString() : "anonymous";
+
+        return Flux.defer(() -> {
+            // 每个回复一个分句器实例
+            TtsSentenceSegmenter segmenter = new TtsSentenceSegmenter(
+                    config.getMinSentenceLength(), config.getMaxSentenceLength());
+
+            Flux<String> sentences = textChunks
+                    // 合成慢于文本生成时在此缓冲，不反压LLM文本流
+                    .onBackpressureBuffer()
+                    .concatMapIterable(segmenter::append)
+                    .concatWith(Mono.fromSupplier(segmenter::flush));
+
+            return sentences
+                    .index()
+                    .flatMapSequential(indexed -> synthesizeSentence(
+                                    indexed.getT1(), indexed.getT2(), characterId, userIdStr, languageType),
+                            Math.max(1, config.getMaxConcurrency()));
+        });
+    }
+
+    /**
+     * 合成单个句子，超时或失败时返回失败结果；不适合语音合成的句子返回空
+     */
+    private Mono<TtsSegmentResult> synthesizeSentence(long index, String sentence, Long characterId,
+                                                      String userId, String languageType) {
+        long startTime = System.nanoTime();
+
+        // 返回null（文本不适合语音合成）时fromCallable为空，该句直接跳过
+        return Mono.fromCallable(() -> chatTtsIntegrationService.generateSpeechForChatReply(
+                        sentence, characterId, userId, languageType))
+                .subscribeOn(pipelineScheduler)
+                .timeout(Duration.ofMillis(config.getSegmentTimeoutMs()))
+                .map(response -> toSegmentResult(index, sentence, response, System.nanoTime() - startTime))
+                // 客户端断开时正在合成的句子被取消
+                .doOnCancel(() -> {
+                    streamMetricsCollector.recordTtsSegmentCancelled();
+                    log.debug("[synthesizeSentences] 句子合成已取消: index={}", index);
+                })
+                .doOnNext(result -> log.debug("[synthesizeSentences] 句子合成完成: index={}, length={}, success={}, cost={}ms",
+                        index, sentence.length(), result.getSuccess(),
+                        TimeUnit.NANOSECONDS.toMillis(result.getSynthesisNanos())))
+                .onErrorResume(e -> {
+                    log.warn("[synthesizeSentences] 句子合成失败，跳过: index={}, length={}, error={}",
+                            index, sentence.length(), e.getMessage());
+                    return Mono.just(TtsSegmentResult.builder()
+                            .index(index)
+                            .text(sentence)
+                            .success(false)
+                            .errorMessage(e.getMessage())
+                            .synthesisNanos(System.nanoTime() - startTime)
+                            .build());
+                });
+    }
+
+    private TtsSegmentResult toSegmentResult(long index, String sentence, TtsSynthesisResponse response,
+                                             long synthesisNanos) {
+        return TtsSegmentResult.builder()
+                .index(index)
+                .text(sentence)
+                .success(Boolean.TRUE.equals(response.getSuccess()))
+                .audioUrl(response.getAudioUrl())
+                .duration(response.getDuration())
+                .voice(response.getVoice())
+                .errorMessage(response.getErrorMessage())
+                .synthesisNanos(synthesisNanos)
+                .build();
+    }
+
+    @Override
+    public TtsPersistenceResult persistSegments(List<TtsSegmentResult> segments, Long userId, Long characterId) {
+        List<TtsSegmentResult> successSegments = segments.stream()
+                .filter(segment -> Boolean.TRUE.equals(segment.getSuccess()) && segment.getAudioUrl() != null)
+                .sorted((a, b) -> Long.compare(a.getIndex(), b.getIndex()))
+                .toList();
+        if (successSegments.isEmpty()) {
+            return null;
+        }
+
+        // 并发下载各句音频，保持句子顺序
+        List<byte[]> audioSegments = Flux.fromIterable(successSegments)
+                .flatMapSequential(segment -> Mono.fromCallable(
+                                () -> ttsAudioPersistenceService.downloadTtsAudio(segment.getAudioUrl()))
+                        .subscribeOn(pipelineScheduler), Math.max(1, config.getMaxConcurrency()))
+                .collectList()
+                .block();
+
+        byte[] audioBytes = ttsSegmentUtil.concatenateWavFiles(audioSegments);
+        log.info("[persistSegments] 逐句音频拼接完成: userId={}, characterId={}, segments={}, size={} bytes",
+                userId, characterId, audioSegments.size(), audioBytes.length);
+
+        return ttsAudioPersistenceService.persistTtsAudio(audioBytes, userId, characterId);
+    }
+}
@@ -0,0 +1,348 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.entity.Conversation;
+import com.carol.backend.entity.ConversationMessage;
+import com.carol.backend.mapper.ConversationMapper;
+import com.carol.backend.mapper.ConversationMessageMapper;
+import com.carol.backend.service.CustomMessageStorageService.ArchiveResult;
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.carol.backend.service.IConversationArchiveService;
+import com.carol.backend.service.ICustomMessageStorageService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 会话归档服务实现类
+ *
+ * @description 超出热数据上限的旧消息按批写入MySQL后再从Redis移除，写入以 (session_id, message_index) 幂等；
+ * 写入事务中比较会话的清空代数，读取消息后会话被清空时回滚，已清空的历史不会被写回
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationArchiveServiceImpl implements IConversationArchiveService, MeterBinder {
+
+    private final ICustomMessageStorageService customMessageStorageService;
+    private final ConversationMapper conversationMapper;
+    private final ConversationMessageMapper conversationMessageMapper;
+    private final ChatMemoryConfig chatMemoryConfig;
+    private final TransactionTemplate transactionTemplate;
+
+    private static final Pattern SESSION_ID_PATTERN = Pattern.compile("user_(.+?)_(?:char_(\\d+)|general|qwen_.+)");
+
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder archivedConversations = new LongAdder();
+    private final LongAdder archivedMessages = new LongAdder();
+    private final LongAdder reclaimedBytes = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder readThroughs = new LongAdder();
+    private final LongAdder incrementalMessages = new LongAdder();
+    private volatile long lastRunMillis;
+
+    @Override
+    public long archiveOverflowMessages() {
+        ChatMemoryConfig.Tiering tiering = chatMemoryConfig.getTiering();
+        if (!tiering.isArchiveEnabled()) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        List<String> conversationIds = customMessageStorageService.findConversationsOverCap(
+                tiering.getHotMessageCap(), tiering.getArchiveConversationsPerRun());
+        long removed = 0;
+        for (String conversationId : conversationIds) {
+            try {
+                long conversationRemoved = archiveConversation(conversationId, tiering);
+                if (conversationRemoved > 0) {
+                    archivedConversations.increment();
+                    removed += conversationRemoved;
+                }
+            } catch (Exception e) {
+                failedBatches.increment();
+                log.warn("[archiveOverflowMessages] 归档会话失败，下一轮重试: conversationId={}, error={}",
+                        conversationId, e.getMessage());
+            }
+        }
+
+        runs.increment();
+        lastRunMillis = System.currentTimeMillis() - start;
+        if (!conversationIds.isEmpty()) {
+            log.info("[archiveOverflowMessages] 归档完成: conversations={}, removed={}, duration={}ms",
+                    conversationIds.size(), removed, lastRunMillis);
+        }
+        return removed;
+    }
+
+    /**
+     * 逐批归档直到会话回到热数据上限以内；某批没有移除任何消息（全部在归档期间被修改）时留到下一轮
+     */
+    private long archiveConversation(String conversationId, ChatMemoryConfig.Tiering tiering) {
+        long removed = 0;
+        while (true) {
+            long generation = customMessageStorageService.getClearGeneration(conversationId);
+            ArchiveResult result = customMessageStorageService.archiveOldestMessages(conversationId,
+                    tiering.getHotMessageCap(), tiering.getArchiveBatchSize(),
+                    messages -> writeArchive(conversationId, messages, generation));
+            removed += result.getRemoved();
+            archivedMessages.add(result.getRemoved());
+            reclaimedBytes.add(result.getReclaimedBytes());
+            if (result.getRemoved() == 0 || result.getArchived() < tiering.getArchiveBatchSize()) {
+                return removed;
+            }
+        }
+    }
+
+    @Override
+    public long archiveNewMessages(String sessionId) {
+        int batchSize = chatMemoryConfig.getTiering().getArchiveBatchSize();
+        long generation = customMessageStorageService.getClearGeneration(sessionId);
+        long watermark = conversationMessageMapper.selectMaxIndex(sessionId);
+        // 已写入的消息覆盖到消息ID计数器时没有新消息，不读取会话（空闲会话多处于冷存储）
+        if (watermark >= customMessageStorageService.getLastMessageId(sessionId)) {
+            return 0;
+        }
+        long written = 0;
+        StoredMessage last = null;
+        while (true) {
+            List<StoredMessage> messages = customMessageStorageService.getMessagesAfter(sessionId, watermark, batchSize);
+            if (messages.isEmpty()) {
+                break;
+            }
+            writeArchive(sessionId, messages, generation);
+            written += messages.size();
+            last = messages.get(messages.size() - 1);
+            watermark = last.getId();
+            if (messages.size() < batchSize) {
+                break;
+            }
+        }
+        if (last != null) {
+            conversationMapper.updateSyncProgress(sessionId, messageTime(last));
+            incrementalMessages.add(written);
+        }
+        return written;
+    }
+
+    @Override
+    public boolean rearchiveMessage(String sessionId, long messageId) {
+        long generation = customMessageStorageService.getClearGeneration(sessionId);
+        List<StoredMessage> messages = customMessageStorageService.getMessagesAfter(sessionId, messageId - 1, 1);
+        if (messages.isEmpty() || messages.get(0).getId() != messageId) {
+            return false;
+        }
+        writeArchive(sessionId, messages, generation);
+        return true;
+    }
+
+    @Override
+    public long rearchiveConversation(String sessionId) {
+        deleteArchivedMessages(sessionId);
+        return archiveNewMessages(sessionId);
+    }
+
+    /**
+     * 一批消息以一条INSERT写入MySQL，已存在的消息整行覆盖
+     * 写入后在同一事务中检查清空代数：清空先递增代数再删除MySQL归档，代数未变时清空的DELETE会等待本事务提交后再删除，
+     * 代数已变时回滚，读取消息之后被清空的会话不会留下归档
+     *
+     * @param generation 读取消息之前的清空代数
+     */
+    private void writeArchive(String sessionId, List<StoredMessage> messages, long generation) {
+        Long conversationId = getOrCreateConversation(sessionId, messages).getId();
+        List<ConversationMessage> rows = new ArrayList<>(messages.size());
+        for (StoredMessage message : messages) {
+            rows.add(toConversationMessage(conversationId, sessionId, message));
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            conversationMessageMapper.upsertBatch(rows);
+            if (customMessageStorageService.getClearGeneration(sessionId) != generation) {
+                throw new IllegalStateException("会话在归档期间被清空，已放弃写入: sessionId=" + sessionId);
+            }
+        });
+    }
+
+    private Conversation getOrCreateConversation(String sessionId, List<StoredMessage> messages) {
+        Conversation conversation = conversationMapper.selectBySessionId(sessionId);
+        if (conversation != null) {
+            return conversation;
+        }
+
+        LocalDateTime startTime = messageTime(messages.get(0));
+        LocalDateTime endTime = messageTime(messages.get(messages.size() - 1));
+        conversation = new Conversation()
+                .setSessionId(sessionId)
+                .setTitle(firstUserContent(messages))
+                .setMessageCount(messages.size())
+                .setStartTime(startTime)
+                .setEndTime(endTime)
+                .setDurationMinutes((int) Duration.between(startTime, endTime).toMinutes())
+                .setSyncSource("archive")
+                .setSyncStatus(1)
+                .setExportCount(0)
+                .setLastSyncAt(LocalDateTime.now());
+        Matcher matcher = SESSION_ID_PATTERN.matcher(sessionId);
+        if (matcher.matches()) {
+            conversation.setUserId(matcher.group(1));
+            conversation.setCharacterId(matcher.group(2) != null ? Long.valueOf(matcher.group(2)) : null);
+        }
+
+        try {
+            conversationMapper.insert(conversation);
+            return conversation;
+        } catch (DuplicateKeyException e) {
+            // 同步任务同时创建了会话记录
+            return conversationMapper.selectBySessionId(sessionId);
+        }
+    }
+
+    @Override
+    public List<StoredMessage> getArchivedMessagesBefore(String sessionId, Long beforeMessageId, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        readThroughs.increment();
+        List<ConversationMessage> rows = conversationMessageMapper.selectBeforeIndex(sessionId,
+                beforeMessageId != null ? beforeMessageId : Long.MAX_VALUE, limit);
+        return toStoredMessages(rows);
+    }
+
+    @Override
+    public long countArchivedMessagesBefore(String sessionId, Long beforeMessageId) {
+        return conversationMessageMapper.countBeforeIndex(sessionId,
+                beforeMessageId != null ? beforeMessageId : Long.MAX_VALUE);
+    }
+
+    @Override
+    public List<StoredMessage> getArchivedMessagesBeforeTime(String sessionId, Long beforeTime, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        LocalDateTime before = beforeTime != null
+                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(beforeTime), ZoneId.systemDefault())
+                : LocalDateTime.now().plusDays(1);
+        return toStoredMessages(conversationMessageMapper.selectBeforeTime(sessionId, before, limit));
+    }
+
+    @Override
+    public int deleteArchivedMessages(String sessionId) {
+        int deleted = conversationMessageMapper.deleteBySessionId(sessionId);
+        if (deleted > 0) {
+            log.info("[deleteArchivedMessages] 删除归档消息: sessionId={}, count={}", sessionId, deleted);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerCounter(registry, "chat.archive.runs", "归档任务执行次数", runs);
+        registerCounter(registry, "chat.archive.conversations", "发生归档的会话数", archivedConversations);
+        // 已归档并从Redis移除的消息数，及释放的Redis消息字节数
+        registerCounter(registry, "chat.archive.messages", "归档并从Redis移除的消息数", archivedMessages);
+        FunctionCounter.builder("chat.archive.reclaimed", reclaimedBytes, LongAdder::sum)
+                .description("归档释放的Redis消息字节数")
+                .baseUnit("bytes")
+                .register(registry);
+        registerCounter(registry, "chat.archive.failed.batches", "写入MySQL失败的归档批次数", failedBatches);
+        registerCounter(registry, "chat.archive.read.throughs", "历史分页读穿到MySQL的次数", readThroughs);
+        registerCounter(registry, "chat.archive.incremental.messages", "增量写入MySQL的消息数", incrementalMessages);
+        Gauge.builder("chat.archive.last.run", this, service -> service.lastRunMillis)
+                .description("最近一次归档任务耗时")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String name, String description, LongAdder counter) {
+        FunctionCounter.builder(name, counter, LongAdder::sum)
+                .description(description)
+                .register(registry);
+    }
+
+    /**
+     * 查询结果按ID倒序，转换为正序的存储消息
+     */
+    private List<StoredMessage> toStoredMessages(List<ConversationMessage> rows) {
+        List<StoredMessage> messages = new ArrayList<>(rows.size());
+        for (ConversationMessage row : rows) {
+            messages.add(toStoredMessage(row));
+        }
+        Collections.reverse(messages);
+        return messages;
+    }
+
+    private StoredMessage toStoredMessage(ConversationMessage row) {
+        boolean isUser = row.getMessageType() != null
+                && row.getMessageType() == ConversationMessage.MessageType.USER.getCode();
+        StoredMessage message = new StoredMessage();
+        message.setId(row.getMessageIndex().longValue());
+        message.setContent(row.getContent());
+        message.setIsUser(isUser);
+        message.setMessageType(isUser ? "USER" : "ASSISTANT");
+        if (row.getMessageTimestamp() != null) {
+            message.setCreatedTime(row.getMessageTimestamp());
+            message.setTimestamp(row.getMessageTimestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        message.setAudioUrl(row.getAudioUrl());
+        message.setVoiceDuration(row.getVoiceDuration());
+        return message;
+    }
+
+    private ConversationMessage toConversationMessage(Long conversationId, String sessionId, StoredMessage message) {
+        String content = message.getContent() != null ? message.getContent() : "";
+        boolean isUser = Boolean.TRUE.equals(message.getIsUser());
+        // 与同步写入的字段一致，覆盖同一序号的旧行时不残留其他消息的字段
+        return new ConversationMessage()
+                .setConversationId(conversationId)
+                .setSessionId(sessionId)
+                .setMessageIndex(message.getId().intValue())
+                .setMessageType(isUser ? ConversationMessage.MessageType.USER.getCode()
+                        : ConversationMessage.MessageType.AI.getCode())
+                .setContent(content)
+                .setContentLength(content.length())
+                .setTokenCount((int) (content.length() * 1.2))
+                .setAudioUrl(message.getAudioUrl())
+                .setVoiceDuration(message.getVoiceDuration())
+                .setModelName(isUser ? null : "qwen-plus")
+                .setRagKnowledgeUsed(false)
+                .setLanguage("zh")
+                .setSyncSource("archive")
+                .setMessageTimestamp(messageTime(message));
+    }
+
+    private LocalDateTime messageTime(StoredMessage message) {
+        if (message.getCreatedTime() != null) {
+            return message.getCreatedTime();
+        }
+        return message.getTimestamp() != null
+                ? LocalDateTime.ofInstant(Instant.ofEpochMilli(message.getTimestamp()), ZoneId.systemDefault())
+                : LocalDateTime.now();
+    }
+
+    private String firstUserContent(List<StoredMessage> messages) {
+        for (StoredMessage message : messages) {
+            if (Boolean.TRUE.equals(message.getIsUser()) && message.getContent() != null) {
+                String content = message.getContent();
+                return content.length() > 20 ? content.substring(0, 20) + "..." : content;
+            }
+        }
+        return "对话记录";
+    }
+}
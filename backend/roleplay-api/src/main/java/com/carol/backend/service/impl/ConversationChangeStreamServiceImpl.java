@@ -0,0 +1,388 @@
+package com.carol.backend.service.impl;
+
+import com.carol.backend.config.ConversationSyncConfig;
+import com.carol.backend.service.IConversationArchiveService;
+import com.carol.backend.service.IConversationChangeStreamService;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.Limit;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.StreamOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话增量同步服务实现类
+ *
+ * @description 每个节点启动 consumers 个消费线程加入同一个消费者组，阻塞读取变更事件并交给归档服务增量写入MySQL；
+ *              事件只在处理成功后确认，处理失败的事件留在待确认列表中，
+ *              空闲超过 claim-idle-millis 后由任一消费线程认领重试，投递次数达到 max-deliveries 后转入死信Stream
+ */
+@Slf4j
+@Service
+public class ConversationChangeStreamServiceImpl implements IConversationChangeStreamService, MeterBinder {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IConversationArchiveService archiveService;
+    private final ConversationSyncConfig.ChangeStream config;
+
+    // 消费线程池，未启用增量同步时为null
+    private final ThreadPoolTaskExecutor consumerExecutor;
+    private final String consumerPrefix = UUID.randomUUID().toString().substring(0, 8);
+    private volatile boolean running;
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder applied = new LongAdder();
+    private final LongAdder appliedMessages = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder deadLettered = new LongAdder();
+    private volatile long lastAppliedLagMillis;
+
+    private static final long ERROR_BACKOFF_MILLIS = 1000;
+
+    public ConversationChangeStreamServiceImpl(StringRedisTemplate stringRedisTemplate,
+                                               IConversationArchiveService archiveService,
+                                               ConversationSyncConfig conversationSyncConfig) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.archiveService = archiveService;
+        this.config = conversationSyncConfig.getChangeStream();
+        this.consumerExecutor = config.isEnabled() ? createConsumerThreadPool() : null;
+    }
+
+    /**
+     * 创建消费线程池，每个消费线程常驻执行读取循环
+     */
+    private ThreadPoolTaskExecutor createConsumerThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(config.getConsumers());
+        executor.setMaxPoolSize(config.getConsumers());
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("Conversation-Cdc-");
+        executor.initialize();
+        return executor;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (consumerExecutor == null) {
+            log.info("[start] 会话增量同步未启用");
+            return;
+        }
+        running = true;
+        for (int i = 0; i < config.getConsumers(); i++) {
+            String consumerName = consumerPrefix + "-" + i;
+            consumerExecutor.execute(() -> consumeLoop(consumerName));
+        }
+        log.info("[start] 会话增量同步已启动: stream={}, group={}, consumers={}",
+                config.getStreamKey(), config.getGroup(), config.getConsumers());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (consumerExecutor != null) {
+            consumerExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 创建消费者组（Stream不存在时一并创建），组已存在时忽略
+     */
+    private void ensureGroup() {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(config.getStreamKey(), ReadOffset.from("0"), config.getGroup());
+        } catch (DataAccessException e) {
+            String message = e.getMostSpecificCause().getMessage();
+            if (message == null || !message.contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void consumeLoop(String consumerName) {
+        StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+        Consumer consumer = Consumer.from(config.getGroup(), consumerName);
+        StreamReadOptions readOptions = StreamReadOptions.empty()
+                .count(config.getReadBatchSize())
+                .block(Duration.ofMillis(config.getBlockMillis()));
+        StreamOffset<String> offset = StreamOffset.create(config.getStreamKey(), ReadOffset.lastConsumed());
+        boolean groupReady = false;
+        long nextClaimAt = 0;
+
+        while (running) {
+            try {
+                if (!groupReady) {
+                    ensureGroup();
+                    groupReady = true;
+                }
+                if (System.currentTimeMillis() >= nextClaimAt) {
+                    reclaimStale(consumerName);
+                    nextClaimAt = System.currentTimeMillis() + config.getClaimIntervalMillis();
+                }
+                List<MapRecord<String, Object, Object>> records = ops.read(consumer, readOptions, offset);
+                if (records != null && !records.isEmpty()) {
+                    handleBatch(records);
+                }
+            } catch (Exception e) {
+                if (!running) {
+                    break;
+                }
+                // Stream或消费者组被删除（NOGROUP）时重新创建
+                groupReady = false;
+                log.warn("[consumeLoop] 读取会话变更事件失败，稍后重试: consumer={}, error={}", consumerName, e.getMessage());
+                try {
+                    Thread.sleep(ERROR_BACKOFF_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        log.info("[consumeLoop] 消费线程退出: consumer={}", consumerName);
+    }
+
+    /**
+     * 处理一批事件；同一批中同一会话的追加事件只补齐一次，其余直接确认
+     */
+    private void handleBatch(List<MapRecord<String, Object, Object>> records) {
+        Set<String> caughtUp = new HashSet<>();
+        for (MapRecord<String, Object, Object> record : records) {
+            received.increment();
+            Map<Object, Object> fields = record.getValue();
+            String conversationId = (String) fields.get(FIELD_CONVERSATION);
+            if (OP_APPEND.equals(fields.get(FIELD_OPERATION)) && conversationId != null
+                    && !caughtUp.add(conversationId)) {
+                coalesced.increment();
+                acknowledge(record.getId());
+                continue;
+            }
+            handle(record);
+        }
+    }
+
+    private void handle(MapRecord<String, Object, Object> record) {
+        Map<Object, Object> fields = record.getValue();
+        String conversationId = (String) fields.get(FIELD_CONVERSATION);
+        Object operation = fields.get(FIELD_OPERATION);
+        try {
+            long messages;
+            if (conversationId == null) {
+                throw new IllegalArgumentException("事件缺少会话ID");
+            } else if (OP_APPEND.equals(operation)) {
+                messages = archiveService.archiveNewMessages(conversationId);
+            } else if (OP_UPDATE.equals(operation)) {
+                long messageId = Long.parseLong((String) fields.get(FIELD_MESSAGE_ID));
+                messages = archiveService.rearchiveMessage(conversationId, messageId) ? 1 : 0;
+            } else if (OP_REPLACE.equals(operation)) {
+                messages = archiveService.rearchiveConversation(conversationId);
+            } else {
+                throw new IllegalArgumentException("未知的事件操作: " + operation);
+            }
+            acknowledge(record.getId());
+            applied.increment();
+            appliedMessages.add(messages);
+            lastAppliedLagMillis = System.currentTimeMillis() - record.getId().getTimestamp();
+        } catch (IllegalArgumentException e) {
+            // 格式错误的事件重试也不会成功，直接转入死信
+            failed.increment();
+            deadLetter(record, 1, e.getMessage());
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("[handle] 处理会话变更事件失败，留待重试: id={}, conversationId={}, operation={}, error={}",
+                    record.getId(), conversationId, operation, e.getMessage());
+        }
+    }
+
+    /**
+     * 认领空闲超时的待确认事件并重试；投递次数已达上限的事件转入死信
+     */
+    @SuppressWarnings("unchecked")
+    private void reclaimStale(String consumerName) {
+        StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+        Duration minIdle = Duration.ofMillis(config.getClaimIdleMillis());
+        PendingMessages pendingMessages = ops.pending(config.getStreamKey(), config.getGroup(),
+                Range.unbounded(), config.getReadBatchSize());
+
+        List<RecordId> claimIds = new ArrayList<>();
+        Map<RecordId, Long> exhausted = new LinkedHashMap<>();
+        for (PendingMessage pending : pendingMessages) {
+            if (pending.getElapsedTimeSinceLastDelivery().compareTo(minIdle) < 0) {
+                continue;
+            }
+            if (pending.getTotalDeliveryCount() >= config.getMaxDeliveries()) {
+                exhausted.put(pending.getId(), pending.getTotalDeliveryCount());
+            } else {
+                claimIds.add(pending.getId());
+            }
+        }
+
+        for (Map.Entry<RecordId, Long> entry : exhausted.entrySet()) {
+            List<MapRecord<String, Object, Object>> records = ops.range(config.getStreamKey(),
+                    Range.closed(entry.getKey().getValue(), entry.getKey().getValue()));
+            if (records == null || records.isEmpty()) {
+                // 事件已被裁剪，只能确认
+                acknowledge(entry.getKey());
+            } else {
+                deadLetter(records.get(0), entry.getValue(), "超过最大投递次数");
+            }
+        }
+        if (claimIds.isEmpty()) {
+            return;
+        }
+        List<MapRecord<String, Object, Object>> claimed = ops.claim(config.getStreamKey(), config.getGroup(),
+                consumerName, minIdle, claimIds.toArray(new RecordId[0]));
+        for (MapRecord<String, Object, Object> record : claimed) {
+            retried.increment();
+            handle(record);
+        }
+    }
+
+    /**
+     * 把事件连同原ID、投递次数和原因写入死信Stream后确认
+     */
+    private void deadLetter(MapRecord<String, Object, Object> record, long deliveries, String reason) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        record.getValue().forEach((key, value) -> fields.put(String.valueOf(key), String.valueOf(value)));
+        fields.put("id", record.getId().getValue());
+        fields.put("deliveries", String.valueOf(deliveries));
+        fields.put("reason", reason != null ? reason : "");
+        stringRedisTemplate.opsForStream().add(MapRecord.create(config.getDeadLetterKey(), fields));
+        stringRedisTemplate.opsForStream().trim(config.getDeadLetterKey(), config.getMaxLength(), true);
+        acknowledge(record.getId());
+        deadLettered.increment();
+        log.error("[deadLetter] 会话变更事件转入死信: id={}, fields={}, deliveries={}, reason={}",
+                record.getId(), record.getValue(), deliveries, reason);
+    }
+
+    private void acknowledge(RecordId recordId) {
+        stringRedisTemplate.opsForStream().acknowledge(config.getStreamKey(), config.getGroup(), recordId);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        registerCounter(registry, "chat.sync.events.received", "收到的会话变更事件数", received);
+        registerCounter(registry, "chat.sync.events.applied", "处理成功的会话变更事件数", applied);
+        registerCounter(registry, "chat.sync.messages.applied", "按变更事件写入MySQL的消息数", appliedMessages);
+        // 同一批次中同一会话的重复追加事件，直接确认
+        registerCounter(registry, "chat.sync.events.coalesced", "合并确认的重复追加事件数", coalesced);
+        registerCounter(registry, "chat.sync.events.failed", "处理失败的会话变更事件数", failed);
+        registerCounter(registry, "chat.sync.events.retried", "认领后重试的会话变更事件数", retried);
+        registerCounter(registry, "chat.sync.events.dead.lettered", "转入死信Stream的会话变更事件数", deadLettered);
+        Gauge.builder("chat.sync.applied.lag", this, service -> service.lastAppliedLagMillis)
+                .description("最近处理的事件从写入到处理完成的时间")
+                .baseUnit("milliseconds")
+                .register(registry);
+        if (!config.isEnabled()) {
+            return;
+        }
+        // 以下指标在采集时读取Stream状态
+        Gauge.builder("chat.sync.stream.length", this, ConversationChangeStreamServiceImpl::streamLength)
+                .description("会话变更Stream中的事件数")
+                .register(registry);
+        Gauge.builder("chat.sync.stream.pending", this, ConversationChangeStreamServiceImpl::pendingCount)
+                .description("已投递未确认的事件数")
+                .register(registry);
+        Gauge.builder("chat.sync.stream.pending.oldest", this, ConversationChangeStreamServiceImpl::oldestPendingMillis)
+                .description("最早一条已投递未确认事件的等待时间")
+                .baseUnit("milliseconds")
+                .register(registry);
+        // 持续增长说明消费跟不上写入
+        Gauge.builder("chat.sync.stream.undelivered.lag", this, ConversationChangeStreamServiceImpl::undeliveredLagMillis)
+                .description("最早一条尚未投递的事件的等待时间")
+                .baseUnit("milliseconds")
+                .register(registry);
+    }
+
+    private static void registerCounter(MeterRegistry registry, String name, String description, LongAdder counter) {
+        FunctionCounter.builder(name, counter, LongAdder::sum)
+                .description(description)
+                .register(registry);
+    }
+
+    private double streamLength() {
+        try {
+            Long length = stringRedisTemplate.opsForStream().size(config.getStreamKey());
+            return length != null ? length : 0;
+        } catch (Exception e) {
+            log.warn("[streamLength] 读取会话变更Stream长度失败: error={}", e.getMessage());
+            return Double.NaN;
+        }
+    }
+
+    private double pendingCount() {
+        try {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream()
+                    .pending(config.getStreamKey(), config.getGroup());
+            return summary != null ? summary.getTotalPendingMessages() : 0;
+        } catch (Exception e) {
+            log.warn("[pendingCount] 读取会话变更Stream待确认事件失败: error={}", e.getMessage());
+            return Double.NaN;
+        }
+    }
+
+    private double oldestPendingMillis() {
+        try {
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream()
+                    .pending(config.getStreamKey(), config.getGroup());
+            if (summary == null || summary.getTotalPendingMessages() == 0) {
+                return 0;
+            }
+            return System.currentTimeMillis() - RecordId.of(summary.minMessageId()).getTimestamp();
+        } catch (Exception e) {
+            log.warn("[oldestPendingMillis] 读取会话变更Stream待确认事件失败: error={}", e.getMessage());
+            return Double.NaN;
+        }
+    }
+
+    private double undeliveredLagMillis() {
+        try {
+            StreamOperations<String, Object, Object> ops = stringRedisTemplate.opsForStream();
+            StreamInfo.XInfoGroups groups = ops.groups(config.getStreamKey());
+            for (int i = 0; i < groups.size(); i++) {
+                StreamInfo.XInfoGroup group = groups.get(i);
+                if (!config.getGroup().equals(group.groupName())) {
+                    continue;
+                }
+                List<MapRecord<String, Object, Object>> undelivered = ops.range(config.getStreamKey(),
+                        Range.rightUnbounded(Range.Bound.exclusive(group.lastDeliveredId())), Limit.limit().count(1));
+                if (undelivered != null && !undelivered.isEmpty()) {
+                    return System.currentTimeMillis() - undelivered.get(0).getId().getTimestamp();
+                }
+            }
+            return 0;
+        } catch (Exception e) {
+            log.warn("[undeliveredLagMillis] 读取会话变更Stream投递进度失败: error={}", e.getMessage());
+            return Double.NaN;
+        }
+    }
+}
@@ -1,16 +1,14 @@
 package com.carol.backend.service.impl;
 
+import com.carol.backend.config.ChatMemoryConfig;
 import com.carol.backend.dto.ConversationMessageVO;
 import com.carol.backend.dto.ChatHistoryResponse;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
+import com.carol.backend.service.IConversationArchiveService;
 import com.carol.backend.service.IConversationHistoryService;
 import com.carol.backend.service.CustomMessageStorageService;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.ai.chat.memory.MessageWindowChatMemory;
-import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.messages.UserMessage;
-import org.springframework.ai.chat.messages.AssistantMessage;
 import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 
@@ -24,7 +22,7 @@ import java.util.stream.Collectors;
  * 
  * @author jianjl
  * @version 1.0
- * @description 适配Spring AI Redis存储的聊天历史服务实现
+ * @description 基于统一会话存储（chat:msg:*）的聊天历史服务实现
  * @date 2025-01-15
  */
 @Slf4j
@@ -32,55 +30,72 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class ConversationHistoryServiceImpl implements IConversationHistoryService {
     
-    private final MessageWindowChatMemory messageWindowChatMemory;
     private final CustomMessageStorageService customMessageStorageService;
-    
-    // Redis中保留的最大消息数量（Spring AI MessageWindowChatMemory的限制）
-    private static final int MAX_REDIS_MESSAGES = 100;
+    private final ChatMemoryConfig chatMemoryConfig;
+    private final IConversationArchiveService conversationArchiveService;
     
     // 历史记录查询的最大天数限制
     private static final int MAX_HISTORY_DAYS = 30;
     
     @Override
-    public ChatHistoryResponse getChatHistory(Long characterId, Long userId, String conversationIdParam) {
+    public ChatHistoryResponse getChatHistory(Long characterId, Long userId, String conversationIdParam,
+                                              Long before, Integer limit) {
         String conversationId = generateConversationId(characterId, userId, conversationIdParam);
+        ChatMemoryConfig.History historyConfig = chatMemoryConfig.getHistory();
+        int pageSize = limit != null && limit > 0
+                ? Math.min(limit, historyConfig.getMaxPageSize())
+                : historyConfig.getDefaultPageSize();
         
-        log.info("[getChatHistory] 查询聊天历史: conversationId={}", conversationId);
+        log.info("[getChatHistory] 查询聊天历史: conversationId={}, before={}, pageSize={}", conversationId, before, pageSize);
         
         try {
-            // 🎯 优先从自定义存储中获取消息（包含真实时间戳）
-            List<CustomMessageStorageService.StoredMessage> customMessages = 
-                customMessageStorageService.getMessages(conversationId);
-            
-            if (!customMessages.isEmpty()) {
-                log.info("[getChatHistory] 从自定义存储获取到 {} 条消息", customMessages.size());
-                List<ConversationMessageVO> messages = convertStoredMessagesToVO(customMessages, characterId);
-                
-                return new ChatHistoryResponse()
-                    .setMessages(messages)
-                    .setTotal(messages.size())
-                    .setHasMore(false)
-                    .setSourceStats(Map.of("custom_storage", (long) messages.size()))
-                    .setQueryDays(7);
+            // 🎯 只读取本页所需的区间（多读一条用于判断是否还有更早的消息），旧版数据在首次读取时自动迁移
+            List<CustomMessageStorageService.StoredMessage> hotMessages = 
+                customMessageStorageService.getMessagesBefore(conversationId, before, pageSize + 1);
+            long hotCount = customMessageStorageService.countMessages(conversationId);
+            
+            // Redis中的消息不足一页且更早的ID可能已归档时，用同一个游标继续读取MySQL
+            List<CustomMessageStorageService.StoredMessage> archivedMessages = Collections.emptyList();
+            // 本页读到了Redis中最早的消息时，无需另外查询最早的热消息ID
+            Long oldestHotId = hotMessages.size() <= pageSize && !hotMessages.isEmpty() ? hotMessages.get(0).getId() : null;
+            Long archiveCursor = hotMessages.isEmpty() ? before : hotMessages.get(0).getId();
+            boolean readArchive = hotMessages.size() <= pageSize && (archiveCursor == null || archiveCursor > 1);
+            if (readArchive) {
+                archivedMessages = readArchivedMessages(conversationId, archiveCursor, pageSize + 1 - hotMessages.size());
             }
             
-            // 如果自定义存储为空，回退到Spring AI存储（兼容旧数据）
-            List<Message> redisMessages = messageWindowChatMemory.get(conversationId);
-            
-            if (!redisMessages.isEmpty()) {
-                log.info("[getChatHistory] 从Spring AI Redis获取到 {} 条消息", redisMessages.size());
-                List<ConversationMessageVO> messages = convertSpringAIMessagesToVO(redisMessages, characterId);
+            if (!hotMessages.isEmpty() || !archivedMessages.isEmpty()) {
+                boolean hasMore = hotMessages.size() + archivedMessages.size() > pageSize;
+                if (hasMore) {
+                    if (!archivedMessages.isEmpty()) {
+                        archivedMessages = archivedMessages.subList(1, archivedMessages.size());
+                    } else {
+                        hotMessages = hotMessages.subList(1, hotMessages.size());
+                    }
+                }
+                log.info("[getChatHistory] 获取到消息: hot={}, archived={}, hasMore={}",
+                        hotMessages.size(), archivedMessages.size(), hasMore);
+                List<ConversationMessageVO> messages = new ArrayList<>(archivedMessages.size() + hotMessages.size());
+                messages.addAll(convertStoredMessagesToVO(archivedMessages, characterId, "mysql_archive"));
+                messages.addAll(convertStoredMessagesToVO(hotMessages, characterId, "custom_storage"));
+                
+                // 归档只在Redis达到热数据上限后发生，未达到上限且没有读取归档时不查询MySQL计数
+                long total = hotCount;
+                if (readArchive || hotCount >= chatMemoryConfig.getTiering().getHotMessageCap()) {
+                    total += countArchivedMessagesBelowHot(conversationId, hotCount, oldestHotId);
+                }
                 
                 return new ChatHistoryResponse()
                     .setMessages(messages)
-                    .setTotal(messages.size())
-                    .setHasMore(false)
-                    .setSourceStats(Map.of("spring_ai_redis", (long) messages.size()))
+                    .setTotal((int) total)
+                    .setHasMore(hasMore)
+                    .setNextCursor(hasMore ? (archivedMessages.isEmpty() ? hotMessages : archivedMessages).get(0).getId() : null)
+                    .setSourceStats(Map.of("custom_storage", (long) hotMessages.size(),
+                            "mysql_archive", (long) archivedMessages.size()))
                     .setQueryDays(7);
             }
             
-            // 都为空，返回空结果
-            log.info("[getChatHistory] 所有存储都为空，返回空历史记录");
+            log.info("[getChatHistory] 会话存储为空，返回空历史记录");
             
             return new ChatHistoryResponse()
                 .setMessages(Collections.emptyList())
@@ -95,6 +110,37 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
         }
     }
     
+    /**
+     * 读取归档消息，MySQL不可用时降级为只返回Redis中的消息
+     */
+    private List<CustomMessageStorageService.StoredMessage> readArchivedMessages(String conversationId,
+                                                                                 Long before, int limit) {
+        try {
+            return conversationArchiveService.getArchivedMessagesBefore(conversationId, before, limit);
+        } catch (Exception e) {
+            log.warn("[getChatHistory] 读取归档消息失败，只返回Redis中的消息: conversationId={}, error={}",
+                    conversationId, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+    
+    /**
+     * 统计ID小于Redis中最早消息的归档消息数：增量同步也会把仍在Redis中的消息写入MySQL，重叠的部分只计一次
+     */
+    private long countArchivedMessagesBelowHot(String conversationId, long hotCount, Long oldestHotId) {
+        try {
+            if (hotCount > 0 && oldestHotId == null) {
+                List<CustomMessageStorageService.StoredMessage> oldest =
+                    customMessageStorageService.getMessagesAfter(conversationId, 0, 1);
+                oldestHotId = oldest.isEmpty() ? null : oldest.get(0).getId();
+            }
+            return conversationArchiveService.countArchivedMessagesBefore(conversationId, oldestHotId);
+        } catch (Exception e) {
+            log.warn("[getChatHistory] 统计归档消息失败: conversationId={}, error={}", conversationId, e.getMessage());
+            return 0;
+        }
+    }
+    
     @Override
     public ChatHistoryResponse getAllChatHistory(Long userId) {
         log.info("[getAllChatHistory] 查询用户所有角色的聊天历史: userId={}", userId);
@@ -112,10 +158,11 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
                 String conversationId = generateConversationId(characterId, userId);
                 
                 try {
-                    List<Message> redisMessages = messageWindowChatMemory.get(conversationId);
+                    List<CustomMessageStorageService.StoredMessage> storedMessages =
+                        customMessageStorageService.getMessages(conversationId);
                     
-                    if (!redisMessages.isEmpty()) {
-                        List<ConversationMessageVO> characterMessages = convertSpringAIMessagesToVO(redisMessages, characterId);
+                    if (!storedMessages.isEmpty()) {
+                        List<ConversationMessageVO> characterMessages = convertStoredMessagesToVO(storedMessages, characterId, "custom_storage");
                         allMessages.addAll(characterMessages);
                         sourceStats.put("redis", sourceStats.get("redis") + characterMessages.size());
                         
@@ -147,9 +194,21 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
     @Override
     public List<ConversationMessageVO> getArchivedHistory(Long characterId, Long userId, 
                                                          Long beforeTime, Integer limit) {
-        // 暂时返回空列表，后续实现MySQL查询
-        log.info("[getArchivedHistory] 暂未实现MySQL查询，返回空列表");
-        return Collections.emptyList();
+        String conversationId = generateConversationId(characterId, userId);
+        int pageSize = limit != null && limit > 0
+                ? Math.min(limit, chatMemoryConfig.getHistory().getMaxPageSize())
+                : chatMemoryConfig.getHistory().getDefaultPageSize();
+        
+        try {
+            List<CustomMessageStorageService.StoredMessage> archivedMessages =
+                conversationArchiveService.getArchivedMessagesBeforeTime(conversationId, beforeTime, pageSize);
+            log.info("[getArchivedHistory] 查询归档消息: conversationId={}, beforeTime={}, count={}",
+                    conversationId, beforeTime, archivedMessages.size());
+            return convertStoredMessagesToVO(archivedMessages, characterId, "mysql_archive");
+        } catch (Exception e) {
+            log.error("[getArchivedHistory] 查询归档消息失败: conversationId={}, error={}", conversationId, e.getMessage(), e);
+            throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "查询归档历史失败", e);
+        }
     }
     
     @Override
@@ -166,13 +225,10 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
         try {
             log.info("[clearConversation] 开始清空对话: conversationId={}", conversationId);
             
-            // 清空自定义存储中的对话
+            // 清空会话存储中的对话（包括尚未迁移的旧版数据）
             customMessageStorageService.clearMessages(conversationId);
-            log.info("[clearConversation] 自定义存储对话已清空");
-            
-            // 清空Redis中的对话（Spring AI支持）
-            messageWindowChatMemory.clear(conversationId);
-            log.info("[clearConversation] Spring AI Redis对话已清空");
+            conversationArchiveService.deleteArchivedMessages(conversationId);
+            log.info("[clearConversation] 会话存储对话已清空");
             
             return true;
             
@@ -197,29 +253,14 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
                 try {
                     String conversationId = generateConversationId(characterId, userId);
                     
-                    // 检查自定义存储是否有对话记录
+                    // 检查会话存储是否有对话记录
                     List<CustomMessageStorageService.StoredMessage> customMessages = 
                         customMessageStorageService.getMessages(conversationId);
                     
-                    // 检查Spring AI存储是否有对话记录
-                    List<Message> messages = messageWindowChatMemory.get(conversationId);
-                    
-                    boolean hasCustomMessages = !customMessages.isEmpty();
-                    boolean hasSpringAIMessages = !messages.isEmpty();
-                    
-                    if (hasCustomMessages || hasSpringAIMessages) {
-                        // 清空自定义存储
-                        if (hasCustomMessages) {
-                            customMessageStorageService.clearMessages(conversationId);
-                            log.info("[clearAllConversations] 已清空角色 {} 的自定义存储对话，消息数: {}", characterId, customMessages.size());
-                        }
-                        
-                        // 清空Spring AI存储
-                        if (hasSpringAIMessages) {
-                            messageWindowChatMemory.clear(conversationId);
-                            log.info("[clearAllConversations] 已清空角色 {} 的Spring AI对话，消息数: {}", characterId, messages.size());
-                        }
-                        
+                    if (!customMessages.isEmpty()) {
+                        customMessageStorageService.clearMessages(conversationId);
+                        conversationArchiveService.deleteArchivedMessages(conversationId);
+                        log.info("[clearAllConversations] 已清空角色 {} 的对话，消息数: {}", characterId, customMessages.size());
                         clearedCount++;
                     }
                 } catch (Exception e) {
@@ -230,9 +271,11 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
             // 同时清空通用对话（没有指定角色的对话）
             try {
                 String generalConversationId = generateConversationId(null, userId);
-                List<Message> generalMessages = messageWindowChatMemory.get(generalConversationId);
+                List<CustomMessageStorageService.StoredMessage> generalMessages =
+                    customMessageStorageService.getMessages(generalConversationId);
                 if (!generalMessages.isEmpty()) {
-                    messageWindowChatMemory.clear(generalConversationId);
+                    customMessageStorageService.clearMessages(generalConversationId);
+                    conversationArchiveService.deleteArchivedMessages(generalConversationId);
                     clearedCount++;
                     log.info("[clearAllConversations] 已清空通用对话，消息数: {}", generalMessages.size());
                 }
@@ -251,22 +294,24 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
     
     @Override
     public void archiveRedisDataToMySQL() {
-        // 暂时只记录日志，后续实现归档逻辑
-        log.info("[archiveRedisDataToMySQL] 暂未实现归档逻辑");
+        long archived = conversationArchiveService.archiveOverflowMessages();
+        log.info("[archiveRedisDataToMySQL] 归档完成: archived={}", archived);
     }
     
     /**
      * 将自定义存储的消息转换为VO（包含真实时间戳）
      */
     private List<ConversationMessageVO> convertStoredMessagesToVO(
-            List<CustomMessageStorageService.StoredMessage> storedMessages, Long characterId) {
+            List<CustomMessageStorageService.StoredMessage> storedMessages, Long characterId, String dataSource) {
         List<ConversationMessageVO> result = new ArrayList<>();
         
         for (int i = 0; i < storedMessages.size(); i++) {
             CustomMessageStorageService.StoredMessage storedMessage = storedMessages.get(i);
             ConversationMessageVO vo = new ConversationMessageVO();
             
-            vo.setMessageId("stored_" + i + "_" + storedMessage.getTimestamp());
+            // 存储分配的消息ID可直接用于按ID更新消息（如语音时长）
+            vo.setMessageId(storedMessage.getId() != null ? storedMessage.getId().toString()
+                    : "stored_" + i + "_" + storedMessage.getTimestamp());
             vo.setCharacterId(characterId);
             vo.setContent(storedMessage.getContent());
             vo.setIsUser(storedMessage.getIsUser());
@@ -280,7 +325,7 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
             vo.setAudioUrl(storedMessage.getAudioUrl());
             vo.setVoiceDuration(storedMessage.getVoiceDuration());
             
-            vo.setDataSource("custom_storage");
+            vo.setDataSource(dataSource);
             vo.setNeedSync(false);
             
             result.add(vo);
@@ -290,118 +335,6 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
         return result;
     }
     
-    /**
-     * 将Spring AI的Message转换为VO
-     */
-    private List<ConversationMessageVO> convertSpringAIMessagesToVO(List<Message> messages, Long characterId) {
-        List<ConversationMessageVO> result = new ArrayList<>();
-        
-        // 🎯 修复时间戳问题：使用更合理的时间间隔来模拟历史消息时间
-        // 假设消息之间的平均间隔为2-5分钟，而不是1秒
-        long currentTime = System.currentTimeMillis();
-        
-        for (int i = 0; i < messages.size(); i++) {
-            Message message = messages.get(i);
-            ConversationMessageVO vo = new ConversationMessageVO();
-            
-            vo.setMessageId(generateMessageId(message, i));
-            vo.setCharacterId(characterId);
-            // 提取纯文本内容
-            String content = extractMessageContent(message);
-            vo.setContent(content);
-            vo.setIsUser(message instanceof UserMessage);
-            vo.setMessageType(message instanceof UserMessage ? 1 : 2);
-            
-            // 🎯 改进时间戳生成逻辑：
-            // 1. 尝试从消息元数据中获取时间戳
-            Long messageTimestamp = extractTimestampFromMessage(message);
-            if (messageTimestamp != null) {
-                vo.setTimestamp(messageTimestamp);
-                vo.setCreatedTime(LocalDateTime.ofInstant(
-                    java.time.Instant.ofEpochMilli(messageTimestamp), 
-                    java.time.ZoneId.systemDefault()
-                ));
-            } else {
-                // 2. 如果没有时间戳，使用更合理的时间间隔（2-5分钟）
-                int minutesAgo = (messages.size() - i) * (2 + (i % 4)); // 2-5分钟间隔
-                long timestamp = currentTime - (minutesAgo * 60 * 1000L);
-                vo.setTimestamp(timestamp);
-                vo.setCreatedTime(LocalDateTime.now().minusMinutes(minutesAgo));
-            }
-            
-            // 尝试从消息元数据中提取audioUrl
-            String audioUrl = extractAudioUrlFromMessage(message);
-            vo.setAudioUrl(audioUrl);
-            
-            vo.setDataSource("redis");
-            vo.setNeedSync(false);
-            
-            result.add(vo);
-        }
-        
-        return result;
-    }
-    
-    /**
-     * 尝试从Spring AI Message中提取audioUrl
-     */
-    private String extractAudioUrlFromMessage(Message message) {
-        try {
-            // 从消息元数据中提取audioUrl
-            Map<String, Object> metadata = message.getMetadata();
-            if (metadata != null && metadata.containsKey("audioUrl")) {
-                Object audioUrlObj = metadata.get("audioUrl");
-                if (audioUrlObj instanceof String) {
-                    String audioUrl = (String) audioUrlObj;
-                    log.debug("[extractAudioUrlFromMessage] 从消息元数据中提取到audioUrl: {}", audioUrl);
-                    return audioUrl;
-                }
-            }
-            
-            // 如果元数据中没有audioUrl，返回null
-            return null;
-        } catch (Exception e) {
-            log.warn("[extractAudioUrlFromMessage] 提取audioUrl失败: {}", e.getMessage());
-            return null;
-        }
-    }
-    
-    /**
-     * 尝试从Spring AI Message中提取时间戳
-     */
-    private Long extractTimestampFromMessage(Message message) {
-        try {
-            // 尝试从消息的元数据中获取时间戳
-            if (message.getMetadata() != null) {
-                Object timestamp = message.getMetadata().get("timestamp");
-                if (timestamp instanceof Long) {
-                    return (Long) timestamp;
-                } else if (timestamp instanceof String) {
-                    return Long.parseLong((String) timestamp);
-                }
-                
-                // 尝试其他可能的时间戳字段名
-                String[] timestampFields = {"createdAt", "created_at", "messageTime", "time"};
-                for (String field : timestampFields) {
-                    Object value = message.getMetadata().get(field);
-                    if (value instanceof Long) {
-                        return (Long) value;
-                    } else if (value instanceof String) {
-                        try {
-                            return Long.parseLong((String) value);
-                        } catch (NumberFormatException ignored) {
-                            // 继续尝试下一个字段
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            log.debug("[extractTimestampFromMessage] 提取时间戳失败: {}", e.getMessage());
-        }
-        
-        return null; // 没有找到有效的时间戳
-    }
-    
     /**
      * 生成会话ID - 支持 Qwen 多会话
      * 
@@ -431,65 +364,4 @@ public class ConversationHistoryServiceImpl implements IConversationHistoryServi
     private String generateConversationId(Long characterId, Long userId) {
         return generateConversationId(characterId, userId, null);
     }
-    
-    /**
-     * 提取消息的纯文本内容
-     */
-    private String extractMessageContent(Message message) {
-        // 尝试多种可能的方法名
-        String[] methodNames = {"getContent", "content", "getText", "getTextContent", "textContent"};
-        
-        for (String methodName : methodNames) {
-            try {
-                java.lang.reflect.Method method = message.getClass().getMethod(methodName);
-                Object content = method.invoke(message);
-                if (content != null) {
-                    String contentStr = content.toString();
-                    // 如果内容不是完整的对象字符串表示，则返回
-                    if (!contentStr.contains("Message [") && !contentStr.contains("messageType=")) {
-                        return contentStr;
-                    }
-                }
-            } catch (Exception e) {
-                // 继续尝试下一个方法
-            }
-        }
-        
-        // 如果所有方法都失败，尝试从toString()中提取内容
-        String fullString = message.toString();
-        
-        // 尝试从AssistantMessage的toString()中提取textContent
-        if (fullString.contains("textContent=")) {
-            int start = fullString.indexOf("textContent=") + "textContent=".length();
-            int end = fullString.indexOf(", metadata=");
-            if (end == -1) {
-                end = fullString.indexOf("]", start);
-            }
-            if (start < fullString.length() && end > start) {
-                return fullString.substring(start, end).trim();
-            }
-        }
-        
-        // 尝试从UserMessage的toString()中提取content
-        if (fullString.contains("content='")) {
-            int start = fullString.indexOf("content='") + "content='".length();
-            int end = fullString.indexOf("'", start);
-            if (start < fullString.length() && end > start) {
-                return fullString.substring(start, end);
-            }
-        }
-        
-        log.warn("[extractMessageContent] 无法提取消息内容，返回原始字符串: messageType={}", 
-                message.getClass().getSimpleName());
-        return fullString;
-    }
-    
-    /**
-     * 生成消息ID
-     */
-    private String generateMessageId(Message message, int index) {
-        // 基于消息内容和索引生成唯一ID
-        String content = extractMessageContent(message);
-        return String.format("msg_%d_%d", content.hashCode(), index);
-    }
 }
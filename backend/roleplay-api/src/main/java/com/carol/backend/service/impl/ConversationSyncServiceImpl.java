@@ -1,22 +1,34 @@
 package com.carol.backend.service.impl;
 
+import com.carol.backend.config.ConversationSyncConfig;
 import com.carol.backend.entity.Conversation;
 import com.carol.backend.entity.ConversationMessage;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
 import com.carol.backend.mapper.ConversationMapper;
 import com.carol.backend.mapper.ConversationMessageMapper;
+import com.carol.backend.service.CustomMessageStorageService;
+import com.carol.backend.service.CustomMessageStorageService.ConversationIdPage;
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.carol.backend.service.IConversationArchiveService;
 import com.carol.backend.service.IConversationSyncService;
-import lombok.RequiredArgsConstructor;
+import com.carol.backend.service.ICustomMessageStorageService;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 
 /**
@@ -24,22 +36,67 @@ import java.util.regex.Pattern;
  * 
  * @author jianjl
  * @version 1.0
- * @description 直接从Redis读取数据同步到MySQL数据仓库
+ * @description 从统一会话存储（chat:msg:*）读取数据同步到MySQL数据仓库
  * @date 2025-01-15
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class ConversationSyncServiceImpl implements IConversationSyncService {
     
     private final ConversationMapper conversationMapper;
     private final ConversationMessageMapper conversationMessageMapper;
+    private final ICustomMessageStorageService customMessageStorageService;
+    private final IConversationArchiveService archiveService;
     private final StringRedisTemplate stringRedisTemplate;
-    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConversationSyncConfig syncConfig;
+    // syncConversation 也由批量同步线程在类内调用，@Transactional 不生效，使用编程式事务
+    private final TransactionTemplate transactionTemplate;
+    
+    // 批量同步专用线程池
+    private final ThreadPoolTaskExecutor syncExecutor;
+    
+    // 同一进程内只允许一个批量同步，避免重复同步和检查点互相覆盖
+    private final AtomicBoolean syncAllRunning = new AtomicBoolean();
     
-    private static final String REDIS_CHAT_MEMORY_PREFIX = "spring_ai_alibaba_chat_memory:";
     private static final Pattern SESSION_ID_PATTERN = Pattern.compile("user_(.+?)_(?:char_(\\d+)|general)");
     
+    public ConversationSyncServiceImpl(ConversationMapper conversationMapper,
+                                       ConversationMessageMapper conversationMessageMapper,
+                                       ICustomMessageStorageService customMessageStorageService,
+                                       IConversationArchiveService archiveService,
+                                       StringRedisTemplate stringRedisTemplate,
+                                       ConversationSyncConfig syncConfig,
+                                       TransactionTemplate transactionTemplate) {
+        this.conversationMapper = conversationMapper;
+        this.conversationMessageMapper = conversationMessageMapper;
+        this.customMessageStorageService = customMessageStorageService;
+        this.archiveService = archiveService;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.syncConfig = syncConfig;
+        this.transactionTemplate = transactionTemplate;
+        this.syncExecutor = createSyncThreadPool();
+    }
+    
+    /**
+     * 创建批量同步线程池
+     * 队列满时由扫描线程执行同步，扫描速度自动降到写入速度
+     */
+    private ThreadPoolTaskExecutor createSyncThreadPool() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(syncConfig.getWorkerThreads());
+        executor.setMaxPoolSize(syncConfig.getWorkerThreads());
+        executor.setQueueCapacity(syncConfig.getQueueCapacity());
+        executor.setThreadNamePrefix("Conversation-Sync-");
+        executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.initialize();
+        return executor;
+    }
+    
+    @PreDestroy
+    public void shutdown() {
+        syncExecutor.shutdown();
+    }
+    
     @Override
     public boolean syncConversation(String sessionId) {
         log.info("[syncConversation] 开始同步会话: sessionId={}", sessionId);
@@ -58,34 +115,32 @@ public class ConversationSyncServiceImpl implements IConversationSyncService {
             }
             
             if (existingCount > 0) {
-                log.info("[syncConversation] 会话已同步过，跳过: sessionId={}, existingCount={}", 
-                        sessionId, existingCount);
+                // 已同步过的会话只补齐之后新增的消息
+                long written = archiveService.archiveNewMessages(sessionId);
+                log.info("[syncConversation] 会话已同步过，增量写入新消息: sessionId={}, written={}", 
+                        sessionId, written);
                 return true;
             }
             
             // 步骤2: 从Redis获取对话数据
             log.debug("[syncConversation] 从Redis获取对话数据: sessionId={}", sessionId);
-            String redisKey = REDIS_CHAT_MEMORY_PREFIX + sessionId;
-            
-            List<String> messageStrings = null;
+            List<StoredMessage> storedMessages;
             try {
-                messageStrings = stringRedisTemplate.opsForList().range(redisKey, 0, -1);
-                log.debug("[syncConversation] Redis读取完成: messageCount={}", 
-                        messageStrings != null ? messageStrings.size() : 0);
+                storedMessages = customMessageStorageService.getMessages(sessionId);
+                log.debug("[syncConversation] Redis读取完成: messageCount={}", storedMessages.size());
             } catch (Exception e) {
-                log.error("[syncConversation] Redis读取失败: sessionId={}, redisKey={}, error={}", 
-                        sessionId, redisKey, e.getMessage(), e);
+                log.error("[syncConversation] Redis读取失败: sessionId={}, error={}", 
+                        sessionId, e.getMessage(), e);
                 throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "Redis读取失败", e);
             }
             
-            if (messageStrings == null || messageStrings.isEmpty()) {
-                log.warn("[syncConversation] Redis中没有找到消息: sessionId={}, redisKey={}", 
-                        sessionId, redisKey);
+            if (storedMessages.isEmpty()) {
+                log.warn("[syncConversation] Redis中没有找到消息: sessionId={}", sessionId);
                 return false;
             }
             
             log.info("[syncConversation] 从Redis成功获取消息: sessionId={}, messageCount={}", 
-                    sessionId, messageStrings.size());
+                    sessionId, storedMessages.size());
             
             // 步骤3: 解析会话信息
             log.debug("[syncConversation] 解析会话信息: sessionId={}", sessionId);
@@ -104,67 +159,25 @@ public class ConversationSyncServiceImpl implements IConversationSyncService {
                 return false;
             }
             
-            // 步骤4: 创建会话记录
-            log.debug("[syncConversation] 构建会话记录: sessionId={}", sessionId);
-            Conversation conversation = null;
-            try {
-                conversation = buildConversation(sessionId, messageStrings, conversationInfo);
-                log.debug("[syncConversation] 会话记录构建完成: title={}, userId={}, characterId={}, messageCount={}", 
-                    conversation.getTitle(), conversation.getUserId(), 
-                    conversation.getCharacterId(), conversation.getMessageCount());
-                    
-                conversationMapper.insert(conversation);
-                log.info("[syncConversation] 会话记录插入成功: conversationId={}, sessionId={}", 
-                        conversation.getId(), sessionId);
-                
-            } catch (Exception e) {
-                log.error("[syncConversation] 创建或插入会话记录失败: sessionId={}, error={}", 
-                        sessionId, e.getMessage(), e);
-                throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "创建会话记录失败", e);
-            }
-            
-            // 步骤5: 创建消息记录
-            log.debug("[syncConversation] 构建消息记录: sessionId={}", sessionId);
-            List<ConversationMessage> conversationMessages = null;
-            try {
-                conversationMessages = buildConversationMessages(
-                    conversation.getId(), sessionId, messageStrings);
-                log.info("构建了 {} 条消息记录", conversationMessages.size());
-                
-                if (!conversationMessages.isEmpty()) {
-                    for (int i = 0; i < conversationMessages.size(); i++) {
-                        ConversationMessage message = conversationMessages.get(i);
-                        log.info("插入消息 {}/{}: type={}, contentLength={}, content={}", 
-                            i+1, conversationMessages.size(), 
-                            message.getMessageType(), 
-                            message.getContentLength(),
-                            message.getContent().substring(0, Math.min(50, message.getContent().length())) + "...");
-                            
-                        conversationMessageMapper.insert(message);
-                        log.info("消息 {} 插入成功，ID: {}", i+1, message.getId());
-                    }
-                }
-            } catch (Exception e) {
-                log.error("[syncConversation] 创建或插入消息记录失败: sessionId={}, error={}", 
-                        sessionId, e.getMessage(), e);
-                throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "创建消息记录失败", e);
-            }
+            // 步骤4: 一次遍历构建会话记录和消息记录
+            SyncBatch batch = buildSyncBatch(sessionId, storedMessages, conversationInfo);
+            log.debug("[syncConversation] 会话记录构建完成: title={}, userId={}, characterId={}, messageCount={}", 
+                batch.conversation.getTitle(), batch.conversation.getUserId(), 
+                batch.conversation.getCharacterId(), batch.messages.size());
             
-            // 步骤6: 更新同步状态
-            log.debug("[syncConversation] 更新同步状态: sessionId={}", sessionId);
+            // 步骤5: 会话记录和消息记录在同一事务中写入，消息按块多行插入
             try {
-                conversation.setLastSyncAt(java.time.LocalDateTime.now());
-                conversation.setSyncStatus(1);
-                conversationMapper.updateById(conversation);
-                log.debug("[syncConversation] 同步状态更新成功: sessionId={}", sessionId);
+                transactionTemplate.executeWithoutResult(status -> insertSyncBatch(batch));
+                log.info("[syncConversation] 会话数据写入成功: conversationId={}, sessionId={}", 
+                        batch.conversation.getId(), sessionId);
             } catch (Exception e) {
-                log.error("[syncConversation] 更新同步状态失败: sessionId={}, error={}", 
+                log.error("[syncConversation] 写入会话数据失败，已回滚: sessionId={}, error={}", 
                         sessionId, e.getMessage(), e);
-                // 不抛出异常，因为主要数据已经插入成功
+                throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "写入会话数据失败", e);
             }
             
             log.info("[syncConversation] 同步会话成功: sessionId={}, messageCount={}", 
-                    sessionId, conversationMessages.size());
+                    sessionId, batch.messages.size());
             return true;
             
         } catch (BusinessException e) {
@@ -176,45 +189,133 @@ public class ConversationSyncServiceImpl implements IConversationSyncService {
         }
     }
     
+    /**
+     * 从检查点继续遍历全部会话，每个会话作为一个任务同步；检查点保存在Redis中
+     * 中断后从检查点继续时不会漏掉会话（可能重复处理少量已同步的会话，会被跳过）
+     */
     @Override
     public Map<String, Object> syncAllConversations() {
-        log.info("[syncAllConversations] 开始批量同步所有Redis中的对话");
-        
-        Set<String> redisKeys = stringRedisTemplate.keys(REDIS_CHAT_MEMORY_PREFIX + "*");
-        if (redisKeys == null || redisKeys.isEmpty()) {
-            log.info("[syncAllConversations] Redis中没有找到对话数据");
-            return Map.of("total", 0, "success", 0, "failed", 0);
+        if (!syncAllRunning.compareAndSet(false, true)) {
+            log.warn("[syncAllConversations] 批量同步正在进行中，忽略本次请求");
+            throw BusinessException.of(ErrorCode.OPERATION_FAILED, "批量同步正在进行中");
         }
+        try {
+            return syncAllFromCheckpoint();
+        } finally {
+            syncAllRunning.set(false);
+        }
+    }
+    
+    private Map<String, Object> syncAllFromCheckpoint() {
+        long startTime = System.currentTimeMillis();
+        String cursor = stringRedisTemplate.opsForValue().get(syncConfig.getCheckpointKey());
+        boolean resumed = cursor != null;
+        if (!resumed) {
+            cursor = CustomMessageStorageService.SCAN_START_CURSOR;
+        }
+        log.info("[syncAllConversations] 开始批量同步Redis中的对话: cursor={}, resumed={}", cursor, resumed);
         
-        int total = redisKeys.size();
-        int success = 0;
-        int failed = 0;
-        
-        log.info("[syncAllConversations] 找到对话数量: total={}", total);
+        AtomicInteger success = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicInteger total = new AtomicInteger();
+        int pages = scanConversations(cursor,
+                sessionIds -> {
+                    total.addAndGet(sessionIds.size());
+                    List<Runnable> tasks = new ArrayList<>(sessionIds.size());
+                    for (String sessionId : sessionIds) {
+                        tasks.add(() -> syncQuietly(sessionId, success, failed));
+                    }
+                    return tasks;
+                },
+                (completedCursor, conversations) -> saveCheckpoint(completedCursor));
+        // 遍历完成，下次从头开始
+        stringRedisTemplate.delete(syncConfig.getCheckpointKey());
         
-        for (String redisKey : redisKeys) {
-            String sessionId = redisKey.replace(REDIS_CHAT_MEMORY_PREFIX, "");
-            
-            try {
-                if (syncConversation(sessionId)) {
-                    success++;
-                } else {
-                    failed++;
-                }
-            } catch (Exception e) {
-                log.error("[syncAllConversations] 同步会话时出错: sessionId={}, error={}", 
-                        sessionId, e.getMessage(), e);
-                failed++;
+        long duration = System.currentTimeMillis() - startTime;
+        log.info("[syncAllConversations] 批量同步完成: total={}, success={}, failed={}, pages={}, resumed={}, duration={}ms",
+                total.get(), success.get(), failed.get(), pages, resumed, duration);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("total", total.get());
+        result.put("success", success.get());
+        result.put("failed", failed.get());
+        result.put("success_rate", total.get() > 0 ? (double) success.get() / total.get() * 100 : 0);
+        result.put("pages", pages);
+        result.put("resumed", resumed);
+        result.put("durationMs", duration);
+        return result;
+    }
+    
+    private void syncQuietly(String sessionId, AtomicInteger success, AtomicInteger failed) {
+        try {
+            if (syncConversation(sessionId)) {
+                success.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
             }
+        } catch (Exception e) {
+            log.error("[syncAllConversations] 同步会话时出错: sessionId={}, error={}", 
+                    sessionId, e.getMessage(), e);
+            failed.incrementAndGet();
         }
+    }
+    
+    private void saveCheckpoint(String completedCursor) {
+        if (!CustomMessageStorageService.SCAN_START_CURSOR.equals(completedCursor)) {
+            stringRedisTemplate.opsForValue().set(syncConfig.getCheckpointKey(), completedCursor,
+                    syncConfig.getCheckpointTtlHours(), TimeUnit.HOURS);
+        }
+    }
+    
+    /**
+     * 按SCAN游标逐页遍历会话并交给同步线程池，不使用KEYS，也不把全部会话ID读入内存
+     * 未完成的页数超过上限时等待最早的一页，内存占用与会话总数无关；最早一页的任务全部完成后才回调 onPagesCompleted
+     */
+    @Override
+    public int scanConversations(String cursor, Function<List<String>, List<Runnable>> pageTasks,
+                                 BiConsumer<String, Integer> onPagesCompleted) {
+        Deque<InFlightPage> inFlightPages = new ArrayDeque<>();
+        int pages = 0;
+        ConversationIdPage page;
+        do {
+            page = customMessageStorageService.scanConversationIdPage(cursor, syncConfig.getScanBatchSize());
+            pages++;
+            
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (Runnable task : pageTasks.apply(page.getConversationIds())) {
+                futures.add(CompletableFuture.runAsync(task, syncExecutor));
+            }
+            inFlightPages.addLast(new InFlightPage(page.getNextCursor(), page.getConversationIds().size(),
+                    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))));
+            
+            while (inFlightPages.size() > syncConfig.getMaxInFlightPages()) {
+                inFlightPages.peekFirst().completion.join();
+                completePages(inFlightPages, onPagesCompleted);
+            }
+            completePages(inFlightPages, onPagesCompleted);
+            cursor = page.getNextCursor();
+        } while (!page.isFinished());
         
-        log.info("[syncAllConversations] 批量同步完成: total={}, success={}, failed={}", total, success, failed);
-        return Map.of(
-            "total", total,
-            "success", success,
-            "failed", failed,
-            "success_rate", total > 0 ? (double) success / total * 100 : 0
-        );
+        for (InFlightPage inFlightPage : inFlightPages) {
+            inFlightPage.completion.join();
+        }
+        completePages(inFlightPages, onPagesCompleted);
+        return pages;
+    }
+    
+    /**
+     * 移除队首已完成的页，以其中最后一页之后的游标和这些页的会话数回调
+     */
+    private void completePages(Deque<InFlightPage> inFlightPages, BiConsumer<String, Integer> onPagesCompleted) {
+        String completedCursor = null;
+        int conversations = 0;
+        while (!inFlightPages.isEmpty() && inFlightPages.peekFirst().completion.isDone()) {
+            InFlightPage completed = inFlightPages.pollFirst();
+            completedCursor = completed.nextCursor;
+            conversations += completed.conversations;
+        }
+        if (completedCursor != null) {
+            onPagesCompleted.accept(completedCursor, conversations);
+        }
     }
     
     /**
@@ -233,114 +334,108 @@ public class ConversationSyncServiceImpl implements IConversationSyncService {
     }
     
     /**
-     * 构建对话记录
+     * 一次遍历把Redis消息转换为消息记录，同时累计标题、摘要和Token统计，再据此构建会话记录
      */
-    private Conversation buildConversation(String sessionId, List<String> messageStrings, 
-                                         ConversationInfo info) {
-        
-        log.debug("[buildConversation] 开始构建对话记录: sessionId={}, messageCount={}, userId={}, characterId={}", 
-            sessionId, messageStrings.size(), info.userId, info.characterId);
-        
-        LocalDateTime now = LocalDateTime.now();
-        LocalDateTime startTime = now.minusMinutes(30); // 估算开始时间
-        
-        // 生成对话标题
-        String title = generateConversationTitle(messageStrings, info.characterId);
-        log.debug("[buildConversation] 生成标题: title={}", title);
+    private SyncBatch buildSyncBatch(String sessionId, List<StoredMessage> storedMessages, ConversationInfo info) {
+        List<ConversationMessage> messages = new ArrayList<>(storedMessages.size());
+        String title = null;
+        int userMessageCount = 0;
+        int aiMessageCount = 0;
+        int totalTokens = 0;
         
-        // 计算统计信息
-        int messageCount = messageStrings.size();
-        int totalTokens = estimateTokenCount(messageStrings);
-        log.debug("[buildConversation] 统计信息: messageCount={}, totalTokens={}", messageCount, totalTokens);
+        for (int i = 0; i < storedMessages.size(); i++) {
+            StoredMessage storedMessage = storedMessages.get(i);
+            String messageType = storedMessage.getMessageType();
+            String content = storedMessage.getContent() != null ? storedMessage.getContent() : "";
+            int tokenCount = estimateTokenCount(content);
+            totalTokens += tokenCount;
+            
+            if (Boolean.TRUE.equals(storedMessage.getIsUser())) {
+                userMessageCount++;
+                if (title == null && storedMessage.getContent() != null) {
+                    // 第一个用户消息作为标题
+                    title = content.length() > 20 ? content.substring(0, 20) + "..." : content;
+                }
+            } else {
+                aiMessageCount++;
+            }
+            
+            ConversationMessage conversationMessage = new ConversationMessage()
+                .setSessionId(sessionId)
+                .setMessageIndex(storedMessage.getId() != null ? storedMessage.getId().intValue() : i + 1)
+                .setMessageType(convertMessageType(messageType))
+                .setContent(content)
+                .setContentLength(content.length())
+                .setTokenCount(tokenCount)
+                .setAudioUrl(storedMessage.getAudioUrl())
+                .setVoiceDuration(storedMessage.getVoiceDuration())
+                .setLanguage("zh")
+                .setSyncSource("redis")
+                .setMessageTimestamp(messageTime(storedMessage));
+            
+            // 如果是AI消息，可以添加更多元数据
+            if ("ASSISTANT".equals(messageType)) {
+                conversationMessage.setModelName("qwen-plus");
+                conversationMessage.setRagKnowledgeUsed(false); // 可以后续优化
+            }
+            messages.add(conversationMessage);
+        }
         
-        // 生成摘要
-        String summary = generateConversationSummary(messageStrings);
-        log.debug("[buildConversation] 生成摘要: summaryLength={}", summary != null ? summary.length() : 0);
+        // 使用消息的真实时间作为会话起止时间
+        LocalDateTime startTime = messages.get(0).getMessageTimestamp();
+        LocalDateTime endTime = messages.get(messages.size() - 1).getMessageTimestamp();
+        String summary = storedMessages.size() <= 2 ? "简短对话" : String.format("包含%d轮对话，用户消息%d条，AI回复%d条", 
+            Math.min(userMessageCount, aiMessageCount), userMessageCount, aiMessageCount);
         
         Conversation conversation = new Conversation()
             .setSessionId(sessionId)
             .setCharacterId(info.characterId)
             .setUserId(info.userId)
-            .setTitle(title)
+            .setTitle(title != null ? title : "对话记录")
             .setContextSummary(summary)
-            .setMessageCount(messageCount)
+            .setMessageCount(messages.size())
             .setTotalTokens(totalTokens)
             .setStartTime(startTime)
-            .setEndTime(now)
-            .setDurationMinutes(30)
+            .setEndTime(endTime)
+            .setDurationMinutes((int) java.time.Duration.between(startTime, endTime).toMinutes())
             .setSyncSource("redis")
             .setSyncStatus(1)
-            .setExportCount(0);
-            
-        log.debug("[buildConversation] 对话记录构建完成: sessionId={}", sessionId);
-        return conversation;
+            .setExportCount(0)
+            .setLastSyncAt(LocalDateTime.now());
+        return new SyncBatch(conversation, messages);
     }
     
     /**
-     * 构建对话消息列表
+     * 插入会话记录，再按配置的块大小多行插入消息记录（在调用方的事务中执行）
      */
-    private List<ConversationMessage> buildConversationMessages(Long conversationId, 
-                                                               String sessionId, 
-                                                               List<String> messageStrings) {
-        log.debug("[buildConversationMessages] 开始构建消息记录列表: messageCount={}", messageStrings.size());
-        log.info("参数: conversationId={}, sessionId='{}', messageCount={}", 
-            conversationId, sessionId, messageStrings.size());
-        
-        List<ConversationMessage> result = new ArrayList<>();
-        
-        for (int i = 0; i < messageStrings.size(); i++) {
-            try {
-                log.info("处理消息 {}/{}", i+1, messageStrings.size());
-                String messageJson = messageStrings.get(i);
-                log.info("原始JSON: {}", messageJson.substring(0, Math.min(200, messageJson.length())));
-                
-                JsonNode messageNode = objectMapper.readTree(messageJson);
-                log.info("JSON解析成功");
-                
-                String messageType = messageNode.get("messageType").asText();
-                String content = messageNode.get("text").asText();
-                log.info("提取字段: messageType='{}', contentLength={}", messageType, content.length());
-                
-                int convertedMessageType = convertMessageType(messageType);
-                log.info("消息类型转换: '{}' -> {}", messageType, convertedMessageType);
-                
-                ConversationMessage conversationMessage = new ConversationMessage()
-                    .setConversationId(conversationId)
-                    .setSessionId(sessionId)
-                    .setMessageIndex(i + 1)
-                    .setMessageType(convertedMessageType)
-                    .setContent(content)
-                    .setContentLength(content != null ? content.length() : 0)
-                    .setTokenCount(estimateTokenCount(content))
-                    .setLanguage("zh")
-                    .setSyncSource("redis")
-                    .setMessageTimestamp(LocalDateTime.now().minusMinutes(messageStrings.size() - i));
-                
-                // 如果是AI消息，可以添加更多元数据
-                if ("ASSISTANT".equals(messageType)) {
-                    conversationMessage.setModelName("qwen-plus");
-                    conversationMessage.setRagKnowledgeUsed(false); // 可以后续优化
-                    log.info("设置AI消息元数据: modelName='qwen-plus'");
-                }
-                
-                result.add(conversationMessage);
-                log.info("消息 {} 构建成功", i+1);
-                
-            } catch (Exception e) {
-                log.error("[buildConversationMessages] 解析消息失败: index={}, error={}", i, e.getMessage(), e);
-                log.error("问题消息内容: {}", messageStrings.get(i));
-                // 继续处理下一条消息，不中断整个流程
+    private void insertSyncBatch(SyncBatch batch) {
+        conversationMapper.insert(batch.conversation);
+        Long conversationId = batch.conversation.getId();
+        int chunkSize = Math.max(1, syncConfig.getInsertChunkSize());
+        List<ConversationMessage> messages = batch.messages;
+        for (int from = 0; from < messages.size(); from += chunkSize) {
+            List<ConversationMessage> chunk = messages.subList(from, Math.min(from + chunkSize, messages.size()));
+            for (ConversationMessage message : chunk) {
+                message.setConversationId(conversationId);
             }
+            conversationMessageMapper.insertBatch(chunk);
         }
-        
-        log.info("【buildConversationMessages】消息记录列表构建完成，成功构建{}条", result.size());
-        return result;
+    }
+    
+    /**
+     * 消息的创建时间（旧数据缺失时使用当前时间）
+     */
+    private LocalDateTime messageTime(StoredMessage storedMessage) {
+        return storedMessage.getCreatedTime() != null ? storedMessage.getCreatedTime() : LocalDateTime.now();
     }
     
     /**
      * 转换消息类型
      */
     private Integer convertMessageType(String messageType) {
+        if (messageType == null) {
+            return ConversationMessage.MessageType.SYSTEM.getCode();
+        }
         switch (messageType) {
             case "USER":
                 return ConversationMessage.MessageType.USER.getCode();
@@ -354,86 +449,42 @@ public class ConversationSyncServiceImpl implements IConversationSyncService {
     }
     
     /**
-     * 生成对话标题
+     * 估算单个文本的Token数量
      */
-    private String generateConversationTitle(List<String> messageStrings, Long characterId) {
-        if (messageStrings.isEmpty()) {
-            return "空对话";
-        }
-        
-        try {
-            // 查找第一个用户消息作为标题基础
-            for (String messageJson : messageStrings) {
-                JsonNode messageNode = objectMapper.readTree(messageJson);
-                if ("USER".equals(messageNode.get("messageType").asText())) {
-                    String content = messageNode.get("text").asText();
-                    String title = content.length() > 20 ? 
-                        content.substring(0, 20) + "..." : content;
-                    return title;
-                }
-            }
-        } catch (Exception e) {
-            log.warn("生成对话标题失败: {}", e.getMessage());
+    private int estimateTokenCount(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
         }
-        
-        return "对话记录";
+        // 简单估算：中文1个字=1个token，英文1个词=1个token
+        return (int) (text.length() * 1.2); // 添加一些余量
     }
     
     /**
-     * 生成对话摘要
+     * 已提交的一页SCAN结果：全部任务完成后，检查点可以推进到 nextCursor
      */
-    private String generateConversationSummary(List<String> messageStrings) {
-        if (messageStrings.size() <= 2) {
-            return "简短对话";
-        }
-        
-        int userMessageCount = 0;
-        int aiMessageCount = 0;
+    private static class InFlightPage {
+        final String nextCursor;
+        final int conversations;
+        final CompletableFuture<Void> completion;
         
-        try {
-            for (String messageJson : messageStrings) {
-                JsonNode messageNode = objectMapper.readTree(messageJson);
-                String messageType = messageNode.get("messageType").asText();
-                if ("USER".equals(messageType)) {
-                    userMessageCount++;
-                } else if ("ASSISTANT".equals(messageType)) {
-                    aiMessageCount++;
-                }
-            }
-        } catch (Exception e) {
-            log.warn("生成对话摘要失败: {}", e.getMessage());
+        InFlightPage(String nextCursor, int conversations, CompletableFuture<Void> completion) {
+            this.nextCursor = nextCursor;
+            this.conversations = conversations;
+            this.completion = completion;
         }
-        
-        return String.format("包含%d轮对话，用户消息%d条，AI回复%d条", 
-            Math.min(userMessageCount, aiMessageCount), userMessageCount, aiMessageCount);
     }
     
     /**
-     * 估算Token数量
+     * 一个会话待写入的会话记录和消息记录
      */
-    private int estimateTokenCount(List<String> messageStrings) {
-        int total = 0;
-        try {
-            for (String messageJson : messageStrings) {
-                JsonNode messageNode = objectMapper.readTree(messageJson);
-                String content = messageNode.get("text").asText();
-                total += estimateTokenCount(content);
-            }
-        } catch (Exception e) {
-            log.warn("估算Token失败: {}", e.getMessage());
-        }
-        return total;
-    }
-    
-    /**
-     * 估算单个文本的Token数量
-     */
-    private int estimateTokenCount(String text) {
-        if (text == null || text.isEmpty()) {
-            return 0;
+    private static class SyncBatch {
+        final Conversation conversation;
+        final List<ConversationMessage> messages;
+        
+        SyncBatch(Conversation conversation, List<ConversationMessage> messages) {
+            this.conversation = conversation;
+            this.messages = messages;
         }
-        // 简单估算：中文1个字=1个token，英文1个词=1个token
-        return (int) (text.length() * 1.2); // 添加一些余量
     }
     
     /**
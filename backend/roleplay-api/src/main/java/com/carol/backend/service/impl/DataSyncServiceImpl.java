@@ -1,236 +1,464 @@
 package com.carol.backend.service.impl;
 
+import com.carol.backend.config.DataSyncConfig;
+import com.carol.backend.entity.DataSyncJob;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
+import com.carol.backend.mapper.ConversationMapper;
+import com.carol.backend.mapper.DataSyncJobMapper;
+import com.carol.backend.service.CustomMessageStorageService;
+import com.carol.backend.service.IConversationArchiveService;
+import com.carol.backend.service.IConversationSyncService;
 import com.carol.backend.service.IDataSyncService;
-import lombok.RequiredArgsConstructor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.Set;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * 数据同步服务实现类
- * 
+ *
  * @author jianjl
  * @version 1.0
- * @description 负责将Redis中的临时数据同步到MySQL持久化存储
+ * @description 负责将Redis中的临时数据同步到MySQL持久化存储：
+ *              由会话同步服务的SCAN遍历引擎逐页遍历会话，每页按用户ID哈希分区后分块交给同步线程池，块内每个会话在各自的短事务中只写入新消息；
+ *              每完成一页保存任务进度，进程中断后下一次运行从游标继续
  * @date 2025-01-15
  */
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class DataSyncServiceImpl implements IDataSyncService {
-    
-    private final RedisTemplate<String, Object> redisTemplate;
-    
-    // Redis键名常量
-    private static final String CHAT_MESSAGES_KEY_PREFIX = "chat:messages:user:";
-    private static final String CONVERSATIONS_KEY_PREFIX = "chat:conversations:user:";
-    private static final String USER_ACTIVITY_KEY_PREFIX = "user:activity:";
-    private static final String USERS_SET_KEY = "users:active";
-    
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final IConversationSyncService conversationSyncService;
+    private final IConversationArchiveService archiveService;
+    private final DataSyncJobMapper dataSyncJobMapper;
+    private final ConversationMapper conversationMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final DataSyncConfig dataSyncConfig;
+    private final ObjectMapper objectMapper;
+
+    private static final Pattern SESSION_ID_PATTERN = Pattern.compile("user_(.+?)_(?:char_\\d+|general|qwen_.+)");
+
+    private static final int ERROR_MESSAGE_MAX_LENGTH = 1000;
+
+    /**
+     * 释放任务锁：只删除自己持有的锁，避免锁过期后删除其他节点的锁
+     */
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('DEL', KEYS[1]) end return 0",
+            Long.class);
+
+    /**
+     * 续期任务锁：只在自己仍持有锁时续期，锁已过期或被其他节点获取时返回0
+     */
+    private static final DefaultRedisScript<Long> RENEW_LOCK_SCRIPT = new DefaultRedisScript<>(
+            "if redis.call('GET', KEYS[1]) == ARGV[1] then return redis.call('PEXPIRE', KEYS[1], ARGV[2]) end return 0",
+            Long.class);
+
+    public DataSyncServiceImpl(StringRedisTemplate stringRedisTemplate,
+                               IConversationSyncService conversationSyncService,
+                               IConversationArchiveService archiveService,
+                               DataSyncJobMapper dataSyncJobMapper,
+                               ConversationMapper conversationMapper,
+                               TransactionTemplate transactionTemplate,
+                               DataSyncConfig dataSyncConfig,
+                               ObjectMapper objectMapper) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.conversationSyncService = conversationSyncService;
+        this.archiveService = archiveService;
+        this.dataSyncJobMapper = dataSyncJobMapper;
+        this.conversationMapper = conversationMapper;
+        this.transactionTemplate = transactionTemplate;
+        this.dataSyncConfig = dataSyncConfig;
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 消息、会话和用户活动来自同一次遍历，完整同步只运行一个任务
+     */
     @Override
-    @Transactional(rollbackFor = Exception.class)
-    public int syncChatMessagesToMysql() {
-        log.info("[syncChatMessagesToMysql] 开始同步聊天消息数据到MySQL");
-        
-        AtomicInteger syncedCount = new AtomicInteger(0);
-        
+    public DataSyncResult performFullDataSync() {
+        log.info("[performFullDataSync] 开始执行完整数据同步任务");
+
+        long startTime = System.currentTimeMillis();
+        DataSyncResult result = new DataSyncResult();
+
         try {
-            // 获取所有活跃用户ID
-            Set<Object> activeUsers = redisTemplate.opsForSet().members(USERS_SET_KEY);
-            
-            if (activeUsers == null || activeUsers.isEmpty()) {
-                log.info("[syncChatMessagesToMysql] 没有找到活跃用户，跳过同步");
-                return 0;
-            }
-            
-            log.info("[syncChatMessagesToMysql] 找到 {} 个活跃用户，开始同步聊天消息", activeUsers.size());
-            
-            for (Object userIdObj : activeUsers) {
-                String userId = userIdObj.toString();
-                String messagesKey = CHAT_MESSAGES_KEY_PREFIX + userId;
-                
-                try {
-                    // 获取用户的聊天消息
-                    Set<Object> messageKeys = redisTemplate.opsForZSet().range(messagesKey, 0, -1);
-                    
-                    if (messageKeys != null && !messageKeys.isEmpty()) {
-                        log.info("[syncChatMessagesToMysql] 用户 {} 有 {} 条消息需要同步", userId, messageKeys.size());
-                        
-                        for (Object messageKey : messageKeys) {
-                            // 这里应该调用具体的数据库插入逻辑
-                            // TODO: 实现具体的MySQL插入逻辑
-                            syncedCount.incrementAndGet();
-                        }
-                        
-                        // 同步完成后，可以选择清理Redis中的数据
-                        // redisTemplate.delete(messagesKey);
-                    }
-                    
-                } catch (Exception e) {
-                    log.error("[syncChatMessagesToMysql] 同步用户 {} 的聊天消息失败: {}", userId, e.getMessage(), e);
-                }
-            }
-            
-            log.info("[syncChatMessagesToMysql] 聊天消息同步完成，共同步 {} 条消息", syncedCount.get());
-            return syncedCount.get();
-            
+            DataSyncJob job = runJob("performFullDataSync");
+            result.setJobId(job.getId());
+            result.setSyncedMessages(job.getSyncedMessages().intValue());
+            result.setSyncedConversations(job.getSyncedConversations().intValue());
+            result.setSyncedUsers(job.getActiveUsers());
+            result.setRowsPerSecond(job.getRowsPerSecond().doubleValue());
+            result.setSyncDuration(System.currentTimeMillis() - startTime);
+            result.setSuccess(true);
+
+            log.info("[performFullDataSync] 完整数据同步任务完成: {}", result);
+
+            return result;
+
         } catch (Exception e) {
-            log.error("[syncChatMessagesToMysql] 同步聊天消息异常: error={}", e.getMessage(), e);
-            throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "同步聊天消息失败", e);
+            result.setSyncDuration(System.currentTimeMillis() - startTime);
+            result.setSuccess(false);
+            result.setErrorMessage(e.getMessage());
+
+            log.error("[performFullDataSync] 完整数据同步任务失败: {}", e.getMessage(), e);
+
+            return result;
         }
     }
-    
+
     @Override
-    @Transactional(rollbackFor = Exception.class)
-    public int syncConversationsToMysql() {
-        log.info("[syncConversationsToMysql] 开始同步会话数据到MySQL");
-        
-        AtomicInteger syncedCount = new AtomicInteger(0);
-        
+    public List<DataSyncJob> getRecentJobs(int limit) {
+        return dataSyncJobMapper.selectRecent(limit);
+    }
+
+    /**
+     * 获取任务锁后运行同步任务；其他节点正在同步时直接失败，不排队
+     */
+    private DataSyncJob runJob(String triggerName) {
+        String lockToken = UUID.randomUUID().toString();
+        Boolean locked = stringRedisTemplate.opsForValue().setIfAbsent(dataSyncConfig.getLockKey(), lockToken,
+                Duration.ofMinutes(dataSyncConfig.getLockTtlMinutes()));
+        if (!Boolean.TRUE.equals(locked)) {
+            log.warn("[runJob] 数据同步任务正在进行中，忽略本次调用: trigger={}", triggerName);
+            throw BusinessException.of(ErrorCode.OPERATION_FAILED, "数据同步任务正在进行中");
+        }
         try {
-            // 获取所有活跃用户ID
-            Set<Object> activeUsers = redisTemplate.opsForSet().members(USERS_SET_KEY);
-            
-            if (activeUsers == null || activeUsers.isEmpty()) {
-                log.info("[syncConversationsToMysql] 没有找到活跃用户，跳过同步");
-                return 0;
-            }
-            
-            log.info("[syncConversationsToMysql] 找到 {} 个活跃用户，开始同步会话数据", activeUsers.size());
-            
-            for (Object userIdObj : activeUsers) {
-                String userId = userIdObj.toString();
-                String conversationsKey = CONVERSATIONS_KEY_PREFIX + userId;
-                
-                try {
-                    // 获取用户的会话信息
-                    Set<Object> conversationKeys = redisTemplate.opsForSet().members(conversationsKey);
-                    
-                    if (conversationKeys != null && !conversationKeys.isEmpty()) {
-                        log.info("[syncConversationsToMysql] 用户 {} 有 {} 个会话需要同步", userId, conversationKeys.size());
-                        
-                        for (Object conversationKey : conversationKeys) {
-                            // 这里应该调用具体的数据库插入逻辑
-                            // TODO: 实现具体的MySQL插入逻辑
-                            syncedCount.incrementAndGet();
-                        }
-                    }
-                    
-                } catch (Exception e) {
-                    log.error("[syncConversationsToMysql] 同步用户 {} 的会话数据失败: {}", userId, e.getMessage(), e);
+            // 持有锁时不会有其他任务在运行，状态仍为RUNNING的任务是进程中断留下的
+            DataSyncJob job = resumeOrCreateJob(triggerName);
+            try {
+                runPartitioned(job, lockToken);
+                return job;
+            } catch (Exception e) {
+                if (!lockToken.equals(stringRedisTemplate.opsForValue().get(dataSyncConfig.getLockKey()))) {
+                    // 锁已被其他节点获取，任务记录由其继续更新，这里不覆盖状态
+                    log.error("[runJob] 数据同步任务锁已失效，停止运行: jobId={}, cursor={}, error={}",
+                            job.getId(), job.getScanCursor(), e.getMessage(), e);
+                    throw BusinessException.of(ErrorCode.OPERATION_FAILED, "数据同步任务锁已失效", e);
                 }
+                job.setStatus(DataSyncJob.STATUS_FAILED)
+                        .setErrorMessage(truncate(e.getMessage()))
+                        .setUpdatedAt(LocalDateTime.now());
+                dataSyncJobMapper.updateById(job);
+                log.error("[runJob] 数据同步任务失败，下次运行从游标继续: jobId={}, cursor={}, error={}",
+                        job.getId(), job.getScanCursor(), e.getMessage(), e);
+                throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "数据同步任务失败", e);
             }
-            
-            log.info("[syncConversationsToMysql] 会话数据同步完成，共同步 {} 个会话", syncedCount.get());
-            return syncedCount.get();
-            
-        } catch (Exception e) {
-            log.error("[syncConversationsToMysql] 同步会话数据异常: error={}", e.getMessage(), e);
-            throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "同步会话数据失败", e);
+        } finally {
+            stringRedisTemplate.execute(RELEASE_LOCK_SCRIPT, List.of(dataSyncConfig.getLockKey()), lockToken);
         }
     }
-    
-    @Override
-    @Transactional(rollbackFor = Exception.class)
-    public int syncUserActivityToMysql() {
-        log.info("[syncUserActivityToMysql] 开始同步用户活动数据到MySQL");
-        
-        AtomicInteger syncedCount = new AtomicInteger(0);
-        
-        try {
-            // 获取所有活跃用户ID
-            Set<Object> activeUsers = redisTemplate.opsForSet().members(USERS_SET_KEY);
-            
-            if (activeUsers == null || activeUsers.isEmpty()) {
-                log.info("[syncUserActivityToMysql] 没有找到活跃用户，跳过同步");
-                return 0;
+
+    private DataSyncJob resumeOrCreateJob(String triggerName) {
+        LocalDateTime now = LocalDateTime.now();
+        DataSyncJob job = dataSyncJobMapper.selectResumable(now.minusHours(dataSyncConfig.getResumeWindowHours()));
+        if (job != null) {
+            job.setStatus(DataSyncJob.STATUS_RUNNING)
+                    .setTriggerName(triggerName)
+                    .setErrorMessage(null)
+                    .setResumeCount(job.getResumeCount() + 1)
+                    .setUpdatedAt(now);
+            dataSyncJobMapper.updateById(job);
+            log.info("[resumeOrCreateJob] 从未完成的任务继续: jobId={}, cursor={}, resumeCount={}",
+                    job.getId(), job.getScanCursor(), job.getResumeCount());
+            return job;
+        }
+
+        job = new DataSyncJob()
+                .setTriggerName(triggerName)
+                .setStatus(DataSyncJob.STATUS_RUNNING)
+                .setScanCursor(CustomMessageStorageService.SCAN_START_CURSOR)
+                .setPartitions(dataSyncConfig.getPartitions())
+                .setScannedConversations(0L)
+                .setSyncedConversations(0L)
+                .setSyncedMessages(0L)
+                .setFailedConversations(0L)
+                .setActiveUsers(0)
+                .setRowsPerSecond(BigDecimal.ZERO)
+                .setResumeCount(0)
+                .setRunMillis(0L)
+                .setStartedAt(now);
+        dataSyncJobMapper.insert(job);
+        log.info("[resumeOrCreateJob] 创建数据同步任务: jobId={}, partitions={}", job.getId(), job.getPartitions());
+        return job;
+    }
+
+    /**
+     * 逐页扫描并按分区分块提交；最早一页的全部块完成后才推进游标并保存进度，中断后不会漏掉会话
+     * （游标之后已完成的块会重新处理，只写入新消息，不会重复写入）
+     */
+    private void runPartitioned(DataSyncJob job, String lockToken) {
+        // 恢复的任务沿用原来的分区数，分区统计才能累加
+        int partitions = job.getPartitions();
+        JobProgress progress = new JobProgress(job, readPartitionStats(job, partitions), lockToken);
+        long startTime = System.currentTimeMillis();
+        long baseRunMillis = job.getRunMillis();
+
+        conversationSyncService.scanConversations(job.getScanCursor(),
+                sessionIds -> partitionPage(sessionIds, partitions, progress),
+                (completedCursor, conversations) -> advanceCursor(job, progress, completedCursor, conversations,
+                        baseRunMillis + System.currentTimeMillis() - startTime));
+
+        checkLock(progress);
+        progress.snapshotInto(job, baseRunMillis + System.currentTimeMillis() - startTime);
+        job.setPartitionStats(writePartitionStats(progress.partitionStatsSnapshot()))
+                .setStatus(DataSyncJob.STATUS_COMPLETED)
+                .setActiveUsers(conversationMapper.countUsersSyncedSince(job.getStartedAt()))
+                .setFinishedAt(LocalDateTime.now())
+                .setUpdatedAt(LocalDateTime.now());
+        dataSyncJobMapper.updateById(job);
+
+        PartitionStats slowest = progress.slowestPartition();
+        log.info("[runPartitioned] 数据同步任务完成: jobId={}, scanned={}, conversations={}, messages={}, failed={}, " +
+                "activeUsers={}, runMillis={}, rowsPerSecond={}, slowestPartition={}, slowestPartitionMillis={}",
+                job.getId(), job.getScannedConversations(), job.getSyncedConversations(), job.getSyncedMessages(),
+                job.getFailedConversations(), job.getActiveUsers(), job.getRunMillis(), job.getRowsPerSecond(),
+                slowest.getPartition(), slowest.getMillis());
+    }
+
+    /**
+     * 一页会话按用户ID哈希分到各分区，每个分区按块大小切分，每块一个同步任务
+     */
+    private List<Runnable> partitionPage(List<String> sessionIds, int partitions, JobProgress progress) {
+        List<List<String>> partitioned = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            partitioned.add(new ArrayList<>());
+        }
+        for (String sessionId : sessionIds) {
+            partitioned.get(partitionOf(sessionId, partitions)).add(sessionId);
+        }
+
+        List<Runnable> tasks = new ArrayList<>();
+        int chunkSize = dataSyncConfig.getChunkSize();
+        for (int partition = 0; partition < partitions; partition++) {
+            List<String> partitionIds = partitioned.get(partition);
+            for (int from = 0; from < partitionIds.size(); from += chunkSize) {
+                List<String> chunk = partitionIds.subList(from, Math.min(from + chunkSize, partitionIds.size()));
+                int chunkPartition = partition;
+                tasks.add(() -> syncChunk(chunkPartition, chunk, progress));
             }
-            
-            log.info("[syncUserActivityToMysql] 找到 {} 个活跃用户，开始同步活动数据", activeUsers.size());
-            
-            for (Object userIdObj : activeUsers) {
-                String userId = userIdObj.toString();
-                String activityKey = USER_ACTIVITY_KEY_PREFIX + userId;
-                
-                try {
-                    // 获取用户活动数据
-                    Object activityData = redisTemplate.opsForValue().get(activityKey);
-                    
-                    if (activityData != null) {
-                        log.info("[syncUserActivityToMysql] 同步用户 {} 的活动数据", userId);
-                        
-                        // 这里应该调用具体的数据库插入逻辑
-                        // TODO: 实现具体的MySQL插入逻辑
-                        syncedCount.incrementAndGet();
-                    }
-                    
-                } catch (Exception e) {
-                    log.error("[syncUserActivityToMysql] 同步用户 {} 的活动数据失败: {}", userId, e.getMessage(), e);
+        }
+        return tasks;
+    }
+
+    /**
+     * 块内每个会话的新消息在各自的事务中写入：一个会话失败（如归档期间被清空）只回滚该会话并计入失败，
+     * 不影响同块的其他会话，下次运行重新写入
+     */
+    private void syncChunk(int partition, List<String> sessionIds, JobProgress progress) {
+        // 失去任务锁后不再写入，这些会话所在的页不会被计入游标
+        if (!renewLock(progress)) {
+            return;
+        }
+        long startTime = System.currentTimeMillis();
+        long synced = 0;
+        long messages = 0;
+        int failed = 0;
+        for (String sessionId : sessionIds) {
+            try {
+                Long written = transactionTemplate.execute(status -> archiveService.archiveNewMessages(sessionId));
+                if (written != null && written > 0) {
+                    synced++;
+                    messages += written;
                 }
+            } catch (Exception e) {
+                log.error("[syncChunk] 同步会话失败，已回滚: partition={}, sessionId={}, error={}",
+                        partition, sessionId, e.getMessage(), e);
+                failed++;
             }
-            
-            log.info("[syncUserActivityToMysql] 用户活动数据同步完成，共同步 {} 个用户", syncedCount.get());
-            return syncedCount.get();
-            
-        } catch (Exception e) {
-            log.error("[syncUserActivityToMysql] 同步用户活动数据异常: error={}", e.getMessage(), e);
-            throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "同步用户活动数据失败", e);
         }
+        progress.recordChunk(partition, sessionIds.size(), synced, messages,
+                System.currentTimeMillis() - startTime, failed);
     }
-    
-    @Override
-    @Transactional(rollbackFor = Exception.class)
-    public DataSyncResult performFullDataSync() {
-        log.info("[performFullDataSync] 开始执行完整数据同步任务");
-        
-        long startTime = System.currentTimeMillis();
-        DataSyncResult result = new DataSyncResult();
-        
+
+    /**
+     * 保存最后一个已完成页之后的游标和当前计数，并续期任务锁
+     * 失去任务锁时这些页中可能有未写入的块，不推进游标，任务停止
+     */
+    private void advanceCursor(DataSyncJob job, JobProgress progress, String completedCursor,
+                               int completedConversations, long runMillis) {
+        checkLock(progress);
+        progress.snapshotInto(job, runMillis);
+        job.setScanCursor(completedCursor)
+                .setScannedConversations(job.getScannedConversations() + completedConversations)
+                .setPartitionStats(writePartitionStats(progress.partitionStatsSnapshot()))
+                .setUpdatedAt(LocalDateTime.now());
+        dataSyncJobMapper.updateById(job);
+    }
+
+    private void checkLock(JobProgress progress) {
+        if (!renewLock(progress)) {
+            throw BusinessException.of(ErrorCode.OPERATION_FAILED, "数据同步任务锁已失效");
+        }
+    }
+
+    /**
+     * 校验仍持有任务锁并续期；锁一旦失效（过期后被其他节点获取）就标记任务失去锁，之后的块和游标都不再写入
+     */
+    private boolean renewLock(JobProgress progress) {
+        if (progress.lockLost) {
+            return false;
+        }
+        Long renewed = stringRedisTemplate.execute(RENEW_LOCK_SCRIPT, List.of(dataSyncConfig.getLockKey()),
+                progress.lockToken, String.valueOf(Duration.ofMinutes(dataSyncConfig.getLockTtlMinutes()).toMillis()));
+        if (renewed == null || renewed == 0) {
+            progress.lockLost = true;
+            log.error("[renewLock] 数据同步任务锁已失效，停止写入: lockKey={}", dataSyncConfig.getLockKey());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 按用户ID哈希分区；无法解析用户ID的会话按会话ID哈希
+     */
+    static int partitionOf(String sessionId, int partitions) {
+        Matcher matcher = SESSION_ID_PATTERN.matcher(sessionId);
+        String key = matcher.matches() ? matcher.group(1) : sessionId;
+        return Math.floorMod(key.hashCode(), partitions);
+    }
+
+    private List<PartitionStats> readPartitionStats(DataSyncJob job, int partitions) {
+        if (job.getPartitionStats() != null) {
+            try {
+                List<PartitionStats> stats = objectMapper.readValue(job.getPartitionStats(),
+                        new TypeReference<List<PartitionStats>>() {});
+                if (stats.size() == partitions) {
+                    return stats;
+                }
+            } catch (JsonProcessingException e) {
+                log.warn("[readPartitionStats] 分区统计解析失败，重新统计: jobId={}, error={}",
+                        job.getId(), e.getMessage());
+            }
+        }
+        List<PartitionStats> stats = new ArrayList<>(partitions);
+        for (int i = 0; i < partitions; i++) {
+            PartitionStats partitionStats = new PartitionStats();
+            partitionStats.setPartition(i);
+            stats.add(partitionStats);
+        }
+        return stats;
+    }
+
+    private String writePartitionStats(List<PartitionStats> stats) {
         try {
-            // 同步聊天消息
-            int syncedMessages = syncChatMessagesToMysql();
-            result.setSyncedMessages(syncedMessages);
-            
-            // 同步会话信息
-            int syncedConversations = syncConversationsToMysql();
-            result.setSyncedConversations(syncedConversations);
-            
-            // 同步用户活动
-            int syncedUsers = syncUserActivityToMysql();
-            result.setSyncedUsers(syncedUsers);
-            
-            long endTime = System.currentTimeMillis();
-            result.setSyncDuration(endTime - startTime);
-            result.setSuccess(true);
-            
-            log.info("[performFullDataSync] 完整数据同步任务完成: {}", result);
-            
-            return result;
-            
-        } catch (Exception e) {
-            long endTime = System.currentTimeMillis();
-            result.setSyncDuration(endTime - startTime);
-            result.setSuccess(false);
-            result.setErrorMessage(e.getMessage());
-            
-            log.error("[performFullDataSync] 完整数据同步任务失败: {}", e.getMessage(), e);
-            
-            return result;
+            return objectMapper.writeValueAsString(stats);
+        } catch (JsonProcessingException e) {
+            log.warn("[writePartitionStats] 分区统计序列化失败: error={}", e.getMessage());
+            return null;
+        }
+    }
+
+    private static String truncate(String message) {
+        if (message == null || message.length() <= ERROR_MESSAGE_MAX_LENGTH) {
+            return message;
         }
+        return message.substring(0, ERROR_MESSAGE_MAX_LENGTH);
+    }
+
+    /**
+     * 单个分区的累计统计（恢复的任务从已保存的统计继续累加）
+     */
+    @Data
+    public static class PartitionStats {
+        private int partition;
+        private long conversations;
+        private long syncedConversations;
+        private long messages;
+        private long chunks;
+        // 有会话写入失败的块数
+        private long failedChunks;
+        // 各块耗时之和，与其他分区比较可发现热点用户
+        private long millis;
+        private long maxChunkMillis;
     }
-    
+
     /**
-     * 获取当前时间戳字符串
+     * 运行中的任务计数，由同步线程并发更新，保存进度时写回任务记录
      */
-    private String getCurrentTimestamp() {
-        return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    private static final class JobProgress {
+        private final AtomicLong syncedConversations;
+        private final AtomicLong syncedMessages;
+        private final AtomicLong failedConversations;
+        private final List<PartitionStats> partitionStats;
+        private final String lockToken;
+        // 任务锁已失效，同步线程和扫描线程都会读取
+        private volatile boolean lockLost;
+
+        private JobProgress(DataSyncJob job, List<PartitionStats> partitionStats, String lockToken) {
+            this.syncedConversations = new AtomicLong(job.getSyncedConversations());
+            this.syncedMessages = new AtomicLong(job.getSyncedMessages());
+            this.failedConversations = new AtomicLong(job.getFailedConversations());
+            this.partitionStats = partitionStats;
+            this.lockToken = lockToken;
+        }
+
+        private void recordChunk(int partition, int conversations, long synced, long messages, long millis,
+                                 int failed) {
+            syncedConversations.addAndGet(synced);
+            syncedMessages.addAndGet(messages);
+            failedConversations.addAndGet(failed);
+            PartitionStats stats = partitionStats.get(partition);
+            synchronized (stats) {
+                stats.setConversations(stats.getConversations() + conversations);
+                stats.setSyncedConversations(stats.getSyncedConversations() + synced);
+                stats.setMessages(stats.getMessages() + messages);
+                stats.setChunks(stats.getChunks() + 1);
+                stats.setFailedChunks(stats.getFailedChunks() + (failed > 0 ? 1 : 0));
+                stats.setMillis(stats.getMillis() + millis);
+                stats.setMaxChunkMillis(Math.max(stats.getMaxChunkMillis(), millis));
+            }
+        }
+
+        private void snapshotInto(DataSyncJob job, long runMillis) {
+            long messages = syncedMessages.get();
+            job.setSyncedConversations(syncedConversations.get())
+                    .setSyncedMessages(messages)
+                    .setFailedConversations(failedConversations.get())
+                    .setRunMillis(runMillis)
+                    .setRowsPerSecond(BigDecimal.valueOf(messages * 1000.0 / Math.max(runMillis, 1))
+                            .setScale(2, RoundingMode.HALF_UP));
+        }
+
+        private List<PartitionStats> partitionStatsSnapshot() {
+            List<PartitionStats> snapshot = new ArrayList<>(partitionStats.size());
+            for (PartitionStats stats : partitionStats) {
+                synchronized (stats) {
+                    PartitionStats copy = new PartitionStats();
+                    copy.setPartition(stats.getPartition());
+                    copy.setConversations(stats.getConversations());
+                    copy.setSyncedConversations(stats.getSyncedConversations());
+                    copy.setMessages(stats.getMessages());
+                    copy.setChunks(stats.getChunks());
+                    copy.setFailedChunks(stats.getFailedChunks());
+                    copy.setMillis(stats.getMillis());
+                    copy.setMaxChunkMillis(stats.getMaxChunkMillis());
+                    snapshot.add(copy);
+                }
+            }
+            return snapshot;
+        }
+
+        private PartitionStats slowestPartition() {
+            return partitionStatsSnapshot().stream()
+                    .max(Comparator.comparingLong(PartitionStats::getMillis))
+                    .orElseGet(PartitionStats::new);
+        }
     }
 }
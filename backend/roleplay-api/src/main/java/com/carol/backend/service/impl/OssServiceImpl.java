@@ -8,6 +8,8 @@ import com.carol.backend.config.OssConfig;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
 import com.carol.backend.service.IOssService;
+import com.carol.backend.util.BlockingTaskExecutor;
+import com.carol.backend.util.UpstreamLimiter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -29,6 +31,7 @@ import java.util.Date;
 public class OssServiceImpl implements IOssService {
     
     private final OssConfig ossConfig;
+    private final BlockingTaskExecutor blockingTaskExecutor;
     private OSS ossClient;
     
     @PostConstruct
@@ -86,13 +89,21 @@ public class OssServiceImpl implements IOssService {
             metadata.setCacheControl("max-age=31536000"); // 缓存1年
             
             // 上传文件
-            ossClient.putObject(ossConfig.getBucketName(), objectKey, file.getInputStream(), metadata);
+            UpstreamLimiter ossLimiter = blockingTaskExecutor.getOssLimiter();
+            ossLimiter.acquire();
+            try {
+                ossClient.putObject(ossConfig.getBucketName(), objectKey, file.getInputStream(), metadata);
+            } finally {
+                ossLimiter.release();
+            }
             
             // 生成访问URL
             String fileUrl = generateFileUrl(objectKey);
             log.info("[uploadFile] 文件上传成功, objectKey={}, url={}", objectKey, fileUrl);
             
             return fileUrl;
+        } catch (BusinessException e) {
+            throw e;
         } catch (IOException e) {
             log.error("[uploadFile] 上传文件失败, objectKey={}: {}", objectKey, e.getMessage(), e);
             throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "文件上传失败");
@@ -116,13 +127,16 @@ public class OssServiceImpl implements IOssService {
             
             // 上传文件
             ByteArrayInputStream inputStream = new ByteArrayInputStream(bytes);
-            ossClient.putObject(ossConfig.getBucketName(), objectKey, inputStream, metadata);
+            blockingTaskExecutor.getOssLimiter().call(
+                    () -> ossClient.putObject(ossConfig.getBucketName(), objectKey, inputStream, metadata));
             
             // 生成访问URL
             String fileUrl = generateFileUrl(objectKey);
             log.info("[uploadBytes] 字节数组上传成功, objectKey={}, url={}", objectKey, fileUrl);
             
             return fileUrl;
+        } catch (BusinessException e) {
+            throw e;
         } catch (Exception e) {
             log.error("[uploadBytes] OSS上传异常, objectKey={}: {}", objectKey, e.getMessage(), e);
             throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "OSS上传异常");
@@ -1,15 +1,25 @@
 package com.carol.backend.service.impl;
 
+import com.carol.backend.config.CharacterCacheConfig;
 import com.carol.backend.entity.Character;
 import com.carol.backend.entity.CharacterKnowledge;
 import com.carol.backend.service.IPromptTemplateService;
+import com.carol.backend.util.CompiledPromptTemplate;
+import com.carol.backend.util.LocalTtlCache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.chat.messages.Message;
-import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+import org.springframework.ai.chat.messages.SystemMessage;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
 import org.springframework.stereotype.Service;
+import org.springframework.util.StreamUtils;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,11 +30,18 @@ import java.util.Map;
  * @author jianjl
  * @version 1.0
  * @description 参考spring-ai-alibaba-prompt-example/RoleController.java实现，负责生成角色系统提示词
+ * 模板在启动时预编译；按（角色ID, 角色更新时间, 是否TTS）缓存渲染好的基础提示词和绑定了角色信息的RAG模板，
+ * 每轮对话只需拼接RAG知识片段
  * @date 2025-01-15
  */
 @Slf4j
 @Service
-public class PromptTemplateServiceImpl implements IPromptTemplateService {
+public class PromptTemplateServiceImpl implements IPromptTemplateService, MeterBinder {
+
+    private static final String TTS_LENGTH_LIMIT = "- 回复不要超过200个字，保持简洁明了。";
+    private static final String TTS_FORMAT_RESTRICTIONS =
+            "- **语音合成格式要求**: 不要使用括号描述动作或心理活动（如：（推了推眼镜）、（思考中）、（笑了笑）等），" +
+            "因为这些内容不适合语音播放。请直接用对话和叙述的方式表达。";
 
     /**
      * 角色扮演系统提示词模板
@@ -45,6 +62,37 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
     @Value("classpath:/prompts/character-role-rag.st")
     private Resource characterRoleRAGTemplate;
 
+    private final CharacterCacheConfig cacheConfig;
+
+    private CompiledPromptTemplate compiledRoleTemplate;
+    private CompiledPromptTemplate compiledDefaultTemplate;
+    private CompiledPromptTemplate compiledRoleRAGTemplate;
+
+    // 按角色版本缓存的提示词，角色更新后updatedAt变化，旧条目不再命中并随LRU/TTL淘汰
+    private final LocalTtlCache<String, CharacterPrompts> promptCache;
+
+    public PromptTemplateServiceImpl(CharacterCacheConfig cacheConfig) {
+        this.cacheConfig = cacheConfig;
+        this.promptCache = new LocalTtlCache<>(cacheConfig.getPromptMaxEntries(), cacheConfig.getPromptTtlSeconds() * 1000);
+    }
+
+    /**
+     * 启动时读取并预编译所有模板，模板缺失或不可读时启动失败
+     */
+    @PostConstruct
+    public void compileTemplates() {
+        compiledRoleTemplate = compile(characterRoleTemplate);
+        compiledDefaultTemplate = compile(defaultSystemTemplate);
+        compiledRoleRAGTemplate = compile(characterRoleRAGTemplate);
+        log.info("[compileTemplates] 提示词模板预编译完成: roleVariables={}, ragVariables={}",
+                compiledRoleTemplate.getVariableNames(), compiledRoleRAGTemplate.getVariableNames());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        promptCache.registerMetrics(registry, "prompt_template");
+    }
+
     @Override
     public Message createCharacterSystemMessage(Character character) {
         return createCharacterSystemMessage(character, false);
@@ -63,26 +111,7 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
                 return createDefaultSystemMessage(character.getName());
             }
 
-            // 使用角色模板创建系统提示词
-            SystemPromptTemplate systemPromptTemplate = new SystemPromptTemplate(characterRoleTemplate);
-            
-            // 构建模板变量 - 参考alibaba示例的Map.of用法
-            Map<String, Object> templateVariables = buildTemplateVariables(character);
-            
-            // 如果启用TTS，添加字数限制和格式限制要求
-            if (enableTts) {
-                templateVariables.put("tts_length_limit", "- 回复不要超过200个字，保持简洁明了。");
-                templateVariables.put("tts_format_restrictions", 
-                    "- **语音合成格式要求**: 不要使用括号描述动作或心理活动（如：（推了推眼镜）、（思考中）、（笑了笑）等），" +
-                    "因为这些内容不适合语音播放。请直接用对话和叙述的方式表达。");
-                log.info("[createCharacterSystemMessage] 为角色添加TTS字数限制和格式限制要求: characterName={}", 
-                        character.getName());
-            } else {
-                templateVariables.put("tts_length_limit", "");
-                templateVariables.put("tts_format_restrictions", "");
-            }
-            
-            Message systemMessage = systemPromptTemplate.createMessage(templateVariables);
+            Message systemMessage = new SystemMessage(getCharacterPrompts(character, enableTts).basePrompt());
             
             log.info("[createCharacterSystemMessage] 成功为角色创建系统提示词: characterName={}, enableTts={}", 
                     character.getName(), enableTts);
@@ -102,9 +131,7 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
                 character.getName());
         
         try {
-            SystemPromptTemplate systemPromptTemplate = new SystemPromptTemplate(characterRoleTemplate);
-            
-            Map<String, Object> templateVariables = buildTemplateVariables(character);
+            Map<String, Object> templateVariables = buildTemplateVariables(character, false);
             
             // 添加用户上下文
             if (userContext != null && !userContext.trim().isEmpty()) {
@@ -115,7 +142,7 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
             
             log.info("[createEnhancedCharacterSystemMessage] 成功创建增强系统提示词: characterName={}", 
                     character.getName());
-            return systemPromptTemplate.createMessage(templateVariables);
+            return new SystemMessage(compiledRoleTemplate.render(templateVariables));
             
         } catch (Exception e) {
             log.error("[createEnhancedCharacterSystemMessage] 创建增强角色系统提示词失败: characterName={}, error={}", 
@@ -142,29 +169,13 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
                 return createCharacterSystemMessage(character, enableTts);
             }
             
-            SystemPromptTemplate systemPromptTemplate = new SystemPromptTemplate(characterRoleRAGTemplate);
-            
-            Map<String, Object> templateVariables = buildTemplateVariables(character);
-            
-            // 构建知识上下文
+            // 角色信息已绑定在缓存的模板中，这里只拼接本轮检索到的知识
             String knowledgeContext = buildKnowledgeContext(relevantKnowledge);
-            templateVariables.put("knowledge_context", knowledgeContext);
-            templateVariables.put("knowledge_count", relevantKnowledge.size());
-            
-            // 如果启用TTS，添加字数限制和格式限制要求
-            if (enableTts) {
-                templateVariables.put("tts_length_limit", "- 回复不要超过200个字，保持简洁明了。");
-                templateVariables.put("tts_format_restrictions", 
-                    "- **语音合成格式要求**: 不要使用括号描述动作或心理活动（如：（推了推眼镜）、（思考中）、（笑了笑）等），" +
-                    "因为这些内容不适合语音播放。请直接用对话和叙述的方式表达。");
-                log.info("[createCharacterSystemMessageWithRAG] 为角色添加TTS字数限制和格式限制要求: characterName={}", 
-                        character.getName());
-            } else {
-                templateVariables.put("tts_length_limit", "");
-                templateVariables.put("tts_format_restrictions", "");
-            }
-            
-            Message systemMessage = systemPromptTemplate.createMessage(templateVariables);
+            Map<String, Object> knowledgeVariables = Map.of(
+                    "knowledge_context", knowledgeContext,
+                    "knowledge_count", relevantKnowledge.size());
+            Message systemMessage = new SystemMessage(
+                    getCharacterPrompts(character, enableTts).ragTemplate().render(knowledgeVariables));
             
             log.info("[createCharacterSystemMessageWithRAG] 成功为角色创建RAG增强系统提示词: characterName={}, knowledgeCount={}, enableTts={}", 
                     character.getName(), relevantKnowledge.size(), enableTts);
@@ -201,7 +212,8 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
         
         try {
             boolean valid = characterRoleTemplate.exists() && characterRoleTemplate.isReadable() &&
-                   defaultSystemTemplate.exists() && defaultSystemTemplate.isReadable();
+                   defaultSystemTemplate.exists() && defaultSystemTemplate.isReadable() &&
+                   characterRoleRAGTemplate.exists() && characterRoleRAGTemplate.isReadable();
             log.info("[validateTemplates] 模板文件验证结果: valid={}", valid);
             return valid;
         } catch (Exception e) {
@@ -210,11 +222,30 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
         }
     }
 
+    /**
+     * 获取角色的提示词，按（角色ID, 更新时间, 是否TTS）缓存；未持久化的角色（ID为空）不缓存
+     */
+    private CharacterPrompts getCharacterPrompts(Character character, boolean enableTts) {
+        if (character.getId() == null) {
+            return buildCharacterPrompts(character, enableTts);
+        }
+        String key = character.getId() + ":" + character.getUpdatedAt() + ":" + enableTts;
+        return promptCache.get(key, k -> buildCharacterPrompts(character, enableTts));
+    }
+
+    private CharacterPrompts buildCharacterPrompts(Character character, boolean enableTts) {
+        Map<String, Object> templateVariables = buildTemplateVariables(character, enableTts);
+        log.debug("[buildCharacterPrompts] 渲染角色提示词: characterName={}, enableTts={}", character.getName(), enableTts);
+        return new CharacterPrompts(
+                compiledRoleTemplate.render(templateVariables),
+                compiledRoleRAGTemplate.bind(templateVariables));
+    }
+
     /**
      * 构建模板变量Map
-     * 参考alibaba示例的变量填充方式
+     * 参考alibaba示例的变量填充方式；启用TTS时添加字数限制和格式限制要求
      */
-    private Map<String, Object> buildTemplateVariables(Character character) {
+    private Map<String, Object> buildTemplateVariables(Character character, boolean enableTts) {
         Map<String, Object> variables = new HashMap<>();
         
         // 基础角色信息
@@ -224,6 +255,8 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
         variables.put("speaking_style", getOrDefault(character.getSpeakingStyle(), "自然、友好"));
         variables.put("expertise_area", getOrDefault(character.getExpertiseArea(), "通用知识"));
         variables.put("voice_style", getOrDefault(character.getVoiceStyle(), "default"));
+        variables.put("tts_length_limit", enableTts ? TTS_LENGTH_LIMIT : "");
+        variables.put("tts_format_restrictions", enableTts ? TTS_FORMAT_RESTRICTIONS : "");
         
         log.debug("[buildTemplateVariables] 构建模板变量: characterName={}, variableCount={}", 
                 character.getName(), variables.size());
@@ -237,19 +270,18 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
         log.debug("[createDefaultSystemMessage] 创建默认系统提示词: characterName={}", characterName);
         
         try {
-            SystemPromptTemplate defaultTemplate = new SystemPromptTemplate(defaultSystemTemplate);
             Map<String, Object> variables = Map.of(
                 "character_name", characterName != null ? characterName : "AI助手",
                 "current_time", java.time.LocalDateTime.now().toString()
             );
-            Message message = defaultTemplate.createMessage(variables);
+            Message message = new SystemMessage(compiledDefaultTemplate.render(variables));
             log.debug("[createDefaultSystemMessage] 默认系统提示词创建成功: characterName={}", characterName);
             return message;
         } catch (Exception e) {
             log.error("[createDefaultSystemMessage] 创建默认系统提示词失败: characterName={}, error={}", 
                     characterName, e.getMessage(), e);
             // 最后的备用方案
-            return new org.springframework.ai.chat.messages.SystemMessage(
+            return new SystemMessage(
                 "你好！我是 " + characterName + "，一个智能AI助手。我会尽力为您提供帮助。"
             );
         }
@@ -301,4 +333,18 @@ public class PromptTemplateServiceImpl implements IPromptTemplateService {
     private String getOrDefault(String value, String defaultValue) {
         return (value != null && !value.trim().isEmpty()) ? value : defaultValue;
     }
+
+    private static CompiledPromptTemplate compile(Resource resource) {
+        try (InputStream inputStream = resource.getInputStream()) {
+            return CompiledPromptTemplate.compile(StreamUtils.copyToString(inputStream, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("读取提示词模板失败: " + resource.getDescription(), e);
+        }
+    }
+
+    /**
+     * 某个角色版本的提示词：渲染好的基础提示词，以及已绑定角色信息、只剩知识变量的RAG模板
+     */
+    private record CharacterPrompts(String basePrompt, CompiledPromptTemplate ragTemplate) {
+    }
 }
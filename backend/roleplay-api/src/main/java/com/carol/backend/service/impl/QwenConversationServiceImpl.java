@@ -7,9 +7,12 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
@@ -25,6 +28,20 @@ public class QwenConversationServiceImpl implements QwenConversationService {
     private final ObjectMapper objectMapper;
 
     private static final String CONVERSATION_KEY_PREFIX = "qwen:conversations:";
+    private static final String DEFAULT_TITLE = "新对话";
+
+    /**
+     * 更新会话元数据：刷新最后活跃时间，标题仍为默认值时替换为生成的标题
+     * KEYS[1] 用户会话哈希  ARGV[1] 会话ID  ARGV[2] 最后活跃时间  ARGV[3] 生成的标题  ARGV[4] 默认标题
+     */
+    private static final byte[] TOUCH_SCRIPT = (
+            "local value = redis.call('HGET', KEYS[1], ARGV[1]) "
+            + "if not value then return 0 end "
+            + "local info = cjson.decode(value) "
+            + "info['lastActiveTime'] = tonumber(ARGV[2]) "
+            + "if info['title'] == ARGV[4] and ARGV[3] ~= '' then info['title'] = ARGV[3] end "
+            + "redis.call('HSET', KEYS[1], ARGV[1], cjson.encode(info)) "
+            + "return 1").getBytes(StandardCharsets.UTF_8);
 
     @Override
     public QwenConversationResponse createConversation(Long userId) {
@@ -33,7 +50,7 @@ public class QwenConversationServiceImpl implements QwenConversationService {
 
         QwenConversationInfo info = QwenConversationInfo.builder()
                 .conversationId(conversationId)
-                .title("新对话")
+                .title(DEFAULT_TITLE)
                 .createdAt(now)
                 .lastActiveTime(now)
                 .messageCount(0)
@@ -45,7 +62,7 @@ public class QwenConversationServiceImpl implements QwenConversationService {
         return QwenConversationResponse.builder()
                 .conversationId(conversationId)
                 .createdAt(now)
-                .title("新对话")
+                .title(DEFAULT_TITLE)
                 .build();
     }
 
@@ -124,14 +141,34 @@ public class QwenConversationServiceImpl implements QwenConversationService {
     @Override
     public void generateTitle(Long userId, String conversationId, String firstMessage) {
         QwenConversationInfo info = getConversationInfo(userId, conversationId);
-        if (info != null && "新对话".equals(info.getTitle())) {
+        if (info != null && DEFAULT_TITLE.equals(info.getTitle())) {
             // Only generate title if it's still the default "新对话"
-            String title = firstMessage.length() > 20 ? firstMessage.substring(0, 20) + "..." : firstMessage;
+            String title = titleOf(firstMessage);
             renameConversation(userId, conversationId, title);
             log.info("[generateTitle] Auto-generated title for conversation {}: {}", conversationId, title);
         }
     }
 
+    @Override
+    public RedisCallback<Object> touchConversationCommand(Long userId, String conversationId, String message) {
+        byte[][] keysAndArgs = {
+                utf8(CONVERSATION_KEY_PREFIX + userId),
+                utf8(conversationId),
+                utf8(String.valueOf(System.currentTimeMillis())),
+                utf8(message != null ? titleOf(message) : ""),
+                utf8(DEFAULT_TITLE)
+        };
+        return connection -> connection.scriptingCommands().eval(TOUCH_SCRIPT, ReturnType.INTEGER, 1, keysAndArgs);
+    }
+
+    private static String titleOf(String firstMessage) {
+        return firstMessage.length() > 20 ? firstMessage.substring(0, 20) + "..." : firstMessage;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
     private void saveConversationInfo(Long userId, QwenConversationInfo info) {
         String key = CONVERSATION_KEY_PREFIX + userId;
         try {
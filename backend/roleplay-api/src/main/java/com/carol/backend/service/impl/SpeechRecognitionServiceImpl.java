@@ -14,6 +14,7 @@ import com.carol.backend.service.ISpeechRecognitionService;
 import com.carol.backend.service.ISpeechValidationService;
 import com.carol.backend.service.ISpeechMetricsCollector;
 import com.carol.backend.service.ISpeechTimeoutManager;
+import com.carol.backend.util.BlockingTaskExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -50,6 +51,7 @@ public class SpeechRecognitionServiceImpl implements ISpeechRecognitionService {
     private final ISpeechValidationService validationService;
     private final ISpeechMetricsCollector metricsCollector;
     private final ISpeechTimeoutManager timeoutManager;
+    private final BlockingTaskExecutor blockingTaskExecutor;
     
     @Value("${spring.ai.dashscope.api-key}")
     private String apiKey;
@@ -94,7 +96,13 @@ public class SpeechRecognitionServiceImpl implements ISpeechRecognitionService {
                     RecognitionParam param = buildRecognitionParam(request);
                     
                     // 执行识别
-                    String result = recognizer.call(param, tempFile);
+                    String result;
+                    blockingTaskExecutor.getAsrLimiter().acquire();
+                    try {
+                        result = recognizer.call(param, tempFile);
+                    } finally {
+                        blockingTaskExecutor.getAsrLimiter().release();
+                    }
                     
                     // 计算音频时长
                     Double audioDuration = calculateAudioDuration(tempFile);
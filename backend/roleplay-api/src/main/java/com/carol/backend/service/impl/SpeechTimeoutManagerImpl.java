@@ -2,6 +2,7 @@ package com.carol.backend.service.impl;
 
 import com.carol.backend.config.SpeechPerformanceConfig;
 import com.carol.backend.service.ISpeechTimeoutManager;
+import com.carol.backend.util.BlockingTaskExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
@@ -24,12 +25,8 @@ public class SpeechTimeoutManagerImpl implements ISpeechTimeoutManager {
     
     private final SpeechPerformanceConfig performanceConfig;
     
-    // 线程池
-    private final ExecutorService executorService = Executors.newCachedThreadPool(r -> {
-        Thread thread = new Thread(r, "speech-timeout-" + System.currentTimeMillis());
-        thread.setDaemon(true);
-        return thread;
-    });
+    // 共享的阻塞调用执行器（生命周期由容器管理）
+    private final BlockingTaskExecutor blockingTaskExecutor;
     
     // 定时任务调度器
     private final ScheduledExecutorService scheduledExecutor = 
@@ -45,7 +42,7 @@ public class SpeechTimeoutManagerImpl implements ISpeechTimeoutManager {
         
         log.debug("[executeWithTimeout] 执行带超时的任务: taskType={}, timeoutSeconds={}", taskType, timeoutSeconds);
         
-        CompletableFuture<T> future = CompletableFuture.supplyAsync(task, executorService);
+        CompletableFuture<T> future = blockingTaskExecutor.supplyAsync(task);
         
         try {
             return future.get(timeoutSeconds, TimeUnit.SECONDS);
@@ -71,7 +68,7 @@ public class SpeechTimeoutManagerImpl implements ISpeechTimeoutManager {
         log.debug("[executeAsyncWithTimeout] 执行带超时的异步任务: taskType={}", taskType);
         int timeoutSeconds = getTimeoutForTaskType(taskType);
         
-        CompletableFuture<T> future = CompletableFuture.supplyAsync(task, executorService);
+        CompletableFuture<T> future = blockingTaskExecutor.supplyAsync(task);
         
         // 设置超时
         CompletableFuture<T> timeoutFuture = new CompletableFuture<>();
@@ -196,19 +193,14 @@ public class SpeechTimeoutManagerImpl implements ISpeechTimeoutManager {
     public void shutdown() {
         log.info("[shutdown] 关闭超时管理器");
         
-        executorService.shutdown();
         scheduledExecutor.shutdown();
         
         try {
-            if (!executorService.awaitTermination(5, TimeUnit.SECONDS)) {
-                executorService.shutdownNow();
-            }
             if (!scheduledExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
                 scheduledExecutor.shutdownNow();
             }
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
-            executorService.shutdownNow();
             scheduledExecutor.shutdownNow();
         }
     }
@@ -12,6 +12,7 @@ import com.carol.backend.dto.StreamingSpeechRecognitionResponse;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
 import com.carol.backend.service.IStreamingSpeechRecognitionService;
+import com.carol.backend.util.BlockingTaskExecutor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -25,8 +26,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 /**
@@ -43,12 +43,11 @@ import java.util.stream.Collectors;
 public class StreamingSpeechRecognitionServiceImpl implements IStreamingSpeechRecognitionService {
     
     private final SpeechRecognitionConfig config;
+    private final BlockingTaskExecutor blockingTaskExecutor;
     
     @Value("${spring.ai.dashscope.api-key}")
     private String apiKey;
     
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
-    
     // 管理活跃的识别会话
     private final Map<String, RecognitionSession> activeSessions = new ConcurrentHashMap<>();
     
@@ -167,9 +166,17 @@ public class StreamingSpeechRecognitionServiceImpl implements IStreamingSpeechRe
             }
         };
         
-        // 异步启动识别
-        executorService.submit(() -> {
+        // 异步启动识别，识别会话期间占用一个ASR许可，关闭会话时释放
+        blockingTaskExecutor.execute(() -> {
             try {
+                blockingTaskExecutor.getAsrLimiter().acquire();
+                session.getPermitted().set(true);
+                // 获取许可期间会话已关闭时由这里释放，否则由 closeSession 释放
+                if (!activeSessions.containsKey(sessionId)) {
+                    releasePermit(session);
+                    return;
+                }
+                
                 // 发送连接建立事件
                 StreamingSpeechRecognitionResponse connectedResponse = 
                     StreamingSpeechRecognitionResponse.connected(sessionId);
@@ -248,6 +255,7 @@ public class StreamingSpeechRecognitionServiceImpl implements IStreamingSpeechRe
         log.info("[closeSession] 关闭会话: sessionId={}", sessionId);
         RecognitionSession session = activeSessions.remove(sessionId);
         if (session != null) {
+            releasePermit(session);
             try {
                 // 停止识别 - 只有在识别已启动且未完成的情况下才调用stop
                 if (session.isRecognitionStarted()) {
@@ -286,6 +294,15 @@ public class StreamingSpeechRecognitionServiceImpl implements IStreamingSpeechRe
         }
     }
     
+    /**
+     * 释放会话占用的ASR许可（只释放一次）
+     */
+    private void releasePermit(RecognitionSession session) {
+        if (session.getPermitted().compareAndSet(true, false)) {
+            blockingTaskExecutor.getAsrLimiter().release();
+        }
+    }
+    
     /**
      * 获取活跃会话数量
      */
@@ -371,6 +388,8 @@ public class StreamingSpeechRecognitionServiceImpl implements IStreamingSpeechRe
         private final SseEmitter emitter;
         private final RecognitionParam param;
         private volatile boolean recognitionStarted = false;
+        // 是否持有ASR许可
+        private final AtomicBoolean permitted = new AtomicBoolean();
         
         public RecognitionSession(Recognition recognizer, SseEmitter emitter, RecognitionParam param) {
             this.sessionId = java.util.UUID.randomUUID().toString();
@@ -386,5 +405,6 @@ public class StreamingSpeechRecognitionServiceImpl implements IStreamingSpeechRe
         public RecognitionParam getParam() { return param; }
         public boolean isRecognitionStarted() { return recognitionStarted; }
         public void setRecognitionStarted(boolean recognitionStarted) { this.recognitionStarted = recognitionStarted; }
+        public AtomicBoolean getPermitted() { return permitted; }
     }
 }
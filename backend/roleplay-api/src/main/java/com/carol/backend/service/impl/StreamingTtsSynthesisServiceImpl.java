@@ -9,7 +9,9 @@ import com.carol.backend.dto.StreamingTtsResponse;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
 import com.carol.backend.service.IStreamingTtsSynthesisService;
+import com.carol.backend.util.BlockingTaskExecutor;
 import com.carol.backend.util.TtsSegmentUtil;
+import com.carol.backend.util.UpstreamLimiter;
 import io.reactivex.Flowable;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -21,8 +23,6 @@ import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -41,7 +41,7 @@ public class StreamingTtsSynthesisServiceImpl implements IStreamingTtsSynthesisS
     
     private final TtsSynthesisConfig config;
     private final TtsSegmentUtil ttsSegmentUtil;
-    private final ExecutorService executorService = Executors.newCachedThreadPool();
+    private final BlockingTaskExecutor blockingTaskExecutor;
     
     // 存储活动的流式会话
     private final ConcurrentHashMap<String, SseEmitter> activeSessions = new ConcurrentHashMap<>();
@@ -78,8 +78,8 @@ public class StreamingTtsSynthesisServiceImpl implements IStreamingTtsSynthesisS
             activeSessions.remove(sessionId);
         });
         
-        // 异步执行流式合成
-        executorService.submit(() -> performStreamingSynthesis(request, emitter, sessionId));
+        // 异步执行流式合成（阻塞读取上游音频流）
+        blockingTaskExecutor.execute(() -> performStreamingSynthesis(request, emitter, sessionId));
         
         return emitter;
     }
@@ -144,6 +144,8 @@ public class StreamingTtsSynthesisServiceImpl implements IStreamingTtsSynthesisS
      * 执行流式语音合成
      */
     private void performStreamingSynthesis(TtsSynthesisRequest request, SseEmitter emitter, String sessionId) {
+        UpstreamLimiter ttsLimiter = blockingTaskExecutor.getTtsLimiter();
+        boolean permitted = false;
         try {
             log.info("[performStreamingSynthesis] 开始流式语音合成: sessionId={}, textLength={}, voice={}", 
                     sessionId, request.getText().length(), request.getVoice());
@@ -151,6 +153,10 @@ public class StreamingTtsSynthesisServiceImpl implements IStreamingTtsSynthesisS
             // 验证参数
             validateRequest(request);
             
+            // 合成期间（包括分段合成的全部段落）占用一个TTS许可
+            ttsLimiter.acquire();
+            permitted = true;
+            
             // 检查文本长度，决定是否需要分段处理 // 580 字符上限
             if (request.getText().length() > 580) {
                 log.info("[performStreamingSynthesis] 流式TTS文本超过580字符限制，启用分段处理: {}字符", 
@@ -240,6 +246,10 @@ public class StreamingTtsSynthesisServiceImpl implements IStreamingTtsSynthesisS
                         sessionId, sendError.getMessage(), e);
                 emitter.completeWithError(sendError);
             }
+        } finally {
+            if (permitted) {
+                ttsLimiter.release();
+            }
         }
     }
     
@@ -45,25 +45,25 @@ public class TtsAudioPersistenceServiceImpl implements ITtsAudioPersistenceServi
         log.info("[persistTtsAudio] 开始持久化TTS音频: userId={}, characterId={}, temporaryUrl={}", 
                 userId, characterId, temporaryUrl);
         
+        // 1. 下载临时URL的音频数据
+        byte[] audioBytes = downloadTtsAudio(temporaryUrl);
+        log.info("[persistTtsAudio] 音频下载成功: size={} bytes", audioBytes.length);
+        
+        // 2. 上传到OSS
+        return persistTtsAudio(audioBytes, userId, characterId);
+    }
+    
+    @Override
+    public com.carol.backend.dto.TtsPersistenceResult persistTtsAudio(byte[] audioBytes, Long userId, Long characterId) {
         try {
-            // 1. 下载临时URL的音频数据
-            byte[] audioBytes = downloadAudio(temporaryUrl);
-            log.info("[persistTtsAudio] 音频下载成功: size={} bytes", audioBytes.length);
-            
-            // 计算音频时长 (WAV格式: 24000Hz, 16bit, 单声道)
-            // 44字节头信息
-            // 每秒字节数 = 24000 * 16 / 8 * 1 = 48000
-            int duration = 0;
-            if (audioBytes.length > 44) {
-                duration = (int) Math.ceil((audioBytes.length - 44) / 48000.0);
-            }
+            int duration = ITtsAudioPersistenceService.calculateWavDuration(audioBytes);
             log.info("[persistTtsAudio] 计算音频时长: {}秒", duration);
             
-            // 2. 生成OSS对象键
+            // 生成OSS对象键
             String objectKey = generateOssObjectKey(userId, characterId);
             log.info("[persistTtsAudio] 生成OSS对象键: {}", objectKey);
             
-            // 3. 上传到OSS
+            // 上传到OSS
             String ossUrl = ossService.uploadBytes(audioBytes, objectKey, "audio/wav");
             log.info("[persistTtsAudio] TTS音频上传OSS成功: userId={}, characterId={}, ossUrl={}", 
                     userId, characterId, ossUrl);
@@ -74,12 +74,24 @@ public class TtsAudioPersistenceServiceImpl implements ITtsAudioPersistenceServi
                     .build();
             
         } catch (Exception e) {
-            log.error("[persistTtsAudio] TTS音频持久化失败: userId={}, characterId={}, temporaryUrl={}, error={}", 
-                    userId, characterId, temporaryUrl, e.getMessage(), e);
+            log.error("[persistTtsAudio] TTS音频持久化失败: userId={}, characterId={}, size={}, error={}", 
+                    userId, characterId, audioBytes != null ? audioBytes.length : 0, e.getMessage(), e);
             throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "TTS音频持久化失败: " + e.getMessage(), e);
         }
     }
     
+    @Override
+    public byte[] downloadTtsAudio(String temporaryUrl) {
+        try {
+            return downloadAudio(temporaryUrl);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "TTS音频下载被中断", e);
+        } catch (IOException e) {
+            throw BusinessException.of(ErrorCode.SYSTEM_ERROR, "TTS音频下载失败: " + e.getMessage(), e);
+        }
+    }
+    
     /**
      * 下载音频数据
      */
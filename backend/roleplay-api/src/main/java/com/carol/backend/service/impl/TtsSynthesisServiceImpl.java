@@ -12,6 +12,7 @@ import com.carol.backend.dto.TtsSynthesisResponse;
 import com.carol.backend.enums.ErrorCode;
 import com.carol.backend.exception.BusinessException;
 import com.carol.backend.service.ITtsSynthesisService;
+import com.carol.backend.util.BlockingTaskExecutor;
 import com.carol.backend.util.TtsSegmentUtil;
 import com.carol.backend.util.TtsTextPreprocessor;
 import lombok.RequiredArgsConstructor;
@@ -45,6 +46,7 @@ public class TtsSynthesisServiceImpl implements ITtsSynthesisService {
     private final TtsSynthesisConfig config;
     private final TtsSegmentUtil ttsSegmentUtil;
     private final TtsTextPreprocessor textPreprocessor;
+    private final BlockingTaskExecutor blockingTaskExecutor;
     
     @Value("${spring.ai.dashscope.api-key}")
     private String apiKey;
@@ -87,7 +89,13 @@ public class TtsSynthesisServiceImpl implements ITtsSynthesisService {
                 MultiModalConversationParam param = buildSynthesisParam(request);
                 
                 MultiModalConversation conv = new MultiModalConversation();
-                MultiModalConversationResult result = conv.call(param);
+                MultiModalConversationResult result;
+                blockingTaskExecutor.getTtsLimiter().acquire();
+                try {
+                    result = conv.call(param);
+                } finally {
+                    blockingTaskExecutor.getTtsLimiter().release();
+                }
                 
                 if (result == null || result.getOutput() == null || result.getOutput().getAudio() == null) {
                     log.error("[synthesizeText] 语音合成返回结果为空: requestId={}", requestId);
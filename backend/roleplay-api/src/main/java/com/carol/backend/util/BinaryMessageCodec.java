@@ -0,0 +1,223 @@
+package com.carol.backend.util;
+
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * 紧凑二进制消息编解码器
+ *
+ * 布局（版本1）：
+ * [0xB1][flags][timestamp varint]?[voiceDuration varint]?[audioUrl 长度+UTF-8]?[content]?
+ * - flags 位：0 用户消息；1 内容已压缩；2 有audioUrl；3 有voiceDuration；4 有timestamp；5 有content
+ * - content 未压缩时为 长度+UTF-8；压缩时为 原始长度+Deflate数据长度+Deflate数据
+ * - createdTime 由 timestamp 推导，messageType 由用户消息标志推导，不重复存储
+ */
+public class BinaryMessageCodec implements MessageCodec {
+
+    static final byte MAGIC = (byte) 0xB1;
+
+    private static final int FLAG_USER = 1;
+    private static final int FLAG_COMPRESSED = 1 << 1;
+    private static final int FLAG_AUDIO_URL = 1 << 2;
+    private static final int FLAG_VOICE_DURATION = 1 << 3;
+    private static final int FLAG_TIMESTAMP = 1 << 4;
+    private static final int FLAG_CONTENT = 1 << 5;
+
+    private final int compressionThresholdBytes;
+
+    /**
+     * @param compressionThresholdBytes 内容达到该字节数时压缩，0表示不压缩
+     */
+    public BinaryMessageCodec(int compressionThresholdBytes) {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    @Override
+    public byte[] encode(StoredMessage message) {
+        byte[] content = message.getContent() != null ? message.getContent().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] audioUrl = message.getAudioUrl() != null ? message.getAudioUrl().getBytes(StandardCharsets.UTF_8) : null;
+
+        // 只有压缩后确实变小才保存压缩数据
+        byte[] compressed = null;
+        if (content != null && compressionThresholdBytes > 0 && content.length >= compressionThresholdBytes) {
+            byte[] deflated = deflate(content);
+            if (deflated.length < content.length) {
+                compressed = deflated;
+            }
+        }
+
+        int flags = 0;
+        if (Boolean.TRUE.equals(message.getIsUser())) {
+            flags |= FLAG_USER;
+        }
+        if (compressed != null) {
+            flags |= FLAG_COMPRESSED;
+        }
+        if (audioUrl != null) {
+            flags |= FLAG_AUDIO_URL;
+        }
+        if (message.getVoiceDuration() != null) {
+            flags |= FLAG_VOICE_DURATION;
+        }
+        if (message.getTimestamp() != null) {
+            flags |= FLAG_TIMESTAMP;
+        }
+        if (content != null) {
+            flags |= FLAG_CONTENT;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                16 + (audioUrl != null ? audioUrl.length : 0) + (content != null ? content.length : 0));
+        out.write(MAGIC);
+        out.write(flags);
+        if (message.getTimestamp() != null) {
+            writeVarLong(out, message.getTimestamp());
+        }
+        if (message.getVoiceDuration() != null) {
+            writeVarLong(out, message.getVoiceDuration());
+        }
+        if (audioUrl != null) {
+            writeBytes(out, audioUrl);
+        }
+        if (compressed != null) {
+            writeVarLong(out, content.length);
+            writeBytes(out, compressed);
+        } else if (content != null) {
+            writeBytes(out, content);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public StoredMessage decode(byte[] data) {
+        if (!canDecode(data)) {
+            throw new IllegalArgumentException("不是二进制编码的消息");
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(data, 1, data.length - 1);
+            int flags = in.get() & 0xFF;
+
+            StoredMessage message = new StoredMessage();
+            boolean isUser = (flags & FLAG_USER) != 0;
+            message.setIsUser(isUser);
+            message.setMessageType(isUser ? "USER" : "ASSISTANT");
+            if ((flags & FLAG_TIMESTAMP) != 0) {
+                long timestamp = readVarLong(in);
+                message.setTimestamp(timestamp);
+                message.setCreatedTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault()));
+            }
+            if ((flags & FLAG_VOICE_DURATION) != 0) {
+                message.setVoiceDuration((int) readVarLong(in));
+            }
+            if ((flags & FLAG_AUDIO_URL) != 0) {
+                message.setAudioUrl(new String(readBytes(in), StandardCharsets.UTF_8));
+            }
+            if ((flags & FLAG_CONTENT) != 0) {
+                byte[] content;
+                if ((flags & FLAG_COMPRESSED) != 0) {
+                    int rawLength = (int) readVarLong(in);
+                    content = inflate(readBytes(in), rawLength);
+                } else {
+                    content = readBytes(in);
+                }
+                message.setContent(new String(content, StandardCharsets.UTF_8));
+            }
+            return message;
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            throw new IllegalArgumentException("二进制消息数据不完整: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data.length > 1 && data[0] == MAGIC;
+    }
+
+    // ==================== 编码工具（冷存储blob共用） ====================
+
+    static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("varint过长");
+    }
+
+    static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    static byte[] readBytes(ByteBuffer in) {
+        long length = readVarLong(in);
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalStateException("长度超出数据范围: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.get(bytes);
+        return bytes;
+    }
+
+    static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 2));
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] compressed, int rawLength) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] raw = new byte[rawLength];
+            int offset = 0;
+            while (offset < rawLength && !inflater.finished()) {
+                int count = inflater.inflate(raw, offset, rawLength - offset);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += count;
+            }
+            if (offset != rawLength) {
+                throw new IllegalStateException("解压后长度不一致: expected=" + rawLength + ", actual=" + offset);
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("解压失败: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.carol.backend.util;
+
+import com.carol.backend.config.BlockingExecutionConfig;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.thread.Threading;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+/**
+ * 阻塞调用执行器
+ * 替代各服务中各自创建的 newCachedThreadPool，运行DashScope SDK、OSS等阻塞调用：
+ * - spring.threads.virtual.enabled=true 且运行在Java 21及以上时，每个任务一个虚拟线程（Tomcat请求线程同时切换为虚拟线程）
+ * - 否则使用按需创建、空闲60秒回收的平台线程，与原来的 newCachedThreadPool 行为一致
+ * 线程数不再限制上游并发，上游调用前需获取对应的 {@link UpstreamLimiter} 许可
+ *
+ * 不实现 Executor 接口，避免作为 Executor Bean 顶替Spring Boot默认的 applicationTaskExecutor
+ */
+@Slf4j
+@Component
+public class BlockingTaskExecutor implements MeterBinder {
+
+    private final AsyncTaskExecutor delegate;
+    private final boolean virtualThreads;
+
+    private final UpstreamLimiter ttsLimiter;
+    private final UpstreamLimiter asrLimiter;
+    private final UpstreamLimiter ossLimiter;
+
+    public BlockingTaskExecutor(BlockingExecutionConfig config, Environment environment) {
+        this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+        if (!virtualThreads && environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+            log.warn("[BlockingTaskExecutor] 已开启虚拟线程但当前JRE不支持（需要Java 21及以上），使用平台线程: javaVersion={}",
+                    System.getProperty("java.version"));
+        }
+        this.delegate = virtualThreads ? createVirtualThreadExecutor(config) : createPlatformThreadExecutor(config);
+
+        BlockingExecutionConfig.Upstream upstream = config.getUpstream();
+        this.ttsLimiter = new UpstreamLimiter("TTS", upstream.getTtsPermits(), upstream.getAcquireTimeoutMs());
+        this.asrLimiter = new UpstreamLimiter("ASR", upstream.getAsrPermits(), upstream.getAcquireTimeoutMs());
+        this.ossLimiter = new UpstreamLimiter("OSS", upstream.getOssPermits(), upstream.getAcquireTimeoutMs());
+        log.info("[BlockingTaskExecutor] 阻塞调用执行器初始化完成: virtualThreads={}, ttsPermits={}, asrPermits={}, ossPermits={}",
+                virtualThreads, upstream.getTtsPermits(), upstream.getAsrPermits(), upstream.getOssPermits());
+    }
+
+    private static AsyncTaskExecutor createVirtualThreadExecutor(BlockingExecutionConfig config) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("Blocking-Io-");
+        executor.setVirtualThreads(true);
+        executor.setTaskTerminationTimeout(config.getTerminationTimeoutSeconds() * 1000L);
+        return executor;
+    }
+
+    /**
+     * 无核心线程、无队列、最大线程数不限，等同于 newCachedThreadPool
+     */
+    private static AsyncTaskExecutor createPlatformThreadExecutor(BlockingExecutionConfig config) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(0);
+        executor.setMaxPoolSize(Integer.MAX_VALUE);
+        executor.setQueueCapacity(0);
+        executor.setKeepAliveSeconds(60);
+        executor.setDaemon(true);
+        executor.setThreadNamePrefix("Blocking-Io-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(config.getTerminationTimeoutSeconds());
+        executor.initialize();
+        return executor;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (delegate instanceof SimpleAsyncTaskExecutor virtualThreadExecutor) {
+            virtualThreadExecutor.close();
+        } else if (delegate instanceof ThreadPoolTaskExecutor platformThreadExecutor) {
+            platformThreadExecutor.shutdown();
+        }
+    }
+
+    public void execute(Runnable task) {
+        delegate.execute(task);
+    }
+
+    public Future<?> submit(Runnable task) {
+        return delegate.submit(task);
+    }
+
+    public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        return CompletableFuture.supplyAsync(task, delegate);
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public UpstreamLimiter getTtsLimiter() {
+        return ttsLimiter;
+    }
+
+    public UpstreamLimiter getAsrLimiter() {
+        return asrLimiter;
+    }
+
+    public UpstreamLimiter getOssLimiter() {
+        return ossLimiter;
+    }
+
+    /**
+     * 导出执行模式（1为虚拟线程）和各上游的许可占用、排队、拒绝数，以 upstream 标签区分
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("blocking.executor.virtual.threads", this, executor -> executor.virtualThreads ? 1 : 0)
+                .description("阻塞调用是否运行在虚拟线程上")
+                .register(registry);
+        for (UpstreamLimiter limiter : List.of(ttsLimiter, asrLimiter, ossLimiter)) {
+            String upstream = limiter.getName().toLowerCase();
+            Gauge.builder("upstream.permits.in.use", limiter, UpstreamLimiter::getInUse)
+                    .description("占用中的上游调用许可数")
+                    .tag("upstream", upstream)
+                    .register(registry);
+            Gauge.builder("upstream.permits.waiting", limiter, UpstreamLimiter::getWaiting)
+                    .description("等待上游调用许可的调用数")
+                    .tag("upstream", upstream)
+                    .register(registry);
+            FunctionCounter.builder("upstream.permits.rejected", limiter, UpstreamLimiter::getRejected)
+                    .description("等待许可超时被拒绝的调用数")
+                    .tag("upstream", upstream)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.carol.backend.util;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.dto.ChatStreamEvent;
+import com.carol.backend.enums.ChatStreamEventType;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式聊天SSE编码器
+ * 将类型化的聊天事件编码为SSE帧：合并窗口内的token为一帧、JSON转义所有载荷、
+ * 统计每个响应的帧数（即Servlet flush次数）；无数据输出时定时发送心跳，以便及时发现客户端断开并取消上游
+ *
+ * 帧格式（前端只解析 data 行，event 行用于区分类型）：
+ * - token: data:{"content":"..."}
+ * - tts:   data:{"type":"tts"|"tts_segment",...}
+ * - message_id: data:{"type":"message_id","role":"user"|"assistant","messageId":...}
+ * - error: data:{"error":"..."}
+ * - done:  data:[DONE]
+ */
+@Slf4j
+@Component
+public class ChatSseEventEncoder {
+
+    private static final String TOKEN_PREFIX = "{\"content\":\"";
+    private static final String TOKEN_SUFFIX = "\"}";
+    private static final String DONE_DATA = "[DONE]";
+
+    // 心跳为SSE注释行，前端忽略；写出失败即可发现客户端已断开
+    private static final ServerSentEvent<String> HEARTBEAT = ServerSentEvent.<String>builder().comment("heartbeat").build();
+
+    private final ChatPipelineConfig.SseEncoder config;
+    private final ObjectMapper objectMapper;
+
+    public ChatSseEventEncoder(ChatPipelineConfig chatPipelineConfig, ObjectMapper objectMapper) {
+        this.config = chatPipelineConfig.getSseEncoder();
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 编码一个流式响应，结尾自动追加 done 帧；上游异常转换为 error 帧
+     *
+     * @param events 类型化聊天事件
+     * @param conversationId 会话ID（仅用于日志，可为null）
+     * @return SSE帧，每一帧对应一次写出和flush
+     */
+    public Flux<ServerSentEvent<String>> encode(Flux<ChatStreamEvent> events, String conversationId) {
+        return Flux.defer(() -> {
+            FrameWriter writer = new FrameWriter();
+
+            // 异常先转换为error事件再进入合并窗口，否则窗口内已缓冲的token会随异常丢弃
+            Flux<ChatStreamEvent> safeEvents = events.onErrorResume(e -> {
+                log.error("[encode] 流式响应异常: conversationId={}, error={}", conversationId, e.getMessage(), e);
+                return Flux.just(ChatStreamEvent.error("聊天失败: " + e.getMessage()));
+            });
+
+            Flux<List<ChatStreamEvent>> batches = config.getCoalesceWindowMs() > 0
+                    ? safeEvents.bufferTimeout(Math.max(1, config.getMaxBatchEvents()),
+                            Duration.ofMillis(config.getCoalesceWindowMs()))
+                    : safeEvents.map(List::of);
+
+            Flux<ServerSentEvent<String>> frames = batches
+                    .concatMapIterable(writer::write)
+                    .concatWith(Flux.defer(() -> writer.isDone() ? Flux.empty() : Flux.just(writer.encodeDone())));
+
+            if (config.getHeartbeatIntervalMs() > 0) {
+                Duration interval = Duration.ofMillis(config.getHeartbeatIntervalMs());
+                frames = Flux.merge(frames, Flux.interval(interval, interval).map(tick -> HEARTBEAT))
+                        .takeUntil(frame -> ChatStreamEventType.DONE.getEventName().equals(frame.event()));
+            }
+
+            return frames.doFinally(signal -> writer.report(conversationId, signal));
+        });
+    }
+
+    /**
+     * 编码单个事件，不经过合并窗口（用于请求被拒绝等只有一帧的响应）
+     */
+    public Flux<ServerSentEvent<String>> encode(ChatStreamEvent event) {
+        return encode(Flux.just(event), null);
+    }
+
+    /**
+     * 单个响应的帧写入器，token缓冲区在整个响应内复用；非线程安全，由concatMapIterable串行调用
+     */
+    private final class FrameWriter {
+
+        private final StringBuilder tokenFrame = new StringBuilder(config.getMaxFrameBytes() + 64).append(TOKEN_PREFIX);
+        private int pendingBytes = 0;
+
+        private long tokens = 0;
+        private long frames = 0;
+        private long bytes = 0;
+        private boolean done = false;
+
+        List<ServerSentEvent<String>> write(List<ChatStreamEvent> batch) {
+            List<ServerSentEvent<String>> out = new ArrayList<>(2);
+            for (ChatStreamEvent event : batch) {
+                if (done) {
+                    break;
+                }
+                if (event.getType() == ChatStreamEventType.TOKEN) {
+                    appendToken(event.getContent(), out);
+                    continue;
+                }
+                // 非token事件之前先输出已合并的token，保证顺序
+                flushTokens(out);
+                switch (event.getType()) {
+                    case TTS -> out.add(encodePayload(event, "{\"type\":\"tts\",\"success\":false}"));
+                    case MESSAGE_ID -> out.add(encodePayload(event, "{\"type\":\"message_id\"}"));
+                    case ERROR -> out.add(encodeError(event.getContent()));
+                    case DONE -> out.add(encodeDone());
+                    default -> { }
+                }
+            }
+            flushTokens(out);
+            return out;
+        }
+
+        private void appendToken(String content, List<ServerSentEvent<String>> out) {
+            if (content == null || content.isEmpty()) {
+                return;
+            }
+            tokens++;
+            pendingBytes += appendJsonEscaped(tokenFrame, content);
+            if (pendingBytes >= config.getMaxFrameBytes()) {
+                flushTokens(out);
+            }
+        }
+
+        private void flushTokens(List<ServerSentEvent<String>> out) {
+            if (pendingBytes == 0) {
+                return;
+            }
+            String data = tokenFrame.append(TOKEN_SUFFIX).toString();
+            tokenFrame.setLength(TOKEN_PREFIX.length());
+            pendingBytes = 0;
+            out.add(frame(ChatStreamEventType.TOKEN, data));
+        }
+
+        private ServerSentEvent<String> encodePayload(ChatStreamEvent event, String fallback) {
+            try {
+                return frame(event.getType(), objectMapper.writeValueAsString(event.getPayload()));
+            } catch (JsonProcessingException e) {
+                log.warn("[encode] {}事件序列化失败: error={}", event.getType().getEventName(), e.getMessage());
+                return frame(event.getType(), fallback);
+            }
+        }
+
+        private ServerSentEvent<String> encodeError(String message) {
+            StringBuilder data = new StringBuilder("{\"error\":\"");
+            appendJsonEscaped(data, message != null ? message : "未知错误");
+            return frame(ChatStreamEventType.ERROR, data.append("\"}").toString());
+        }
+
+        private ServerSentEvent<String> encodeDone() {
+            done = true;
+            return frame(ChatStreamEventType.DONE, DONE_DATA);
+        }
+
+        boolean isDone() {
+            return done;
+        }
+
+        private ServerSentEvent<String> frame(ChatStreamEventType type, String data) {
+            frames++;
+            bytes += utf8Length(data);
+            return ServerSentEvent.builder(data).event(type.getEventName()).build();
+        }
+
+        void report(String conversationId, SignalType signal) {
+            log.info("[encode] 流式响应结束: conversationId={}, signal={}, tokens={}, frames={}, bytes={}, tokensPerFrame={}",
+                    conversationId, signal, tokens, frames, bytes,
+                    frames > 0 ? String.format("%.1f", (double) tokens / frames) : "0");
+        }
+    }
+
+    /**
+     * 追加JSON字符串转义后的内容，返回追加部分的UTF-8字节数
+     */
+    static int appendJsonEscaped(StringBuilder target, CharSequence value) {
+        int start = target.length();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> target.append("\\\"");
+                case '\\' -> target.append("\\\\");
+                case '\n' -> target.append("\\n");
+                case '\r' -> target.append("\\r");
+                case '\t' -> target.append("\\t");
+                case '\b' -> target.append("\\b");
+                case '\f' -> target.append("\\f");
+                default -> {
+                    // 控制字符和行分隔符使用unicode转义，避免破坏SSE分帧
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        target.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        target.append(c);
+                    }
+                }
+            }
+        }
+        return utf8Length(target, start, target.length());
+    }
+
+    private static int utf8Length(CharSequence value) {
+        return utf8Length(value, 0, value.length());
+    }
+
+    private static int utf8Length(CharSequence value, int start, int end) {
+        int length = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                // 代理对合计4字节
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,204 @@
+package com.carol.backend.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 预编译的提示词模板
+ * 启动时将 .st 模板解析为文本片段和 {变量} 占位符，渲染时只做字符串拼接，不再重复读取和解析模板；
+ * 支持先绑定部分变量得到新的模板（如先填入角色信息，每轮对话再填入RAG知识）
+ *
+ * 占位符语法与模板文件一致：{变量名}，变量名由ASCII字母、数字和下划线组成；其他花括号按普通文本处理。
+ * 与StringTemplate一致，独占一行的占位符值为空时整行（含换行符）删除；多行变量值不会按占位符缩进对齐。
+ * 变量值原样插入，不会被再次解析为占位符。实例不可变，线程安全
+ */
+public final class CompiledPromptTemplate {
+
+    // literals比names多一个元素：literals[0] names[0] literals[1] ... names[n-1] literals[n]
+    private final String[] literals;
+    private final String[] names;
+    private final int literalLength;
+
+    // 独占一行的占位符：值为空时要删除的前导缩进长度和后续换行符长度；不独占一行时为-1
+    private final int[] lineIndents;
+    private final int[] lineBreaks;
+
+    private CompiledPromptTemplate(String[] literals, String[] names) {
+        this.literals = literals;
+        this.names = names;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+        this.lineIndents = new int[names.length];
+        this.lineBreaks = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            lineIndents[i] = trailingIndent(literals[i], i == 0);
+            lineBreaks[i] = leadingLineBreak(literals[i + 1], i + 1 == names.length);
+            if (lineIndents[i] < 0 || lineBreaks[i] < 0) {
+                lineIndents[i] = -1;
+                lineBreaks[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * 解析模板文本
+     */
+    public static CompiledPromptTemplate compile(String template) {
+        if (template == null) {
+            throw new IllegalArgumentException("模板内容不能为空");
+        }
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        int literalStart = 0;
+        int i = 0;
+        while (i < template.length()) {
+            int end = template.charAt(i) == '{' ? placeholderEnd(template, i) : -1;
+            if (end < 0) {
+                i++;
+                continue;
+            }
+            literals.add(template.substring(literalStart, i));
+            names.add(template.substring(i + 1, end));
+            literalStart = end + 1;
+            i = literalStart;
+        }
+        literals.add(template.substring(literalStart));
+        return new CompiledPromptTemplate(literals.toArray(new String[0]), names.toArray(new String[0]));
+    }
+
+    /**
+     * 绑定部分变量，返回剩余占位符组成的新模板；未提供的变量保留为占位符
+     */
+    public CompiledPromptTemplate bind(Map<String, ?> variables) {
+        List<String> boundLiterals = new ArrayList<>();
+        List<String> boundNames = new ArrayList<>();
+        StringBuilder current = new StringBuilder(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            int skip = 0;
+            if (variables.containsKey(names[i])) {
+                skip = appendValue(current, i, valueOf(variables.get(names[i])));
+            } else {
+                boundLiterals.add(current.toString());
+                boundNames.add(names[i]);
+                current.setLength(0);
+            }
+            current.append(literals[i + 1], skip, literals[i + 1].length());
+        }
+        boundLiterals.add(current.toString());
+        return new CompiledPromptTemplate(boundLiterals.toArray(new String[0]), boundNames.toArray(new String[0]));
+    }
+
+    /**
+     * 渲染模板，多余的变量忽略
+     *
+     * @throws IllegalStateException 模板中有变量未提供
+     */
+    public String render(Map<String, ?> variables) {
+        if (names.length == 0) {
+            return literals[0];
+        }
+        String[] values = new String[names.length];
+        int length = literalLength;
+        List<String> missing = null;
+        for (int i = 0; i < names.length; i++) {
+            if (!variables.containsKey(names[i])) {
+                if (missing == null) {
+                    missing = new ArrayList<>();
+                }
+                missing.add(names[i]);
+                continue;
+            }
+            values[i] = valueOf(variables.get(names[i]));
+            length += values[i].length();
+        }
+        if (missing != null) {
+            throw new IllegalStateException("模板变量未提供: " + missing);
+        }
+
+        StringBuilder out = new StringBuilder(length);
+        out.append(literals[0]);
+        for (int i = 0; i < names.length; i++) {
+            int skip = appendValue(out, i, values[i]);
+            out.append(literals[i + 1], skip, literals[i + 1].length());
+        }
+        return out.toString();
+    }
+
+    /**
+     * 模板中尚未绑定的变量名
+     */
+    public Set<String> getVariableNames() {
+        Set<String> variableNames = new LinkedHashSet<>();
+        Collections.addAll(variableNames, names);
+        return variableNames;
+    }
+
+    /**
+     * 追加第index个占位符的值；独占一行且值为空时删除该行的缩进，并返回下一段文本需要跳过的换行符长度
+     */
+    private int appendValue(StringBuilder out, int index, String value) {
+        if (value.isEmpty() && lineIndents[index] >= 0) {
+            out.setLength(out.length() - lineIndents[index]);
+            return lineBreaks[index];
+        }
+        out.append(value);
+        return 0;
+    }
+
+    /**
+     * 占位符前的文本在最后一个换行符之后只有空白时，返回空白长度，否则返回-1
+     */
+    private static int trailingIndent(String literal, boolean templateStart) {
+        int i = literal.length();
+        while (i > 0 && (literal.charAt(i - 1) == ' ' || literal.charAt(i - 1) == '\t')) {
+            i--;
+        }
+        if (i == 0) {
+            return templateStart ? literal.length() : -1;
+        }
+        return literal.charAt(i - 1) == '\n' ? literal.length() - i : -1;
+    }
+
+    /**
+     * 占位符后的文本以换行符开头时返回换行符长度，模板结尾返回0，否则返回-1
+     */
+    private static int leadingLineBreak(String literal, boolean templateEnd) {
+        if (literal.startsWith("\r\n")) {
+            return 2;
+        }
+        if (literal.startsWith("\n")) {
+            return 1;
+        }
+        return literal.isEmpty() && templateEnd ? 0 : -1;
+    }
+
+    /**
+     * 返回占位符右花括号的位置，不是合法占位符时返回-1
+     */
+    private static int placeholderEnd(String template, int start) {
+        int i = start + 1;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c == '}') {
+                return i > start + 1 ? i : -1;
+            }
+            boolean identifier = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+            if (!identifier) {
+                return -1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    private static String valueOf(Object value) {
+        return value != null ? value.toString() : "";
+    }
+}
@@ -0,0 +1,174 @@
+package com.carol.backend.util;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话存储编解码器
+ * 新消息按 app.chat.memory.storage.codec 配置的格式编码，读取时按首字节识别格式，旧的JSON消息始终可读；
+ * 空闲会话的全部消息可以打包为一个整体压缩的冷存储blob
+ *
+ * 会话存储的Redis值以 ISO-8859-1 字符串承载字节（字符与字节一一对应），
+ * 二进制数据可以无损地经过 RedisTemplate 和 Lua 脚本
+ *
+ * 冷存储blob布局：[0xB2][原始长度 varint][Deflate数据]，原始数据为 消息数 + 逐条（消息ID、消息长度、未压缩的二进制消息）
+ */
+@Component
+public class ConversationMessageCodec implements MeterBinder {
+
+    private static final byte COLD_BLOB_MAGIC = (byte) 0xB2;
+
+    private final ChatMemoryConfig.CodecFormat format;
+    private final MessageCodec jsonCodec;
+    private final MessageCodec binaryCodec;
+    // blob整体压缩，其中的消息不再单独压缩
+    private final BinaryMessageCodec blobEntryCodec = new BinaryMessageCodec(0);
+
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder decodedJson = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+
+    public ConversationMessageCodec(ChatMemoryConfig chatMemoryConfig, ObjectMapper objectMapper) {
+        ChatMemoryConfig.Storage storage = chatMemoryConfig.getStorage();
+        this.format = storage.getCodec() != null ? storage.getCodec() : ChatMemoryConfig.CodecFormat.BINARY;
+        this.jsonCodec = new JsonMessageCodec(objectMapper);
+        this.binaryCodec = new BinaryMessageCodec(storage.getCompressionThresholdBytes());
+    }
+
+    /**
+     * 按配置的格式编码消息
+     */
+    public byte[] encode(StoredMessage message) {
+        long start = System.nanoTime();
+        byte[] data = (format == ChatMemoryConfig.CodecFormat.JSON ? jsonCodec : binaryCodec).encode(message);
+        encodeNanos.add(System.nanoTime() - start);
+        encoded.increment();
+        encodedBytes.add(data.length);
+        return data;
+    }
+
+    /**
+     * 按首字节识别格式并解码消息
+     *
+     * @throws IllegalArgumentException 无法识别或数据损坏
+     */
+    public StoredMessage decode(byte[] data) {
+        long start = System.nanoTime();
+        StoredMessage message;
+        if (binaryCodec.canDecode(data)) {
+            message = binaryCodec.decode(data);
+        } else if (jsonCodec.canDecode(data)) {
+            message = jsonCodec.decode(data);
+            decodedJson.increment();
+        } else {
+            throw new IllegalArgumentException("无法识别的消息编码");
+        }
+        decodeNanos.add(System.nanoTime() - start);
+        decoded.increment();
+        return message;
+    }
+
+    /**
+     * 将会话的全部消息（需带消息ID）打包为一个压缩blob
+     */
+    public byte[] encodeColdBlob(List<StoredMessage> messages) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(messages.size() * 64);
+        BinaryMessageCodec.writeVarLong(raw, messages.size());
+        for (StoredMessage message : messages) {
+            BinaryMessageCodec.writeVarLong(raw, message.getId());
+            BinaryMessageCodec.writeBytes(raw, blobEntryCodec.encode(message));
+        }
+        byte[] rawBytes = raw.toByteArray();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(rawBytes.length / 3 + 16);
+        out.write(COLD_BLOB_MAGIC);
+        BinaryMessageCodec.writeVarLong(out, rawBytes.length);
+        byte[] compressed = BinaryMessageCodec.deflate(rawBytes);
+        out.write(compressed, 0, compressed.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * 解开冷存储blob，返回带消息ID的消息（按ID顺序）
+     *
+     * @throws IllegalArgumentException blob损坏
+     */
+    public List<StoredMessage> decodeColdBlob(byte[] blob) {
+        if (blob.length < 2 || blob[0] != COLD_BLOB_MAGIC) {
+            throw new IllegalArgumentException("不是冷存储blob");
+        }
+        try {
+            ByteBuffer header = ByteBuffer.wrap(blob, 1, blob.length - 1);
+            int rawLength = (int) BinaryMessageCodec.readVarLong(header);
+            byte[] compressed = new byte[header.remaining()];
+            header.get(compressed);
+            ByteBuffer in = ByteBuffer.wrap(BinaryMessageCodec.inflate(compressed, rawLength));
+
+            int count = (int) BinaryMessageCodec.readVarLong(in);
+            List<StoredMessage> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = BinaryMessageCodec.readVarLong(in);
+                StoredMessage message = blobEntryCodec.decode(BinaryMessageCodec.readBytes(in));
+                message.setId(id);
+                messages.add(message);
+            }
+            return messages;
+        } catch (BufferUnderflowException | IllegalStateException e) {
+            throw new IllegalArgumentException("冷存储blob数据损坏: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 字节转换为会话存储的Redis值（ISO-8859-1承载）
+     */
+    public static String toRedisValue(byte[] data) {
+        return new String(data, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * 会话存储的Redis值还原为字节
+     */
+    public static byte[] fromRedisValue(String value) {
+        return value.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionTimer.builder("chat.storage.codec.encode", encodeNanos, adder -> encoded.sum(), LongAdder::sum,
+                        TimeUnit.NANOSECONDS)
+                .description("消息编码耗时")
+                .tag("format", format.name())
+                .register(registry);
+        FunctionCounter.builder("chat.storage.codec.encoded.bytes", encodedBytes, LongAdder::sum)
+                .description("编码后的消息字节数")
+                .baseUnit("bytes")
+                .tag("format", format.name())
+                .register(registry);
+        FunctionTimer.builder("chat.storage.codec.decode", decodeNanos, adder -> decoded.sum(), LongAdder::sum,
+                        TimeUnit.NANOSECONDS)
+                .description("消息解码耗时")
+                .register(registry);
+        // 逐渐归零说明旧数据已被改写或过期
+        FunctionCounter.builder("chat.storage.codec.decoded.json", decodedJson, LongAdder::sum)
+                .description("解码的旧格式JSON消息数")
+                .register(registry);
+    }
+}
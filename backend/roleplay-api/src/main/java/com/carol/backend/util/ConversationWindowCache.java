@@ -0,0 +1,271 @@
+package com.carol.backend.util;
+
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 会话最近消息窗口的进程内缓存（近端缓存）
+ * 每个会话缓存最近 windowMessages 条消息和消息总数，按估算的堆内存占用限制总大小，超出时按LRU淘汰
+ *
+ * 一致性：
+ * - 本节点写入后调用 append（消息ID与窗口末尾连续时直接追加，否则丢弃窗口）或 invalidate
+ * - 任何写入和失效都会递增代数，装载开始后代数发生变化的窗口不写入缓存，避免并发写入时缓存旧数据
+ * - 其他节点的写入通过发布订阅通知失效；通知丢失时依赖过期时间兜底
+ *
+ * 缓存中的消息对象由多个读取方共享，调用方不能修改
+ */
+public class ConversationWindowCache {
+
+    // 单条消息的固定开销估算（对象头、字段、包装类型、列表槽位）
+    private static final long MESSAGE_OVERHEAD_BYTES = 160;
+    private static final long WINDOW_OVERHEAD_BYTES = 128;
+
+    private final int windowMessages;
+    private final long maxBytes;
+    private final long ttlMillis;
+    private final Map<String, Window> windows = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLong generation = new AtomicLong();
+    private long totalBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    public ConversationWindowCache(int windowMessages, long maxBytes, long ttlMillis) {
+        this.windowMessages = windowMessages;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public int getWindowMessages() {
+        return windowMessages;
+    }
+
+    /**
+     * 装载开始前读取的代数，传给 put
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 写入装载的窗口；装载期间有过写入或失效时放弃
+     *
+     * @param messages 会话最近的消息（按ID正序，超过窗口大小时只保留最后 windowMessages 条）
+     * @param total 会话的消息总数
+     * @param loadGeneration 装载开始前的代数
+     */
+    public void put(String conversationId, List<StoredMessage> messages, long total, long loadGeneration) {
+        int from = Math.max(0, messages.size() - windowMessages);
+        Window window = new Window(List.copyOf(messages.subList(from, messages.size())), total,
+                System.currentTimeMillis() + ttlMillis);
+        synchronized (windows) {
+            if (generation.get() != loadGeneration) {
+                return;
+            }
+            store(conversationId, window);
+        }
+    }
+
+    /**
+     * 读取ID小于游标的最近 limit 条消息（按ID正序）；窗口不存在、已过期或不能完整覆盖时返回null
+     *
+     * @param beforeMessageId 游标（不含），为null时从最新的消息开始
+     */
+    public List<StoredMessage> getBefore(String conversationId, Long beforeMessageId, int limit) {
+        Window window = liveWindow(conversationId);
+        if (window == null) {
+            misses.increment();
+            return null;
+        }
+        List<StoredMessage> messages = window.messages;
+        int end = messages.size();
+        if (beforeMessageId != null) {
+            while (end > 0 && messages.get(end - 1).getId() >= beforeMessageId) {
+                end--;
+            }
+        }
+        int start = Math.max(0, end - limit);
+        // 窗口之前还有消息时，不足 limit 条说明需要窗口之外的消息
+        if (end - start < limit && !window.isComplete()) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return new ArrayList<>(messages.subList(start, end));
+    }
+
+    /**
+     * 读取会话的消息总数；窗口不存在时返回null（不计入命中率）
+     */
+    public Long getCount(String conversationId) {
+        Window window = liveWindow(conversationId);
+        return window != null ? window.total : null;
+    }
+
+    /**
+     * 本节点追加消息后调用：消息ID与窗口末尾连续时追加到窗口，否则（其他节点写入过、窗口为空无法判断）丢弃窗口
+     *
+     * @param appended 新追加的消息（已设置消息ID，按ID正序）
+     */
+    public void append(String conversationId, List<StoredMessage> appended) {
+        synchronized (windows) {
+            generation.incrementAndGet();
+            Window window = windows.get(conversationId);
+            if (window == null) {
+                return;
+            }
+            List<StoredMessage> messages = window.messages;
+            if (appended.isEmpty() || messages.isEmpty()
+                    || messages.get(messages.size() - 1).getId() + 1 != appended.get(0).getId()) {
+                remove(conversationId);
+                return;
+            }
+            List<StoredMessage> merged = new ArrayList<>(messages.size() + appended.size());
+            merged.addAll(messages);
+            merged.addAll(appended);
+            int from = Math.max(0, merged.size() - windowMessages);
+            store(conversationId, new Window(List.copyOf(merged.subList(from, merged.size())),
+                    window.total + appended.size(), System.currentTimeMillis() + ttlMillis));
+        }
+    }
+
+    /**
+     * 本节点更新单条消息后调用：消息在窗口中时替换为新内容
+     *
+     * @param updated 更新后的消息（已设置消息ID）
+     */
+    public void update(String conversationId, StoredMessage updated) {
+        synchronized (windows) {
+            generation.incrementAndGet();
+            Window window = windows.get(conversationId);
+            if (window == null) {
+                return;
+            }
+            List<StoredMessage> messages = new ArrayList<>(window.messages);
+            for (int i = messages.size() - 1; i >= 0; i--) {
+                if (messages.get(i).getId().equals(updated.getId())) {
+                    messages.set(i, updated);
+                    store(conversationId, new Window(List.copyOf(messages), window.total, window.expireAt));
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 失效单个会话的窗口
+     */
+    public void invalidate(String conversationId) {
+        synchronized (windows) {
+            generation.incrementAndGet();
+            if (remove(conversationId) != null) {
+                invalidations.increment();
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (windows) {
+            return windows.size();
+        }
+    }
+
+    public long getEstimatedBytes() {
+        synchronized (windows) {
+            return totalBytes;
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    private Window liveWindow(String conversationId) {
+        synchronized (windows) {
+            Window window = windows.get(conversationId);
+            if (window != null && window.expireAt <= System.currentTimeMillis()) {
+                remove(conversationId);
+                return null;
+            }
+            return window;
+        }
+    }
+
+    /**
+     * 写入窗口并按内存上限淘汰最久未访问的窗口；单个窗口超过上限时不缓存（调用方已持锁）
+     */
+    private void store(String conversationId, Window window) {
+        remove(conversationId);
+        if (window.bytes > maxBytes) {
+            return;
+        }
+        windows.put(conversationId, window);
+        totalBytes += window.bytes;
+        var iterator = windows.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Window> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue().bytes;
+            evictions.increment();
+        }
+    }
+
+    private Window remove(String conversationId) {
+        Window removed = windows.remove(conversationId);
+        if (removed != null) {
+            totalBytes -= removed.bytes;
+        }
+        return removed;
+    }
+
+    static long estimateBytes(StoredMessage message) {
+        long chars = (message.getContent() != null ? message.getContent().length() : 0)
+                + (message.getAudioUrl() != null ? message.getAudioUrl().length() : 0);
+        return MESSAGE_OVERHEAD_BYTES + chars * 2;
+    }
+
+    private static final class Window {
+        private final List<StoredMessage> messages;
+        private final long total;
+        private final long expireAt;
+        private final long bytes;
+
+        private Window(List<StoredMessage> messages, long total, long expireAt) {
+            this.messages = messages;
+            this.total = total;
+            this.expireAt = expireAt;
+            long estimated = WINDOW_OVERHEAD_BYTES;
+            for (StoredMessage message : messages) {
+                estimated += estimateBytes(message);
+            }
+            this.bytes = estimated;
+        }
+
+        /**
+         * 窗口包含会话的全部消息
+         */
+        private boolean isComplete() {
+            return messages.size() >= total;
+        }
+    }
+}
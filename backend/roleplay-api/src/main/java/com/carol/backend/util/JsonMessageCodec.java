@@ -0,0 +1,42 @@
+package com.carol.backend.util;
+
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+
+/**
+ * JSON消息编解码器（旧格式）
+ * 以 '{' 开头，与早期写入Redis的消息JSON完全兼容
+ */
+public class JsonMessageCodec implements MessageCodec {
+
+    private final ObjectMapper objectMapper;
+
+    public JsonMessageCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public byte[] encode(StoredMessage message) {
+        try {
+            return objectMapper.writeValueAsBytes(message);
+        } catch (IOException e) {
+            throw new IllegalStateException("序列化消息失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public StoredMessage decode(byte[] data) {
+        try {
+            return objectMapper.readValue(data, StoredMessage.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("反序列化JSON消息失败: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean canDecode(byte[] data) {
+        return data.length > 0 && data[0] == '{';
+    }
+}
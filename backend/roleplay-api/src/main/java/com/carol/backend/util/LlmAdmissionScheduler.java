@@ -0,0 +1,475 @@
+package com.carol.backend.util;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.reactivestreams.Publisher;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * 出站LLM调用准入调度器
+ * 同时进行的LLM调用数（流式回复占用到流结束）限制为 maxConcurrency，超出的请求排队等待空出的许可：
+ * - 注册用户与游客分为两个优先级类别，两类都有请求排队时按权重加权公平分配（虚拟时间小的类别先得），
+ *   游客突增只会占满游客自己的份额，注册用户的排队时间不受影响
+ * - 类别内按用户轮转，同一用户多开标签页的请求只排在自己的队列里，不会挤占其他用户
+ * - 队列有界；预计等待超过截止时间的请求入队时直接拒绝，排队超过截止时间的请求出队并拒绝，均抛出 UPSTREAM_BUSY
+ * 指标以 llm.admission.* 导出，按 class 标签区分类别
+ */
+@Slf4j
+@Component
+public class LlmAdmissionScheduler implements MeterBinder {
+
+    /**
+     * 许可占用时长移动平均的平滑系数
+     */
+    private static final double HOLD_SMOOTHING = 0.1;
+
+    public enum PriorityClass {
+        REGISTERED,
+        GUEST
+    }
+
+    private final boolean enabled;
+    private final int maxConcurrency;
+    private final int maxQueuedPerUser;
+    private final Map<PriorityClass, ClassQueue> classes = new EnumMap<>(PriorityClass.class);
+
+    private final Object lock = new Object();
+    private int inFlight;
+    // 最近一次分配许可时的虚拟时间，空闲后重新有请求排队的类别从这里开始，不能攒下额度
+    private double virtualTime;
+    // 许可占用时长的移动平均 (毫秒)，用于估算排队等待时间
+    private double avgHoldMillis;
+
+    public LlmAdmissionScheduler(ChatPipelineConfig chatPipelineConfig) {
+        ChatPipelineConfig.LlmAdmission config = chatPipelineConfig.getLlmAdmission();
+        this.enabled = config.isEnabled();
+        this.maxConcurrency = Math.max(1, config.getMaxConcurrency());
+        this.maxQueuedPerUser = Math.max(1, config.getMaxQueuedPerUser());
+        classes.put(PriorityClass.REGISTERED, new ClassQueue(PriorityClass.REGISTERED, config.getRegistered()));
+        classes.put(PriorityClass.GUEST, new ClassQueue(PriorityClass.GUEST, config.getGuest()));
+        log.info("[LlmAdmissionScheduler] LLM准入调度初始化完成: enabled={}, maxConcurrency={}, registeredWeight={}, guestWeight={}",
+                enabled, maxConcurrency, config.getRegistered().getWeight(), config.getGuest().getWeight());
+    }
+
+    /**
+     * 获得许可后发起流式调用，流结束、出错或被取消时归还许可；排队期间被取消时直接出队
+     *
+     * @param userKey 排队用的用户标识，注册用户为用户ID，游客为会话标识
+     */
+    public <T> Flux<T> stream(String userKey, PriorityClass priorityClass, Supplier<? extends Publisher<T>> call) {
+        if (!enabled) {
+            return Flux.defer(call);
+        }
+        return Flux.defer(() -> {
+            CompletableFuture<Ticket> admission = admit(userKey, priorityClass);
+            return Mono.fromFuture(admission)
+                    .doOnCancel(() -> abandon(admission))
+                    .flatMapMany(ticket -> Flux.<T>defer(call).doFinally(signal -> ticket.release()));
+        });
+    }
+
+    /**
+     * 获得许可后执行一次阻塞调用
+     */
+    public <T> T call(String userKey, PriorityClass priorityClass, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        Ticket ticket = acquire(userKey, priorityClass);
+        try {
+            return call.get();
+        } finally {
+            ticket.release();
+        }
+    }
+
+    /**
+     * 阻塞等待许可，最长等待该类别的 maxWaitMs；调用方必须在 finally 中归还
+     */
+    public Ticket acquire(String userKey, PriorityClass priorityClass) {
+        CompletableFuture<Ticket> admission = admit(userKey, priorityClass);
+        try {
+            return admission.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon(admission);
+            throw BusinessException.of(ErrorCode.UPSTREAM_BUSY, "等待LLM调用许可时被中断");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BusinessException businessException) {
+                throw businessException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * 申请许可：有空闲许可且无人排队时立即获得，否则入队；
+     * 返回的 future 在分配到许可时完成，被拒绝或排队超时时以 UPSTREAM_BUSY 异常完成，取消时出队
+     */
+    public CompletableFuture<Ticket> admit(String userKey, PriorityClass priorityClass) {
+        ClassQueue classQueue = classes.get(priorityClass);
+        Waiter waiter = new Waiter(userKey, classQueue);
+        List<Waiter> granted;
+        synchronized (lock) {
+            if (inFlight < maxConcurrency && queuedTotal() == 0) {
+                inFlight++;
+                classQueue.admitted.increment();
+                classQueue.recordWait(0);
+                return CompletableFuture.completedFuture(new Ticket(priorityClass));
+            }
+            String rejection = checkQueueable(classQueue, userKey);
+            if (rejection != null) {
+                log.debug("[admit] LLM调用排队被拒绝: class={}, userKey={}, reason={}", priorityClass, userKey, rejection);
+                return CompletableFuture.failedFuture(BusinessException.of(ErrorCode.UPSTREAM_BUSY, rejection));
+            }
+            classQueue.offer(waiter, virtualTime);
+            granted = dispatch();
+        }
+        waiter.future.whenComplete((ticket, throwable) -> {
+            if (throwable instanceof CancellationException) {
+                onCancelled(waiter);
+            }
+        });
+        CompletableFuture.delayedExecutor(classQueue.maxWaitMs, TimeUnit.MILLISECONDS).execute(() -> expire(waiter));
+        complete(granted);
+        return waiter.future;
+    }
+
+    /**
+     * 入队前检查：用户排队数、类别队列容量、按当前排队长度和平均占用时长估算的等待时间
+     *
+     * @return 拒绝原因，可以入队时返回null
+     */
+    private String checkQueueable(ClassQueue classQueue, String userKey) {
+        ArrayDeque<Waiter> userQueue = classQueue.userQueues.get(userKey);
+        if (userQueue != null && userQueue.size() >= maxQueuedPerUser) {
+            classQueue.rejectedUserLimit.increment();
+            return "排队中的请求过多，请等待当前回复完成后重试";
+        }
+        if (classQueue.queued >= classQueue.maxQueued) {
+            classQueue.rejectedQueueFull.increment();
+            return "服务繁忙，请稍后重试";
+        }
+        long estimatedWaitMs = estimateWaitMillis(classQueue);
+        if (estimatedWaitMs > classQueue.maxWaitMs) {
+            classQueue.rejectedDeadline.increment();
+            return "服务繁忙，预计等待" + estimatedWaitMs / 1000 + "秒，请稍后重试";
+        }
+        return null;
+    }
+
+    /**
+     * 估算新请求的排队时间：许可按 maxConcurrency / 平均占用时长 的速率空出，其中该类别按权重占一部分，
+     * 排在前面的是该类别已排队的请求；还没有占用时长样本时不估算
+     */
+    private long estimateWaitMillis(ClassQueue classQueue) {
+        if (avgHoldMillis <= 0) {
+            return 0;
+        }
+        double activeWeight = classQueue.weight;
+        for (ClassQueue other : classes.values()) {
+            if (other != classQueue && other.queued > 0) {
+                activeWeight += other.weight;
+            }
+        }
+        double share = classQueue.weight / activeWeight;
+        return (long) ((classQueue.queued + 1) * avgHoldMillis / (maxConcurrency * share));
+    }
+
+    /**
+     * 把空出的许可分配给排队的请求：虚拟时间最小的类别先得，分配后该类别的虚拟时间前进 1/权重；
+     * 调用方持有锁，返回的请求在释放锁之后再完成，避免在锁内执行下游订阅
+     */
+    private List<Waiter> dispatch() {
+        List<Waiter> granted = null;
+        while (inFlight < maxConcurrency) {
+            ClassQueue next = null;
+            for (ClassQueue classQueue : classes.values()) {
+                if (classQueue.queued > 0 && (next == null || classQueue.pass < next.pass)) {
+                    next = classQueue;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            Waiter waiter = next.poll();
+            virtualTime = next.pass;
+            next.pass += 1.0 / next.weight;
+            inFlight++;
+            next.admitted.increment();
+            next.recordWait(System.nanoTime() - waiter.enqueuedAtNanos);
+            if (granted == null) {
+                granted = new ArrayList<>();
+            }
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    /**
+     * 完成分配到许可的请求；请求已被取消时立即归还许可
+     */
+    private void complete(List<Waiter> granted) {
+        if (granted == null) {
+            return;
+        }
+        for (Waiter waiter : granted) {
+            Ticket ticket = new Ticket(waiter.classQueue.priorityClass);
+            if (!waiter.future.complete(ticket)) {
+                ticket.release();
+            }
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (lock) {
+            if (!waiter.classQueue.remove(waiter)) {
+                return;
+            }
+            waiter.classQueue.timedOut.increment();
+        }
+        log.debug("[expire] LLM调用排队超时: class={}, userKey={}", waiter.classQueue.priorityClass, waiter.userKey);
+        waiter.future.completeExceptionally(BusinessException.of(ErrorCode.UPSTREAM_BUSY, "服务繁忙，排队超时，请稍后重试"));
+    }
+
+    private void onCancelled(Waiter waiter) {
+        synchronized (lock) {
+            if (waiter.classQueue.remove(waiter)) {
+                waiter.classQueue.cancelled.increment();
+            }
+        }
+    }
+
+    private void onReleased(Ticket ticket) {
+        List<Waiter> granted;
+        synchronized (lock) {
+            inFlight--;
+            double holdMillis = (System.nanoTime() - ticket.grantedAtNanos) / 1_000_000.0;
+            avgHoldMillis = avgHoldMillis <= 0 ? holdMillis
+                    : avgHoldMillis + HOLD_SMOOTHING * (holdMillis - avgHoldMillis);
+            granted = dispatch();
+        }
+        complete(granted);
+    }
+
+    /**
+     * 放弃申请：还在排队时出队，已分配到许可时归还
+     */
+    private static void abandon(CompletableFuture<Ticket> admission) {
+        if (!admission.cancel(false) && !admission.isCompletedExceptionally()) {
+            admission.join().release();
+        }
+    }
+
+    private int queuedTotal() {
+        int queued = 0;
+        for (ClassQueue classQueue : classes.values()) {
+            queued += classQueue.queued;
+        }
+        return queued;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("llm.admission.in.flight", this, scheduler -> scheduler.locked(() -> scheduler.inFlight))
+                .description("正在进行的LLM调用数，流式回复占用到流结束")
+                .register(registry);
+        Gauge.builder("llm.admission.hold.avg", this, scheduler -> scheduler.locked(() -> scheduler.avgHoldMillis))
+                .description("许可占用时长的移动平均")
+                .baseUnit("milliseconds")
+                .register(registry);
+        for (ClassQueue classQueue : classes.values()) {
+            Tags tags = Tags.of("class", classQueue.priorityClass.name().toLowerCase());
+            Gauge.builder("llm.admission.queued", classQueue, queue -> locked(() -> queue.queued))
+                    .description("排队中的请求数")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("llm.admission.queued.users", classQueue, queue -> locked(queue.userQueues::size))
+                    .description("有请求排队的用户数")
+                    .tags(tags)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.admitted", classQueue.admitted, LongAdder::sum)
+                    .description("获得许可的请求数")
+                    .tags(tags)
+                    .register(registry);
+            registerRejected(registry, tags, "user_limit", classQueue.rejectedUserLimit);
+            registerRejected(registry, tags, "queue_full", classQueue.rejectedQueueFull);
+            registerRejected(registry, tags, "deadline", classQueue.rejectedDeadline);
+            FunctionCounter.builder("llm.admission.timed.out", classQueue.timedOut, LongAdder::sum)
+                    .description("排队超过截止时间后出队的请求数")
+                    .tags(tags)
+                    .register(registry);
+            FunctionCounter.builder("llm.admission.cancelled", classQueue.cancelled, LongAdder::sum)
+                    .description("排队期间被取消的请求数")
+                    .tags(tags)
+                    .register(registry);
+            classQueue.waitTimer = Timer.builder("llm.admission.wait")
+                    .description("获得许可的请求的排队时间")
+                    .tags(tags)
+                    .publishPercentileHistogram()
+                    .maximumExpectedValue(Duration.ofMillis(Math.max(1, classQueue.maxWaitMs)))
+                    .register(registry);
+        }
+    }
+
+    /**
+     * 入队时被拒绝的请求数，reason：user_limit 单个用户排队数超限、queue_full 类别队列已满、deadline 预计等待超过截止时间
+     */
+    private static void registerRejected(MeterRegistry registry, Tags tags, String reason, LongAdder rejected) {
+        FunctionCounter.builder("llm.admission.rejected", rejected, LongAdder::sum)
+                .description("入队时被拒绝的请求数")
+                .tags(tags.and("reason", reason))
+                .register(registry);
+    }
+
+    private double locked(DoubleSupplier reader) {
+        synchronized (lock) {
+            return reader.getAsDouble();
+        }
+    }
+
+    /**
+     * LLM调用许可，归还多次只生效一次
+     */
+    public final class Ticket {
+        private final PriorityClass priorityClass;
+        private final long grantedAtNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Ticket(PriorityClass priorityClass) {
+            this.priorityClass = priorityClass;
+        }
+
+        public PriorityClass getPriorityClass() {
+            return priorityClass;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                onReleased(this);
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final String userKey;
+        private final ClassQueue classQueue;
+        private final long enqueuedAtNanos = System.nanoTime();
+        private final CompletableFuture<Ticket> future = new CompletableFuture<>();
+
+        private Waiter(String userKey, ClassQueue classQueue) {
+            this.userKey = userKey;
+            this.classQueue = classQueue;
+        }
+    }
+
+    /**
+     * 一个优先级类别的排队状态，按用户分队列轮转出队；所有访问都在调度器的锁内
+     */
+    private static final class ClassQueue {
+        private final PriorityClass priorityClass;
+        private final double weight;
+        private final int maxQueued;
+        private final long maxWaitMs;
+
+        private final Map<String, ArrayDeque<Waiter>> userQueues = new HashMap<>();
+        // 有请求排队的用户，按轮转顺序
+        private final ArrayDeque<String> activeUsers = new ArrayDeque<>();
+        private int queued;
+        // 类别的虚拟时间，每分配一个许可前进 1/权重
+        private double pass;
+
+        private final LongAdder admitted = new LongAdder();
+        private final LongAdder rejectedUserLimit = new LongAdder();
+        private final LongAdder rejectedQueueFull = new LongAdder();
+        private final LongAdder rejectedDeadline = new LongAdder();
+        private final LongAdder timedOut = new LongAdder();
+        private final LongAdder cancelled = new LongAdder();
+        // 绑定指标注册表之前为null
+        private volatile Timer waitTimer;
+
+        private ClassQueue(PriorityClass priorityClass, ChatPipelineConfig.PriorityClassSettings settings) {
+            this.priorityClass = priorityClass;
+            this.weight = Math.max(1, settings.getWeight());
+            this.maxQueued = settings.getMaxQueued();
+            this.maxWaitMs = settings.getMaxWaitMs();
+        }
+
+        private void offer(Waiter waiter, double virtualTime) {
+            if (queued == 0) {
+                pass = Math.max(pass, virtualTime);
+            }
+            ArrayDeque<Waiter> userQueue = userQueues.computeIfAbsent(waiter.userKey, key -> new ArrayDeque<>());
+            if (userQueue.isEmpty()) {
+                activeUsers.addLast(waiter.userKey);
+            }
+            userQueue.addLast(waiter);
+            queued++;
+        }
+
+        /**
+         * 轮到的用户出队一个请求，该用户还有排队请求时排到轮转末尾
+         */
+        private Waiter poll() {
+            String userKey = activeUsers.pollFirst();
+            ArrayDeque<Waiter> userQueue = userQueues.get(userKey);
+            Waiter waiter = userQueue.pollFirst();
+            if (userQueue.isEmpty()) {
+                userQueues.remove(userKey);
+            } else {
+                activeUsers.addLast(userKey);
+            }
+            queued--;
+            return waiter;
+        }
+
+        /**
+         * 移除排队中的请求，请求已出队时返回false
+         */
+        private boolean remove(Waiter waiter) {
+            ArrayDeque<Waiter> userQueue = userQueues.get(waiter.userKey);
+            if (userQueue == null || !userQueue.remove(waiter)) {
+                return false;
+            }
+            if (userQueue.isEmpty()) {
+                userQueues.remove(waiter.userKey);
+                activeUsers.remove(waiter.userKey);
+            }
+            queued--;
+            return true;
+        }
+
+        private void recordWait(long waitNanos) {
+            Timer timer = waitTimer;
+            if (timer != null) {
+                timer.record(waitNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
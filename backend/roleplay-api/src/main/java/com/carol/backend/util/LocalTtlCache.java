@@ -0,0 +1,142 @@
+package com.carol.backend.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 进程内有界缓存
+ * 按访问顺序淘汰（LRU），条目带过期时间和写入时的版本号；
+ * invalidateAll 只递增版本号，旧版本条目在下次访问时视为失效，避免失效时长时间持锁；
+ * 任何失效都会推进加载栅栏，加载期间发生过失效的结果不写入缓存
+ *
+ * @param <K> 键类型
+ * @param <V> 值类型，不缓存null
+ */
+public class LocalTtlCache<K, V> {
+
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final Map<K, Entry<V>> entries;
+    private final AtomicLong version = new AtomicLong();
+    // 每次失效（单个或全部）递增，加载开始后有过失效时放弃写回
+    private final AtomicLong loadFence = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LocalTtlCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                boolean evict = size() > LocalTtlCache.this.maxEntries;
+                if (evict) {
+                    evictions.increment();
+                }
+                return evict;
+            }
+        };
+    }
+
+    /**
+     * 获取缓存值，未命中、过期或版本失效时调用loader加载并写入；loader返回null时不缓存
+     * 加载在锁外执行，并发未命中时可能重复加载
+     */
+    public V get(K key, Function<K, V> loader) {
+        long now = System.currentTimeMillis();
+        long currentVersion = version.get();
+        long fence = loadFence.get();
+        synchronized (entries) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null && entry.expireAt > now && entry.version == currentVersion) {
+                hits.increment();
+                return entry.value;
+            }
+        }
+
+        misses.increment();
+        V value = loader.apply(key);
+        if (value != null) {
+            synchronized (entries) {
+                // 加载期间发生过失效时不写入，避免写回旧数据；其他键的失效也会放弃本次写回，下次访问重新加载
+                if (loadFence.get() == fence) {
+                    entries.put(key, new Entry<>(value, now + ttlMillis, currentVersion));
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * 失效单个条目
+     */
+    public void invalidate(K key) {
+        synchronized (entries) {
+            loadFence.incrementAndGet();
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * 失效全部条目
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            version.incrementAndGet();
+            loadFence.incrementAndGet();
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * 注册命中、未命中、淘汰次数和条目数指标，以 cache 标签区分不同的缓存
+     */
+    public void registerMetrics(MeterRegistry registry, String name) {
+        FunctionCounter.builder("local.cache.gets", hits, LongAdder::sum)
+                .description("本地缓存查询次数")
+                .tags("cache", name, "result", "hit")
+                .register(registry);
+        FunctionCounter.builder("local.cache.gets", misses, LongAdder::sum)
+                .description("本地缓存查询次数")
+                .tags("cache", name, "result", "miss")
+                .register(registry);
+        FunctionCounter.builder("local.cache.evictions", evictions, LongAdder::sum)
+                .description("超出容量被淘汰的条目数")
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("local.cache.size", this, LocalTtlCache::size)
+                .description("本地缓存条目数")
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    private record Entry<V>(V value, long expireAt, long version) {
+    }
+}
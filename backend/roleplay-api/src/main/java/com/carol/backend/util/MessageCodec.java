@@ -0,0 +1,27 @@
+package com.carol.backend.util;
+
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+
+/**
+ * 会话消息编解码器
+ * 每种格式由首字节区分，读取时按首字节选择解码器，不同格式的消息可以在同一会话中混存
+ */
+public interface MessageCodec {
+
+    /**
+     * 编码一条消息（不包含消息ID，消息ID由存储结构提供）
+     */
+    byte[] encode(StoredMessage message);
+
+    /**
+     * 解码一条消息
+     *
+     * @throws IllegalArgumentException 数据格式错误
+     */
+    StoredMessage decode(byte[] data);
+
+    /**
+     * 是否能解码该数据（按首字节判断）
+     */
+    boolean canDecode(byte[] data);
+}
@@ -0,0 +1,190 @@
+package com.carol.backend.util;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Flux;
+
+import java.io.InterruptedIOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 相同请求合并执行（singleflight）
+ * 同一个键同时只执行一次：执行期间到达的相同请求不再重复执行，而是等待并共享正在进行的那次结果；
+ * 执行结束后键即移除，之后的请求重新执行（只合并并发请求，不做结果缓存）
+ *
+ * - {@link #execute} 合并阻塞调用，跟随者在自己的期限内等待同一个结果或同一个异常；
+ *   执行者因被中断而失败时不把该失败交给跟随者，跟随者重新执行
+ * - {@link #stream} 合并流式调用，跟随者从头回放已产生的元素并继续接收后续元素；
+ *   所有订阅者都取消后才取消上游，任意一个客户端断开不影响其他订阅者
+ */
+public class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, Flux<V>> streams = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 执行阻塞调用，相同键的调用正在进行时等待其结果
+     * 跟随者最多等待 timeout，超时时抛出以 {@link TimeoutException} 为原因的 {@link CompletionException}；
+     * 等待可以被中断，中断时保留中断标记并抛出以 {@link InterruptedException} 为原因的 {@link CompletionException}
+     */
+    public V execute(K key, Duration timeout, Supplier<V> call) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        boolean joined = false;
+        while (true) {
+            CompletableFuture<V> created = new CompletableFuture<>();
+            CompletableFuture<V> inFlight = calls.putIfAbsent(key, created);
+            if (inFlight == null) {
+                return lead(key, created, call);
+            }
+            if (!joined) {
+                coalesced.increment();
+                joined = true;
+            }
+            try {
+                return inFlight.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof LeaderInterruptedException) {
+                    // 执行者被中断与本次请求无关，在剩余期限内重新执行或加入新的执行
+                    continue;
+                }
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+                throw new CompletionException(cause);
+            } catch (TimeoutException e) {
+                throw new CompletionException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }
+    }
+
+    /**
+     * 作为执行者运行调用；先移除键再发布结果，重新执行的跟随者不会再拿到这次的结果
+     */
+    private V lead(K key, CompletableFuture<V> created, Supplier<V> call) {
+        executed.increment();
+        V value;
+        try {
+            value = call.get();
+        } catch (RuntimeException | Error e) {
+            calls.remove(key, created);
+            created.completeExceptionally(causedByInterrupt(e) ? new LeaderInterruptedException() : e);
+            throw e;
+        }
+        calls.remove(key, created);
+        created.complete(value);
+        return value;
+    }
+
+    /**
+     * 执行者线程被中断（如调用方超时后取消任务）导致的失败
+     */
+    private static boolean causedByInterrupt(Throwable error) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof InterruptedIOException
+                    || cause instanceof ClosedByInterruptException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 订阅流式调用，相同键的流正在进行时加入该流；流结束、出错或全部订阅者取消后移除
+     */
+    public Flux<V> stream(K key, Supplier<? extends Flux<V>> source) {
+        return Flux.defer(() -> {
+            Flux<V> created = share(key, source);
+            Flux<V> inFlight = streams.putIfAbsent(key, created);
+            if (inFlight != null) {
+                coalesced.increment();
+                return inFlight;
+            }
+            executed.increment();
+            return created;
+        });
+    }
+
+    /**
+     * 上游终止（完成、出错、最后一个订阅者取消）时先移除键，再把终止信号交给回放，
+     * 之后到达的相同请求重新执行
+     */
+    private Flux<V> share(K key, Supplier<? extends Flux<V>> source) {
+        AtomicReference<Flux<V>> self = new AtomicReference<>();
+        Flux<V> shared = Flux.defer(source)
+                .doOnTerminate(() -> streams.remove(key, self.get()))
+                .doOnCancel(() -> streams.remove(key, self.get()))
+                .replay()
+                .refCount();
+        self.set(shared);
+        return shared;
+    }
+
+    /**
+     * 正在执行的调用数和流数
+     */
+    public int getInFlight() {
+        return calls.size() + streams.size();
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    /**
+     * 合并到正在进行的调用、没有重复执行的请求数
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 注册合并指标，以 name 标签区分不同的合并点
+     */
+    public void registerMetrics(MeterRegistry registry, String name) {
+        FunctionCounter.builder("singleflight.executed", executed, LongAdder::sum)
+                .description("实际执行的调用数")
+                .tag("name", name)
+                .register(registry);
+        FunctionCounter.builder("singleflight.coalesced", coalesced, LongAdder::sum)
+                .description("合并到正在进行的调用、没有重复执行的请求数")
+                .tag("name", name)
+                .register(registry);
+        Gauge.builder("singleflight.in.flight", this, SingleFlight::getInFlight)
+                .description("正在执行的调用数和流数")
+                .tag("name", name)
+                .register(registry);
+    }
+
+    /**
+     * 交给跟随者的执行者中断信号，跟随者收到后重新执行
+     */
+    private static final class LeaderInterruptedException extends RuntimeException {
+        private LeaderInterruptedException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -36,7 +36,11 @@ public class TtsSegmentUtil {
     // TTS并发处理线程池
     private final ThreadPoolTaskExecutor ttsExecutor;
 
-    public TtsSegmentUtil() {
+    // 上游TTS调用并发由许可限制
+    private final BlockingTaskExecutor blockingTaskExecutor;
+
+    public TtsSegmentUtil(BlockingTaskExecutor blockingTaskExecutor) {
+        this.blockingTaskExecutor = blockingTaskExecutor;
         this.ttsExecutor = createTtsThreadPool();
     }
 
@@ -164,7 +168,13 @@ public class TtsSegmentUtil {
                 .build();
         
         MultiModalConversation conv = new MultiModalConversation();
-        MultiModalConversationResult result = conv.call(param);
+        MultiModalConversationResult result;
+        blockingTaskExecutor.getTtsLimiter().acquire();
+        try {
+            result = conv.call(param);
+        } finally {
+            blockingTaskExecutor.getTtsLimiter().release();
+        }
         
         if (result == null || result.getOutput() == null || result.getOutput().getAudio() == null) {
             throw new RuntimeException("TTS段落合成失败: 返回结果为空");
@@ -214,33 +224,35 @@ public class TtsSegmentUtil {
         }
         
         try {
-            // 读取第一个音频作为基准
-            AudioInputStream baseStream = AudioSystem.getAudioInputStream(
-                new ByteArrayInputStream(audioSegments.get(0)));
-            AudioFormat format = baseStream.getFormat();
+            AudioFormat format = null;
+            ByteArrayOutputStream pcmStream = new ByteArrayOutputStream();
             
-            ByteArrayOutputStream concatenatedStream = new ByteArrayOutputStream();
-            
-            // 写入WAV头（先写入第一个文件）
-            concatenatedStream.write(audioSegments.get(0));
-            
-            // 追加后续音频数据（跳过WAV头）
-            for (int i = 1; i < audioSegments.size(); i++) {
-                AudioInputStream nextStream = AudioSystem.getAudioInputStream(
-                    new ByteArrayInputStream(audioSegments.get(i)));
-                
-                // 跳过WAV头，只读取音频数据
-                byte[] buffer = new byte[1024];
-                while (nextStream.read(buffer) != -1) {
-                    concatenatedStream.write(buffer);
+            // 只拼接PCM数据，WAV头在最后按总长度重新生成
+            for (int i = 0; i < audioSegments.size(); i++) {
+                try (AudioInputStream segmentStream = AudioSystem.getAudioInputStream(
+                        new ByteArrayInputStream(audioSegments.get(i)))) {
+                    if (format == null) {
+                        format = segmentStream.getFormat();
+                    } else {
+                        // 在段落间添加0.3秒静音
+                        addSilence(pcmStream, format, 0.3);
+                    }
+                    
+                    byte[] buffer = new byte[4096];
+                    int bytesRead;
+                    while ((bytesRead = segmentStream.read(buffer)) != -1) {
+                        pcmStream.write(buffer, 0, bytesRead);
+                    }
                 }
-                nextStream.close();
-                
-                // 在段落间添加0.3秒静音
-                addSilence(concatenatedStream, format, 0.3);
             }
             
-            baseStream.close();
+            byte[] pcmData = pcmStream.toByteArray();
+            ByteArrayOutputStream concatenatedStream = new ByteArrayOutputStream(pcmData.length + 44);
+            try (AudioInputStream concatenated = new AudioInputStream(
+                    new ByteArrayInputStream(pcmData), format, pcmData.length / format.getFrameSize())) {
+                AudioSystem.write(concatenated, AudioFileFormat.Type.WAVE, concatenatedStream);
+            }
+            
             log.info("音频拼接完成: {}个段落 → {}字节", audioSegments.size(), concatenatedStream.size());
             return concatenatedStream.toByteArray();
             
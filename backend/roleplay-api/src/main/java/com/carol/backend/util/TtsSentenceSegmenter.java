@@ -0,0 +1,137 @@
+package com.carol.backend.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 流式分句器
+ * 在LLM逐块输出文本的同时切出完整的句子，供TTS逐句合成；每个流式回复使用一个实例，非线程安全
+ *
+ * 切分规则：
+ * 1. 句末标点（。！？；… 换行）处切分，句子长度不足最小长度时与下一句合并
+ * 2. 英文句点只有后面跟空白时才视为句末，避免切断小数和缩写
+ * 3. 句子超过最大长度时，在最近的逗号、顿号、冒号处切分；仍找不到时按最大长度硬切
+ * 4. 句末标点后紧跟的右引号、右括号归入当前句
+ */
+public class TtsSentenceSegmenter {
+
+    private static final String SENTENCE_END = "。！？!?；;…\n";
+    private static final String SOFT_BREAK = "，,、：:";
+    private static final String CLOSING = "”’\"'）)】」』》";
+
+    private final int minLength;
+    private final int maxLength;
+
+    private final StringBuilder buffer = new StringBuilder();
+
+    // 下一次扫描的起始位置，避免每次追加都从头扫描
+    private int scanIndex = 0;
+
+    // 当前缓冲区中最后一个软切分点（切分后的位置），-1表示没有
+    private int lastSoftBreak = -1;
+
+    public TtsSentenceSegmenter(int minLength, int maxLength) {
+        if (minLength < 1 || maxLength < minLength) {
+            throw new IllegalArgumentException("minLength必须≥1且不大于maxLength");
+        }
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * 追加一段流式文本，返回本次追加后完成的句子（可能为空）
+     */
+    public List<String> append(String chunk) {
+        List<String> sentences = new ArrayList<>(1);
+        if (chunk == null || chunk.isEmpty()) {
+            return sentences;
+        }
+        buffer.append(chunk);
+
+        while (scanIndex < buffer.length()) {
+            char c = buffer.charAt(scanIndex);
+            int cut = -1;
+
+            if (SENTENCE_END.indexOf(c) >= 0 || isSentencePeriod(scanIndex)) {
+                int end = absorbClosing(scanIndex + 1);
+                if (end < 0) {
+                    // 句末标点位于缓冲区末尾，等待下一块确认后面是否还有右引号
+                    break;
+                }
+                if (visibleLength(end) >= minLength) {
+                    cut = end;
+                } else {
+                    scanIndex = end;
+                    continue;
+                }
+            } else if (c == '.' && scanIndex == buffer.length() - 1) {
+                // 英文句点位于末尾，等待下一块确认是否为句末
+                break;
+            } else if (SOFT_BREAK.indexOf(c) >= 0) {
+                lastSoftBreak = scanIndex + 1;
+            }
+
+            if (cut < 0 && scanIndex + 1 >= maxLength) {
+                cut = lastSoftBreak > 0 ? lastSoftBreak : scanIndex + 1;
+            }
+
+            if (cut > 0) {
+                emit(cut, sentences);
+            } else {
+                scanIndex++;
+            }
+        }
+        return sentences;
+    }
+
+    /**
+     * 流结束时取出剩余文本（可能为null）
+     */
+    public String flush() {
+        String rest = buffer.toString().trim();
+        buffer.setLength(0);
+        scanIndex = 0;
+        lastSoftBreak = -1;
+        return rest.isEmpty() ? null : rest;
+    }
+
+    private void emit(int end, List<String> sentences) {
+        String sentence = buffer.substring(0, end).trim();
+        buffer.delete(0, end);
+        scanIndex = 0;
+        lastSoftBreak = -1;
+        if (!sentence.isEmpty()) {
+            sentences.add(sentence);
+        }
+    }
+
+    /**
+     * 英文句点后跟空白时视为句末
+     */
+    private boolean isSentencePeriod(int index) {
+        return buffer.charAt(index) == '.'
+                && index + 1 < buffer.length()
+                && Character.isWhitespace(buffer.charAt(index + 1));
+    }
+
+    /**
+     * 将句末标点后的右引号、右括号并入当前句，返回切分位置；到达缓冲区末尾时返回-1
+     */
+    private int absorbClosing(int from) {
+        int end = from;
+        while (end < buffer.length() && CLOSING.indexOf(buffer.charAt(end)) >= 0) {
+            end++;
+        }
+        return end < buffer.length() ? end : -1;
+    }
+
+    private int visibleLength(int end) {
+        int length = 0;
+        for (int i = 0; i < end; i++) {
+            if (!Character.isWhitespace(buffer.charAt(i))) {
+                length++;
+            }
+        }
+        return length;
+    }
+}
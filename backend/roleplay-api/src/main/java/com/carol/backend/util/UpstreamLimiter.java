@@ -0,0 +1,91 @@
+package com.carol.backend.util;
+
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 上游调用并发限制
+ * 用公平信号量限制同时进行的上游调用数：调用方线程可以很多（虚拟线程），占用上游连接和配额的调用数不变；
+ * 等待超过 acquireTimeoutMs 时抛出 UPSTREAM_BUSY，避免请求无限排队
+ */
+public class UpstreamLimiter {
+
+    private final String name;
+    private final int permits;
+    private final long acquireTimeoutMs;
+    private final Semaphore semaphore;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public UpstreamLimiter(String name, int permits, long acquireTimeoutMs) {
+        this.name = name;
+        this.permits = permits;
+        this.acquireTimeoutMs = acquireTimeoutMs;
+        this.semaphore = new Semaphore(permits, true);
+    }
+
+    /**
+     * 获取一个许可，调用方必须在 finally 中调用 release；会话期间占用许可的调用（流式识别）在会话结束时释放
+     */
+    public void acquire() {
+        boolean granted;
+        try {
+            granted = semaphore.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw BusinessException.of(ErrorCode.UPSTREAM_BUSY, name + " 等待许可时被中断");
+        }
+        if (!granted) {
+            rejected.increment();
+            throw BusinessException.of(ErrorCode.UPSTREAM_BUSY,
+                    name + " 并发已满（" + permits + "），请稍后重试");
+        }
+        acquired.increment();
+    }
+
+    public void release() {
+        semaphore.release();
+    }
+
+    /**
+     * 在许可内执行一次上游调用
+     */
+    public <T> T call(Supplier<T> upstreamCall) {
+        acquire();
+        try {
+            return upstreamCall.get();
+        } finally {
+            release();
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPermits() {
+        return permits;
+    }
+
+    public int getInUse() {
+        return permits - semaphore.availablePermits();
+    }
+
+    public int getWaiting() {
+        return semaphore.getQueueLength();
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
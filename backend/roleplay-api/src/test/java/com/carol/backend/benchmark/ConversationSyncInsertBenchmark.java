@@ -0,0 +1,171 @@
+package com.carol.backend.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话同步写入MySQL的吞吐基准测试（每秒写入的消息数）
+ * 对比逐条INSERT（自动提交，即原来每条消息调用一次 mapper.insert）与单事务内按块多行INSERT（insertBatch）
+ *
+ * 需要可用的MySQL（默认使用开发环境数据库），在临时表 conversation_messages_bench 中写入，结束后删除；
+ * 连接参数可通过 -Dbenchmark.jdbc.url、-Dbenchmark.jdbc.username、-Dbenchmark.jdbc.password 覆盖
+ *
+ * 运行方式：mvn -pl roleplay-api test-compile exec:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.carol.backend.benchmark.ConversationSyncInsertBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversationSyncInsertBenchmark {
+
+    private static final int MESSAGE_COUNT = 1000;
+    private static final String TABLE = "conversation_messages_bench";
+    private static final String COLUMNS = "(conversation_id, session_id, message_index, message_type, content, "
+            + "content_length, token_count, language, sync_source, message_timestamp)";
+    private static final String ROW_PLACEHOLDERS = "(?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private Connection connection;
+    private String[] contents;
+    private int messageIndexOffset;
+
+    /**
+     * 每条多行INSERT的行数
+     */
+    @State(Scope.Benchmark)
+    public static class Chunk {
+        @Param({"100", "500", "1000"})
+        int size;
+    }
+
+    @Setup
+    public void setup() throws SQLException {
+        connection = DriverManager.getConnection(
+                System.getProperty("benchmark.jdbc.url", "jdbc:mysql://localhost:3306/ai_roleplay?useUnicode=true"
+                        + "&characterEncoding=UTF-8&useSSL=false&serverTimezone=Asia/Shanghai"
+                        + "&allowPublicKeyRetrieval=true&rewriteBatchedStatements=true"),
+                System.getProperty("benchmark.jdbc.username", "roleplay"),
+                System.getProperty("benchmark.jdbc.password", "roleplay123"));
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+            statement.execute("CREATE TABLE " + TABLE + " LIKE conversation_messages");
+        }
+
+        contents = new String[MESSAGE_COUNT];
+        for (int i = 0; i < MESSAGE_COUNT; i++) {
+            contents[i] = i % 2 == 0 ? "第" + i + "轮：今天的魔药课怎么样？"
+                    : "斯内普教授今天又给格兰芬多扣了十分，不过赫敏的魔药做得完美无缺。".repeat(1 + i % 4);
+        }
+    }
+
+    /**
+     * 每轮清空临时表，避免表越写越大影响后续轮次
+     */
+    @Setup(Level.Iteration)
+    public void truncate() throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE TABLE " + TABLE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.setAutoCommit(true);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS " + TABLE);
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void insertRowByRow() throws SQLException {
+        connection.setAutoCommit(true);
+        int base = nextOffset();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "INSERT INTO " + TABLE + " " + COLUMNS + " VALUES " + ROW_PLACEHOLDERS)) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                bindRow(statement, 0, base, i);
+                statement.executeUpdate();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGE_COUNT)
+    public void insertMultiRowChunks(Chunk chunk) throws SQLException {
+        connection.setAutoCommit(false);
+        int base = nextOffset();
+        for (int from = 0; from < MESSAGE_COUNT; from += chunk.size) {
+            int rows = Math.min(chunk.size, MESSAGE_COUNT - from);
+            StringBuilder sql = new StringBuilder("INSERT INTO ").append(TABLE).append(' ')
+                    .append(COLUMNS).append(" VALUES ");
+            for (int r = 0; r < rows; r++) {
+                sql.append(r == 0 ? "" : ",").append(ROW_PLACEHOLDERS);
+            }
+            try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                for (int r = 0; r < rows; r++) {
+                    bindRow(statement, r * 10, base, from + r);
+                }
+                statement.executeUpdate();
+            }
+        }
+        connection.commit();
+    }
+
+    /**
+     * 每次调用使用新的消息序号，避免 (session_id, message_index) 唯一键冲突
+     */
+    private int nextOffset() {
+        int base = messageIndexOffset;
+        messageIndexOffset += MESSAGE_COUNT;
+        return base;
+    }
+
+    private void bindRow(PreparedStatement statement, int offset, int base, int i) throws SQLException {
+        String content = contents[i];
+        statement.setLong(offset + 1, 1L);
+        statement.setString(offset + 2, "user_bench_char_1");
+        statement.setInt(offset + 3, base + i + 1);
+        statement.setInt(offset + 4, i % 2 == 0 ? 1 : 2);
+        statement.setString(offset + 5, content);
+        statement.setInt(offset + 6, content.length());
+        statement.setInt(offset + 7, (int) (content.length() * 1.2));
+        statement.setString(offset + 8, "zh");
+        statement.setString(offset + 9, "redis");
+        statement.setTimestamp(offset + 10, Timestamp.valueOf(LocalDateTime.of(2025, 1, 15, 0, 0).plusSeconds(i)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ConversationSyncInsertBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,149 @@
+package com.carol.backend.benchmark;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.carol.backend.util.ConversationMessageCodec;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 会话消息编解码基准测试
+ * 对比旧的JSON格式与紧凑二进制格式的单条编解码耗时，以及冷存储blob的打包/解包耗时；
+ * setup 中打印每千条消息的编码字节数，用于对比存储占用
+ *
+ * 运行方式：mvn -pl roleplay-api test-compile exec:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.carol.backend.benchmark.MessageCodecBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+    private static final int MESSAGE_COUNT = 1000;
+
+    private ConversationMessageCodec jsonCodec;
+    private ConversationMessageCodec binaryCodec;
+    private StoredMessage shortMessage;
+    private StoredMessage longMessage;
+    private byte[] shortJson;
+    private byte[] shortBinary;
+    private byte[] longJson;
+    private byte[] longBinary;
+    private List<StoredMessage> conversation;
+    private byte[] coldBlob;
+
+    @Setup
+    public void setup() {
+        ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+        ChatMemoryConfig jsonConfig = new ChatMemoryConfig();
+        jsonConfig.getStorage().setCodec(ChatMemoryConfig.CodecFormat.JSON);
+        jsonCodec = new ConversationMessageCodec(jsonConfig, objectMapper);
+        binaryCodec = new ConversationMessageCodec(new ChatMemoryConfig(), objectMapper);
+
+        shortMessage = message(1, "今天的魔药课怎么样？", true);
+        longMessage = message(2, "斯内普教授今天又给格兰芬多扣了十分，不过赫敏的魔药做得完美无缺，他也挑不出毛病。".repeat(6), false);
+        shortJson = jsonCodec.encode(shortMessage);
+        shortBinary = binaryCodec.encode(shortMessage);
+        longJson = jsonCodec.encode(longMessage);
+        longBinary = binaryCodec.encode(longMessage);
+
+        conversation = new ArrayList<>(MESSAGE_COUNT);
+        long jsonBytes = 0;
+        long binaryBytes = 0;
+        for (int i = 1; i <= MESSAGE_COUNT; i++) {
+            StoredMessage message = i % 2 == 1 ? message(i, "第" + i + "轮：" + shortMessage.getContent(), true)
+                    : message(i, longMessage.getContent().substring(0, 20 + i % 80), false);
+            conversation.add(message);
+            jsonBytes += jsonCodec.encode(message).length;
+            binaryBytes += binaryCodec.encode(message).length;
+        }
+        coldBlob = binaryCodec.encodeColdBlob(conversation);
+        System.out.printf("%n每千条消息编码字节数: json=%d, binary=%d, coldBlob=%d%n",
+                jsonBytes, binaryBytes, coldBlob.length);
+    }
+
+    @Benchmark
+    public byte[] encodeShortJson() {
+        return jsonCodec.encode(shortMessage);
+    }
+
+    @Benchmark
+    public byte[] encodeShortBinary() {
+        return binaryCodec.encode(shortMessage);
+    }
+
+    @Benchmark
+    public StoredMessage decodeShortJson() {
+        return jsonCodec.decode(shortJson);
+    }
+
+    @Benchmark
+    public StoredMessage decodeShortBinary() {
+        return binaryCodec.decode(shortBinary);
+    }
+
+    @Benchmark
+    public byte[] encodeLongJson() {
+        return jsonCodec.encode(longMessage);
+    }
+
+    @Benchmark
+    public byte[] encodeLongBinary() {
+        return binaryCodec.encode(longMessage);
+    }
+
+    @Benchmark
+    public StoredMessage decodeLongJson() {
+        return jsonCodec.decode(longJson);
+    }
+
+    @Benchmark
+    public StoredMessage decodeLongBinary() {
+        return binaryCodec.decode(longBinary);
+    }
+
+    @Benchmark
+    public byte[] packColdBlob() {
+        return binaryCodec.encodeColdBlob(conversation);
+    }
+
+    @Benchmark
+    public List<StoredMessage> unpackColdBlob() {
+        return binaryCodec.decodeColdBlob(coldBlob);
+    }
+
+    private static StoredMessage message(long id, String content, boolean isUser) {
+        StoredMessage message = new StoredMessage();
+        message.setId(id);
+        message.setContent(content);
+        message.setIsUser(isUser);
+        message.setTimestamp(1736899200000L + id * 1000);
+        message.setMessageType(isUser ? "USER" : "ASSISTANT");
+        return message;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(MessageCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
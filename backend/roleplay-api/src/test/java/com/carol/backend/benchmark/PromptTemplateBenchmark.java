@@ -0,0 +1,147 @@
+package com.carol.backend.benchmark;
+
+import ch.qos.logback.classic.Level;
+import com.carol.backend.config.CharacterCacheConfig;
+import com.carol.backend.entity.Character;
+import com.carol.backend.entity.CharacterKnowledge;
+import com.carol.backend.service.impl.PromptTemplateServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.prompt.SystemPromptTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 系统提示词渲染基准测试
+ * 对比每次请求新建SystemPromptTemplate（重新读取、解析模板）与预编译模板 + 按角色版本缓存的单次渲染耗时
+ *
+ * 运行方式：mvn -pl roleplay-api test-compile exec:java -Dexec.classpathScope=test
+ *          -Dexec.mainClass=com.carol.backend.benchmark.PromptTemplateBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PromptTemplateBenchmark {
+
+    private Resource roleTemplate;
+    private Resource ragTemplate;
+    private PromptTemplateServiceImpl promptTemplateService;
+    private Character character;
+    private List<CharacterKnowledge> knowledge;
+
+    @Setup
+    public void setup() {
+        // 服务每次调用都会打INFO日志，基准测试中关闭以免干扰结果
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        roleTemplate = new ClassPathResource("prompts/character-role.st");
+        ragTemplate = new ClassPathResource("prompts/character-role-rag.st");
+
+        promptTemplateService = new PromptTemplateServiceImpl(new CharacterCacheConfig());
+        ReflectionTestUtils.setField(promptTemplateService, "characterRoleTemplate", roleTemplate);
+        ReflectionTestUtils.setField(promptTemplateService, "defaultSystemTemplate", new ClassPathResource("prompts/default-system.st"));
+        ReflectionTestUtils.setField(promptTemplateService, "characterRoleRAGTemplate", ragTemplate);
+        promptTemplateService.compileTemplates();
+
+        character = new Character();
+        character.setId(1L);
+        character.setName("哈利·波特");
+        character.setBackgroundStory("在霍格沃茨魔法学校就读的年轻巫师，大难不死的男孩。");
+        character.setPersonalityTraits("勇敢、忠诚、有正义感");
+        character.setSpeakingStyle("直率、真诚，偶尔带点英式幽默");
+        character.setExpertiseArea("魔法、魁地奇、黑魔法防御术");
+        character.setVoiceStyle("default");
+        character.setUpdatedAt(LocalDateTime.of(2025, 1, 15, 0, 0));
+
+        knowledge = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            CharacterKnowledge item = new CharacterKnowledge();
+            item.setTitle("知识条目" + i);
+            item.setKnowledgeType("BACKGROUND");
+            item.setContent("这是第" + i + "条与问题相关的角色知识，用于模拟RAG检索结果的长度。".repeat(8));
+            knowledge.add(item);
+        }
+    }
+
+    @Benchmark
+    public Message legacyCharacterPrompt() {
+        return new SystemPromptTemplate(roleTemplate).createMessage(legacyVariables());
+    }
+
+    @Benchmark
+    public Message compiledCharacterPrompt() {
+        return promptTemplateService.createCharacterSystemMessage(character, true);
+    }
+
+    @Benchmark
+    public Message legacyRagPrompt() {
+        Map<String, Object> variables = legacyVariables();
+        variables.put("knowledge_context", knowledgeContext());
+        variables.put("knowledge_count", knowledge.size());
+        return new SystemPromptTemplate(ragTemplate).createMessage(variables);
+    }
+
+    @Benchmark
+    public Message compiledRagPrompt() {
+        return promptTemplateService.createCharacterSystemMessageWithRAG(character, knowledge, true);
+    }
+
+    /**
+     * 与改造前的变量构建逻辑一致
+     */
+    private Map<String, Object> legacyVariables() {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("character_name", character.getDisplayName());
+        variables.put("background_story", character.getBackgroundStory());
+        variables.put("personality_traits", character.getPersonalityTraits());
+        variables.put("speaking_style", character.getSpeakingStyle());
+        variables.put("expertise_area", character.getExpertiseArea());
+        variables.put("voice_style", character.getVoiceStyle());
+        variables.put("tts_length_limit", "- 回复不要超过200个字，保持简洁明了。");
+        variables.put("tts_format_restrictions",
+                "- **语音合成格式要求**: 不要使用括号描述动作或心理活动（如：（推了推眼镜）、（思考中）、（笑了笑）等），" +
+                "因为这些内容不适合语音播放。请直接用对话和叙述的方式表达。");
+        return variables;
+    }
+
+    private String knowledgeContext() {
+        StringBuilder context = new StringBuilder();
+        for (int i = 0; i < knowledge.size(); i++) {
+            CharacterKnowledge item = knowledge.get(i);
+            context.append(i + 1).append(". **").append(item.getTitle()).append("**\n")
+                    .append("类型: ").append(item.getKnowledgeType()).append("\n")
+                    .append(item.getContent()).append("\n\n");
+        }
+        return context.toString();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(PromptTemplateBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,147 @@
+package com.carol.backend.benchmark;
+
+import com.carol.backend.config.BlockingExecutionConfig;
+import com.carol.backend.util.BlockingTaskExecutor;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 并发SSE流容量负载测试：对比平台线程与虚拟线程模式下每GB堆能同时维持的流数
+ * 每条流模拟一次流式TTS/聊天回复：在阻塞调用执行器中阻塞等待上游分片（blockingForEach），收到后写入响应并累积回复内容；
+ * 全部流进入稳态后GC并采样堆占用和进程RSS（平台线程栈不在堆内，两项都要看）
+ *
+ * 参数（系统属性）：
+ * -Dloadtest.virtual=true|false  执行模式，虚拟线程需要Java 21（mvn -Ploom）
+ * -Dloadtest.streams=10000       目标并发流数，平台线程模式创建线程失败时以已建立的流数为准
+ * -Dloadtest.chunks=50           每条流的分片数
+ * -Dloadtest.chunkIntervalMs=200 上游分片间隔
+ *
+ * 运行方式（两种模式使用相同的 -Xmx）：
+ * mvn -pl roleplay-api test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.carol.backend.benchmark.SseStreamCapacityLoadTest -Dloadtest.virtual=false
+ * mvn -Ploom -pl roleplay-api test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.carol.backend.benchmark.SseStreamCapacityLoadTest -Dloadtest.virtual=true
+ */
+public class SseStreamCapacityLoadTest {
+
+    private static final double BYTES_PER_GB = 1024.0 * 1024 * 1024;
+    private static final String CHUNK = "斯内普教授今天又给格兰芬多扣了十分。";
+
+    public static void main(String[] args) throws Exception {
+        boolean virtual = Boolean.getBoolean("loadtest.virtual");
+        int streams = Integer.getInteger("loadtest.streams", 10000);
+        int chunks = Integer.getInteger("loadtest.chunks", 50);
+        long chunkIntervalMs = Long.getLong("loadtest.chunkIntervalMs", 200L);
+
+        BlockingTaskExecutor executor = new BlockingTaskExecutor(new BlockingExecutionConfig(),
+                new MockEnvironment().withProperty("spring.threads.virtual.enabled", String.valueOf(virtual)));
+        if (executor.isVirtualThreads() != virtual) {
+            System.out.println("当前JRE不支持虚拟线程（需要Java 21），请使用 -Ploom 运行");
+            return;
+        }
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        forceGc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        long baselineRss = readRssBytes();
+
+        AtomicInteger active = new AtomicInteger();
+        AtomicLong bytesWritten = new AtomicLong();
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(streams);
+        int started = 0;
+        long rampStart = System.currentTimeMillis();
+        try {
+            for (; started < streams; started++) {
+                executor.execute(() -> {
+                    active.incrementAndGet();
+                    try {
+                        runStream(chunks, chunkIntervalMs, release, bytesWritten);
+                    } finally {
+                        active.decrementAndGet();
+                        finished.countDown();
+                    }
+                });
+            }
+        } catch (OutOfMemoryError | RuntimeException e) {
+            // 平台线程模式在线程数达到系统上限时创建失败
+            System.out.println("建立第 " + (started + 1) + " 条流时失败: " + e);
+        }
+
+        // 全部流都阻塞在第一个分片上时为稳态
+        while (active.get() < started) {
+            Thread.sleep(50);
+        }
+        long rampMillis = System.currentTimeMillis() - rampStart;
+        forceGc();
+        long heapDelta = memory.getHeapMemoryUsage().getUsed() - baselineHeap;
+        long rssDelta = readRssBytes() - baselineRss;
+        int liveThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        release.countDown();
+        for (int i = started; i < streams; i++) {
+            finished.countDown();
+        }
+        finished.await(chunks * chunkIntervalMs + 60_000, TimeUnit.MILLISECONDS);
+        executor.shutdown();
+
+        System.out.printf("模式=%s 并发流=%d 建立耗时=%dms 平台线程数=%d%n",
+                virtual ? "虚拟线程" : "平台线程", started, rampMillis, liveThreads);
+        System.out.printf("堆增量=%.1fMB 每GB堆流数=%.0f%n",
+                heapDelta / 1024.0 / 1024, started / Math.max(heapDelta / BYTES_PER_GB, 1e-9));
+        if (baselineRss > 0) {
+            System.out.printf("RSS增量=%.1fMB 每GB RSS流数=%.0f%n",
+                    rssDelta / 1024.0 / 1024, started / Math.max(rssDelta / BYTES_PER_GB, 1e-9));
+        }
+        System.out.printf("写出=%dKB%n", bytesWritten.get() / 1024);
+    }
+
+    /**
+     * 第一个分片等待所有流建立后才到达，之后按固定间隔到达
+     */
+    private static void runStream(int chunks, long chunkIntervalMs, CountDownLatch release, AtomicLong bytesWritten) {
+        StringBuilder reply = new StringBuilder();
+        try {
+            release.await();
+            for (int i = 0; i < chunks; i++) {
+                Thread.sleep(chunkIntervalMs);
+                reply.append(CHUNK);
+                bytesWritten.addAndGet(("event: audio-chunk\ndata: " + CHUNK + "\n\n").length());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void forceGc() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+    }
+
+    /**
+     * 进程常驻内存（仅Linux），读取失败时返回0
+     */
+    private static long readRssBytes() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+        return 0;
+    }
+}
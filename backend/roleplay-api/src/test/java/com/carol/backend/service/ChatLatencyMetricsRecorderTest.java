@@ -0,0 +1,109 @@
+package com.carol.backend.service;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.enums.ChatStage;
+import com.carol.backend.service.IChatLatencyMetricsRecorder.StageTimers;
+import com.carol.backend.service.impl.ChatLatencyMetricsRecorderImpl;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 聊天链路分阶段耗时记录器测试
+ */
+class ChatLatencyMetricsRecorderTest {
+
+    private static final String METRIC_NAME = "chat.pipeline.stage";
+
+    private SimpleMeterRegistry registry;
+    private ChatPipelineConfig config;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        config = new ChatPipelineConfig();
+    }
+
+    @Test
+    void recordsStageWithRequestTags() {
+        config.getLatencyMetrics().setCharacterTag(true);
+        StageTimers timers = new ChatLatencyMetricsRecorderImpl(registry, config).timers(7L, true, true, true);
+
+        timers.record(ChatStage.FIRST_TOKEN, TimeUnit.MILLISECONDS.toNanos(120));
+        timers.record(ChatStage.FIRST_TOKEN, TimeUnit.MILLISECONDS.toNanos(80));
+
+        Timer timer = registry.get(METRIC_NAME)
+                .tags("stage", "first_token", "character", "7", "streaming", "true",
+                        "tts", "true", "user_type", "guest")
+                .timer();
+        assertEquals(2, timer.count());
+        assertEquals(200, timer.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(0, registry.get(METRIC_NAME).tag("stage", "inter_token").timer().count());
+    }
+
+    @Test
+    void reusesTimersForSameTags() {
+        IChatLatencyMetricsRecorder recorder = new ChatLatencyMetricsRecorderImpl(registry, config);
+
+        assertSame(recorder.timers(1L, false, false, false), recorder.timers(1L, false, false, false));
+        assertNotSame(recorder.timers(1L, false, false, false), recorder.timers(1L, true, false, false));
+    }
+
+    @Test
+    void disabledReturnsNoop() {
+        config.getLatencyMetrics().setEnabled(false);
+
+        StageTimers timers = new ChatLatencyMetricsRecorderImpl(registry, config).timers(1L, true, false, false);
+        timers.record(ChatStage.GENERATION, 1_000_000L);
+
+        assertSame(StageTimers.NOOP, timers);
+        assertTrue(registry.find(METRIC_NAME).timers().isEmpty());
+    }
+
+    @Test
+    void characterTagsBeyondLimitFallBackToOther() {
+        config.getLatencyMetrics().setCharacterTag(true);
+        config.getLatencyMetrics().setMaxCharacterTags(2);
+        IChatLatencyMetricsRecorder recorder = new ChatLatencyMetricsRecorderImpl(registry, config);
+
+        recorder.timers(1L, true, false, false).record(ChatStage.GENERATION, 1L);
+        recorder.timers(null, true, false, false).record(ChatStage.GENERATION, 1L);
+        recorder.timers(3L, true, false, false).record(ChatStage.GENERATION, 1L);
+        recorder.timers(4L, true, false, false).record(ChatStage.GENERATION, 1L);
+        recorder.timers(1L, true, false, false).record(ChatStage.GENERATION, 1L);
+
+        assertEquals(2, registry.get(METRIC_NAME).tags("stage", "generation", "character", "1").timer().count());
+        assertEquals(1, registry.get(METRIC_NAME).tags("stage", "generation", "character", "none").timer().count());
+        assertEquals(2, registry.get(METRIC_NAME).tags("stage", "generation", "character", "other").timer().count());
+    }
+
+    @Test
+    void characterTagDisabledByDefault() {
+        IChatLatencyMetricsRecorder recorder = new ChatLatencyMetricsRecorderImpl(registry, config);
+
+        recorder.timers(1L, false, false, false).record(ChatStage.PERSISTENCE, 1L);
+        recorder.timers(2L, false, false, false).record(ChatStage.PERSISTENCE, 1L);
+
+        assertSame(recorder.timers(1L, false, false, false), recorder.timers(2L, false, false, false));
+        assertEquals(2, registry.get(METRIC_NAME).tags("stage", "persistence", "character", "all").timer().count());
+    }
+
+    @Test
+    void histogramOnlyForFirstTokenAndGeneration() {
+        StageTimers timers = new ChatLatencyMetricsRecorderImpl(registry, config).timers(1L, true, false, false);
+        for (ChatStage stage : ChatStage.values()) {
+            timers.record(stage, TimeUnit.MILLISECONDS.toNanos(50));
+        }
+
+        for (ChatStage stage : ChatStage.values()) {
+            Timer timer = registry.get(METRIC_NAME).tag("stage", stage.getTagValue()).timer();
+            boolean histogram = stage == ChatStage.FIRST_TOKEN || stage == ChatStage.GENERATION;
+            assertEquals(histogram, timer.takeSnapshot().histogramCounts().length > 0, stage.getTagValue());
+        }
+    }
+}
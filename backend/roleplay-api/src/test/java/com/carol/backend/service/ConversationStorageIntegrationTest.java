@@ -0,0 +1,480 @@
+package com.carol.backend.service;
+
+import com.baomidou.mybatisplus.autoconfigure.MybatisPlusAutoConfiguration;
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.config.ConversationSyncConfig;
+import com.carol.backend.config.DataSyncConfig;
+import com.carol.backend.config.JacksonConfig;
+import com.carol.backend.config.MyBatisPlusConfig;
+import com.carol.backend.config.RedisConfig;
+import com.carol.backend.entity.DataSyncJob;
+import com.carol.backend.exception.BusinessException;
+import com.carol.backend.mapper.ConversationMessageMapper;
+import com.carol.backend.mapper.DataSyncJobMapper;
+import com.carol.backend.service.CustomMessageStorageService.ArchiveResult;
+import com.carol.backend.service.CustomMessageStorageService.ConversationIdPage;
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.carol.backend.service.IDataSyncService.DataSyncResult;
+import com.carol.backend.service.impl.ConversationArchiveServiceImpl;
+import com.carol.backend.service.impl.ConversationSyncServiceImpl;
+import com.carol.backend.service.impl.DataSyncServiceImpl;
+import com.carol.backend.util.ConversationMessageCodec;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mybatis.spring.annotation.MapperScan;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.context.ConfigurationPropertiesAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceTransactionManagerAutoConfiguration;
+import org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration;
+import org.springframework.boot.autoconfigure.transaction.TransactionAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.MySQLContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.MountableFile;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+
+/**
+ * 会话存储集成测试：Redis Lua 脚本（追加/读取/压缩/恢复/裁剪/清空）、冷存储恢复、
+ * 归档的清空代数校验以及全量同步的游标续跑
+ * 使用 Testcontainers 启动 Redis 和 MySQL（建表脚本与 docker-compose 相同），没有 Docker 时跳过
+ */
+@SpringBootTest(classes = ConversationStorageIntegrationTest.StorageTestApplication.class, properties = {
+        "app.chat.memory.near-cache.enabled=false",
+        "app.chat.memory.tiering.hot-message-cap=4",
+        "app.chat.memory.tiering.archive-batch-size=2",
+        "app.conversation-sync.scan-batch-size=2"
+})
+@Testcontainers(disabledWithoutDocker = true)
+class ConversationStorageIntegrationTest {
+
+    @Container
+    static final GenericContainer<?> REDIS = new GenericContainer<>("redis:7.2-alpine")
+            .withExposedPorts(6379);
+
+    @Container
+    static final MySQLContainer<?> MYSQL = new MySQLContainer<>("mysql:8.0")
+            .withDatabaseName("ai_roleplay")
+            .withCommand("--character-set-server=utf8mb4", "--collation-server=utf8mb4_unicode_ci")
+            .withUrlParam("useUnicode", "true")
+            .withUrlParam("characterEncoding", "UTF-8")
+            .withUrlParam("serverTimezone", "Asia/Shanghai")
+            .withUrlParam("allowPublicKeyRetrieval", "true")
+            .withUrlParam("rewriteBatchedStatements", "true")
+            .withCopyFileToContainer(MountableFile.forHostPath("../../docker/mysql/init/01-init-database.sql"),
+                    "/docker-entrypoint-initdb.d/01-init-database.sql");
+
+    @DynamicPropertySource
+    static void containerProperties(DynamicPropertyRegistry registry) {
+        registry.add("spring.data.redis.host", REDIS::getHost);
+        registry.add("spring.data.redis.port", () -> REDIS.getMappedPort(6379));
+        registry.add("spring.datasource.url", MYSQL::getJdbcUrl);
+        registry.add("spring.datasource.username", MYSQL::getUsername);
+        registry.add("spring.datasource.password", MYSQL::getPassword);
+    }
+
+    /**
+     * 只装配会话存储、归档和同步相关的Bean，不启动定时任务和AI模型
+     */
+    @SpringBootConfiguration
+    @ImportAutoConfiguration({
+            DataSourceAutoConfiguration.class,
+            DataSourceTransactionManagerAutoConfiguration.class,
+            TransactionAutoConfiguration.class,
+            JdbcTemplateAutoConfiguration.class,
+            MybatisPlusAutoConfiguration.class,
+            ConfigurationPropertiesAutoConfiguration.class
+    })
+    @MapperScan("com.carol.backend.mapper")
+    @Import({
+            RedisConfig.class,
+            JacksonConfig.class,
+            MyBatisPlusConfig.class,
+            ChatMemoryConfig.class,
+            ConversationSyncConfig.class,
+            DataSyncConfig.class,
+            ConversationMessageCodec.class,
+            CustomMessageStorageService.class,
+            ConversationArchiveServiceImpl.class,
+            ConversationSyncServiceImpl.class,
+            DataSyncServiceImpl.class
+    })
+    static class StorageTestApplication {
+    }
+
+    @MockitoSpyBean
+    private CustomMessageStorageService storageService;
+
+    @Autowired
+    private IConversationArchiveService archiveService;
+
+    @Autowired
+    private IDataSyncService dataSyncService;
+
+    @Autowired
+    private ConversationMessageMapper conversationMessageMapper;
+
+    @Autowired
+    private DataSyncJobMapper dataSyncJobMapper;
+
+    @Autowired
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void cleanUp() {
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            connection.serverCommands().flushDb();
+            return null;
+        });
+        jdbcTemplate.update("DELETE FROM conversation_messages");
+        jdbcTemplate.update("DELETE FROM conversations");
+        jdbcTemplate.update("DELETE FROM data_sync_jobs");
+    }
+
+    @Test
+    void testAppendAndPagedReads() {
+        String conversationId = sessionId(1);
+        List<Long> ids = saveMessages(conversationId, 6);
+
+        // 消息ID在会话内连续递增
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L), ids);
+        assertEquals(6, storageService.countMessages(conversationId));
+        assertEquals(6, storageService.getLastMessageId(conversationId));
+
+        List<StoredMessage> messages = storageService.getMessages(conversationId);
+        assertEquals(ids, messageIds(messages));
+        assertEquals("消息0", messages.get(0).getContent());
+        assertTrue(messages.get(0).getIsUser());
+        assertFalse(messages.get(1).getIsUser());
+
+        // 向前翻页：最新一页，再从页首之前继续
+        assertEquals(List.of(3L, 4L, 5L, 6L), messageIds(storageService.getMessagesBefore(conversationId, null, 4)));
+        assertEquals(List.of(1L, 2L), messageIds(storageService.getMessagesBefore(conversationId, 3L, 4)));
+
+        // 增量读取：只返回ID大于水位的消息
+        assertEquals(List.of(5L, 6L), messageIds(storageService.getMessagesAfter(conversationId, 4, 10)));
+        assertTrue(storageService.getMessagesAfter(conversationId, 6, 10).isEmpty());
+    }
+
+    @Test
+    void testCompactAndRestoreColdConversation() {
+        String conversationId = sessionId(2);
+        List<Long> ids = saveMessages(conversationId, 5);
+
+        compactConversation(conversationId);
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(CustomMessageStorageService.dataKey(conversationId))));
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(CustomMessageStorageService.indexKey(conversationId))));
+
+        // 读取时恢复为热存储，恢复后的消息沿用冷存储剩余的过期时间
+        assertEquals(ids, messageIds(storageService.getMessages(conversationId)));
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(coldKey(conversationId))));
+        Long remaining = stringRedisTemplate.getExpire(CustomMessageStorageService.indexKey(conversationId), TimeUnit.SECONDS);
+        assertNotNull(remaining);
+        assertTrue(remaining > 0 && remaining <= TimeUnit.HOURS.toSeconds(1), "remaining=" + remaining);
+
+        // 恢复后继续追加，ID接着冷存储之前的计数
+        assertEquals(6L, storageService.saveMessage(conversationId, new UserMessage("恢复后的消息"), true));
+        assertEquals(6, storageService.countMessages(conversationId));
+    }
+
+    @Test
+    void testReadsDuringRestoreAndAppendNeverLoseHistory() throws Exception {
+        String conversationId = sessionId(3);
+        List<Long> coldIds = saveMessages(conversationId, 20);
+        compactConversation(conversationId);
+
+        int readers = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(readers + 1);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean appending = new AtomicBoolean(true);
+        List<Long> appendedIds = Collections.synchronizedList(new ArrayList<>());
+        try {
+            Future<?> appender = executor.submit(() -> {
+                start.await();
+                try {
+                    for (int i = 0; i < 20; i++) {
+                        appendedIds.add(storageService.saveMessage(conversationId, new UserMessage("追加消息" + i), true));
+                    }
+                } finally {
+                    appending.set(false);
+                }
+                return null;
+            });
+            List<Future<Integer>> readResults = new ArrayList<>();
+            for (int i = 0; i < readers; i++) {
+                readResults.add(executor.submit(() -> {
+                    start.await();
+                    int reads = 0;
+                    do {
+                        // 并发恢复或追加期间的每次读取都必须包含冷存储中的全部历史
+                        List<Long> ids = messageIds(storageService.getMessages(conversationId));
+                        assertTrue(ids.containsAll(coldIds), "ids=" + ids);
+                        assertStrictlyIncreasing(ids);
+                        reads++;
+                    } while (appending.get());
+                    return reads;
+                }));
+            }
+
+            start.countDown();
+            appender.get(30, TimeUnit.SECONDS);
+            for (Future<Integer> readResult : readResults) {
+                assertTrue(readResult.get(30, TimeUnit.SECONDS) > 0);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        List<Long> ids = messageIds(storageService.getMessages(conversationId));
+        assertEquals(40, ids.size());
+        assertTrue(ids.containsAll(coldIds));
+        assertTrue(ids.containsAll(appendedIds));
+        assertStrictlyIncreasing(ids);
+        assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(coldKey(conversationId))));
+    }
+
+    @Test
+    void testCorruptColdBlobFailsInsteadOfReturningEmptyHistory() {
+        String conversationId = sessionId(4);
+        saveMessages(conversationId, 3);
+        compactConversation(conversationId);
+        stringRedisTemplate.opsForValue().set(coldKey(conversationId), "corrupt");
+
+        assertThrows(BusinessException.class, () -> storageService.getMessages(conversationId));
+        // 损坏的数据保留在Redis中，不被当作空会话覆盖
+        assertEquals("corrupt", stringRedisTemplate.opsForValue().get(coldKey(conversationId)));
+    }
+
+    @Test
+    void testTrimKeepsMessagesUpdatedDuringArchive() {
+        String conversationId = sessionId(5);
+        saveMessages(conversationId, 5);
+
+        List<StoredMessage> archived = new ArrayList<>();
+        ArchiveResult result = storageService.archiveOldestMessages(conversationId, 2, 10, messages -> {
+            archived.addAll(messages);
+            // 归档写入期间更新了第一条消息，裁剪时保留它等下一轮重新归档
+            storageService.updateMessageAudioUrl(conversationId, messages.get(0).getId(), "https://example.com/1.mp3");
+        });
+
+        assertEquals(List.of(1L, 2L, 3L), messageIds(archived));
+        assertEquals(3, result.getArchived());
+        assertEquals(2, result.getRemoved());
+        assertTrue(result.getReclaimedBytes() > 0);
+
+        List<StoredMessage> remaining = storageService.getMessages(conversationId);
+        assertEquals(List.of(1L, 4L, 5L), messageIds(remaining));
+        assertEquals("https://example.com/1.mp3", remaining.get(0).getAudioUrl());
+    }
+
+    @Test
+    void testOverflowArchiveMovesOldestMessagesToMysql() {
+        String conversationId = sessionId(6);
+        saveMessages(conversationId, 10);
+
+        assertEquals(6, archiveService.archiveOverflowMessages());
+
+        assertEquals(List.of(7L, 8L, 9L, 10L), messageIds(storageService.getMessages(conversationId)));
+        assertEquals(6, conversationMessageMapper.selectMaxIndex(conversationId));
+        assertEquals(6, conversationMessageMapper.countBeforeIndex(conversationId, 7));
+    }
+
+    @Test
+    void testClearRemovesAllKeysAndBumpsGeneration() {
+        String conversationId = sessionId(7);
+        saveMessages(conversationId, 4);
+        compactConversation(conversationId);
+        stringRedisTemplate.opsForHash().put(CustomMessageStorageService.summaryKey(conversationId), "summary", "摘要");
+        assertEquals(0, storageService.getClearGeneration(conversationId));
+
+        storageService.clearMessages(conversationId);
+
+        assertEquals(1, storageService.getClearGeneration(conversationId));
+        for (String key : List.of(CustomMessageStorageService.dataKey(conversationId),
+                CustomMessageStorageService.indexKey(conversationId),
+                CustomMessageStorageService.summaryKey(conversationId), coldKey(conversationId))) {
+            assertFalse(Boolean.TRUE.equals(stringRedisTemplate.hasKey(key)), key);
+        }
+        Long generationTtl = stringRedisTemplate.getExpire(
+                CustomMessageStorageService.MESSAGE_KEY_PREFIX + "{" + conversationId + "}:cleared");
+        assertNotNull(generationTtl);
+        assertTrue(generationTtl > 0);
+        assertTrue(storageService.getMessages(conversationId).isEmpty());
+    }
+
+    @Test
+    void testClearDuringArchiveDiscardsTheWrite() {
+        String conversationId = sessionId(8);
+        saveMessages(conversationId, 3);
+
+        // 归档读取消息之后、写入MySQL之前会话被清空
+        doAnswer(invocation -> {
+            Object messages = invocation.callRealMethod();
+            storageService.clearMessages(conversationId);
+            return messages;
+        }).when(storageService).getMessagesAfter(eq(conversationId), anyLong(), anyInt());
+
+        assertThrows(IllegalStateException.class, () -> archiveService.archiveNewMessages(conversationId));
+        assertEquals(0, conversationMessageMapper.selectMaxIndex(conversationId));
+
+        // 清空后的新消息正常归档，清空前的消息不会被写回
+        doCallRealMethod().when(storageService).getMessagesAfter(eq(conversationId), anyLong(), anyInt());
+        Long messageId = storageService.saveMessage(conversationId, new UserMessage("清空后的消息"), true);
+        assertEquals(1, archiveService.archiveNewMessages(conversationId));
+        assertEquals(1, conversationMessageMapper.countBeforeIndex(conversationId, Long.MAX_VALUE));
+        assertEquals(messageId.longValue(), conversationMessageMapper.selectMaxIndex(conversationId));
+    }
+
+    @Test
+    void testIncrementalArchiveResumesAfterFailure() {
+        String conversationId = sessionId(9);
+        saveMessages(conversationId, 5);
+
+        // 第二批读取失败：第一批已提交，下一次从MySQL水位继续
+        doCallRealMethod()
+                .doThrow(new RedisConnectionFailureException("模拟Redis读取失败"))
+                .doCallRealMethod()
+                .when(storageService).getMessagesAfter(eq(conversationId), anyLong(), anyInt());
+
+        assertThrows(RedisConnectionFailureException.class, () -> archiveService.archiveNewMessages(conversationId));
+        assertEquals(2, conversationMessageMapper.selectMaxIndex(conversationId));
+
+        assertEquals(3, archiveService.archiveNewMessages(conversationId));
+        assertEquals(5, conversationMessageMapper.selectMaxIndex(conversationId));
+        assertEquals(5, conversationMessageMapper.countBeforeIndex(conversationId, Long.MAX_VALUE));
+        assertEquals(0, archiveService.archiveNewMessages(conversationId));
+    }
+
+    @Test
+    void testDataSyncResumesFromSavedCursor() {
+        int conversations = 40;
+        for (int i = 0; i < conversations; i++) {
+            saveMessages(sessionId(100 + i), 3);
+        }
+
+        // 模拟上一次全量同步在第一页之后中断：第一页已写入MySQL，任务记录停在第一页之后的游标
+        ConversationIdPage firstPage = storageService.scanConversationIdPage(CustomMessageStorageService.SCAN_START_CURSOR, 2);
+        assertFalse(firstPage.isFinished());
+        long firstPageMessages = 0;
+        for (String conversationId : firstPage.getConversationIds()) {
+            firstPageMessages += archiveService.archiveNewMessages(conversationId);
+        }
+        DataSyncJob interrupted = new DataSyncJob()
+                .setTriggerName("performFullDataSync")
+                .setStatus(DataSyncJob.STATUS_RUNNING)
+                .setScanCursor(firstPage.getNextCursor())
+                .setPartitions(16)
+                .setScannedConversations((long) firstPage.getConversationIds().size())
+                .setSyncedConversations((long) firstPage.getConversationIds().size())
+                .setSyncedMessages(firstPageMessages)
+                .setFailedConversations(0L)
+                .setActiveUsers(0)
+                .setRowsPerSecond(BigDecimal.ZERO)
+                .setResumeCount(0)
+                .setRunMillis(0L)
+                .setStartedAt(LocalDateTime.now().minusMinutes(10));
+        dataSyncJobMapper.insert(interrupted);
+
+        DataSyncResult result = dataSyncService.performFullDataSync();
+
+        assertTrue(result.isSuccess(), result.getErrorMessage());
+        assertEquals(interrupted.getId(), result.getJobId());
+        DataSyncJob job = dataSyncJobMapper.selectById(interrupted.getId());
+        assertEquals(DataSyncJob.STATUS_COMPLETED, job.getStatus());
+        assertEquals(1, job.getResumeCount());
+        assertEquals(conversations * 3L, job.getSyncedMessages());
+        assertTrue(job.getScannedConversations() >= conversations);
+
+        // 游标之前的会话不重复写入，之后的会话全部补齐
+        for (int i = 0; i < conversations; i++) {
+            String conversationId = sessionId(100 + i);
+            assertEquals(storageService.getLastMessageId(conversationId),
+                    conversationMessageMapper.selectMaxIndex(conversationId), conversationId);
+        }
+        assertEquals(conversations * 3L, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM conversation_messages", Long.class));
+    }
+
+    private static String sessionId(int userId) {
+        return "user_" + userId + "_general";
+    }
+
+    private static String coldKey(String conversationId) {
+        return CustomMessageStorageService.MESSAGE_KEY_PREFIX + "{" + conversationId + "}:cold";
+    }
+
+    /**
+     * 用户消息与回复交替保存
+     */
+    private List<Long> saveMessages(String conversationId, int count) {
+        List<Long> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            boolean isUser = i % 2 == 0;
+            ids.add(isUser
+                    ? storageService.saveMessage(conversationId, new UserMessage("消息" + i), true)
+                    : storageService.saveMessage(conversationId, new AssistantMessage("消息" + i), false));
+        }
+        return ids;
+    }
+
+    /**
+     * 把会话的剩余过期时间调到空闲阈值以内后执行压缩
+     */
+    private void compactConversation(String conversationId) {
+        stringRedisTemplate.expire(CustomMessageStorageService.dataKey(conversationId), Duration.ofHours(1));
+        stringRedisTemplate.expire(CustomMessageStorageService.indexKey(conversationId), Duration.ofHours(1));
+
+        assertTrue(storageService.compactIdleConversations() >= 1);
+        assertTrue(Boolean.TRUE.equals(stringRedisTemplate.hasKey(coldKey(conversationId))));
+    }
+
+    private static List<Long> messageIds(List<StoredMessage> messages) {
+        List<Long> ids = new ArrayList<>(messages.size());
+        for (StoredMessage message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+
+    private static void assertStrictlyIncreasing(List<Long> ids) {
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i) > ids.get(i - 1), "ids=" + ids);
+        }
+    }
+}
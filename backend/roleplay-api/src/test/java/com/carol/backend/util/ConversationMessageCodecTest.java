@@ -0,0 +1,123 @@
+package com.carol.backend.util;
+
+import com.carol.backend.config.ChatMemoryConfig;
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 会话存储编解码器测试
+ */
+class ConversationMessageCodecTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
+    @Test
+    void testBinaryRoundTrip() {
+        ConversationMessageCodec codec = new ConversationMessageCodec(new ChatMemoryConfig(), objectMapper);
+
+        StoredMessage message = message("你好，我是哈利·波特。", true, 1736899200123L);
+        message.setAudioUrl("https://oss.example.com/audio/1.mp3");
+        message.setVoiceDuration(7);
+
+        StoredMessage decoded = codec.decode(codec.encode(message));
+        assertSameMessage(message, decoded);
+        assertEquals("USER", decoded.getMessageType());
+        assertNotNull(decoded.getCreatedTime());
+    }
+
+    @Test
+    void testLongContentIsCompressed() {
+        ConversationMessageCodec codec = new ConversationMessageCodec(new ChatMemoryConfig(), objectMapper);
+        String content = "魔法部的傲罗们正在调查这件事，我们必须小心行事。".repeat(20);
+
+        byte[] encoded = codec.encode(message(content, false, 1736899200123L));
+
+        assertTrue(encoded.length < content.getBytes(StandardCharsets.UTF_8).length);
+        assertEquals(content, codec.decode(encoded).getContent());
+    }
+
+    @Test
+    void testLegacyJsonIsReadable() throws Exception {
+        ConversationMessageCodec codec = new ConversationMessageCodec(new ChatMemoryConfig(), objectMapper);
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        codec.bindTo(registry);
+        StoredMessage message = message("旧格式的消息", false, 1736899200123L);
+
+        StoredMessage decoded = codec.decode(objectMapper.writeValueAsBytes(message));
+
+        assertSameMessage(message, decoded);
+        assertEquals(1, registry.get("chat.storage.codec.decoded.json").functionCounter().count());
+    }
+
+    @Test
+    void testJsonFormatIsConfigurable() {
+        ChatMemoryConfig config = new ChatMemoryConfig();
+        config.getStorage().setCodec(ChatMemoryConfig.CodecFormat.JSON);
+        ConversationMessageCodec codec = new ConversationMessageCodec(config, objectMapper);
+
+        byte[] encoded = codec.encode(message("JSON编码", true, 1736899200123L));
+
+        assertEquals('{', encoded[0]);
+        assertEquals("JSON编码", codec.decode(encoded).getContent());
+    }
+
+    @Test
+    void testColdBlobRoundTrip() {
+        ConversationMessageCodec codec = new ConversationMessageCodec(new ChatMemoryConfig(), objectMapper);
+        List<StoredMessage> messages = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            StoredMessage message = message("第" + i + "条消息，内容会在整个会话中重复出现。", i % 2 == 1, 1736899200000L + i);
+            message.setId((long) i * 2);
+            messages.add(message);
+        }
+
+        byte[] blob = codec.encodeColdBlob(messages);
+        // 经过Redis值的字符串承载后仍能还原
+        List<StoredMessage> decoded = codec.decodeColdBlob(
+                ConversationMessageCodec.fromRedisValue(ConversationMessageCodec.toRedisValue(blob)));
+
+        assertEquals(messages.size(), decoded.size());
+        for (int i = 0; i < messages.size(); i++) {
+            assertEquals(messages.get(i).getId(), decoded.get(i).getId());
+            assertSameMessage(messages.get(i), decoded.get(i));
+        }
+    }
+
+    @Test
+    void testCorruptedDataIsRejected() {
+        ConversationMessageCodec codec = new ConversationMessageCodec(new ChatMemoryConfig(), objectMapper);
+        byte[] encoded = codec.encode(message("会被截断的消息", true, 1736899200123L));
+
+        byte[] truncated = new byte[encoded.length - 3];
+        System.arraycopy(encoded, 0, truncated, 0, truncated.length);
+
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(truncated));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(new byte[]{0x01, 0x02}));
+        assertThrows(IllegalArgumentException.class, () -> codec.decodeColdBlob(encoded));
+    }
+
+    private static StoredMessage message(String content, boolean isUser, long timestamp) {
+        StoredMessage message = new StoredMessage();
+        message.setContent(content);
+        message.setIsUser(isUser);
+        message.setTimestamp(timestamp);
+        message.setMessageType(isUser ? "USER" : "ASSISTANT");
+        return message;
+    }
+
+    private static void assertSameMessage(StoredMessage expected, StoredMessage actual) {
+        assertEquals(expected.getContent(), actual.getContent());
+        assertEquals(expected.getIsUser(), actual.getIsUser());
+        assertEquals(expected.getTimestamp(), actual.getTimestamp());
+        assertEquals(expected.getAudioUrl(), actual.getAudioUrl());
+        assertEquals(expected.getVoiceDuration(), actual.getVoiceDuration());
+    }
+}
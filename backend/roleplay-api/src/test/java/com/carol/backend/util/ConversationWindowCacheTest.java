@@ -0,0 +1,135 @@
+package com.carol.backend.util;
+
+import com.carol.backend.service.CustomMessageStorageService.StoredMessage;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 会话近端缓存测试
+ */
+class ConversationWindowCacheTest {
+
+    private static final long TTL_MILLIS = 60_000;
+
+    @Test
+    void testServesLatestPageFromWindow() {
+        ConversationWindowCache cache = new ConversationWindowCache(10, 1 << 20, TTL_MILLIS);
+        cache.put("c1", messages(1, 30), 30, cache.generation());
+
+        List<StoredMessage> page = cache.getBefore("c1", null, 5);
+        assertNotNull(page);
+        assertEquals(List.of(26L, 27L, 28L, 29L, 30L), ids(page));
+        assertEquals(30L, cache.getCount("c1"));
+        // 窗口只保留最后10条，需要更早的消息时未命中
+        assertNull(cache.getBefore("c1", 25L, 5));
+        assertNull(cache.getBefore("c1", null, 11));
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void testCompleteWindowServesAnyCursor() {
+        ConversationWindowCache cache = new ConversationWindowCache(10, 1 << 20, TTL_MILLIS);
+        cache.put("c1", messages(1, 4), 4, cache.generation());
+
+        assertEquals(List.of(1L, 2L), ids(cache.getBefore("c1", 3L, 5)));
+        assertEquals(List.of(), ids(cache.getBefore("c1", 1L, 5)));
+    }
+
+    @Test
+    void testContiguousAppendIsWrittenThrough() {
+        ConversationWindowCache cache = new ConversationWindowCache(5, 1 << 20, TTL_MILLIS);
+        cache.put("c1", messages(1, 5), 5, cache.generation());
+
+        cache.append("c1", messages(6, 7));
+        assertEquals(List.of(3L, 4L, 5L, 6L, 7L), ids(cache.getBefore("c1", null, 5)));
+        assertEquals(7L, cache.getCount("c1"));
+    }
+
+    @Test
+    void testGapInIdsDropsWindow() {
+        ConversationWindowCache cache = new ConversationWindowCache(5, 1 << 20, TTL_MILLIS);
+        cache.put("c1", messages(1, 5), 5, cache.generation());
+
+        // 其他节点写入了消息6，本节点追加的是7
+        cache.append("c1", messages(7, 7));
+        assertNull(cache.getBefore("c1", null, 1));
+        assertNull(cache.getCount("c1"));
+    }
+
+    @Test
+    void testUpdateReplacesMessageInWindow() {
+        ConversationWindowCache cache = new ConversationWindowCache(5, 1 << 20, TTL_MILLIS);
+        cache.put("c1", messages(1, 3), 3, cache.generation());
+
+        StoredMessage updated = message(2);
+        updated.setVoiceDuration(9);
+        cache.update("c1", updated);
+        assertEquals(9, cache.getBefore("c1", 3L, 1).get(0).getVoiceDuration());
+    }
+
+    @Test
+    void testLoadRacingWithWriteIsDiscarded() {
+        ConversationWindowCache cache = new ConversationWindowCache(5, 1 << 20, TTL_MILLIS);
+        long loadGeneration = cache.generation();
+        cache.invalidate("c1");
+        cache.put("c1", messages(1, 3), 3, loadGeneration);
+
+        assertNull(cache.getBefore("c1", null, 1));
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsedWhenOverBudget() {
+        long windowBytes = 128 + 3 * ConversationWindowCache.estimateBytes(message(1));
+        ConversationWindowCache cache = new ConversationWindowCache(5, windowBytes * 2, TTL_MILLIS);
+        cache.put("c1", messages(1, 3), 3, cache.generation());
+        cache.put("c2", messages(1, 3), 3, cache.generation());
+        cache.getBefore("c1", null, 1);
+        cache.put("c3", messages(1, 3), 3, cache.generation());
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.getEstimatedBytes() <= windowBytes * 2);
+        assertNotNull(cache.getBefore("c1", null, 1));
+        assertNull(cache.getBefore("c2", null, 1));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void testExpiredWindowIsMiss() throws InterruptedException {
+        ConversationWindowCache cache = new ConversationWindowCache(5, 1 << 20, 1);
+        cache.put("c1", messages(1, 3), 3, cache.generation());
+        Thread.sleep(5);
+
+        assertNull(cache.getBefore("c1", null, 1));
+        assertEquals(0, cache.size());
+    }
+
+    private static List<StoredMessage> messages(long fromId, long toId) {
+        List<StoredMessage> messages = new ArrayList<>();
+        for (long id = fromId; id <= toId; id++) {
+            messages.add(message(id));
+        }
+        return messages;
+    }
+
+    private static StoredMessage message(long id) {
+        StoredMessage message = new StoredMessage();
+        message.setId(id);
+        message.setContent("消息" + id);
+        message.setIsUser(id % 2 == 1);
+        message.setTimestamp(1736899200000L + id);
+        return message;
+    }
+
+    private static List<Long> ids(List<StoredMessage> messages) {
+        List<Long> ids = new ArrayList<>();
+        for (StoredMessage message : messages) {
+            ids.add(message.getId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,163 @@
+package com.carol.backend.util;
+
+import com.carol.backend.config.ChatPipelineConfig;
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
+import com.carol.backend.util.LlmAdmissionScheduler.PriorityClass;
+import com.carol.backend.util.LlmAdmissionScheduler.Ticket;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * LLM调用准入调度测试
+ */
+class LlmAdmissionSchedulerTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private LlmAdmissionScheduler scheduler(int maxConcurrency, long guestMaxWaitMs) {
+        ChatPipelineConfig config = new ChatPipelineConfig();
+        ChatPipelineConfig.LlmAdmission admission = config.getLlmAdmission();
+        admission.setMaxConcurrency(maxConcurrency);
+        admission.setMaxQueuedPerUser(3);
+        admission.setRegistered(new ChatPipelineConfig.PriorityClassSettings(4, 100, 60_000));
+        admission.setGuest(new ChatPipelineConfig.PriorityClassSettings(1, 100, guestMaxWaitMs));
+        LlmAdmissionScheduler scheduler = new LlmAdmissionScheduler(config);
+        scheduler.bindTo(registry);
+        return scheduler;
+    }
+
+    private double inFlight() {
+        return registry.get("llm.admission.in.flight").gauge().value();
+    }
+
+    private double queued(PriorityClass priorityClass) {
+        return registry.get("llm.admission.queued").tag("class", classTag(priorityClass)).gauge().value();
+    }
+
+    private double count(String name, PriorityClass priorityClass) {
+        return registry.get(name).tag("class", classTag(priorityClass)).functionCounter().count();
+    }
+
+    private static String classTag(PriorityClass priorityClass) {
+        return priorityClass.name().toLowerCase();
+    }
+
+    @Test
+    void testCallReleasesPermit() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 60_000);
+
+        assertEquals("ok", scheduler.call("user:1", PriorityClass.REGISTERED, () -> {
+            assertEquals(1, inFlight());
+            return "ok";
+        }));
+        assertEquals(0, inFlight());
+        assertEquals(1, count("llm.admission.admitted", PriorityClass.REGISTERED));
+    }
+
+    @Test
+    void testUsersInSameClassAreServedRoundRobin() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 60_000);
+        Ticket held = scheduler.acquire("user:0", PriorityClass.REGISTERED);
+
+        List<String> order = new ArrayList<>();
+        List<CompletableFuture<Ticket>> queued = new ArrayList<>();
+        for (String userKey : List.of("user:1", "user:1", "user:1", "user:2")) {
+            queued.add(scheduler.admit(userKey, PriorityClass.REGISTERED)
+                    .whenComplete((ticket, e) -> order.add(userKey)));
+        }
+        held.release();
+        releaseGranted(queued, order, 4);
+
+        assertEquals(List.of("user:1", "user:2", "user:1", "user:1"), order);
+    }
+
+    @Test
+    void testClassesShareReleasedPermitsByWeight() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 60_000);
+        Ticket held = scheduler.acquire("user:0", PriorityClass.REGISTERED);
+
+        List<PriorityClass> order = new ArrayList<>();
+        List<CompletableFuture<Ticket>> queued = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            // 游客先涌入，注册用户随后到达
+            queued.add(scheduler.admit("guest:" + i, PriorityClass.GUEST)
+                    .whenComplete((ticket, e) -> order.add(ticket.getPriorityClass())));
+        }
+        for (int i = 0; i < 20; i++) {
+            queued.add(scheduler.admit("user:" + (i + 1), PriorityClass.REGISTERED)
+                    .whenComplete((ticket, e) -> order.add(ticket.getPriorityClass())));
+        }
+        held.release();
+        releaseGranted(queued, order, 10);
+
+        long guests = order.subList(0, 10).stream().filter(priorityClass -> priorityClass == PriorityClass.GUEST).count();
+        assertEquals(2, guests);
+    }
+
+    /**
+     * 按获得许可的顺序逐个归还，每次归还后许可分配给下一个排队的请求
+     */
+    private static void releaseGranted(List<CompletableFuture<Ticket>> queued, List<?> order, int count) {
+        while (order.size() < count) {
+            queued.stream().filter(CompletableFuture::isDone).forEach(admission -> admission.join().release());
+        }
+    }
+
+    @Test
+    void testRejectsWhenUserQueueIsFull() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 60_000);
+        scheduler.acquire("user:0", PriorityClass.REGISTERED);
+        for (int i = 0; i < 3; i++) {
+            scheduler.admit("user:1", PriorityClass.REGISTERED);
+        }
+
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> scheduler.admit("user:1", PriorityClass.REGISTERED).get());
+        assertEquals(ErrorCode.UPSTREAM_BUSY, ((BusinessException) e.getCause()).getErrorCode());
+        assertEquals(1, registry.get("llm.admission.rejected").tags("class", "registered", "reason", "user_limit")
+                .functionCounter().count());
+        // 其他用户不受影响
+        assertFalse(scheduler.admit("user:2", PriorityClass.REGISTERED).isDone());
+    }
+
+    @Test
+    void testQueuedRequestExpiresAtDeadline() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 50);
+        scheduler.acquire("user:0", PriorityClass.REGISTERED);
+
+        BusinessException e = assertThrows(BusinessException.class,
+                () -> scheduler.acquire("guest:a", PriorityClass.GUEST));
+        assertEquals(ErrorCode.UPSTREAM_BUSY, e.getErrorCode());
+        assertEquals(1, count("llm.admission.timed.out", PriorityClass.GUEST));
+        assertEquals(0, queued(PriorityClass.GUEST));
+    }
+
+    @Test
+    void testStreamReleasesPermitOnCompletionAndDequeuesOnCancel() {
+        LlmAdmissionScheduler scheduler = scheduler(1, 60_000);
+
+        assertEquals(List.of("a", "b"), scheduler.stream("user:1", PriorityClass.REGISTERED,
+                () -> Flux.just("a", "b")).collectList().block());
+        assertEquals(0, inFlight());
+
+        Ticket held = scheduler.acquire("user:0", PriorityClass.REGISTERED);
+        Disposable subscription = scheduler.stream("guest:a", PriorityClass.GUEST, () -> Flux.just("c")).subscribe();
+        assertEquals(1, queued(PriorityClass.GUEST));
+        subscription.dispose();
+        assertEquals(0, queued(PriorityClass.GUEST));
+        assertEquals(1, count("llm.admission.cancelled", PriorityClass.GUEST));
+
+        held.release();
+        assertEquals(0, inFlight());
+    }
+}
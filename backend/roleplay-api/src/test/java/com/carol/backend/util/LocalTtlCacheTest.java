@@ -0,0 +1,63 @@
+package com.carol.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 进程内有界缓存测试
+ */
+class LocalTtlCacheTest {
+
+    @Test
+    void testInvalidateDuringLoadDiscardsStaleValue() {
+        LocalTtlCache<Long, String> cache = new LocalTtlCache<>(10, 60_000);
+        AtomicInteger loads = new AtomicInteger();
+
+        // 加载读到旧值后，更新方写库并失效该键
+        String stale = cache.get(1L, id -> {
+            loads.incrementAndGet();
+            cache.invalidate(id);
+            return "旧值";
+        });
+        assertEquals("旧值", stale);
+
+        // 旧值没有写回，下次访问重新加载
+        assertEquals("新值", cache.get(1L, id -> {
+            loads.incrementAndGet();
+            return "新值";
+        }));
+        assertEquals(2, loads.get());
+
+        assertEquals("新值", cache.get(1L, id -> "不应加载"));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    void testInvalidateKeepsOtherEntries() {
+        LocalTtlCache<Long, String> cache = new LocalTtlCache<>(10, 60_000);
+        cache.get(1L, id -> "角色1");
+        cache.get(2L, id -> "角色2");
+
+        cache.invalidate(1L);
+
+        assertEquals("角色2", cache.get(2L, id -> "不应加载"));
+        assertEquals("角色1新", cache.get(1L, id -> "角色1新"));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    void testInvalidateAllDuringLoadDiscardsStaleValue() {
+        LocalTtlCache<Long, String> cache = new LocalTtlCache<>(10, 60_000);
+
+        cache.get(1L, id -> {
+            cache.invalidateAll();
+            return "旧值";
+        });
+
+        assertEquals(0, cache.size());
+        assertEquals("新值", cache.get(1L, id -> "新值"));
+    }
+}
@@ -0,0 +1,175 @@
+package com.carol.backend.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 相同请求合并执行测试
+ */
+class SingleFlightTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Test
+    void testConcurrentCallsShareOneExecution() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> singleFlight.execute("q", TIMEOUT, () -> {
+            executions.incrementAndGet();
+            started.countDown();
+            await(finish);
+            return "知识";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> singleFlight.execute("q", TIMEOUT, () -> "重复执行"));
+        while (singleFlight.getCoalesced() == 0) {
+            Thread.sleep(5);
+        }
+        finish.countDown();
+
+        assertEquals("知识", leader.get(5, TimeUnit.SECONDS));
+        assertEquals("知识", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(1, executions.get());
+        assertEquals(0, singleFlight.getInFlight());
+
+        // 执行结束后不缓存结果
+        assertEquals("新结果", singleFlight.execute("q", TIMEOUT, () -> "新结果"));
+    }
+
+    @Test
+    void testFailureIsNotCached() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        assertThrows(IllegalStateException.class, () -> singleFlight.execute("q", TIMEOUT, () -> {
+            throw new IllegalStateException("检索失败");
+        }));
+        assertEquals("ok", singleFlight.execute("q", TIMEOUT, () -> "ok"));
+    }
+
+    @Test
+    void testFollowerWaitIsBoundedByItsOwnTimeout() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch finish = new CountDownLatch(1);
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> singleFlight.execute("q", TIMEOUT, () -> {
+            started.countDown();
+            await(finish);
+            return "慢检索";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+
+        CompletionException e = assertThrows(CompletionException.class,
+                () -> singleFlight.execute("q", Duration.ofMillis(50), () -> "重复执行"));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+
+        finish.countDown();
+        assertEquals("慢检索", leader.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testLeaderInterruptIsNotSharedWithFollowers() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger executions = new AtomicInteger();
+        Thread[] leaderThread = new Thread[1];
+
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> singleFlight.execute("q", TIMEOUT, () -> {
+            executions.incrementAndGet();
+            leaderThread[0] = Thread.currentThread();
+            started.countDown();
+            try {
+                Thread.sleep(5000);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("检索被中断", e);
+            }
+            return "不会返回";
+        }));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(() -> singleFlight.execute("q", TIMEOUT, () -> {
+            executions.incrementAndGet();
+            return "重新执行";
+        }));
+        while (singleFlight.getCoalesced() == 0) {
+            Thread.sleep(5);
+        }
+        leaderThread[0].interrupt();
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        // 跟随者没有收到执行者的中断失败，而是自己重新执行
+        assertEquals("重新执行", follower.get(5, TimeUnit.SECONDS));
+        assertEquals(2, executions.get());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    void testDuplicateSubscriberReplaysAndSharesStream() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger generations = new AtomicInteger();
+
+        List<String> first = new ArrayList<>();
+        List<String> second = new ArrayList<>();
+        singleFlight.stream("k", () -> tokens.asFlux().doOnSubscribe(s -> generations.incrementAndGet()))
+                .subscribe(first::add);
+        tokens.tryEmitNext("你");
+        singleFlight.stream("k", () -> Flux.just("重复生成")).subscribe(second::add);
+        tokens.tryEmitNext("好");
+        tokens.tryEmitComplete();
+
+        assertEquals(List.of("你", "好"), first);
+        assertEquals(List.of("你", "好"), second);
+        assertEquals(1, generations.get());
+        assertEquals(1, singleFlight.getCoalesced());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    @Test
+    void testUpstreamCancelledOnlyAfterAllSubscribersLeave() {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        Sinks.Many<String> tokens = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger cancellations = new AtomicInteger();
+        Flux<String> source = tokens.asFlux().doOnCancel(cancellations::incrementAndGet);
+
+        Disposable first = singleFlight.stream("k", () -> source).subscribe();
+        List<String> second = new ArrayList<>();
+        Disposable secondSubscription = singleFlight.stream("k", () -> source).subscribe(second::add);
+
+        first.dispose();
+        tokens.tryEmitNext("仍在生成");
+        assertEquals(0, cancellations.get());
+        assertEquals(List.of("仍在生成"), second);
+
+        secondSubscription.dispose();
+        assertEquals(1, cancellations.get());
+        assertEquals(0, singleFlight.getInFlight());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
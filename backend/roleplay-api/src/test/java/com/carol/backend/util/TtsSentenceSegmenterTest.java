@@ -0,0 +1,68 @@
+package com.carol.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 流式分句器测试
+ */
+class TtsSentenceSegmenterTest {
+
+    @Test
+    void testSplitAcrossChunks() {
+        TtsSentenceSegmenter segmenter = new TtsSentenceSegmenter(4, 100);
+        List<String> sentences = new ArrayList<>();
+
+        sentences.addAll(segmenter.append("你好，我是哈利"));
+        assertTrue(sentences.isEmpty());
+
+        sentences.addAll(segmenter.append("·波特。今天"));
+        // 句号位于末尾之前才能确认切分
+        assertEquals(List.of("你好，我是哈利·波特。"), sentences);
+
+        sentences.addAll(segmenter.append("天气不错！"));
+        sentences.addAll(segmenter.append("我们去霍格沃茨吧"));
+        assertEquals(List.of("你好，我是哈利·波特。", "今天天气不错！"), sentences);
+
+        assertEquals("我们去霍格沃茨吧", segmenter.flush());
+        assertNull(segmenter.flush());
+    }
+
+    @Test
+    void testShortSentencesAreMerged() {
+        TtsSentenceSegmenter segmenter = new TtsSentenceSegmenter(6, 100);
+
+        List<String> sentences = segmenter.append("嗯。好的。那我们开始吧。下");
+        assertEquals(List.of("嗯。好的。那我们开始吧。"), sentences);
+    }
+
+    @Test
+    void testClosingQuoteStaysWithSentence() {
+        TtsSentenceSegmenter segmenter = new TtsSentenceSegmenter(2, 100);
+
+        assertTrue(segmenter.append("他说：“快跑！").isEmpty());
+        assertEquals(List.of("他说：“快跑！”"), segmenter.append("”然后"));
+    }
+
+    @Test
+    void testEnglishPeriodNeedsWhitespace() {
+        TtsSentenceSegmenter segmenter = new TtsSentenceSegmenter(2, 100);
+
+        assertTrue(segmenter.append("Pi is 3.").isEmpty());
+        assertTrue(segmenter.append("14 roughly").isEmpty());
+        assertEquals(List.of("Pi is 3.14 roughly."), segmenter.append(". Next"));
+    }
+
+    @Test
+    void testLongSentenceSplitAtSoftBreak() {
+        TtsSentenceSegmenter segmenter = new TtsSentenceSegmenter(2, 10);
+
+        List<String> sentences = segmenter.append("一二三四五，六七八九十一二三");
+        assertEquals(List.of("一二三四五，"), sentences);
+        assertEquals("六七八九十一二三", segmenter.flush());
+    }
+}
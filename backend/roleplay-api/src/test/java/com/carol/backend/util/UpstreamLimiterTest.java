@@ -0,0 +1,69 @@
+package com.carol.backend.util;
+
+import com.carol.backend.enums.ErrorCode;
+import com.carol.backend.exception.BusinessException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 上游调用并发限制测试
+ */
+class UpstreamLimiterTest {
+
+    @Test
+    void testCallReleasesPermit() {
+        UpstreamLimiter limiter = new UpstreamLimiter("TTS", 1, 10);
+
+        assertEquals("ok", limiter.call(() -> {
+            assertEquals(1, limiter.getInUse());
+            return "ok";
+        }));
+        assertEquals(0, limiter.getInUse());
+        assertEquals(1, limiter.getAcquired());
+    }
+
+    @Test
+    void testCallReleasesPermitOnFailure() {
+        UpstreamLimiter limiter = new UpstreamLimiter("TTS", 1, 10);
+
+        assertThrows(IllegalStateException.class, () -> limiter.call(() -> {
+            throw new IllegalStateException("上游失败");
+        }));
+        assertEquals(0, limiter.getInUse());
+    }
+
+    @Test
+    void testRejectsWhenPermitsExhausted() {
+        UpstreamLimiter limiter = new UpstreamLimiter("ASR", 2, 10);
+        limiter.acquire();
+        limiter.acquire();
+
+        BusinessException e = assertThrows(BusinessException.class, limiter::acquire);
+        assertEquals(ErrorCode.UPSTREAM_BUSY, e.getErrorCode());
+        assertEquals(2, limiter.getInUse());
+        assertEquals(1, limiter.getRejected());
+
+        limiter.release();
+        limiter.acquire();
+        assertEquals(2, limiter.getInUse());
+    }
+
+    @Test
+    void testWaiterGetsReleasedPermit() throws InterruptedException {
+        UpstreamLimiter limiter = new UpstreamLimiter("OSS", 1, 5000);
+        limiter.acquire();
+
+        Thread waiter = new Thread(() -> limiter.call(() -> null));
+        waiter.start();
+        while (limiter.getWaiting() == 0) {
+            Thread.sleep(5);
+        }
+        limiter.release();
+        waiter.join(5000);
+
+        assertFalse(waiter.isAlive());
+        assertEquals(0, limiter.getInUse());
+        assertEquals(0, limiter.getRejected());
+    }
+}
@@ -0,0 +1,218 @@
+package com.carol.backend.loadtest;
+
+import com.carol.backend.loadtest.scenario.ApiClient;
+import com.carol.backend.loadtest.scenario.ChatStreamScenario;
+import com.carol.backend.loadtest.scenario.HistoryScenario;
+import com.carol.backend.loadtest.scenario.LatencyRecorder;
+import com.carol.backend.loadtest.scenario.LoadScenario;
+import com.carol.backend.loadtest.scenario.LoginScenario;
+import com.carol.backend.loadtest.scenario.TtsScenario;
+import com.carol.backend.loadtest.scenario.VirtualUser;
+import com.carol.backend.loadtest.stub.DashScopeStubServer;
+import com.carol.backend.loadtest.stub.StubSettings;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 压测入口：mvn verify -Pperf
+ * 1. 启动本地DashScope兼容桩服务（参数见 {@link StubSettings}）
+ * 2. 检查Redis、MySQL后以独立进程启动被测服务，外部AI/OSS调用全部指向桩服务（参数见 {@link PerfSettings}）
+ * 3. 注册并登录 perf.users 个虚拟用户
+ * 4. 按 perf.scenarios 顺序执行场景：每个场景先预热再计量，虚拟用户之间并发、各自串行循环
+ * 5. 输出 perf-report-时间.json / .md，包含各场景吞吐量、端到端和首token耗时分位数、错误分类及桩服务请求计数
+ *
+ * 桩服务的延迟和错误序列由 stub.seed 决定，同一份参数重复运行的结果可以直接对比
+ */
+public class PerfRunner {
+
+    private static final String PASSWORD = "Perf12345";
+    private static final DateTimeFormatter REPORT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    public static void main(String[] args) throws Exception {
+        PerfSettings settings = new PerfSettings();
+        StubSettings stubSettings = new StubSettings();
+
+        try (DashScopeStubServer stub = DashScopeStubServer.start(stubSettings);
+             ServiceLauncher launcher = new ServiceLauncher(settings)) {
+            System.out.println("DashScope桩服务已启动: " + stub.getBaseUrl() + " (" + stubSettings + ")");
+            if (settings.isLaunchApp()) {
+                launcher.checkDependencies();
+                launcher.start(stub);
+            }
+
+            ApiClient client = new ApiClient(settings.getBaseUrl());
+            List<VirtualUser> users = createUsers(client, settings.getUsers());
+
+            Map<String, Object> results = new LinkedHashMap<>();
+            for (String name : settings.getScenarios()) {
+                LoadScenario scenario = scenario(name, client, settings);
+                if (scenario == null) {
+                    System.out.println("未知场景，已跳过: " + name);
+                    continue;
+                }
+                results.put(name, run(scenario, users, settings));
+            }
+
+            writeReports(settings, stubSettings, results, stub.getRequestCounts());
+        }
+    }
+
+    private static LoadScenario scenario(String name, ApiClient client, PerfSettings settings) {
+        return switch (name) {
+            case "login" -> new LoginScenario(client);
+            case "chat-stream" -> new ChatStreamScenario(client, settings.getCharacterId());
+            case "tts" -> new TtsScenario(client);
+            case "history" -> new HistoryScenario(client, settings.getCharacterId());
+            default -> null;
+        };
+    }
+
+    /**
+     * 每次运行使用新账号，账号已存在（同一秒内重复运行）时直接登录
+     */
+    private static List<VirtualUser> createUsers(ApiClient client, int count) throws Exception {
+        String runId = Long.toString(System.currentTimeMillis() / 1000 % 2_000_000_000L, 36);
+        LoginScenario login = new LoginScenario(client);
+        List<VirtualUser> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            VirtualUser user = new VirtualUser(i, "perf" + runId + i, PASSWORD);
+            try {
+                client.post("/api/auth/register", Map.of("userAccount", user.getAccount(),
+                        "userPassword", PASSWORD, "confirmPassword", PASSWORD), null);
+            } catch (ApiClient.ApiException e) {
+                System.out.println("注册失败，尝试直接登录: " + user.getAccount() + ", " + e.getMessage());
+            }
+            login.execute(user, 0, new LatencyRecorder());
+            users.add(user);
+        }
+        System.out.println("已准备 " + count + " 个虚拟用户");
+        return users;
+    }
+
+    private static Map<String, Object> run(LoadScenario scenario, List<VirtualUser> users, PerfSettings settings)
+            throws Exception {
+        System.out.println("场景 " + scenario.name() + ": " + users.size() + " 个虚拟用户, 预热 "
+                + settings.getWarmupSeconds() + "s, 计量 " + settings.getDurationSeconds() + "s");
+        LatencyRecorder warmup = new LatencyRecorder();
+        LatencyRecorder measured = new LatencyRecorder();
+        long warmupEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.getWarmupSeconds());
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(settings.getDurationSeconds());
+
+        ExecutorService executor = Executors.newFixedThreadPool(users.size());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (VirtualUser user : users) {
+                futures.add(executor.submit(() -> {
+                    int iteration = 0;
+                    long now;
+                    while ((now = System.nanoTime()) < end) {
+                        // 跨越预热边界的请求计入开始时所在的阶段
+                        LatencyRecorder recorder = now < warmupEnd ? warmup : measured;
+                        try {
+                            scenario.execute(user, iteration++, recorder);
+                            recorder.recordSuccess(System.nanoTime() - now);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return null;
+                        } catch (Exception e) {
+                            recorder.recordError(e);
+                        }
+                        if (settings.getThinkTimeMs() > 0) {
+                            Thread.sleep(settings.getThinkTimeMs());
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, Object> summary = measured.summarize(settings.getDurationSeconds());
+        System.out.println("场景 " + scenario.name() + " 完成: " + summary);
+        return summary;
+    }
+
+    private static void writeReports(PerfSettings settings, StubSettings stubSettings, Map<String, Object> results,
+                                     Map<String, Long> stubRequests) throws Exception {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("time", LocalDateTime.now().toString());
+        report.put("java", System.getProperty("java.version"));
+        report.put("target", settings.getBaseUrl());
+        report.put("users", settings.getUsers());
+        report.put("warmupSeconds", settings.getWarmupSeconds());
+        report.put("durationSeconds", settings.getDurationSeconds());
+        report.put("appArgs", settings.getAppArgs());
+        report.put("stub", stubSettings.toString());
+        report.put("scenarios", results);
+        report.put("stubRequests", stubRequests);
+
+        Path dir = settings.getReportDir();
+        Files.createDirectories(dir);
+        String baseName = "perf-report-" + LocalDateTime.now().format(REPORT_TIME);
+        Path json = dir.resolve(baseName + ".json");
+        Path markdown = dir.resolve(baseName + ".md");
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(json.toFile(), report);
+        Files.writeString(markdown, markdown(report, results, stubRequests));
+        System.out.println("压测报告: " + json + ", " + markdown);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String markdown(Map<String, Object> report, Map<String, Object> results,
+                                   Map<String, Long> stubRequests) {
+        StringBuilder md = new StringBuilder("# 压测报告\n\n");
+        md.append("- 时间: ").append(report.get("time")).append('\n');
+        md.append("- Java: ").append(report.get("java")).append('\n');
+        md.append("- 被测服务: ").append(report.get("target")).append(' ').append(report.get("appArgs")).append('\n');
+        md.append("- 虚拟用户: ").append(report.get("users")).append("，预热 ").append(report.get("warmupSeconds"))
+                .append("s，计量 ").append(report.get("durationSeconds")).append("s\n");
+        md.append("- 桩服务: ").append(report.get("stub")).append("\n\n");
+
+        md.append("| 场景 | 请求数 | 失败 | 错误率 | 吞吐(次/s) | P50(ms) | P90(ms) | P99(ms) | 最大(ms) | 首token P50(ms) | 首token P99(ms) |\n");
+        md.append("|---|---|---|---|---|---|---|---|---|---|---|\n");
+        results.forEach((name, value) -> {
+            Map<String, Object> summary = (Map<String, Object>) value;
+            Map<String, Object> latency = (Map<String, Object>) summary.getOrDefault(LatencyRecorder.LATENCY, Map.of());
+            Map<String, Object> ttft = (Map<String, Object>) summary.getOrDefault(LatencyRecorder.TIME_TO_FIRST_TOKEN, Map.of());
+            md.append("| ").append(name)
+                    .append(" | ").append(summary.get("requests"))
+                    .append(" | ").append(summary.get("failed"))
+                    .append(" | ").append(summary.get("errorRate"))
+                    .append(" | ").append(summary.get("throughputPerSecond"))
+                    .append(" | ").append(latency.getOrDefault("p50Ms", "-"))
+                    .append(" | ").append(latency.getOrDefault("p90Ms", "-"))
+                    .append(" | ").append(latency.getOrDefault("p99Ms", "-"))
+                    .append(" | ").append(latency.getOrDefault("maxMs", "-"))
+                    .append(" | ").append(ttft.getOrDefault("p50Ms", "-"))
+                    .append(" | ").append(ttft.getOrDefault("p99Ms", "-"))
+                    .append(" |\n");
+        });
+
+        md.append("\n## 错误分类\n\n");
+        results.forEach((name, value) -> {
+            Map<String, Long> errors = (Map<String, Long>) ((Map<String, Object>) value).get("errors");
+            errors.forEach((category, count) -> md.append("- ").append(name).append(": ")
+                    .append(category).append(" × ").append(count).append('\n'));
+        });
+
+        md.append("\n## 桩服务请求数\n\n");
+        stubRequests.forEach((endpoint, count) -> md.append("- ").append(endpoint).append(": ").append(count).append('\n'));
+        return md.toString();
+    }
+}
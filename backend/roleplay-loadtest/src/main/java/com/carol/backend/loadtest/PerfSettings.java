@@ -0,0 +1,64 @@
+package com.carol.backend.loadtest;
+
+import lombok.Data;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 压测参数，全部可通过系统属性覆盖（perf.*），桩服务参数见 {@link com.carol.backend.loadtest.stub.StubSettings}
+ *
+ * perf.target.url=                     已运行的被测服务地址，设置后不再启动服务（此时需自行把服务指向桩服务）
+ * perf.app.jar=                        被测服务可执行jar，mvn verify -Pperf 时指向 roleplay-api 的打包产物
+ * perf.app.port=18090                  被测服务端口，避开本地开发默认的18080
+ * perf.app.jvmArgs=-Xmx1g              被测服务JVM参数（空格分隔）
+ * perf.app.args=                       追加的Spring Boot参数（空格分隔），如 --app.chat.pipeline.llm-admission.max-concurrency=64
+ * perf.app.startupTimeoutSeconds=120   等待 /api/health 就绪的超时
+ * perf.redis=localhost:6379            Redis Stack（需要RediSearch），docker compose up -d redis
+ * perf.mysql=localhost:3306            MySQL（ai_roleplay库），docker compose up -d mysql
+ * perf.users=20                        并发虚拟用户数，每个虚拟用户一个注册账号
+ * perf.warmupSeconds=10                每个场景的预热时长，预热期间的请求不计入报告
+ * perf.durationSeconds=60              每个场景的计量时长
+ * perf.thinkTimeMs=0                   同一虚拟用户两次请求之间的间隔
+ * perf.characterId=1                   聊天和历史场景使用的角色
+ * perf.scenarios=login,chat-stream,tts,history  按顺序执行的场景
+ * perf.report.dir=target/perf-reports  报告目录（JSON + Markdown，另有被测服务日志 app.log）
+ */
+@Data
+public class PerfSettings {
+
+    private String targetUrl = System.getProperty("perf.target.url", "");
+    private String appJar = System.getProperty("perf.app.jar", "");
+    private int appPort = Integer.getInteger("perf.app.port", 18090);
+    private String appJvmArgs = System.getProperty("perf.app.jvmArgs", "-Xmx1g");
+    private String appArgs = System.getProperty("perf.app.args", "");
+    private int startupTimeoutSeconds = Integer.getInteger("perf.app.startupTimeoutSeconds", 120);
+    private String redis = System.getProperty("perf.redis", "localhost:6379");
+    private String mysql = System.getProperty("perf.mysql", "localhost:3306");
+    private int users = Integer.getInteger("perf.users", 20);
+    private int warmupSeconds = Integer.getInteger("perf.warmupSeconds", 10);
+    private int durationSeconds = Integer.getInteger("perf.durationSeconds", 60);
+    private long thinkTimeMs = Long.getLong("perf.thinkTimeMs", 0L);
+    private long characterId = Long.getLong("perf.characterId", 1L);
+    private List<String> scenarios = split(System.getProperty("perf.scenarios", "login,chat-stream,tts,history"), ",");
+    private Path reportDir = Path.of(System.getProperty("perf.report.dir", "target/perf-reports"));
+
+    /**
+     * 是否由压测工具启动被测服务
+     */
+    public boolean isLaunchApp() {
+        return targetUrl.isBlank();
+    }
+
+    public String getBaseUrl() {
+        return isLaunchApp() ? "http://127.0.0.1:" + appPort : targetUrl.replaceAll("/+$", "");
+    }
+
+    static List<String> split(String value, String separator) {
+        return Arrays.stream(value.trim().split(separator))
+                .map(String::trim)
+                .filter(item -> !item.isEmpty())
+                .toList();
+    }
+}
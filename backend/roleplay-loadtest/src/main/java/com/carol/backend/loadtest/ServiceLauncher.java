@@ -0,0 +1,139 @@
+package com.carol.backend.loadtest;
+
+import com.carol.backend.loadtest.stub.DashScopeStubServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 以独立进程启动被测服务，所有外部AI/OSS调用都指向桩服务：
+ * - Spring AI Alibaba：--spring.ai.dashscope.base-url
+ * - DashScope SDK（TTS、实时语音识别）：环境变量 DASHSCOPE_HTTP_BASE_URL / DASHSCOPE_WEBSOCKET_BASE_URL
+ * - OSS：IP端点，OSS SDK使用路径风格访问
+ * Redis、MySQL使用本机实例（docker compose），启动前先检查端口是否可连
+ */
+class ServiceLauncher implements AutoCloseable {
+
+    private static final String STUB_API_KEY = "sk-perf-stub";
+
+    private final PerfSettings settings;
+    private Process process;
+
+    ServiceLauncher(PerfSettings settings) {
+        this.settings = settings;
+    }
+
+    /**
+     * 检查Redis、MySQL是否可连，不可连时给出启动提示
+     */
+    void checkDependencies() {
+        List<String> missing = new ArrayList<>();
+        if (!reachable(settings.getRedis())) {
+            missing.add("Redis(" + settings.getRedis() + ")");
+        }
+        if (!reachable(settings.getMysql())) {
+            missing.add("MySQL(" + settings.getMysql() + ")");
+        }
+        if (!missing.isEmpty()) {
+            throw new IllegalStateException("压测依赖不可用: " + String.join(", ", missing)
+                    + "，请先在项目根目录执行 docker compose up -d mysql redis");
+        }
+    }
+
+    void start(DashScopeStubServer stub) throws IOException, InterruptedException {
+        Path jar = Path.of(settings.getAppJar());
+        if (!Files.isRegularFile(jar)) {
+            throw new IllegalStateException("找不到被测服务jar: " + jar + "，请通过 mvn verify -Pperf 构建或设置 -Dperf.app.jar");
+        }
+        String[] redis = settings.getRedis().split(":");
+
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(PerfSettings.split(settings.getAppJvmArgs(), "\\s+"));
+        command.add("-jar");
+        command.add(jar.toAbsolutePath().toString());
+        command.add("--server.port=" + settings.getAppPort());
+        command.add("--spring.datasource.url=jdbc:mysql://" + settings.getMysql()
+                + "/ai_roleplay?useUnicode=true&characterEncoding=UTF-8&useSSL=false&serverTimezone=Asia/Shanghai"
+                + "&allowPublicKeyRetrieval=true&rewriteBatchedStatements=true");
+        command.add("--spring.data.redis.host=" + redis[0]);
+        command.add("--spring.data.redis.port=" + redis[1]);
+        command.add("--spring.ai.dashscope.base-url=" + stub.getBaseUrl());
+        command.add("--spring.ai.dashscope.api-key=" + STUB_API_KEY);
+        command.addAll(PerfSettings.split(settings.getAppArgs(), "\\s+"));
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        Map<String, String> env = builder.environment();
+        env.put("AI_DASHSCOPE_API_KEY", STUB_API_KEY);
+        env.put("DASHSCOPE_API_KEY", STUB_API_KEY);
+        env.put("DASHSCOPE_HTTP_BASE_URL", stub.getSdkHttpBaseUrl());
+        env.put("DASHSCOPE_WEBSOCKET_BASE_URL", stub.getSdkWebSocketUrl());
+        env.put("ALIYUN_OSS_ENDPOINT", stub.getBaseUrl());
+        env.put("ALIYUN_OSS_ACCESS_KEY_ID", "perf");
+        env.put("ALIYUN_OSS_ACCESS_KEY_SECRET", "perf");
+        env.put("ALIYUN_OSS_BUCKET_NAME", "perf");
+
+        Files.createDirectories(settings.getReportDir());
+        Path log = settings.getReportDir().resolve("app.log");
+        builder.redirectErrorStream(true).redirectOutput(log.toFile());
+        System.out.println("启动被测服务: " + jar + "，日志: " + log);
+        process = builder.start();
+        awaitHealthy();
+    }
+
+    private void awaitHealthy() throws InterruptedException {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(settings.getBaseUrl() + "/api/health"))
+                .timeout(Duration.ofSeconds(2))
+                .build();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(settings.getStartupTimeoutSeconds());
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("被测服务启动失败，退出码 " + process.exitValue() + "，详见 app.log");
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    System.out.println("被测服务已就绪: " + settings.getBaseUrl());
+                    return;
+                }
+            } catch (IOException e) {
+                // 尚未监听端口
+            }
+            Thread.sleep(1000);
+        }
+        throw new IllegalStateException("被测服务 " + settings.getStartupTimeoutSeconds() + " 秒内未就绪，详见 app.log");
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        if (process == null || !process.isAlive()) {
+            return;
+        }
+        process.destroy();
+        if (!process.waitFor(30, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+
+    private static boolean reachable(String hostPort) {
+        String[] parts = hostPort.split(":");
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(parts[0], Integer.parseInt(parts[1])), 2000);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.carol.backend.loadtest.scenario;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.stream.Stream;
+
+/**
+ * 被测服务的HTTP客户端，所有虚拟用户共享一个连接池
+ * 非2xx响应或 ApiResponse.code 非200时抛出 {@link ApiException}
+ */
+public class ApiClient {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+
+    private final String baseUrl;
+    private final HttpClient httpClient;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public ApiClient(String baseUrl) {
+        this.baseUrl = baseUrl;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+    }
+
+    public JsonNode get(String path, String accessToken) throws IOException, InterruptedException {
+        return send(request(path, accessToken).GET().build());
+    }
+
+    public JsonNode post(String path, Object body, String accessToken) throws IOException, InterruptedException {
+        return send(jsonPost(path, body, accessToken).build());
+    }
+
+    /**
+     * 发起SSE请求，返回按行读取的响应体；调用方负责关闭Stream
+     */
+    public Stream<String> openEventStream(String path, Object body, String accessToken)
+            throws IOException, InterruptedException {
+        HttpRequest request = jsonPost(path, body, accessToken).header("Accept", "text/event-stream").build();
+        HttpResponse<Stream<String>> response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+        if (response.statusCode() / 100 != 2) {
+            response.body().close();
+            throw new ApiException("HTTP " + response.statusCode());
+        }
+        return response.body();
+    }
+
+    private HttpRequest.Builder jsonPost(String path, Object body, String accessToken) throws IOException {
+        return request(path, accessToken)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)));
+    }
+
+    private HttpRequest.Builder request(String path, String accessToken) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(REQUEST_TIMEOUT);
+        if (accessToken != null) {
+            builder.header("Authorization", "Bearer " + accessToken);
+        }
+        return builder;
+    }
+
+    private JsonNode send(HttpRequest request) throws IOException, InterruptedException {
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        JsonNode body = response.body().length > 0 ? objectMapper.readTree(response.body()) : objectMapper.nullNode();
+        if (response.statusCode() / 100 != 2) {
+            throw new ApiException("HTTP " + response.statusCode() + ": " + body.path("message").asText());
+        }
+        if (body.has("code") && body.path("code").asInt() != 200) {
+            throw new ApiException("code " + body.path("code").asInt() + ": " + body.path("message").asText());
+        }
+        return body;
+    }
+
+    /**
+     * 被测服务返回的业务错误，按消息归类计入报告
+     */
+    public static class ApiException extends IOException {
+        public ApiException(String message) {
+            super(message);
+        }
+    }
+}
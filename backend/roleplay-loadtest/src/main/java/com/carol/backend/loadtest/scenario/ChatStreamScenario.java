@@ -0,0 +1,64 @@
+package com.carol.backend.loadtest.scenario;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * 角色流式聊天：从发出请求到第一个 token 事件记为首token耗时，到 done 事件记为端到端耗时
+ * 每次请求的消息都不同，避免命中语义缓存或被相同请求合并，测的是完整的生成链路
+ */
+public class ChatStreamScenario implements LoadScenario {
+
+    private static final String[] QUESTIONS = {
+            "今天的魔药课上发生了什么", "你最喜欢霍格沃茨的哪个地方", "给我讲讲魁地奇比赛",
+            "你怎么看待伏地魔", "如果可以再选一次学院你会选哪个", "海格最近又养了什么神奇动物"
+    };
+
+    private final ApiClient client;
+    private final long characterId;
+
+    public ChatStreamScenario(ApiClient client, long characterId) {
+        this.client = client;
+        this.characterId = characterId;
+    }
+
+    @Override
+    public String name() {
+        return "chat-stream";
+    }
+
+    @Override
+    public void execute(VirtualUser user, int iteration, LatencyRecorder recorder) throws Exception {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("message", QUESTIONS[(user.getIndex() + iteration) % QUESTIONS.length]
+                + "？（" + user.getAccount() + "-" + iteration + "）");
+        request.put("characterId", characterId);
+        request.put("enableTts", false);
+        request.put("enableRag", true);
+
+        long start = System.nanoTime();
+        boolean firstToken = true;
+        try (Stream<String> lines = client.openEventStream("/api/chat/stream", request, user.getAccessToken())) {
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext()) {
+                String line = iterator.next();
+                if (!line.startsWith("event:")) {
+                    continue;
+                }
+                String event = line.substring("event:".length()).trim();
+                if ("token".equals(event) && firstToken) {
+                    firstToken = false;
+                    recorder.record(LatencyRecorder.TIME_TO_FIRST_TOKEN, System.nanoTime() - start);
+                } else if ("error".equals(event)) {
+                    String data = iterator.hasNext() ? iterator.next() : "";
+                    throw new ApiClient.ApiException("error事件 " + data);
+                } else if ("done".equals(event)) {
+                    return;
+                }
+            }
+        }
+        throw new ApiClient.ApiException("流在done事件前结束");
+    }
+}
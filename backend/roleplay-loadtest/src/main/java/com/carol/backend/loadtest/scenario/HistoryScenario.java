@@ -0,0 +1,27 @@
+package com.carol.backend.loadtest.scenario;
+
+/**
+ * 聊天历史：查询与角色的最近一页消息（在聊天场景之后执行时有真实数据）
+ */
+public class HistoryScenario implements LoadScenario {
+
+    private static final int PAGE_SIZE = 20;
+
+    private final ApiClient client;
+    private final long characterId;
+
+    public HistoryScenario(ApiClient client, long characterId) {
+        this.client = client;
+        this.characterId = characterId;
+    }
+
+    @Override
+    public String name() {
+        return "history";
+    }
+
+    @Override
+    public void execute(VirtualUser user, int iteration, LatencyRecorder recorder) throws Exception {
+        client.get("/api/chat/history?characterId=" + characterId + "&limit=" + PAGE_SIZE, user.getAccessToken());
+    }
+}
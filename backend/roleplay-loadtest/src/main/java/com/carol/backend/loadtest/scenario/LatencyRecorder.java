@@ -0,0 +1,100 @@
+package com.carol.backend.loadtest.scenario;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个场景一个阶段（预热或计量）的耗时记录
+ * 端到端耗时记在 "latency" 序列，场景可另记阶段序列（如聊天的 "ttft" 首token耗时）；
+ * 样本全部保留（单场景单阶段最多几十万个），汇总时排序取分位数
+ */
+public class LatencyRecorder {
+
+    public static final String LATENCY = "latency";
+    public static final String TIME_TO_FIRST_TOKEN = "ttft";
+
+    private final Map<String, Samples> series = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder succeeded = new LongAdder();
+
+    public void recordSuccess(long latencyNanos) {
+        succeeded.increment();
+        record(LATENCY, latencyNanos);
+    }
+
+    public void record(String name, long nanos) {
+        series.computeIfAbsent(name, key -> new Samples()).add(nanos);
+    }
+
+    /**
+     * 按错误消息归类计数，去掉数字避免同类错误分散
+     */
+    public void recordError(Throwable error) {
+        String message = error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName();
+        String category = message.replaceAll("\\d{4,}", "#");
+        if (category.length() > 120) {
+            category = category.substring(0, 120);
+        }
+        errors.computeIfAbsent(category, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * @param elapsedSeconds 阶段实际时长，用于计算吞吐量
+     */
+    public Map<String, Object> summarize(double elapsedSeconds) {
+        long ok = succeeded.sum();
+        long failed = errors.values().stream().mapToLong(LongAdder::sum).sum();
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("requests", ok + failed);
+        summary.put("succeeded", ok);
+        summary.put("failed", failed);
+        summary.put("errorRate", ok + failed > 0 ? round((double) failed / (ok + failed)) : 0.0);
+        summary.put("throughputPerSecond", elapsedSeconds > 0 ? round(ok / elapsedSeconds) : 0.0);
+        new TreeMap<>(series).forEach((name, samples) -> summary.put(name, samples.percentiles()));
+        Map<String, Long> errorCounts = new TreeMap<>();
+        errors.forEach((category, count) -> errorCounts.put(category, count.sum()));
+        summary.put("errors", errorCounts);
+        return summary;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 1000) / 1000.0;
+    }
+
+    private static final class Samples {
+        private long[] values = new long[1024];
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        synchronized Map<String, Object> percentiles() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            Map<String, Object> result = new LinkedHashMap<>();
+            result.put("count", size);
+            result.put("p50Ms", millis(sorted, 0.50));
+            result.put("p90Ms", millis(sorted, 0.90));
+            result.put("p99Ms", millis(sorted, 0.99));
+            result.put("maxMs", size > 0 ? round(sorted[size - 1] / 1e6) : 0.0);
+            result.put("avgMs", size > 0 ? round(Arrays.stream(sorted).average().orElse(0) / 1e6) : 0.0);
+            return result;
+        }
+
+        private static double millis(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0.0;
+            }
+            int index = (int) Math.ceil(quantile * sorted.length) - 1;
+            return round(sorted[Math.max(0, index)] / 1e6);
+        }
+    }
+}
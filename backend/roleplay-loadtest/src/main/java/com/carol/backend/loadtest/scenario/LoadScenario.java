@@ -0,0 +1,19 @@
+package com.carol.backend.loadtest.scenario;
+
+/**
+ * 压测场景：每个虚拟用户循环执行 {@link #execute}，一次执行计为一个请求
+ * 执行抛出异常计为失败；返回即成功，端到端耗时由调用方计时
+ */
+public interface LoadScenario {
+
+    /**
+     * 场景名，对应 perf.scenarios 中的取值
+     */
+    String name();
+
+    /**
+     * @param iteration 该虚拟用户在本场景中的第几次执行，用于构造互不相同的请求
+     * @param recorder  需要记录阶段耗时（如首token）时使用
+     */
+    void execute(VirtualUser user, int iteration, LatencyRecorder recorder) throws Exception;
+}
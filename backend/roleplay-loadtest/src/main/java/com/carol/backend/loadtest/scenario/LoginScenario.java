@@ -0,0 +1,38 @@
+package com.carol.backend.loadtest.scenario;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Map;
+
+/**
+ * 登录：用户名密码换取访问令牌（BCrypt校验 + 令牌签发），成功后刷新虚拟用户的令牌
+ */
+public class LoginScenario implements LoadScenario {
+
+    private final ApiClient client;
+
+    public LoginScenario(ApiClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public String name() {
+        return "login";
+    }
+
+    @Override
+    public void execute(VirtualUser user, int iteration, LatencyRecorder recorder) throws Exception {
+        login(client, user);
+    }
+
+    static void login(ApiClient client, VirtualUser user) throws Exception {
+        JsonNode data = client.post("/api/auth/login",
+                Map.of("userAccount", user.getAccount(), "userPassword", user.getPassword()), null).path("data");
+        String accessToken = data.path("accessToken").asText(null);
+        if (accessToken == null) {
+            throw new ApiClient.ApiException("登录响应缺少accessToken");
+        }
+        user.setAccessToken(accessToken);
+        user.setUserId(data.path("user").path("userId").asLong());
+    }
+}
@@ -0,0 +1,39 @@
+package com.carol.backend.loadtest.scenario;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 同步语音合成：返回音频URL即成功（不下载音频）
+ */
+public class TtsScenario implements LoadScenario {
+
+    private static final String[] SENTENCES = {
+            "欢迎来到霍格沃茨魔法学校，", "今天的天气很适合在黑湖边散步。", "别忘了明天早上的变形课，麦格教授会点名。"
+    };
+
+    private final ApiClient client;
+
+    public TtsScenario(ApiClient client) {
+        this.client = client;
+    }
+
+    @Override
+    public String name() {
+        return "tts";
+    }
+
+    @Override
+    public void execute(VirtualUser user, int iteration, LatencyRecorder recorder) throws Exception {
+        Map<String, Object> request = new LinkedHashMap<>();
+        request.put("text", SENTENCES[(user.getIndex() + iteration) % SENTENCES.length] + iteration);
+        request.put("voice", "Cherry");
+        request.put("model", "qwen3-tts-flash");
+        request.put("userId", String.valueOf(user.getUserId()));
+        String audioUrl = client.post("/api/tts/synthesize", request, user.getAccessToken())
+                .path("data").path("audioUrl").asText("");
+        if (audioUrl.isEmpty()) {
+            throw new ApiClient.ApiException("合成响应缺少audioUrl");
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.carol.backend.loadtest.scenario;
+
+import lombok.Data;
+
+/**
+ * 虚拟用户：一个注册账号，在所有场景中复用，登录场景会刷新其令牌
+ */
+@Data
+public class VirtualUser {
+
+    private final int index;
+    private final String account;
+    private final String password;
+    private volatile String accessToken;
+    private volatile Long userId;
+}
@@ -0,0 +1,321 @@
+package com.carol.backend.loadtest.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 实时语音识别桩（DashScope WebSocket双工协议子集）
+ * JDK没有WebSocket服务端，这里直接在Socket上完成握手和帧编解码（不支持扩展，客户端帧均带掩码）：
+ * run-task → task-started；每收到约200ms音频返回一次中间结果；finish-task → 最终结果（sentence_end=true）+ task-finished；
+ * 注入错误时 run-task 直接返回 task-failed
+ */
+class AsrWebSocketStub implements AutoCloseable {
+
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final String RECOGNIZED_TEXT = "今天的魔药课怎么样";
+
+    /**
+     * 16kHz 16位单声道PCM每200ms的字节数
+     */
+    private static final int BYTES_PER_RESULT = 6400;
+
+    private static final int OPCODE_CONTINUATION = 0x0;
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    private final StubSettings settings;
+    private final Consumer<String> requestCounter;
+    private final LongAdder injectedErrors;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor;
+
+    private AsrWebSocketStub(StubSettings settings, Consumer<String> requestCounter, LongAdder injectedErrors)
+            throws IOException {
+        this.settings = settings;
+        this.requestCounter = requestCounter;
+        this.injectedErrors = injectedErrors;
+        this.serverSocket = new ServerSocket(settings.getWsPort(), 1024, InetAddress.getLoopbackAddress());
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "Asr-Stub-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::acceptLoop);
+    }
+
+    static AsrWebSocketStub start(StubSettings settings, Consumer<String> requestCounter, LongAdder injectedErrors)
+            throws IOException {
+        return new AsrWebSocketStub(settings, requestCounter, injectedErrors);
+    }
+
+    String getUrl() {
+        return "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/api-ws/v1/inference/";
+    }
+
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+            // 关闭时忽略
+        }
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = socket.getOutputStream();
+            if (!handshake(in, out)) {
+                return;
+            }
+            requestCounter.accept("asr");
+            new Session(in, out).run();
+        } catch (IOException | InterruptedException e) {
+            // 客户端断开
+        }
+    }
+
+    private boolean handshake(InputStream in, OutputStream out) throws IOException {
+        String key = null;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().toLowerCase(Locale.ROOT).equals("sec-websocket-key")) {
+                key = line.substring(colon + 1).trim();
+            }
+        }
+        if (key == null) {
+            out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            return false;
+        }
+        out.write(("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return true;
+    }
+
+    private static String acceptKey(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                break;
+            }
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+        if (b == -1 && line.size() == 0) {
+            throw new EOFException();
+        }
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * 一个WebSocket连接上的识别任务
+     */
+    private final class Session {
+        private final DataInputStream in;
+        private final OutputStream out;
+        private String taskId;
+        private long audioBytes;
+        private long nextResultAt = BYTES_PER_RESULT;
+
+        private Session(DataInputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        void run() throws IOException, InterruptedException {
+            ByteArrayOutputStream message = new ByteArrayOutputStream();
+            int messageOpcode = OPCODE_TEXT;
+            while (true) {
+                int b0 = in.readUnsignedByte();
+                int b1 = in.readUnsignedByte();
+                boolean fin = (b0 & 0x80) != 0;
+                int opcode = b0 & 0x0F;
+                long length = b1 & 0x7F;
+                if (length == 126) {
+                    length = in.readUnsignedShort();
+                } else if (length == 127) {
+                    length = in.readLong();
+                }
+                byte[] mask = new byte[4];
+                if ((b1 & 0x80) != 0) {
+                    in.readFully(mask);
+                }
+                byte[] payload = new byte[(int) length];
+                in.readFully(payload);
+                for (int i = 0; i < payload.length; i++) {
+                    payload[i] ^= mask[i % 4];
+                }
+
+                if (opcode == OPCODE_CLOSE) {
+                    writeFrame(OPCODE_CLOSE, payload);
+                    return;
+                }
+                if (opcode == OPCODE_PING) {
+                    writeFrame(OPCODE_PONG, payload);
+                    continue;
+                }
+                if (opcode == OPCODE_PONG) {
+                    continue;
+                }
+                if (opcode != OPCODE_CONTINUATION) {
+                    messageOpcode = opcode;
+                    message.reset();
+                }
+                message.write(payload);
+                if (!fin) {
+                    continue;
+                }
+                if (messageOpcode == OPCODE_BINARY) {
+                    onAudio(message.size());
+                } else if (messageOpcode == OPCODE_TEXT && !onCommand(objectMapper.readTree(message.toByteArray()))) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return 任务结束（失败或完成）时返回false
+         */
+        private boolean onCommand(JsonNode command) throws IOException, InterruptedException {
+            JsonNode header = command.path("header");
+            String action = header.path("action").asText();
+            if ("run-task".equals(action)) {
+                taskId = header.path("task_id").asText();
+                Thread.sleep(settings.sampleLatencyMillis() / 5);
+                if (settings.sampleError()) {
+                    injectedErrors.increment();
+                    ObjectNode failed = event("task-failed");
+                    failed.with("header").put("error_code", "Throttling.RateQuota")
+                            .put("error_message", "Requests rate limit exceeded, please try again later.");
+                    send(failed);
+                    return false;
+                }
+                send(event("task-started"));
+                return true;
+            }
+            if ("finish-task".equals(action)) {
+                send(result(true));
+                ObjectNode finished = event("task-finished");
+                finished.with("payload").putObject("usage").put("duration", audioBytes / 32000);
+                send(finished);
+                return false;
+            }
+            return true;
+        }
+
+        private void onAudio(int bytes) throws IOException {
+            audioBytes += bytes;
+            while (audioBytes >= nextResultAt) {
+                nextResultAt += BYTES_PER_RESULT;
+                send(result(false));
+            }
+        }
+
+        private ObjectNode event(String name) {
+            ObjectNode event = objectMapper.createObjectNode();
+            event.putObject("header").put("task_id", taskId).put("event", name).putObject("attributes");
+            event.putObject("payload");
+            return event;
+        }
+
+        /**
+         * 识别结果：中间结果的文本随音频长度增长
+         */
+        private ObjectNode result(boolean sentenceEnd) {
+            long millis = audioBytes / 32;
+            int chars = sentenceEnd ? RECOGNIZED_TEXT.length()
+                    : (int) Math.min(RECOGNIZED_TEXT.length(), Math.max(1, millis / 300));
+            ObjectNode event = event("result-generated");
+            ObjectNode sentence = event.with("payload").putObject("output").putObject("sentence");
+            sentence.put("begin_time", 0);
+            if (sentenceEnd) {
+                sentence.put("end_time", millis);
+            } else {
+                sentence.putNull("end_time");
+            }
+            sentence.put("text", RECOGNIZED_TEXT.substring(0, chars));
+            sentence.putArray("words");
+            sentence.put("sentence_end", sentenceEnd);
+            return event;
+        }
+
+        private void send(JsonNode event) throws IOException {
+            writeFrame(OPCODE_TEXT, objectMapper.writeValueAsBytes(event));
+        }
+
+        private void writeFrame(int opcode, byte[] payload) throws IOException {
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(payload.length + 10);
+            frame.write(0x80 | opcode);
+            if (payload.length < 126) {
+                frame.write(payload.length);
+            } else if (payload.length <= 0xFFFF) {
+                frame.write(126);
+                frame.write(payload.length >>> 8);
+                frame.write(payload.length & 0xFF);
+            } else {
+                frame.write(127);
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    frame.write((int) ((long) payload.length >>> shift) & 0xFF);
+                }
+            }
+            frame.write(payload);
+            out.write(frame.toByteArray());
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.carol.backend.loadtest.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 本地DashScope兼容桩服务
+ * 只实现本服务用到的协议子集，回复内容固定，延迟、token速率和错误注入由 {@link StubSettings} 控制：
+ * - 文本生成（Spring AI Alibaba ChatModel）：/api/v1/services/aigc/text-generation/generation，X-DashScope-SSE: enable 时按token速率流式返回
+ * - 文本向量化（RAG）：/api/v1/services/embeddings/text-embedding/text-embedding，同一文本返回同一单位向量
+ * - 语音合成（DashScope SDK MultiModalConversation）：/api/v1/services/aigc/multimodal-generation/generation，
+ *   返回指向 /stub/audio/ 的WAV地址，流式时分片返回base64 PCM
+ * - 实时语音识别（DashScope SDK Recognition）：WebSocket，见 {@link AsrWebSocketStub}
+ * - OSS PutObject/GetObject（路径风格，IP端点时OSS SDK使用路径风格），对象保存在内存中
+ *
+ * 错误注入时DashScope接口返回429限流，OSS和音频下载不注入错误
+ */
+public class DashScopeStubServer implements AutoCloseable {
+
+    public static final String TEXT_GENERATION = "/api/v1/services/aigc/text-generation/generation";
+    public static final String MULTIMODAL_GENERATION = "/api/v1/services/aigc/multimodal-generation/generation";
+    public static final String TEXT_EMBEDDING = "/api/v1/services/embeddings/text-embedding/text-embedding";
+    public static final String AUDIO_PREFIX = "/stub/audio/";
+
+    private static final String REPLY_CORPUS = "斯内普教授今天又给格兰芬多扣了十分，不过赫敏的魔药做得完美无缺。"
+            + "邓布利多在礼堂里宣布了新的规定，海格带着一窝火螃蟹从禁林回来。";
+
+    /**
+     * 合成音频格式：24kHz 单声道 16位PCM，每个字符约0.25秒
+     */
+    private static final int SAMPLE_RATE = 24000;
+    private static final int MILLIS_PER_CHAR = 250;
+    private static final int STREAM_AUDIO_CHUNK_MILLIS = 200;
+
+    private static final String BUCKET_ACL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<AccessControlPolicy><Owner><ID>perf</ID><DisplayName>perf</DisplayName></Owner>"
+            + "<AccessControlList><Grant>private</Grant></AccessControlList></AccessControlPolicy>";
+
+    private final StubSettings settings;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final AsrWebSocketStub asrStub;
+
+    private final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> requestCounts = new ConcurrentHashMap<>();
+    private final LongAdder injectedErrors = new LongAdder();
+
+    private DashScopeStubServer(StubSettings settings) throws IOException {
+        this.settings = settings;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "DashScope-Stub-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), settings.getPort()), 1024);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+        this.asrStub = AsrWebSocketStub.start(settings, this::count, injectedErrors);
+    }
+
+    public static DashScopeStubServer start(StubSettings settings) throws IOException {
+        return new DashScopeStubServer(settings);
+    }
+
+    /**
+     * Spring AI Alibaba 的 spring.ai.dashscope.base-url、OSS端点
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * DashScope SDK 的 DASHSCOPE_HTTP_BASE_URL
+     */
+    public String getSdkHttpBaseUrl() {
+        return getBaseUrl() + "/api/v1/";
+    }
+
+    /**
+     * DashScope SDK 的 DASHSCOPE_WEBSOCKET_BASE_URL
+     */
+    public String getSdkWebSocketUrl() {
+        return asrStub.getUrl();
+    }
+
+    /**
+     * 各接口收到的请求数
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        requestCounts.forEach((endpoint, count) -> counts.put(endpoint, count.sum()));
+        counts.put("injected-errors", injectedErrors.sum());
+        return counts;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        asrStub.close();
+        executor.shutdownNow();
+    }
+
+    private void count(String endpoint) {
+        requestCounts.computeIfAbsent(endpoint, key -> new LongAdder()).increment();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        try {
+            if (path.startsWith(TEXT_GENERATION)) {
+                count("chat");
+                handleTextGeneration(exchange);
+            } else if (path.startsWith(MULTIMODAL_GENERATION)) {
+                count("tts");
+                handleSpeechSynthesis(exchange);
+            } else if (path.startsWith(TEXT_EMBEDDING)) {
+                count("embedding");
+                handleEmbedding(exchange);
+            } else if (path.startsWith(AUDIO_PREFIX)) {
+                count("audio-download");
+                handleAudioDownload(exchange, path.substring(AUDIO_PREFIX.length()));
+            } else {
+                handleObjectStorage(exchange, path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // 客户端断开（流式回复被取消）
+        } finally {
+            exchange.close();
+        }
+    }
+
+    // ---------------------------------------------------------------- 文本生成
+
+    private void handleTextGeneration(HttpExchange exchange) throws IOException, InterruptedException {
+        JsonNode request = readJson(exchange);
+        if (rejectWithInjectedError(exchange)) {
+            return;
+        }
+        boolean stream = isStreamRequest(exchange);
+        boolean incremental = request.path("parameters").path("incremental_output").asBoolean(stream);
+        int inputTokens = estimateInputTokens(request.path("input"));
+        String requestId = UUID.randomUUID().toString();
+
+        Thread.sleep(settings.sampleLatencyMillis());
+        if (!stream) {
+            // 非流式调用等全部token生成完再返回
+            sleepNanos(settings.tokenIntervalNanos() * settings.getReplyTokens());
+            sendJson(exchange, 200, chatChunk(requestId, reply(settings.getReplyTokens()), "stop",
+                    inputTokens, settings.getReplyTokens()));
+            return;
+        }
+
+        startEventStream(exchange);
+        OutputStream body = exchange.getResponseBody();
+        StringBuilder content = new StringBuilder();
+        int tokens = settings.getReplyTokens();
+        for (int i = 1; i <= tokens; i++) {
+            String token = token(i - 1);
+            content.append(token);
+            boolean last = i == tokens;
+            writeEvent(body, i, chatChunk(requestId, incremental ? token : content.toString(),
+                    last ? "stop" : "null", inputTokens, i));
+            if (!last) {
+                sleepNanos(settings.tokenIntervalNanos());
+            }
+        }
+    }
+
+    private ObjectNode chatChunk(String requestId, String content, String finishReason, int inputTokens, int outputTokens) {
+        ObjectNode chunk = objectMapper.createObjectNode();
+        ObjectNode choice = chunk.putObject("output").putArray("choices").addObject();
+        choice.put("finish_reason", finishReason);
+        choice.putObject("message").put("role", "assistant").put("content", content);
+        chunk.set("usage", usage(inputTokens, outputTokens));
+        chunk.put("request_id", requestId);
+        return chunk;
+    }
+
+    private ObjectNode usage(int inputTokens, int outputTokens) {
+        return objectMapper.createObjectNode()
+                .put("input_tokens", inputTokens)
+                .put("output_tokens", outputTokens)
+                .put("total_tokens", inputTokens + outputTokens);
+    }
+
+    private static String reply(int tokens) {
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < tokens; i++) {
+            reply.append(token(i));
+        }
+        return reply.toString();
+    }
+
+    /**
+     * 第i个token：回复语料中的两个字符
+     */
+    private static String token(int index) {
+        int start = (index * 2) % (REPLY_CORPUS.length() - 1);
+        return REPLY_CORPUS.substring(start, start + 2);
+    }
+
+    /**
+     * 输入token数按字符数粗略估算
+     */
+    private static int estimateInputTokens(JsonNode input) {
+        int chars = 0;
+        for (JsonNode message : input.path("messages")) {
+            chars += message.path("content").asText("").length();
+        }
+        return Math.max(1, chars);
+    }
+
+    // ---------------------------------------------------------------- 文本向量化
+
+    private void handleEmbedding(HttpExchange exchange) throws IOException, InterruptedException {
+        JsonNode request = readJson(exchange);
+        if (rejectWithInjectedError(exchange)) {
+            return;
+        }
+        // 向量化比生成快得多，首包延迟按1/5取样
+        Thread.sleep(settings.sampleLatencyMillis() / 5);
+
+        ObjectNode response = objectMapper.createObjectNode();
+        ArrayNode embeddings = response.putObject("output").putArray("embeddings");
+        int totalTokens = 0;
+        int index = 0;
+        for (JsonNode text : request.path("input").path("texts")) {
+            ObjectNode embedding = embeddings.addObject();
+            embedding.put("text_index", index++);
+            ArrayNode vector = embedding.putArray("embedding");
+            for (double value : embed(text.asText(""))) {
+                vector.add(value);
+            }
+            totalTokens += text.asText("").length();
+        }
+        response.putObject("usage").put("total_tokens", totalTokens);
+        response.put("request_id", UUID.randomUUID().toString());
+        sendJson(exchange, 200, response);
+    }
+
+    /**
+     * 以文本哈希为种子生成单位向量，同一文本得到同一向量
+     */
+    private double[] embed(String text) {
+        Random random = new Random(text.hashCode());
+        double[] vector = new double[settings.getEmbeddingDimensions()];
+        double norm = 0;
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = random.nextGaussian();
+            norm += vector[i] * vector[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] /= norm;
+        }
+        return vector;
+    }
+
+    // ---------------------------------------------------------------- 语音合成
+
+    private void handleSpeechSynthesis(HttpExchange exchange) throws IOException, InterruptedException {
+        JsonNode request = readJson(exchange);
+        if (rejectWithInjectedError(exchange)) {
+            return;
+        }
+        String text = request.path("input").path("text").asText("");
+        long durationMillis = Math.max(1, text.length()) * (long) MILLIS_PER_CHAR;
+        String audioId = "audio_" + durationMillis + "_" + UUID.randomUUID();
+        String requestId = UUID.randomUUID().toString();
+
+        Thread.sleep(settings.sampleLatencyMillis());
+        if (!isStreamRequest(exchange)) {
+            sendJson(exchange, 200, ttsChunk(requestId, audioId, "", "stop", text.length()));
+            return;
+        }
+
+        startEventStream(exchange);
+        OutputStream body = exchange.getResponseBody();
+        byte[] chunk = new byte[pcmBytes(STREAM_AUDIO_CHUNK_MILLIS)];
+        String chunkData = Base64.getEncoder().encodeToString(chunk);
+        int chunks = (int) Math.max(1, durationMillis / STREAM_AUDIO_CHUNK_MILLIS);
+        for (int i = 1; i <= chunks; i++) {
+            writeEvent(body, i, ttsChunk(requestId, audioId, chunkData, "null", text.length()));
+            sleepNanos(settings.tokenIntervalNanos());
+        }
+        writeEvent(body, chunks + 1, ttsChunk(requestId, audioId, "", "stop", text.length()));
+    }
+
+    private ObjectNode ttsChunk(String requestId, String audioId, String data, String finishReason, int characters) {
+        ObjectNode chunk = objectMapper.createObjectNode();
+        ObjectNode output = chunk.putObject("output");
+        output.put("finish_reason", finishReason);
+        ObjectNode audio = output.putObject("audio");
+        audio.put("id", audioId);
+        audio.put("data", data);
+        audio.put("url", "stop".equals(finishReason) ? getBaseUrl() + AUDIO_PREFIX + audioId + ".wav" : "");
+        audio.put("expires_at", System.currentTimeMillis() / 1000 + 86400);
+        chunk.putObject("usage").put("characters", characters);
+        chunk.put("request_id", requestId);
+        return chunk;
+    }
+
+    /**
+     * 音频ID中带有时长，按时长返回静音WAV
+     */
+    private void handleAudioDownload(HttpExchange exchange, String fileName) throws IOException {
+        long durationMillis;
+        try {
+            durationMillis = Long.parseLong(fileName.split("_")[1]);
+        } catch (RuntimeException e) {
+            sendBytes(exchange, 404, "text/plain", "not found".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        sendBytes(exchange, 200, "audio/wav", wav(pcmBytes(durationMillis)));
+    }
+
+    private static int pcmBytes(long durationMillis) {
+        return (int) (SAMPLE_RATE * durationMillis / 1000) * 2;
+    }
+
+    private static byte[] wav(int pcmBytes) {
+        ByteBuffer header = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII)).putInt(36 + pcmBytes)
+                .put("WAVE".getBytes(StandardCharsets.US_ASCII))
+                .put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(16)
+                .putShort((short) 1).putShort((short) 1).putInt(SAMPLE_RATE).putInt(SAMPLE_RATE * 2)
+                .putShort((short) 2).putShort((short) 16)
+                .put("data".getBytes(StandardCharsets.US_ASCII)).putInt(pcmBytes);
+        byte[] wav = new byte[44 + pcmBytes];
+        System.arraycopy(header.array(), 0, wav, 0, 44);
+        return wav;
+    }
+
+    // ---------------------------------------------------------------- OSS
+
+    private void handleObjectStorage(HttpExchange exchange, String path) throws IOException {
+        String method = exchange.getRequestMethod();
+        String query = exchange.getRequestURI().getQuery();
+        if ("GET".equals(method) && query != null && query.startsWith("acl")) {
+            // OSSClient.doesBucketExist 通过 GetBucketAcl 判断，任意存储桶都视为存在
+            count("oss-bucket-acl");
+            sendBytes(exchange, 200, "application/xml", BUCKET_ACL.getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        if ("PUT".equals(method)) {
+            count("oss-put");
+            objects.put(path, exchange.getRequestBody().readAllBytes());
+            exchange.getResponseHeaders().add("ETag", "\"" + Integer.toHexString(path.hashCode()) + "\"");
+            exchange.getResponseHeaders().add("x-oss-request-id", UUID.randomUUID().toString());
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        if ("GET".equals(method) && objects.containsKey(path)) {
+            count("oss-get");
+            sendBytes(exchange, 200, "application/octet-stream", objects.get(path));
+            return;
+        }
+        if ("DELETE".equals(method)) {
+            count("oss-delete");
+            objects.remove(path);
+            exchange.sendResponseHeaders(204, -1);
+            return;
+        }
+        sendBytes(exchange, 404, "text/plain", "not found".getBytes(StandardCharsets.UTF_8));
+    }
+
+    // ---------------------------------------------------------------- 公共
+
+    private boolean rejectWithInjectedError(HttpExchange exchange) throws IOException {
+        if (!settings.sampleError()) {
+            return false;
+        }
+        injectedErrors.increment();
+        ObjectNode error = objectMapper.createObjectNode()
+                .put("code", "Throttling.RateQuota")
+                .put("message", "Requests rate limit exceeded, please try again later.")
+                .put("request_id", UUID.randomUUID().toString());
+        sendJson(exchange, 429, error);
+        return true;
+    }
+
+    private static boolean isStreamRequest(HttpExchange exchange) {
+        String sse = exchange.getRequestHeaders().getFirst("X-DashScope-SSE");
+        String accept = exchange.getRequestHeaders().getFirst("Accept");
+        return "enable".equalsIgnoreCase(sse) || (accept != null && accept.contains("text/event-stream"));
+    }
+
+    private JsonNode readJson(HttpExchange exchange) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        return body.length > 0 ? objectMapper.readTree(body) : objectMapper.createObjectNode();
+    }
+
+    private void sendJson(HttpExchange exchange, int status, JsonNode json) throws IOException {
+        sendBytes(exchange, status, "application/json", objectMapper.writeValueAsBytes(json));
+    }
+
+    private static void sendBytes(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static void startEventStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream;charset=UTF-8");
+        exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(200, 0);
+    }
+
+    /**
+     * DashScope SSE事件格式
+     */
+    private void writeEvent(OutputStream body, int id, JsonNode data) throws IOException {
+        ByteArrayOutputStream event = new ByteArrayOutputStream();
+        event.write(("id:" + id + "\nevent:result\n:HTTP_STATUS/200\ndata:").getBytes(StandardCharsets.UTF_8));
+        event.write(objectMapper.writeValueAsBytes(data));
+        event.write("\n\n".getBytes(StandardCharsets.UTF_8));
+        body.write(event.toByteArray());
+        body.flush();
+    }
+
+    private static void sleepNanos(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+    }
+
+    /**
+     * 单独运行桩服务，供手动压测或本地联调：
+     * mvn -Pperf -pl roleplay-loadtest compile exec:java -Dexec.mainClass=com.carol.backend.loadtest.stub.DashScopeStubServer -Dstub.port=18900
+     */
+    public static void main(String[] args) throws Exception {
+        StubSettings settings = new StubSettings();
+        DashScopeStubServer stub = start(settings);
+        System.out.println("DashScope桩服务已启动: " + settings);
+        System.out.println("  spring.ai.dashscope.base-url=" + stub.getBaseUrl());
+        System.out.println("  DASHSCOPE_HTTP_BASE_URL=" + stub.getSdkHttpBaseUrl());
+        System.out.println("  DASHSCOPE_WEBSOCKET_BASE_URL=" + stub.getSdkWebSocketUrl());
+        System.out.println("  aliyun.oss.endpoint=" + stub.getBaseUrl());
+        Runtime.getRuntime().addShutdownHook(new Thread(stub::close));
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,96 @@
+package com.carol.backend.loadtest.stub;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.experimental.Accessors;
+
+import java.util.Random;
+
+/**
+ * 桩服务参数，全部可通过系统属性覆盖（stub.*）
+ *
+ * stub.port=0                    HTTP端口（DashScope HTTP接口、TTS音频下载、OSS），0表示随机端口
+ * stub.wsPort=0                  WebSocket端口（实时语音识别），0表示随机端口
+ * stub.tokensPerSecond=40        流式回复的token速率
+ * stub.replyTokens=120           每次回复的token数
+ * stub.latencyMedianMs=600       首token延迟中位数（TTS、向量化、识别的首包延迟同样取样）
+ * stub.latencyP99Ms=2500         首token延迟P99，与中位数一起确定对数正态分布
+ * stub.errorRate=0.0             注入错误的请求比例，返回429限流
+ * stub.embeddingDimensions=1536  向量维度，需与向量索引一致
+ * stub.seed=42                   随机种子，相同种子、相同请求顺序下延迟和错误序列可复现
+ */
+@Data
+@Accessors(chain = true)
+public class StubSettings {
+
+    private int port = Integer.getInteger("stub.port", 0);
+    private int wsPort = Integer.getInteger("stub.wsPort", 0);
+    private double tokensPerSecond = doubleProperty("stub.tokensPerSecond", 40);
+    private int replyTokens = Integer.getInteger("stub.replyTokens", 120);
+    private long latencyMedianMs = Long.getLong("stub.latencyMedianMs", 600L);
+    private long latencyP99Ms = Long.getLong("stub.latencyP99Ms", 2500L);
+    private double errorRate = doubleProperty("stub.errorRate", 0.0);
+    private int embeddingDimensions = Integer.getInteger("stub.embeddingDimensions", 1536);
+    private long seed = Long.getLong("stub.seed", 42L);
+
+    /**
+     * P99 对应的标准正态分位数
+     */
+    private static final double Z_99 = 2.326;
+
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private transient Random random;
+
+    private static double doubleProperty(String key, double defaultValue) {
+        String value = System.getProperty(key);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    /**
+     * 按对数正态分布取样一次首包延迟：中位数为 latencyMedianMs，P99 为 latencyP99Ms
+     */
+    public synchronized long sampleLatencyMillis() {
+        if (latencyMedianMs <= 0) {
+            return 0;
+        }
+        double sigma = latencyP99Ms > latencyMedianMs ? Math.log((double) latencyP99Ms / latencyMedianMs) / Z_99 : 0;
+        return Math.round(latencyMedianMs * Math.exp(sigma * random().nextGaussian()));
+    }
+
+    /**
+     * 本次请求是否注入错误
+     */
+    public synchronized boolean sampleError() {
+        return errorRate > 0 && random().nextDouble() < errorRate;
+    }
+
+    /**
+     * 相邻两个流式token的间隔
+     */
+    public long tokenIntervalNanos() {
+        return tokensPerSecond > 0 ? (long) (1_000_000_000L / tokensPerSecond) : 0;
+    }
+
+    private Random random() {
+        if (random == null) {
+            random = new Random(seed);
+        }
+        return random;
+    }
+
+    public StubSettings setSeed(long seed) {
+        this.seed = seed;
+        this.random = null;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "tokensPerSecond=" + tokensPerSecond + ", replyTokens=" + replyTokens
+                + ", latencyMedianMs=" + latencyMedianMs + ", latencyP99Ms=" + latencyP99Ms
+                + ", errorRate=" + errorRate + ", embeddingDimensions=" + embeddingDimensions + ", seed=" + seed;
+    }
+}
@@ -0,0 +1,151 @@
+package com.carol.backend.loadtest.stub;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.WebSocket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * DashScope兼容桩服务测试
+ */
+class DashScopeStubServerTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static StubSettings fastSettings() {
+        return new StubSettings()
+                .setPort(0)
+                .setWsPort(0)
+                .setLatencyMedianMs(0)
+                .setTokensPerSecond(0)
+                .setReplyTokens(5)
+                .setEmbeddingDimensions(8)
+                .setErrorRate(0);
+    }
+
+    @Test
+    void testStreamingChatEmitsOneEventPerToken() throws Exception {
+        try (DashScopeStubServer stub = DashScopeStubServer.start(fastSettings())) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                            URI.create(stub.getBaseUrl() + DashScopeStubServer.TEXT_GENERATION))
+                    .header("X-DashScope-SSE", "enable")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"input\":{\"messages\":[{\"role\":\"user\",\"content\":\"你好\"}]},"
+                                    + "\"parameters\":{\"incremental_output\":true}}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            List<String> data = response.body().lines().filter(line -> line.startsWith("data:")).toList();
+            assertEquals(5, data.size());
+            JsonNode last = objectMapper.readTree(data.get(4).substring("data:".length()));
+            assertEquals("stop", last.at("/output/choices/0/finish_reason").asText());
+            assertEquals(2, last.at("/output/choices/0/message/content").asText().length());
+            assertEquals(5, last.at("/usage/output_tokens").asInt());
+            assertEquals(1L, stub.getRequestCounts().get("chat"));
+        }
+    }
+
+    @Test
+    void testInjectedErrorReturnsThrottling() throws Exception {
+        try (DashScopeStubServer stub = DashScopeStubServer.start(fastSettings().setErrorRate(1.0))) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                            URI.create(stub.getBaseUrl() + DashScopeStubServer.TEXT_GENERATION))
+                    .POST(HttpRequest.BodyPublishers.ofString("{}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(429, response.statusCode());
+            assertEquals("Throttling.RateQuota", objectMapper.readTree(response.body()).path("code").asText());
+            assertEquals(1L, stub.getRequestCounts().get("injected-errors"));
+        }
+    }
+
+    @Test
+    void testEmbeddingIsDeterministicUnitVector() throws Exception {
+        try (DashScopeStubServer stub = DashScopeStubServer.start(fastSettings())) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(stub.getBaseUrl() + DashScopeStubServer.TEXT_EMBEDDING))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"input\":{\"texts\":[\"魔药课\",\"魔药课\"]}}"))
+                    .build();
+            JsonNode embeddings = objectMapper.readTree(client.send(request, HttpResponse.BodyHandlers.ofString()).body())
+                    .at("/output/embeddings");
+
+            JsonNode first = embeddings.get(0).path("embedding");
+            assertEquals(8, first.size());
+            assertEquals(first, embeddings.get(1).path("embedding"));
+            double norm = 0;
+            for (JsonNode value : first) {
+                norm += value.asDouble() * value.asDouble();
+            }
+            assertEquals(1.0, norm, 1e-9);
+        }
+    }
+
+    @Test
+    void testSpeechSynthesisUrlServesWav() throws Exception {
+        try (DashScopeStubServer stub = DashScopeStubServer.start(fastSettings())) {
+            JsonNode response = objectMapper.readTree(client.send(HttpRequest.newBuilder(
+                            URI.create(stub.getBaseUrl() + DashScopeStubServer.MULTIMODAL_GENERATION))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"input\":{\"text\":\"你好\",\"voice\":\"Cherry\"}}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()).body());
+
+            String url = response.at("/output/audio/url").asText();
+            HttpResponse<byte[]> audio = client.send(HttpRequest.newBuilder(URI.create(url)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            assertEquals(200, audio.statusCode());
+            // 2个字符 × 250ms，24kHz 16位单声道 + 44字节头
+            assertEquals(44 + 24000 * 2 / 2, audio.body().length);
+            assertEquals("RIFF", new String(audio.body(), 0, 4));
+        }
+    }
+
+    @Test
+    void testRecognitionTaskOverWebSocket() throws Exception {
+        try (DashScopeStubServer stub = DashScopeStubServer.start(fastSettings())) {
+            List<JsonNode> events = new CopyOnWriteArrayList<>();
+            CompletableFuture<Void> finished = new CompletableFuture<>();
+            WebSocket webSocket = client.newWebSocketBuilder()
+                    .buildAsync(URI.create(stub.getSdkWebSocketUrl()), new WebSocket.Listener() {
+                        @Override
+                        public CompletionStage<?> onText(WebSocket ws, CharSequence text, boolean last) {
+                            try {
+                                JsonNode event = objectMapper.readTree(text.toString());
+                                events.add(event);
+                                if ("task-finished".equals(event.at("/header/event").asText())) {
+                                    finished.complete(null);
+                                }
+                            } catch (Exception e) {
+                                finished.completeExceptionally(e);
+                            }
+                            ws.request(1);
+                            return null;
+                        }
+                    })
+                    .get(5, TimeUnit.SECONDS);
+
+            webSocket.sendText("{\"header\":{\"action\":\"run-task\",\"task_id\":\"t1\",\"streaming\":\"duplex\"}}", true)
+                    .get(5, TimeUnit.SECONDS);
+            webSocket.sendBinary(ByteBuffer.allocate(6400), true).get(5, TimeUnit.SECONDS);
+            webSocket.sendText("{\"header\":{\"action\":\"finish-task\",\"task_id\":\"t1\"}}", true)
+                    .get(5, TimeUnit.SECONDS);
+            finished.get(5, TimeUnit.SECONDS);
+
+            List<String> names = events.stream().map(event -> event.at("/header/event").asText()).toList();
+            assertEquals(List.of("task-started", "result-generated", "result-generated", "task-finished"), names);
+            assertTrue(events.get(2).at("/payload/output/sentence/sentence_end").asBoolean());
+            assertEquals(1L, stub.getRequestCounts().get("asr"));
+        }
+    }
+}
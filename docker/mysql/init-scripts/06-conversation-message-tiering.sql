@@ -0,0 +1,22 @@
+-- 会话分层存储：Redis只保留最近的消息，更早的消息归档到 conversation_messages
+-- message_index 保存Redis中的消息ID，历史分页用同一个游标跨Redis和MySQL读取
+-- 执行时间：2026-10-16
+
+USE `ai_roleplay`;
+
+-- 归档以 (session_id, message_index) 去重，重复归档同一批消息不会产生重复行
+SET @sql = (SELECT IF(
+    (SELECT COUNT(*) FROM INFORMATION_SCHEMA.STATISTICS
+     WHERE TABLE_SCHEMA = 'ai_roleplay'
+     AND TABLE_NAME = 'conversation_messages'
+     AND INDEX_NAME = 'uk_session_message') = 0,
+    'ALTER TABLE conversation_messages ADD UNIQUE KEY uk_session_message (session_id, message_index)',
+    'SELECT "uk_session_message 索引已存在" AS message'
+));
+PREPARE stmt FROM @sql;
+EXECUTE stmt;
+DEALLOCATE PREPARE stmt;
+
+-- 通用对话和Qwen会话没有角色，归档时 character_id 为空
+ALTER TABLE `conversations`
+MODIFY COLUMN `character_id` BIGINT(20) DEFAULT NULL COMMENT '角色ID（通用对话为空）';
@@ -0,0 +1,28 @@
+-- 数据同步任务记录：按用户分区并行同步，记录进度用于中断后恢复
+-- 执行时间：2026-10-16
+
+USE `ai_roleplay`;
+
+-- 数据同步任务表：记录每次 Redis -> MySQL 同步的进度、吞吐和各分区耗时，中断后从 scan_cursor 继续
+CREATE TABLE IF NOT EXISTS `data_sync_jobs` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `trigger_name` VARCHAR(64) NOT NULL COMMENT '触发来源',
+    `status` VARCHAR(16) NOT NULL COMMENT '状态 (RUNNING/COMPLETED/FAILED)',
+    `scan_cursor` VARCHAR(32) NOT NULL DEFAULT '0' COMMENT '已完成的SCAN游标，恢复时从此继续',
+    `partitions` INT NOT NULL COMMENT '分区数',
+    `scanned_conversations` BIGINT NOT NULL DEFAULT 0 COMMENT '已扫描的会话数',
+    `synced_conversations` BIGINT NOT NULL DEFAULT 0 COMMENT '有新消息写入的会话数',
+    `synced_messages` BIGINT NOT NULL DEFAULT 0 COMMENT '写入的消息数',
+    `failed_conversations` BIGINT NOT NULL DEFAULT 0 COMMENT '所在分块回滚的会话数',
+    `active_users` INT NOT NULL DEFAULT 0 COMMENT '有新消息的用户数',
+    `rows_per_second` DECIMAL(12,2) DEFAULT NULL COMMENT '写入吞吐（消息/秒）',
+    `partition_stats` TEXT COMMENT '各分区统计（JSON）',
+    `resume_count` INT NOT NULL DEFAULT 0 COMMENT '恢复次数',
+    `run_millis` BIGINT NOT NULL DEFAULT 0 COMMENT '累计运行时间（毫秒，不含中断期间）',
+    `error_message` VARCHAR(1000) DEFAULT NULL COMMENT '失败原因',
+    `started_at` DATETIME NOT NULL COMMENT '开始时间',
+    `finished_at` DATETIME DEFAULT NULL COMMENT '结束时间',
+    `updated_at` TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    INDEX `idx_status_updated` (`status`, `updated_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='数据同步任务表';
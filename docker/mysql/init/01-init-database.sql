@@ -27,7 +27,7 @@ CREATE TABLE `characters` (
 CREATE TABLE `conversations` (
     `id` BIGINT(20) NOT NULL AUTO_INCREMENT COMMENT '主键ID',
     `session_id` VARCHAR(64) NOT NULL COMMENT '会话ID（对应Redis的conversationId）',
-    `character_id` BIGINT(20) NOT NULL COMMENT '角色ID',
+    `character_id` BIGINT(20) DEFAULT NULL COMMENT '角色ID（通用对话为空）',
     `user_id` VARCHAR(100) DEFAULT 'anonymous' COMMENT '用户ID（逻辑关联users.user_account，支持匿名用户）',
     `title` VARCHAR(200) DEFAULT NULL COMMENT '对话标题（自动生成或用户设置）',
     `context_summary` TEXT COMMENT '对话内容摘要',
@@ -61,7 +61,7 @@ CREATE TABLE `conversation_messages` (
     `id` BIGINT(20) NOT NULL AUTO_INCREMENT COMMENT '主键ID',
     `conversation_id` BIGINT(20) NOT NULL COMMENT '会话ID',
     `session_id` VARCHAR(64) NOT NULL COMMENT '会话标识',
-    `message_index` INT NOT NULL COMMENT '消息在会话中的序号',
+    `message_index` INT NOT NULL COMMENT '消息在会话中的序号（Redis消息ID）',
     `message_type` TINYINT(1) NOT NULL COMMENT '消息类型: 1-用户 2-AI 3-系统',
     `content` LONGTEXT NOT NULL COMMENT '消息内容',
     `content_length` INT DEFAULT 0 COMMENT '内容字符数',
@@ -80,6 +80,7 @@ CREATE TABLE `conversation_messages` (
     `message_timestamp` TIMESTAMP NOT NULL COMMENT '消息原始时间戳',
     `created_at` TIMESTAMP DEFAULT CURRENT_TIMESTAMP COMMENT '创建时间',
     PRIMARY KEY (`id`),
+    UNIQUE KEY `uk_session_message` (`session_id`, `message_index`),
     INDEX `idx_conversation_id` (`conversation_id`),
     INDEX `idx_session_id` (`session_id`),
     INDEX `idx_message_type` (`message_type`),
@@ -146,6 +147,30 @@ INSERT INTO `users` (`user_account`, `user_password`, `username`, `email`, `stat
 ('admin', '$2a$10$N.zmdr9k7uOCQb376NoUnuTJ8iYqiSfFDYnD4bcLCJZ3LfkQOL6H.', '管理员', 'admin@example.com', 1),
 ('demo', '$2a$10$N.zmdr9k7uOCQb376NoUnuTJ8iYqiSfFDYnD4bcLCJZ3LfkQOL6H.', '演示用户', 'demo@example.com', 1);
 
+-- 数据同步任务表：记录每次 Redis -> MySQL 同步的进度、吞吐和各分区耗时，中断后从 scan_cursor 继续
+CREATE TABLE IF NOT EXISTS `data_sync_jobs` (
+    `id` BIGINT NOT NULL AUTO_INCREMENT COMMENT '主键ID',
+    `trigger_name` VARCHAR(64) NOT NULL COMMENT '触发来源',
+    `status` VARCHAR(16) NOT NULL COMMENT '状态 (RUNNING/COMPLETED/FAILED)',
+    `scan_cursor` VARCHAR(32) NOT NULL DEFAULT '0' COMMENT '已完成的SCAN游标，恢复时从此继续',
+    `partitions` INT NOT NULL COMMENT '分区数',
+    `scanned_conversations` BIGINT NOT NULL DEFAULT 0 COMMENT '已扫描的会话数',
+    `synced_conversations` BIGINT NOT NULL DEFAULT 0 COMMENT '有新消息写入的会话数',
+    `synced_messages` BIGINT NOT NULL DEFAULT 0 COMMENT '写入的消息数',
+    `failed_conversations` BIGINT NOT NULL DEFAULT 0 COMMENT '所在分块回滚的会话数',
+    `active_users` INT NOT NULL DEFAULT 0 COMMENT '有新消息的用户数',
+    `rows_per_second` DECIMAL(12,2) DEFAULT NULL COMMENT '写入吞吐（消息/秒）',
+    `partition_stats` TEXT COMMENT '各分区统计（JSON）',
+    `resume_count` INT NOT NULL DEFAULT 0 COMMENT '恢复次数',
+    `run_millis` BIGINT NOT NULL DEFAULT 0 COMMENT '累计运行时间（毫秒，不含中断期间）',
+    `error_message` VARCHAR(1000) DEFAULT NULL COMMENT '失败原因',
+    `started_at` DATETIME NOT NULL COMMENT '开始时间',
+    `finished_at` DATETIME DEFAULT NULL COMMENT '结束时间',
+    `updated_at` TIMESTAMP DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP COMMENT '更新时间',
+    PRIMARY KEY (`id`),
+    INDEX `idx_status_updated` (`status`, `updated_at`)
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_unicode_ci COMMENT='数据同步任务表';
+
 -- 插入示例角色数据
 INSERT INTO `characters` (`name`, `description`, `background_story`, `personality_traits`, `speaking_style`, `expertise_area`, `voice_style`) VALUES
 ('哈利·波特', '英国著名的年轻巫师，霍格沃茨魔法学校的学生', '出生在巫师家庭，1岁时父母被伏地魔杀害，被姨妈收养。11岁时收到霍格沃茨入学通知书，发现自己是巫师。在学校里与赫敏、罗恩成为好友，多次与伏地魔及其手下战斗。', '勇敢、善良、忠诚、有时冲动、富有正义感', '年轻人的语调，略带英式口音，语气坚定但不失温和', '魔法、防御黑魔法、魁地奇运动', 'male'),
@@ -49,9 +49,11 @@ export interface SendMessageResponse {
 
 // 流式响应数据
 export interface StreamResponse {
-  type: 'message' | 'end' | 'error' | 'tts'
+  type: 'message' | 'end' | 'error' | 'tts' | 'tts_segment' | 'message_id'
   content?: string
   messageId?: string
+  // 消息ID事件（message_id）：消息保存后分配的ID所属角色
+  role?: 'user' | 'assistant'
   error?: string
   // TTS相关字段
   audioUrl?: string
@@ -59,6 +61,9 @@ export interface StreamResponse {
   duration?: number
   success?: boolean
   languageType?: string
+  // 逐句TTS字段（tts_segment）：句子序号和句子文本
+  index?: number
+  text?: string
 }
 
 /**
@@ -287,6 +292,29 @@ const processStreamLine = (
         console.log('[chatApi] 收到TTS事件:', streamData)
         onMessage(streamData)
       }
+      // 处理逐句 TTS 事件（回复生成过程中按句子顺序推送）
+      else if (jsonData.type === 'tts_segment') {
+        const streamData: StreamResponse = {
+          type: 'tts_segment',
+          index: jsonData.index,
+          text: jsonData.text,
+          audioUrl: jsonData.audioUrl,
+          voice: jsonData.voice,
+          duration: jsonData.duration,
+          success: jsonData.success,
+          error: jsonData.error
+        }
+        onMessage(streamData)
+      }
+      // 处理消息ID事件（消息保存后推送，用于按ID更新消息）
+      else if (jsonData.type === 'message_id') {
+        const streamData: StreamResponse = {
+          type: 'message_id',
+          role: jsonData.role,
+          messageId: String(jsonData.messageId)
+        }
+        onMessage(streamData)
+      }
       // 处理 JSON 格式的响应
       else if (jsonData.content) {
         const streamData: StreamResponse = {
@@ -330,20 +358,33 @@ export interface ChatHistoryResponse {
   messages: ChatMessage[]
   total: number
   hasMore: boolean
+  nextCursor?: number  // 下一页游标，作为 before 参数加载更早的消息
   sourceStats: Record<string, number>
   queryDays?: number
 }
 
 /**
  * 获取对话历史 - 新接口，适配Spring AI
+ * 按游标分页：不传 before 返回最新一页，传入上一页的 nextCursor 加载更早的消息
  */
-export const getChatHistory = async (characterId: number, conversationId?: string): Promise<ChatHistoryResponse> => {
-  console.log('[chatApi] 获取对话历史:', { characterId, conversationId })
+export const getChatHistory = async (
+  characterId: number,
+  conversationId?: string,
+  before?: number,
+  limit?: number
+): Promise<ChatHistoryResponse> => {
+  console.log('[chatApi] 获取对话历史:', { characterId, conversationId, before, limit })
 
   const params: any = { characterId }
   if (conversationId) {
     params.conversationId = conversationId
   }
+  if (before !== undefined) {
+    params.before = before
+  }
+  if (limit !== undefined) {
+    params.limit = limit
+  }
 
   const response = await axios.get('/api/chat/history', {
     params
@@ -445,7 +486,8 @@ export const getChatHistory = async (characterId: number, conversationId?: strin
 
     // 转换消息格式
     const messages = response.data.messages.map((msg: any) => ({
-      id: msg.messageId,
+      // 后端消息ID在会话内递增，加上角色ID避免不同角色的消息在本地列表中重复
+      id: `${msg.characterId}_${msg.messageId}`,
       characterId: msg.characterId,
       content: cleanMessageContent(msg.content),
       isUser: msg.isUser,
@@ -463,6 +505,7 @@ export const getChatHistory = async (characterId: number, conversationId?: strin
       messages,
       total: response.data.total,
       hasMore: response.data.hasMore,
+      nextCursor: response.data.nextCursor ?? undefined,
       sourceStats: response.data.sourceStats,
       queryDays: response.data.queryDays
     }
@@ -514,7 +557,8 @@ export const deleteConversation = async (conversationId: string) => {
 // 更新语音时长请求接口
 export interface UpdateVoiceDurationRequest {
   conversationId?: string  // 会话ID（可选，如果不提供会根据characterId生成）
-  messageContent: string   // 消息内容（用于定位消息）
+  messageId?: number       // 消息ID（优先用于定位消息）
+  messageContent?: string  // 消息内容（未提供消息ID时用于定位消息）
   voiceDuration: number    // 语音时长（秒）
   characterId?: number     // 角色ID（可选，用于生成会话ID）
 }
@@ -523,6 +567,7 @@ export interface UpdateVoiceDurationRequest {
 export interface UpdateVoiceDurationResponse {
   success: boolean
   conversationId: string
+  messageId?: number
   voiceDuration: number
   message: string
 }
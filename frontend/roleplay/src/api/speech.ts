@@ -24,6 +24,7 @@ export interface SpeechRecognitionResponse {
   timestamp: string
   audioUrl?: string
   audioDuration?: number
+  messageId?: number
 }
 
 /**
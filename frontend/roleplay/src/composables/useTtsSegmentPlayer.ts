@@ -0,0 +1,85 @@
+import { ref } from 'vue'
+
+/**
+ * 逐句TTS播放钩子
+ * 流式回复中每收到一个 tts_segment 事件就入队，按句子顺序依次播放；
+ * 首句合成完成即可开始播放，不必等待整段音频拼接上传后的 tts 事件
+ */
+export function useTtsSegmentPlayer() {
+  // 待播放的句子音频URL（后端已按句子顺序推送）
+  const queue: string[] = []
+  const currentAudio = ref<HTMLAudioElement | null>(null)
+  // 本轮回复是否已开始逐句播放
+  const started = ref(false)
+
+  /**
+   * 播放队列中的下一句，单句播放失败时跳过，不影响后续句子
+   */
+  const playNext = () => {
+    const audioUrl = queue.shift()
+    if (!audioUrl) {
+      currentAudio.value = null
+      return
+    }
+
+    const audio = new Audio(audioUrl)
+    audio.volume = 1.0
+    currentAudio.value = audio
+
+    // ended 和 error 可能先后触发，只有仍是当前句子时才推进
+    const advance = () => {
+      if (currentAudio.value === audio) {
+        playNext()
+      }
+    }
+    audio.addEventListener('ended', advance)
+    audio.addEventListener('error', () => {
+      console.warn('[useTtsSegmentPlayer] 句子音频播放出错，跳过:', audioUrl)
+      advance()
+    })
+    audio.play().catch(error => {
+      console.warn('[useTtsSegmentPlayer] 句子音频播放失败，跳过:', error)
+      advance()
+    })
+  }
+
+  /**
+   * 加入一句音频，当前没有在播放时立即开始
+   * @param audioUrl 句子音频URL
+   */
+  const enqueue = (audioUrl: string) => {
+    queue.push(audioUrl)
+    started.value = true
+    if (!currentAudio.value) {
+      playNext()
+    }
+  }
+
+  /**
+   * 停止播放并清空队列
+   */
+  const stop = () => {
+    queue.length = 0
+    const audio = currentAudio.value
+    currentAudio.value = null
+    if (audio) {
+      audio.pause()
+      audio.currentTime = 0
+    }
+  }
+
+  /**
+   * 开始新一轮回复前重置
+   */
+  const reset = () => {
+    stop()
+    started.value = false
+  }
+
+  return {
+    enqueue,
+    stop,
+    reset,
+    started
+  }
+}
@@ -59,6 +59,10 @@ export const useChatStore = defineStore('chat', () => {
   const qwenConversations = ref<QwenConversationInfo[]>([])
   const currentQwenConversationId = ref<string | null>(null)
 
+  // 聊天历史分页游标（按角色），undefined 表示没有更早的消息
+  const historyCursors = ref<Record<number, number | undefined>>({})
+  const loadingOlderMessages = ref(false)
+
   // ✅优化 自动滚动 - 滚动到底部的方法
   const scrollToBottom = (smooth = true, force = false) => {
     nextTick(() => {
@@ -351,15 +355,21 @@ export const useChatStore = defineStore('chat', () => {
     }
   }
 
-  // 加载聊天历史
+  // 如果是 Qwen (ID=0)，加载历史时传入 conversationId
+  const historyConversationId = (characterId: number): string | undefined => {
+    if (characterId === 0 && currentQwenConversationId.value) {
+      return currentQwenConversationId.value
+    }
+    return undefined
+  }
+
+  // 加载聊天历史（最新一页，更早的消息由 loadOlderMessages 按需加载）
   const loadMessages = async (characterId: number) => {
     try {
       console.log('[ChatStore] 开始加载聊天历史:', characterId)
 
-      // 如果是 Qwen (ID=0)，传入 conversationId
-      let conversationId: string | undefined = undefined
-      if (characterId === 0 && currentQwenConversationId.value) {
-        conversationId = currentQwenConversationId.value
+      const conversationId = historyConversationId(characterId)
+      if (conversationId) {
         console.log('[ChatStore] 加载 Qwen 会话历史:', conversationId)
       }
 
@@ -370,6 +380,7 @@ export const useChatStore = defineStore('chat', () => {
 
       // 添加历史消息
       messageList.value.push(...historyResponse.messages)
+      historyCursors.value[characterId] = historyResponse.hasMore ? historyResponse.nextCursor : undefined
 
       console.log('[ChatStore] 聊天历史加载完成:', {
         characterId,
@@ -386,6 +397,38 @@ export const useChatStore = defineStore('chat', () => {
     }
   }
 
+  // 加载更早的一页聊天历史，插入到当前角色消息之前；没有更早的消息时返回 false
+  const loadOlderMessages = async (characterId: number): Promise<boolean> => {
+    const cursor = historyCursors.value[characterId]
+    if (cursor === undefined || loadingOlderMessages.value) {
+      return false
+    }
+    loadingOlderMessages.value = true
+    try {
+      const historyResponse = await getChatHistory(characterId, historyConversationId(characterId), cursor)
+      const existingIds = new Set(messageList.value.filter(m => m.characterId === characterId).map(m => m.id))
+      const olderMessages = historyResponse.messages.filter(m => !existingIds.has(m.id))
+
+      const firstIndex = messageList.value.findIndex(m => m.characterId === characterId)
+      messageList.value.splice(firstIndex >= 0 ? firstIndex : messageList.value.length, 0, ...olderMessages)
+      historyCursors.value[characterId] = historyResponse.hasMore ? historyResponse.nextCursor : undefined
+
+      console.log('[ChatStore] 加载更早的聊天历史:', {
+        characterId,
+        messageCount: olderMessages.length,
+        hasMore: historyResponse.hasMore
+      })
+      return olderMessages.length > 0
+    } catch (error) {
+      console.error('[ChatStore] 加载更早的聊天历史失败:', error)
+      return false
+    } finally {
+      loadingOlderMessages.value = false
+    }
+  }
+
+  const hasOlderMessages = (characterId: number) => historyCursors.value[characterId] !== undefined
+
   // 清空当前角色的聊天记录
   const clearCurrentCharacterMessages = async (characterId: number) => {
     try {
@@ -396,6 +439,7 @@ export const useChatStore = defineStore('chat', () => {
 
       // 清空前端本地记录
       messageList.value = messageList.value.filter(m => m.characterId !== characterId)
+      historyCursors.value[characterId] = undefined
 
       console.log('[ChatStore] 当前角色聊天记录清空完成')
 
@@ -415,6 +459,7 @@ export const useChatStore = defineStore('chat', () => {
 
       // 清空前端本地记录
       messageList.value = []
+      historyCursors.value = {}
 
       console.log('[ChatStore] 所有聊天记录清空完成')
 
@@ -557,6 +602,9 @@ export const useChatStore = defineStore('chat', () => {
     clearPendingMessage,
     loadCharacters,
     loadMessages,
+    loadOlderMessages,
+    hasOlderMessages,
+    loadingOlderMessages,
     clearCurrentCharacterMessages,
     clearAllMessages,
     toggleRag,          // RAG切换方法